@@ -62,5 +62,27 @@ public final class ModMineCacheKeys
     public static final String SUB_FILE_SOURCE_COUNT
         = "submissionFileSourceCounts";
 
+    /**
+     * Key to submission object id cache entry.
+     */
+    public static final String SUB_ID = "submissionId";
+
+    /**
+     * Key to submission repository entries cache entry.  The value holds one entry per line, with
+     * the database, accession and url separated by tabs.
+     */
+    public static final String SUB_REPOSITORY_ENTRIES = "submissionRepositoryEntries";
+
+    /**
+     * Key to the format version of the cache, changed whenever the keys or values change so that
+     * the webapp can tell whether a stored cache can be read.
+     */
+    public static final String CACHE_FORMAT_VERSION = "cacheFormatVersion";
+
+    /**
+     * The current cache format version.
+     */
+    public static final String CURRENT_CACHE_FORMAT_VERSION = "1";
+
 
 }
@@ -103,7 +103,7 @@ public class FlyBaseIdResolverFactory extends IdResolverFactory
                 LOG.info("Restoring id resolver from cache file: " + ID_RESOLVER_CACHED_FILE_NAME);
                 System.out. println("Restoring id resolver from cache file: "
                         + ID_RESOLVER_CACHED_FILE_NAME);
-                resolver.populateFromFile(f);
+                populateFromFile(f);
 
                 // if file doesn't contain classes, revisit db
                 Set<String> existedClsSet = resolver.getClassNames();
@@ -56,6 +56,10 @@ public class IdResolver
     protected Map<MultiKey, Map<String, Set<String>>> orgIdMainMaps = new MultiKeyMap();
     @SuppressWarnings("unchecked")
     protected Map<MultiKey, Map<String, Set<String>>> orgIdSynMaps = new MultiKeyMap();
+    // taxon id and class name combinations that are read from a mapped snapshot rather than
+    // held in the maps above
+    protected Map<MultiKey, IdResolverSnapshot.Section> snapshotSections =
+        new LinkedHashMap<MultiKey, IdResolverSnapshot.Section>();
 
     /**
      * Construct and empty IdResolver
@@ -74,7 +78,8 @@ public class IdResolver
     // check that the given taxon id has some data for it
     // if an exception thrown, there must be something wrong with resolver factory.
     protected void checkTaxonId(String taxonId, String clsName) {
-        if (!orgIdMaps.containsKey(new MultiKey(taxonId, clsName))) {
+        MultiKey key = new MultiKey(taxonId, clsName);
+        if (!orgIdMaps.containsKey(key) && !snapshotSections.containsKey(key)) {
             throw new IllegalArgumentException(clsName + " IdResolver has "
                                                + "no data for taxonId: "
                                                + taxonId + ".");
@@ -90,6 +95,10 @@ public class IdResolver
      */
     public boolean isPrimaryIdentifier(String taxonId, String clsName, String id) {
         checkTaxonId(taxonId, clsName);
+        IdResolverSnapshot.Section section = snapshotSections.get(new MultiKey(taxonId, clsName));
+        if (section != null) {
+            return section.isPrimaryIdentifier(id);
+        }
         return orgIdMaps.get(new MultiKey(taxonId, clsName)).containsKey(id);
     }
 
@@ -118,6 +127,14 @@ public class IdResolver
         if (isPrimaryIdentifier(taxonId, clsName, id)) {
             return Collections.singleton(id);
         }
+        IdResolverSnapshot.Section section = snapshotSections.get(new MultiKey(taxonId, clsName));
+        if (section != null) {
+            Set<String> primaryIds = section.get(IdResolverSnapshot.MAIN, id);
+            if (primaryIds == null) {
+                primaryIds = section.get(IdResolverSnapshot.SYNONYMS, id);
+            }
+            return (primaryIds == null) ? Collections.<String>emptySet() : primaryIds;
+        }
         if (orgMainMaps.containsKey(new MultiKey(taxonId, clsName))
             && orgMainMaps.get(new MultiKey(taxonId, clsName)).containsKey(id)) {
             return orgMainMaps.get(new MultiKey(taxonId, clsName)).get(id);
@@ -189,6 +206,10 @@ public class IdResolver
         if (!isPrimaryIdentifier(taxonId, clsName, primaryIdentifier)) {
             return null;
         }
+        IdResolverSnapshot.Section section = snapshotSections.get(new MultiKey(taxonId, clsName));
+        if (section != null) {
+            return section.get(IdResolverSnapshot.IDS, primaryIdentifier);
+        }
         return orgIdMaps.get(new MultiKey(taxonId, clsName)).get(primaryIdentifier);
     }
 
@@ -242,7 +263,7 @@ public class IdResolver
      */
     public boolean hasTaxons(Set<String> taxonIds) {
         Set<String> taxonIdSet = new HashSet<String>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             taxonIdSet.add((String) key.getKey(0));
         }
         return taxonIdSet.containsAll(taxonIds);
@@ -254,7 +275,7 @@ public class IdResolver
      */
     public Set<String> getTaxons() {
         Set<String> taxonIdSet = new LinkedHashSet<String>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             taxonIdSet.add((String) key.getKey(0));
         }
         return taxonIdSet;
@@ -267,7 +288,7 @@ public class IdResolver
      */
     public boolean hasClassName(String clsName) {
         Set<String> clsNameSet = new HashSet<String>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             clsNameSet.add((String) key.getKey(1));
         }
         return clsNameSet.contains(clsName);
@@ -279,7 +300,7 @@ public class IdResolver
      */
     public Set<String> getClassNames() {
         Set<String> clsNameSet = new HashSet<String>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             clsNameSet.add((String) key.getKey(1));
         }
         return clsNameSet;
@@ -291,7 +312,7 @@ public class IdResolver
      * @param clsName class name as string
      */
     public boolean hasTaxonAndClassName(String taxonId, String clsName) {
-        return orgIdMaps.keySet().contains(new MultiKey(taxonId, clsName));
+        return getKeys().contains(new MultiKey(taxonId, clsName));
     }
 
     /**
@@ -334,7 +355,7 @@ public class IdResolver
             }
         }
 
-        return orgIdMaps.keySet().containsAll(keySet);
+        return getKeys().containsAll(keySet);
     }
 
     /**
@@ -343,7 +364,7 @@ public class IdResolver
      */
     public Map<String, Set<String>> getTaxonsAndClassNames() {
         Map<String, Set<String>> taxonIdAndClsNameMap = new HashMap<String, Set<String>>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             String taxonId = (String) key.getKey(0);
             String clsName = (String) key.getKey(1);
             if (taxonIdAndClsNameMap.get(taxonId) == null) {
@@ -359,6 +380,61 @@ public class IdResolver
         return taxonIdAndClsNameMap;
     }
 
+    // the taxon id and class name combinations held in maps or in snapshot sections
+    private Set<MultiKey> getKeys() {
+        if (snapshotSections.isEmpty()) {
+            return orgIdMaps.keySet();
+        }
+        Set<MultiKey> keys = new LinkedHashSet<MultiKey>(orgIdMaps.keySet());
+        keys.addAll(snapshotSections.keySet());
+        return keys;
+    }
+
+    /**
+     * Add the contents of a snapshot to the IdResolver, as populateFromFile() would add the file
+     * it was compiled from.  A taxon id and class name combination that this IdResolver doesn't
+     * hold yet is read from the snapshot in place.  The entries of a combination that it already
+     * holds are merged with the snapshot's, which copies them into this IdResolver.
+     * @param snapshot a snapshot
+     */
+    public void addSnapshot(IdResolverSnapshot snapshot) {
+        for (Map.Entry<MultiKey, IdResolverSnapshot.Section> entry
+                : snapshot.getSections().entrySet()) {
+            MultiKey key = entry.getKey();
+            IdResolverSnapshot.Section section = entry.getValue();
+            if (snapshotSections.get(key) == section) {
+                // already reading this section
+                continue;
+            }
+            if (orgIdMaps.containsKey(key) || snapshotSections.containsKey(key)) {
+                addSection((String) key.getKey(0), (String) key.getKey(1), section);
+            } else {
+                snapshotSections.put(key, section);
+            }
+        }
+    }
+
+    // copy a snapshot section into the maps so that entries can be added to it
+    private void copySnapshotSection(String taxonId, String clsName) {
+        IdResolverSnapshot.Section section =
+            snapshotSections.remove(new MultiKey(taxonId, clsName));
+        if (section != null) {
+            addSection(taxonId, clsName, section);
+        }
+    }
+
+    // add the entries of a snapshot section to the maps
+    private void addSection(String taxonId, String clsName, IdResolverSnapshot.Section section) {
+        for (String primaryId : section.getKeys(IdResolverSnapshot.ID_MAIN)) {
+            addEntry(taxonId, clsName, primaryId,
+                    section.get(IdResolverSnapshot.ID_MAIN, primaryId), Boolean.TRUE);
+        }
+        for (String primaryId : section.getKeys(IdResolverSnapshot.ID_SYNONYMS)) {
+            addEntry(taxonId, clsName, primaryId,
+                    section.get(IdResolverSnapshot.ID_SYNONYMS, primaryId), Boolean.FALSE);
+        }
+    }
+
     /**
      * Add alternative main identifiers for a primary identifier to the IdResolver.
      * @param taxonId the organism of the identifier
@@ -437,6 +513,9 @@ public class IdResolver
     */
     protected void addEntry(String taxonId, String clsName, String primaryIdentifier,
             Collection<String> ids, Boolean mainId) {
+        if (!snapshotSections.isEmpty()) {
+            copySnapshotSection(taxonId, clsName);
+        }
         Map<String, Set<String>> idMap = orgIdMaps.get(new MultiKey(taxonId, clsName));
         if (idMap == null) {
             idMap = new LinkedHashMap<String, Set<String>>();
@@ -483,7 +562,8 @@ public class IdResolver
     }
 
     /**
-     * Write IdResolver contents to a flat file
+     * Write IdResolver contents to a flat file.  Contents read from a snapshot are not written,
+     * as they are already in the file the snapshot was compiled from.
      * @param f the file to write to
      * @throws IOException if fail to write
      */
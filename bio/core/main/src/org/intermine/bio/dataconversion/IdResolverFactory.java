@@ -16,6 +16,7 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.apache.log4j.Logger;
 import org.intermine.sql.Database;
 
 /**
@@ -26,6 +27,11 @@ import org.intermine.sql.Database;
  */
 public abstract class IdResolverFactory
 {
+    private static final Logger SNAPSHOT_LOG = Logger.getLogger(IdResolverFactory.class);
+
+    // a snapshot of a cache file is kept next to it, with this suffix added to its name
+    protected static final String SNAPSHOT_SUFFIX = ".snapshot";
+
     protected static IdResolver resolver = null;
 
     protected boolean caughtError = false;
@@ -77,7 +83,7 @@ public abstract class IdResolverFactory
     protected boolean restoreFromFile(File f)
         throws IOException {
         if (f.exists()) {
-            resolver.populateFromFile(f);
+            populateFromFile(f);
             return true;
         } else {
             return false;
@@ -95,13 +101,42 @@ public abstract class IdResolverFactory
         throws IOException {
         File f = new File(ID_RESOLVER_CACHED_FILE_NAME);
         if (f.exists()) {
-            resolver.populateFromFile(f);
+            populateFromFile(f);
             return true;
         } else {
             return false;
         }
     }
 
+    /**
+     * Add the contents of a cache file to the IdResolver.  The file is read through a snapshot
+     * that is mapped into memory rather than parsed onto the heap, compiling the snapshot first
+     * if it is missing or was compiled from an older version of the file.  Falls back to
+     * reading the file directly if the snapshot can't be used.
+     *
+     * @param f the cache file
+     * @throws IOException if problem reading from file
+     */
+    protected void populateFromFile(File f) throws IOException {
+        File snapshotFile = new File(f.getPath() + SNAPSHOT_SUFFIX);
+        try {
+            IdResolverSnapshot snapshot = null;
+            if (snapshotFile.exists()) {
+                snapshot = IdResolverSnapshot.open(snapshotFile);
+            }
+            if (snapshot == null || !snapshot.isCompiledFrom(f)) {
+                SNAPSHOT_LOG.info("Compiling id resolver snapshot: " + snapshotFile);
+                IdResolverSnapshot.compile(f, snapshotFile);
+                snapshot = IdResolverSnapshot.open(snapshotFile);
+            }
+            resolver.addSnapshot(snapshot);
+        } catch (IOException e) {
+            SNAPSHOT_LOG.warn("Failed to use id resolver snapshot " + snapshotFile
+                    + ", reading cache file instead", e);
+            resolver.populateFromFile(f);
+        }
+    }
+
     /**
      * Read IdResolver contents from a database.
      *
@@ -0,0 +1,487 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.collections.keyvalue.MultiKey;
+import org.apache.log4j.Logger;
+
+/**
+ * A read-only, memory-mapped copy of the contents of an IdResolver.  A snapshot is compiled once
+ * from the text cache file written by IdResolver.writeToFile(), and can then be mapped by every
+ * converter and source in a build without parsing the text file or building maps on the heap.
+ *
+ * The file holds a section for each taxon id and class name.  A section has a table of all the
+ * distinct identifiers in it, sorted by their UTF-8 bytes, and five tables that correspond to the
+ * maps in IdResolver.  Each of those maps an identifier to a list of identifiers, using the
+ * position of the identifiers in the string table, so a lookup is two binary searches.
+ *
+ * The header records the path, length and modification time of the text file that the snapshot
+ * was compiled from, so that a snapshot is not used once that file has changed.
+ */
+public final class IdResolverSnapshot
+{
+    private static final Logger LOG = Logger.getLogger(IdResolverSnapshot.class);
+
+    private static final int MAGIC = 0x494d4952;
+    private static final int VERSION = 1;
+    // tables in a section, in file order
+    static final int IDS = 0;
+    static final int MAIN = 1;
+    static final int SYNONYMS = 2;
+    static final int ID_MAIN = 3;
+    static final int ID_SYNONYMS = 4;
+    private static final int TABLE_COUNT = 5;
+
+    // snapshots that are already open, by canonical path, modification time and length
+    private static final Map<MultiKey, IdResolverSnapshot> OPEN =
+        new HashMap<MultiKey, IdResolverSnapshot>();
+
+    private final File file;
+    private final String source;
+    private final long sourceLength;
+    private final long sourceModified;
+    private final Map<MultiKey, Section> sections = new LinkedHashMap<MultiKey, Section>();
+
+    private IdResolverSnapshot(File file) throws IOException {
+        this.file = file;
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        List<long[]> positions = new ArrayList<long[]>();
+        List<MultiKey> keys = new ArrayList<MultiKey>();
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an id resolver snapshot: " + file);
+            }
+            source = in.readUTF();
+            sourceLength = in.readLong();
+            sourceModified = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                keys.add(new MultiKey(in.readUTF(), in.readUTF()));
+                positions.add(new long[] {in.readLong(), in.readLong()});
+            }
+        } finally {
+            in.close();
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            for (int i = 0; i < keys.size(); i++) {
+                long[] position = positions.get(i);
+                // Each section is mapped separately, so only a section must be under 2GB
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position[0],
+                        position[1]);
+                sections.put(keys.get(i), new Section(buffer));
+            }
+        } finally {
+            // the mappings stay valid after the file is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Open a snapshot, or return the one already open in this JVM if the file hasn't changed.
+     * @param file the snapshot file
+     * @return the snapshot
+     * @throws IOException if the file can't be read or isn't a snapshot
+     */
+    public static IdResolverSnapshot open(File file) throws IOException {
+        String path = file.getCanonicalPath();
+        MultiKey key = new MultiKey(path, new Long(file.lastModified()),
+                new Long(file.length()));
+        synchronized (OPEN) {
+            IdResolverSnapshot snapshot = OPEN.get(key);
+            if (snapshot == null) {
+                snapshot = new IdResolverSnapshot(file);
+                // drop any older version of the same file
+                forget(path);
+                OPEN.put(key, snapshot);
+            }
+            return snapshot;
+        }
+    }
+
+    // stop returning the open snapshots of a file, by canonical path
+    private static void forget(String path) {
+        synchronized (OPEN) {
+            Iterator<MultiKey> iter = OPEN.keySet().iterator();
+            while (iter.hasNext()) {
+                if (path.equals(iter.next().getKey(0))) {
+                    iter.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Return true if this snapshot was compiled from the current contents of a text cache file.
+     * @param textFile a file written by IdResolver.writeToFile()
+     * @return true if the snapshot is up to date
+     */
+    public boolean isCompiledFrom(File textFile) {
+        return textFile.getAbsolutePath().equals(source) && textFile.length() == sourceLength
+            && textFile.lastModified() == sourceModified;
+    }
+
+    /**
+     * @return the snapshot file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the sections of this snapshot, by taxon id and class name
+     */
+    public Map<MultiKey, Section> getSections() {
+        return Collections.unmodifiableMap(sections);
+    }
+
+    /**
+     * Compile a text cache file into a snapshot.  The snapshot is written to a temporary file and
+     * then renamed, so a snapshot being read by another build is never seen half written.
+     * @param textFile a file written by IdResolver.writeToFile()
+     * @param snapshotFile the snapshot file to write
+     * @throws IOException if a file can't be read or written
+     */
+    public static void compile(File textFile, File snapshotFile) throws IOException {
+        LOG.info("Compiling id resolver snapshot " + snapshotFile + " from " + textFile);
+        IdResolver resolver = new IdResolver();
+        resolver.populateFromFile(textFile);
+        File dir = snapshotFile.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        File tmp = File.createTempFile(snapshotFile.getName(), ".tmp", dir);
+        try {
+            write(resolver, textFile, tmp);
+            if (!tmp.renameTo(snapshotFile)) {
+                snapshotFile.delete();
+                if (!tmp.renameTo(snapshotFile)) {
+                    throw new IOException("Failed to rename " + tmp + " to " + snapshotFile);
+                }
+            }
+        } finally {
+            tmp.delete();
+            // the file may have been replaced within the resolution of its modification time
+            forget(snapshotFile.getCanonicalPath());
+        }
+    }
+
+    private static void write(IdResolver resolver, File textFile, File out) throws IOException {
+        List<MultiKey> keys = new ArrayList<MultiKey>(resolver.orgIdMaps.keySet());
+        List<byte[]> sectionData = new ArrayList<byte[]>();
+        for (MultiKey key : keys) {
+            sectionData.add(writeSection(resolver, key));
+        }
+        // the header has a fixed size, so write it once to find out where the sections start
+        long headerSize = writeHeader(textFile, keys, sectionData, 0).length;
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(out)));
+        try {
+            dos.write(writeHeader(textFile, keys, sectionData, headerSize));
+            for (byte[] data : sectionData) {
+                dos.write(data);
+            }
+        } finally {
+            dos.close();
+        }
+    }
+
+    private static byte[] writeHeader(File textFile, List<MultiKey> keys,
+            List<byte[]> sectionData, long offset) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bytes);
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeUTF(textFile.getAbsolutePath());
+        dos.writeLong(textFile.length());
+        dos.writeLong(textFile.lastModified());
+        dos.writeInt(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            dos.writeUTF((String) keys.get(i).getKey(0));
+            dos.writeUTF((String) keys.get(i).getKey(1));
+            dos.writeLong(offset);
+            dos.writeLong(sectionData.get(i).length);
+            offset += sectionData.get(i).length;
+        }
+        dos.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] writeSection(IdResolver resolver, MultiKey key) throws IOException {
+        List<Map<String, Set<String>>> maps = new ArrayList<Map<String, Set<String>>>();
+        maps.add(resolver.orgIdMaps.get(key));
+        maps.add(resolver.orgMainMaps.get(key));
+        maps.add(resolver.orgSynMaps.get(key));
+        maps.add(resolver.orgIdMainMaps.get(key));
+        maps.add(resolver.orgIdSynMaps.get(key));
+
+        // the string table, sorted by UTF-8 bytes so that it can be searched without decoding
+        Map<String, byte[]> encoded = new HashMap<String, byte[]>();
+        for (Map<String, Set<String>> map : maps) {
+            if (map != null) {
+                for (Map.Entry<String, Set<String>> entry : map.entrySet()) {
+                    encode(entry.getKey(), encoded);
+                    for (String value : entry.getValue()) {
+                        encode(value, encoded);
+                    }
+                }
+            }
+        }
+        byte[][] strings = encoded.values().toArray(new byte[encoded.size()][]);
+        Arrays.sort(strings, new Comparator<byte[]>() {
+            public int compare(byte[] a, byte[] b) {
+                return compareBytes(a, b);
+            }
+        });
+        Map<String, Integer> indexes = new HashMap<String, Integer>();
+        for (int i = 0; i < strings.length; i++) {
+            indexes.put(new String(strings[i], "UTF-8"), new Integer(i));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bytes);
+        dos.writeInt(strings.length);
+        int offset = 0;
+        for (byte[] s : strings) {
+            dos.writeInt(offset);
+            offset += s.length;
+        }
+        dos.writeInt(offset);
+        for (Map<String, Set<String>> map : maps) {
+            writeTable(map, indexes, dos);
+        }
+        for (byte[] s : strings) {
+            dos.write(s);
+        }
+        dos.close();
+        return bytes.toByteArray();
+    }
+
+    private static void encode(String s, Map<String, byte[]> encoded) throws IOException {
+        if (!encoded.containsKey(s)) {
+            encoded.put(s, s.getBytes("UTF-8"));
+        }
+    }
+
+    private static void writeTable(Map<String, Set<String>> map, Map<String, Integer> indexes,
+            DataOutputStream dos) throws IOException {
+        if (map == null) {
+            map = Collections.emptyMap();
+        }
+        // keys in string table order, values in their original order
+        int[] keys = new int[map.size()];
+        int i = 0;
+        for (String key : map.keySet()) {
+            keys[i++] = indexes.get(key).intValue();
+        }
+        Arrays.sort(keys);
+        Map<Integer, Set<String>> byIndex = new HashMap<Integer, Set<String>>();
+        for (Map.Entry<String, Set<String>> entry : map.entrySet()) {
+            byIndex.put(indexes.get(entry.getKey()), entry.getValue());
+        }
+        dos.writeInt(keys.length);
+        for (int key : keys) {
+            dos.writeInt(key);
+        }
+        int start = 0;
+        for (int key : keys) {
+            dos.writeInt(start);
+            start += byIndex.get(new Integer(key)).size();
+        }
+        dos.writeInt(start);
+        for (int key : keys) {
+            for (String value : byIndex.get(new Integer(key))) {
+                dos.writeInt(indexes.get(value).intValue());
+            }
+        }
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int diff = (a[i] & 0xff) - (b[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * The identifiers for one taxon id and class name.  All reads use absolute positions in the
+     * mapped buffer, so a Section can be used by several threads at once.
+     */
+    public static final class Section
+    {
+        private final ByteBuffer buffer;
+        private final int stringCount;
+        private final int bytesStart;
+        private final int[] tableStarts = new int[TABLE_COUNT];
+
+        private Section(ByteBuffer buffer) {
+            this.buffer = buffer;
+            stringCount = buffer.getInt(0);
+            int position = 4 + 4 * (stringCount + 1);
+            for (int i = 0; i < TABLE_COUNT; i++) {
+                tableStarts[i] = position;
+                int keyCount = buffer.getInt(position);
+                int valueCount = buffer.getInt(position + 4 + 4 * keyCount + 4 * keyCount);
+                position += 4 + 4 * keyCount + 4 * (keyCount + 1) + 4 * valueCount;
+            }
+            bytesStart = position;
+        }
+
+        /**
+         * @param id an identifier
+         * @return true if the identifier is a primary identifier in this section
+         */
+        public boolean isPrimaryIdentifier(String id) {
+            return find(IDS, id) >= 0;
+        }
+
+        /**
+         * Look up an identifier in one of the tables of this section.
+         * @param table one of the table numbers, which correspond to the maps in IdResolver
+         * @param id an identifier
+         * @return the identifiers it maps to, or null if it isn't in the table
+         */
+        public Set<String> get(int table, String id) {
+            int row = find(table, id);
+            if (row < 0) {
+                return null;
+            }
+            int start = tableStarts[table];
+            int keyCount = buffer.getInt(start);
+            int starts = start + 4 + 4 * keyCount;
+            int values = starts + 4 * (keyCount + 1);
+            int from = buffer.getInt(starts + 4 * row);
+            int to = buffer.getInt(starts + 4 * (row + 1));
+            Set<String> retval = new LinkedHashSet<String>();
+            for (int i = from; i < to; i++) {
+                retval.add(getString(buffer.getInt(values + 4 * i)));
+            }
+            return retval;
+        }
+
+        /**
+         * Return the keys of one of the tables of this section.
+         * @param table a table number
+         * @return the keys, in string table order
+         */
+        public List<String> getKeys(int table) {
+            int start = tableStarts[table];
+            int keyCount = buffer.getInt(start);
+            List<String> retval = new ArrayList<String>(keyCount);
+            for (int i = 0; i < keyCount; i++) {
+                retval.add(getString(buffer.getInt(start + 4 + 4 * i)));
+            }
+            return retval;
+        }
+
+        // the row of an identifier in a table, or -1
+        private int find(int table, String id) {
+            int index = findString(id);
+            if (index < 0) {
+                return -1;
+            }
+            int start = tableStarts[table];
+            int low = 0;
+            int high = buffer.getInt(start) - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int key = buffer.getInt(start + 4 + 4 * mid);
+                if (key < index) {
+                    low = mid + 1;
+                } else if (key > index) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        // the position of an identifier in the string table, or -1
+        private int findString(String id) {
+            byte[] bytes;
+            try {
+                bytes = id.getBytes("UTF-8");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            int low = 0;
+            int high = stringCount - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compareString(mid, bytes);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        private int compareString(int index, byte[] bytes) {
+            int from = bytesStart + buffer.getInt(4 + 4 * index);
+            int length = buffer.getInt(4 + 4 * (index + 1)) - buffer.getInt(4 + 4 * index);
+            int common = Math.min(length, bytes.length);
+            for (int i = 0; i < common; i++) {
+                int diff = (buffer.get(from + i) & 0xff) - (bytes[i] & 0xff);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return length - bytes.length;
+        }
+
+        private String getString(int index) {
+            int from = bytesStart + buffer.getInt(4 + 4 * index);
+            int length = buffer.getInt(4 + 4 * (index + 1)) - buffer.getInt(4 + 4 * index);
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = buffer.get(from + i);
+            }
+            try {
+                return new String(bytes, "UTF-8");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
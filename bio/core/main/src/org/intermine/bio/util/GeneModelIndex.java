@@ -0,0 +1,97 @@
+package org.intermine.bio.util;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The ids of the objects in the gene models of all genes on one chromosome, held in primitive
+ * arrays.  For each gene this holds the ids of the gene, its transcripts and their exons,
+ * introns, UTRs and CDSs, so that the objects that make up a gene model can be found without
+ * fetching them.
+ */
+public final class GeneModelIndex
+{
+    private final int[] geneIds;
+    private final int[] starts;
+    private final int[] ids;
+
+    private GeneModelIndex(int[] geneIds, int[] starts, int[] ids) {
+        this.geneIds = geneIds;
+        this.starts = starts;
+        this.ids = ids;
+    }
+
+    /**
+     * Create an index from a map from gene id to the ids of the objects in its gene models.
+     * @param geneModelIds a map from gene id to the ids of the gene model objects
+     * @return a new GeneModelIndex
+     */
+    public static GeneModelIndex create(Map<Integer, Set<Integer>> geneModelIds) {
+        Map<Integer, Set<Integer>> sorted = new TreeMap<Integer, Set<Integer>>(geneModelIds);
+        int total = 0;
+        for (Set<Integer> geneIds : sorted.values()) {
+            total += geneIds.size();
+        }
+        int[] geneIds = new int[sorted.size()];
+        int[] starts = new int[sorted.size() + 1];
+        int[] ids = new int[total];
+        int geneNo = 0;
+        int idNo = 0;
+        for (Map.Entry<Integer, Set<Integer>> entry : sorted.entrySet()) {
+            geneIds[geneNo] = entry.getKey().intValue();
+            starts[geneNo] = idNo;
+            for (Integer id : entry.getValue()) {
+                ids[idNo++] = id.intValue();
+            }
+            geneNo++;
+        }
+        starts[geneNo] = idNo;
+        return new GeneModelIndex(geneIds, starts, ids);
+    }
+
+    /**
+     * Return the ids of all objects in the gene models of a gene, including the gene itself.
+     * @param geneId the id of the gene
+     * @return a Set of ids, or an empty set if the gene has no gene models on this chromosome
+     */
+    public Set<Integer> getIds(Integer geneId) {
+        int geneNo = Arrays.binarySearch(geneIds, geneId.intValue());
+        if (geneNo < 0) {
+            return new HashSet<Integer>();
+        }
+        Set<Integer> retval = new HashSet<Integer>();
+        for (int i = starts[geneNo]; i < starts[geneNo + 1]; i++) {
+            retval.add(new Integer(ids[i]));
+        }
+        return retval;
+    }
+
+    /**
+     * Return the number of genes in this index.
+     * @return the number of genes with gene models
+     */
+    public int getGeneCount() {
+        return geneIds.length;
+    }
+
+    /**
+     * Return the total number of ids held in this index.
+     * @return the number of ids
+     */
+    public int getIdCount() {
+        return ids.length;
+    }
+}
@@ -0,0 +1,356 @@
+package org.intermine.bio.util;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An in-memory index of the interactions between genes, so that the genes interacting with a gene
+ * can be found without querying the database.  Interactions are held in compressed sparse row
+ * form: a sorted array of the ids of genes that interact with others, an array of offsets into
+ * the arrays of interacting gene ids and interaction type codes, and the names of the types.
+ * Each interaction goes from gene1 to gene2, as Interaction does.
+ *
+ * Interactions are added with add(), then index() must be called before searching.  An index can
+ * be written with toByteArray() and read back with read(), so that it can be built once when the
+ * database is built and loaded by the web application.
+ */
+public class InteractionIndex
+{
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_TYPES = 256;
+
+    private int[] sources;
+    private int[] targets;
+    private byte[] codes;
+    private int size = 0;
+    private List<String> typeNames = new ArrayList<String>();
+
+    private int[] geneIds = new int[0];
+    private int[] offsets = new int[] {0};
+    private boolean indexed = false;
+
+    /**
+     * Create an empty index.
+     */
+    public InteractionIndex() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Create an empty index with room for the given number of interactions.
+     * @param capacity the expected number of interactions
+     */
+    public InteractionIndex(int capacity) {
+        capacity = Math.max(capacity, 1);
+        sources = new int[capacity];
+        targets = new int[capacity];
+        codes = new byte[capacity];
+    }
+
+    /**
+     * Add an interaction.  The index must be (re)built with index() before it is searched.
+     * @param gene1 the id of the first gene of the interaction
+     * @param gene2 the id of the second gene of the interaction
+     * @param type the type of the interaction, eg. physical or genetic, may be null
+     */
+    public void add(int gene1, int gene2, String type) {
+        int code = typeNames.indexOf(type);
+        if (code < 0) {
+            if (typeNames.size() == MAX_TYPES) {
+                throw new IllegalArgumentException("More than " + MAX_TYPES
+                        + " interaction types, can't add " + type);
+            }
+            code = typeNames.size();
+            typeNames.add(type);
+        }
+        if (size == sources.length) {
+            int capacity = Math.max(size * 2, 1);
+            sources = Arrays.copyOf(sources, capacity);
+            targets = Arrays.copyOf(targets, capacity);
+            codes = Arrays.copyOf(codes, capacity);
+        }
+        sources[size] = gene1;
+        targets[size] = gene2;
+        codes[size] = (byte) code;
+        size++;
+        indexed = false;
+    }
+
+    /**
+     * @return the number of distinct interactions in the index, counting each type separately
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of genes that are gene1 of at least one interaction
+     */
+    public int getGeneCount() {
+        return geneIds.length;
+    }
+
+    /**
+     * Sort the interactions, remove duplicates and build the index.
+     */
+    public void index() {
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = ((long) sources[i] << 32) | ((targets[i] & 0xffffffffL));
+        }
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = new Integer(i);
+        }
+        final long[] sortKeys = keys;
+        final byte[] sortCodes = codes;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                long ka = sortKeys[a.intValue()];
+                long kb = sortKeys[b.intValue()];
+                if (ka != kb) {
+                    return ka < kb ? -1 : 1;
+                }
+                return (sortCodes[a.intValue()] & 0xff) - (sortCodes[b.intValue()] & 0xff);
+            }
+        });
+        int[] newSources = new int[size];
+        int[] newTargets = new int[size];
+        byte[] newCodes = new byte[size];
+        int count = 0;
+        int genes = 0;
+        for (int i = 0; i < size; i++) {
+            int o = order[i].intValue();
+            if (count > 0 && newSources[count - 1] == sources[o]
+                    && newTargets[count - 1] == targets[o] && newCodes[count - 1] == codes[o]) {
+                continue;
+            }
+            if (count == 0 || newSources[count - 1] != sources[o]) {
+                genes++;
+            }
+            newSources[count] = sources[o];
+            newTargets[count] = targets[o];
+            newCodes[count] = codes[o];
+            count++;
+        }
+        geneIds = new int[genes];
+        offsets = new int[genes + 1];
+        int gene = -1;
+        for (int i = 0; i < count; i++) {
+            if (gene < 0 || geneIds[gene] != newSources[i]) {
+                gene++;
+                geneIds[gene] = newSources[i];
+                offsets[gene] = i;
+            }
+        }
+        offsets[genes] = count;
+        sources = newSources;
+        targets = newTargets;
+        codes = newCodes;
+        size = count;
+        indexed = true;
+    }
+
+    private int findGene(int geneId) {
+        if (!indexed) {
+            throw new IllegalStateException("index() must be called before searching");
+        }
+        return Arrays.binarySearch(geneIds, geneId);
+    }
+
+    /**
+     * Find the genes that a gene interacts with, ie. the gene2 of each of its interactions.
+     * @param geneId the id of the gene
+     * @return the ids of the interacting genes, in order of id, or an empty array if the gene
+     * has no interactions
+     */
+    public int[] getInteractors(int geneId) {
+        int gene = findGene(geneId);
+        if (gene < 0) {
+            return new int[0];
+        }
+        int[] found = new int[offsets[gene + 1] - offsets[gene]];
+        int count = 0;
+        for (int i = offsets[gene]; i < offsets[gene + 1]; i++) {
+            // interactions of several types with the same gene are next to each other
+            if (count == 0 || found[count - 1] != targets[i]) {
+                found[count++] = targets[i];
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Find the types of the interactions from one gene to another.
+     * @param gene1 the id of the first gene
+     * @param gene2 the id of the second gene
+     * @return the types of interaction, an empty list if there are none
+     */
+    public List<String> getInteractionTypes(int gene1, int gene2) {
+        List<String> types = new ArrayList<String>();
+        int gene = findGene(gene1);
+        if (gene >= 0) {
+            for (int i = offsets[gene]; i < offsets[gene + 1]; i++) {
+                if (targets[i] == gene2) {
+                    types.add(typeNames.get(codes[i] & 0xff));
+                }
+            }
+        }
+        return types;
+    }
+
+    /**
+     * Find the given genes and all the genes they interact with.
+     * @param genes the ids of the starting genes
+     * @return the starting genes followed by the genes they interact with
+     */
+    public Set<Integer> getInteractingGenes(Collection<Integer> genes) {
+        Set<Integer> retval = new LinkedHashSet<Integer>(genes);
+        for (Integer geneId : genes) {
+            for (int interactor : getInteractors(geneId.intValue())) {
+                retval.add(new Integer(interactor));
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Find which of a set of genes interact with another gene in the set.
+     * @param genes the ids of the genes in a network
+     * @return the genes of the set that have interactions within the set
+     */
+    public Set<Integer> getConnectedGenes(Set<Integer> genes) {
+        Set<Integer> retval = new HashSet<Integer>();
+        for (Integer geneId : genes) {
+            for (int interactor : getInteractors(geneId.intValue())) {
+                Integer target = new Integer(interactor);
+                if (genes.contains(target)) {
+                    retval.add(geneId);
+                    retval.add(target);
+                }
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Count the pairs of genes in a set that interact, counting interactions in both directions
+     * and of different types between the same pair of genes once.
+     * @param genes the ids of the genes in a network
+     * @return the number of edges the network would have
+     */
+    public int countInteractions(Set<Integer> genes) {
+        Set<Long> pairs = new HashSet<Long>();
+        for (Integer geneId : genes) {
+            int source = geneId.intValue();
+            for (int target : getInteractors(source)) {
+                if (genes.contains(new Integer(target))) {
+                    long low = Math.min(source, target);
+                    long high = Math.max(source, target);
+                    pairs.add(new Long((low << 32) | (high & 0xffffffffL)));
+                }
+            }
+        }
+        return pairs.size();
+    }
+
+    /**
+     * Write the index to a byte array, to be read with read().
+     * @return the serialised index
+     */
+    public byte[] toByteArray() {
+        if (!indexed) {
+            index();
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(typeNames.size());
+            for (String typeName : typeNames) {
+                out.writeBoolean(typeName != null);
+                if (typeName != null) {
+                    out.writeUTF(typeName);
+                }
+            }
+            out.writeInt(geneIds.length);
+            for (int i = 0; i < geneIds.length; i++) {
+                out.writeInt(geneIds[i]);
+                out.writeInt(offsets[i + 1] - offsets[i]);
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeInt(targets[i]);
+                out.writeByte(codes[i]);
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // can't happen with a ByteArrayOutputStream
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Read an index written by toByteArray().
+     * @param is the stream to read from
+     * @return a new InteractionIndex, ready to search
+     * @throws IOException if the stream can't be read or is not an index
+     */
+    public static InteractionIndex read(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unknown interaction index format: " + version);
+        }
+        InteractionIndex index = new InteractionIndex(1);
+        int typeCount = in.readInt();
+        for (int i = 0; i < typeCount; i++) {
+            index.typeNames.add(in.readBoolean() ? in.readUTF() : null);
+        }
+        int geneCount = in.readInt();
+        index.geneIds = new int[geneCount];
+        index.offsets = new int[geneCount + 1];
+        for (int i = 0; i < geneCount; i++) {
+            index.geneIds[i] = in.readInt();
+            index.offsets[i + 1] = index.offsets[i] + in.readInt();
+        }
+        index.size = index.offsets[geneCount];
+        index.sources = new int[Math.max(index.size, 1)];
+        index.targets = new int[Math.max(index.size, 1)];
+        index.codes = new byte[Math.max(index.size, 1)];
+        int gene = 0;
+        for (int i = 0; i < index.size; i++) {
+            while (index.offsets[gene + 1] <= i) {
+                gene++;
+            }
+            index.sources[i] = index.geneIds[gene];
+            index.targets[i] = in.readInt();
+            index.codes[i] = in.readByte();
+        }
+        index.indexed = true;
+        return index;
+    }
+}
@@ -0,0 +1,239 @@
+package org.intermine.bio.util;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+
+/**
+ * An in-memory index of intervals on one sequence (eg. the Locations on a Chromosome) that can
+ * find all the intervals overlapping a range.  Intervals are held in primitive arrays sorted by
+ * start, and the array is treated as an implicit binary tree in which each node also records the
+ * greatest end in its subtree, so that a search only visits subtrees that can contain overlaps.
+ * This is the layout used by cgranges/iitree; a search takes O(log n + k) for k results.
+ *
+ * Coordinates are closed, as for Location, so [10, 20] overlaps [20, 30].  Intervals are added
+ * with add(), then index() must be called before searching.  Each interval carries an int value,
+ * typically an object id or a row number in some other array.
+ */
+public class IntervalIndex
+{
+    private static final int INITIAL_CAPACITY = 1024;
+    // subtrees at or below this level are scanned rather than searched
+    private static final int SCAN_LEVEL = 3;
+
+    private int[] starts;
+    private int[] ends;
+    private int[] values;
+    private int[] maxEnds;
+    private int size = 0;
+    private int rootLevel = -1;
+    private boolean indexed = false;
+
+    /**
+     * Create an empty index.
+     */
+    public IntervalIndex() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Create an empty index with room for the given number of intervals.
+     * @param capacity the expected number of intervals
+     */
+    public IntervalIndex(int capacity) {
+        capacity = Math.max(capacity, 1);
+        starts = new int[capacity];
+        ends = new int[capacity];
+        values = new int[capacity];
+    }
+
+    /**
+     * Add an interval.  The index must be (re)built with index() before it is searched.
+     * @param start the start of the interval
+     * @param end the end of the interval, inclusive
+     * @param value a value to store with the interval
+     */
+    public void add(int start, int end, int value) {
+        if (end < start) {
+            throw new IllegalArgumentException("Interval end " + end + " is before start "
+                    + start);
+        }
+        if (size == starts.length) {
+            int capacity = size * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        values[size] = value;
+        size++;
+        indexed = false;
+    }
+
+    /**
+     * @return the number of intervals in the index
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Sort the intervals and build the index.  After this the intervals are in order of start
+     * and can be accessed by position with getStart(), getEnd() and getValue().
+     */
+    public void index() {
+        sort();
+        maxEnds = new int[size];
+        rootLevel = -1;
+        if (size > 0) {
+            int last = 0;
+            int lastIndex = 0;
+            // leaves: the greatest end is the node's own end
+            for (int i = 0; i < size; i += 2) {
+                lastIndex = i;
+                last = maxEnds[i] = ends[i];
+            }
+            int level = 1;
+            for (; (1L << level) <= size; level++) {
+                int half = 1 << (level - 1);
+                int first = (half << 1) - 1;
+                int step = half << 2;
+                for (int i = first; i < size; i += step) {
+                    int leftMax = maxEnds[i - half];
+                    int rightMax = (i + half < size) ? maxEnds[i + half] : last;
+                    maxEnds[i] = Math.max(ends[i], Math.max(leftMax, rightMax));
+                }
+                // the greatest end of the last, partial subtree at this level
+                lastIndex = (((lastIndex >> level) & 1) != 0) ? lastIndex - half
+                    : lastIndex + half;
+                if (lastIndex < size && maxEnds[lastIndex] > last) {
+                    last = maxEnds[lastIndex];
+                }
+            }
+            rootLevel = level - 1;
+        }
+        indexed = true;
+    }
+
+    /**
+     * Find the intervals overlapping a range.
+     * @param start the start of the range
+     * @param end the end of the range, inclusive
+     * @return the positions of the overlapping intervals, in order of start
+     */
+    public int[] findOverlapping(int start, int end) {
+        if (!indexed) {
+            throw new IllegalStateException("index() must be called before searching");
+        }
+        int[] found = new int[16];
+        int count = 0;
+        if (rootLevel < 0) {
+            return new int[0];
+        }
+        // a stack of (position, level, left child visited) entries for a depth first search
+        long[] stackPositions = new long[64];
+        int[] stackLevels = new int[64];
+        boolean[] stackVisited = new boolean[64];
+        int top = 0;
+        stackPositions[top] = (1L << rootLevel) - 1;
+        stackLevels[top] = rootLevel;
+        stackVisited[top++] = false;
+        while (top > 0) {
+            top--;
+            long x = stackPositions[top];
+            int level = stackLevels[top];
+            boolean visited = stackVisited[top];
+            if (level <= SCAN_LEVEL) {
+                long first = (x >> level) << level;
+                long last = Math.min(first + (1L << (level + 1)) - 1, size);
+                for (long i = first; i < last && starts[(int) i] <= end; i++) {
+                    if (ends[(int) i] >= start) {
+                        if (count == found.length) {
+                            found = Arrays.copyOf(found, count * 2);
+                        }
+                        found[count++] = (int) i;
+                    }
+                }
+            } else if (!visited) {
+                long left = x - (1L << (level - 1));
+                stackPositions[top] = x;
+                stackLevels[top] = level;
+                stackVisited[top++] = true;
+                // the left child may be beyond the end of the array, with children inside it
+                if (left >= size || maxEnds[(int) left] >= start) {
+                    stackPositions[top] = left;
+                    stackLevels[top] = level - 1;
+                    stackVisited[top++] = false;
+                }
+            } else if (x < size && starts[(int) x] <= end) {
+                if (ends[(int) x] >= start) {
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = (int) x;
+                }
+                stackPositions[top] = x + (1L << (level - 1));
+                stackLevels[top] = level - 1;
+                stackVisited[top++] = false;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * @param position the position of an interval, in order of start
+     * @return the start of the interval
+     */
+    public int getStart(int position) {
+        return starts[position];
+    }
+
+    /**
+     * @param position the position of an interval, in order of start
+     * @return the end of the interval
+     */
+    public int getEnd(int position) {
+        return ends[position];
+    }
+
+    /**
+     * @param position the position of an interval, in order of start
+     * @return the value stored with the interval
+     */
+    public int getValue(int position) {
+        return values[position];
+    }
+
+    /**
+     * Sort the three arrays by start, without boxing.
+     */
+    private void sort() {
+        // pack start and original position into a long so a primitive sort can be used
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = ((long) starts[i] << 32) | (i & 0xFFFFFFFFL);
+        }
+        Arrays.sort(keys);
+        int[] sortedStarts = new int[size];
+        int[] sortedEnds = new int[size];
+        int[] sortedValues = new int[size];
+        for (int i = 0; i < size; i++) {
+            int from = (int) keys[i];
+            sortedStarts[i] = starts[from];
+            sortedEnds[i] = ends[from];
+            sortedValues[i] = values[from];
+        }
+        starts = sortedStarts;
+        ends = sortedEnds;
+        values = sortedValues;
+    }
+}
@@ -0,0 +1,177 @@
+package org.intermine.bio.dataconversion;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.collections.keyvalue.MultiKey;
+
+/**
+ * Tests for IdResolverSnapshot.
+ */
+public class IdResolverSnapshotTest extends TestCase
+{
+    private File dir;
+    private File cacheFile;
+    private IdResolver heap;
+
+    public IdResolverSnapshotTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("idresolver-test", "");
+        dir.delete();
+        dir.mkdir();
+        cacheFile = new File(dir, "idresolver.cache");
+
+        IdResolver resolver = new IdResolver();
+        resolver.addMainIds("101", "gene", "Gene1", set("G1", "g1"));
+        resolver.addSynonyms("101", "gene", "Gene1", set("syn1", "syn2"));
+        resolver.addSynonyms("101", "gene", "Gene2", set("syn1", "syn2", "syn3"));
+        resolver.addMainIds("101", "mRNA", "mRNA1", set("G1", "g1"));
+        resolver.addMainIds("102", "gene", "Gene1", set("M1", "ém1"));
+        resolver.writeToFile(cacheFile);
+
+        heap = new IdResolver();
+        heap.populateFromFile(cacheFile);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static Set<String> set(String... values) {
+        return new LinkedHashSet<String>(Arrays.asList(values));
+    }
+
+    private IdResolverSnapshot compileSnapshot() throws Exception {
+        File snapshotFile = new File(dir, "idresolver.snapshot");
+        IdResolverSnapshot.compile(cacheFile, snapshotFile);
+        IdResolverSnapshot snapshot = IdResolverSnapshot.open(snapshotFile);
+        assertTrue(snapshot.isCompiledFrom(cacheFile));
+        return snapshot;
+    }
+
+    private IdResolver fromSnapshot() throws Exception {
+        IdResolver resolver = new IdResolver();
+        resolver.addSnapshot(compileSnapshot());
+        return resolver;
+    }
+
+    public void testLookups() throws Exception {
+        IdResolver mapped = fromSnapshot();
+        assertEquals(heap.getTaxons(), mapped.getTaxons());
+        assertEquals(heap.getClassNames(), mapped.getClassNames());
+        assertTrue(mapped.hasTaxonAndClassName("102", "gene"));
+        assertFalse(mapped.hasTaxonAndClassName("102", "mRNA"));
+        for (String id : new String[] {"Gene1", "Gene2", "G1", "g1", "syn1", "syn3", "M1",
+                "ém1", "mRNA1", "unknown"}) {
+            for (String taxonId : new String[] {"101", "102"}) {
+                assertEquals(id, heap.resolveId(taxonId, "gene", id),
+                        mapped.resolveId(taxonId, "gene", id));
+                assertEquals(id, heap.isPrimaryIdentifier(taxonId, "gene", id),
+                        mapped.isPrimaryIdentifier(taxonId, "gene", id));
+                assertEquals(id, heap.getSynonyms(taxonId, "gene", id),
+                        mapped.getSynonyms(taxonId, "gene", id));
+            }
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("Gene1", "Gene2")),
+                mapped.resolveId("101", "gene", "syn1"));
+        assertEquals(Collections.EMPTY_SET, mapped.resolveId("101", "gene", "unknown"));
+    }
+
+    public void testAddToSnapshotSection() throws Exception {
+        IdResolver mapped = fromSnapshot();
+        mapped.addSynonyms("101", "gene", "Gene3", set("syn3"));
+        heap.addSynonyms("101", "gene", "Gene3", set("syn3"));
+        assertFalse(mapped.snapshotSections.containsKey(new MultiKey("101", "gene")));
+        assertEquals(heap.resolveId("101", "gene", "syn3"),
+                mapped.resolveId("101", "gene", "syn3"));
+        assertEquals(heap.resolveId("101", "gene", "G1"), mapped.resolveId("101", "gene", "G1"));
+        assertEquals(heap.resolveId("102", "gene", "M1"), mapped.resolveId("102", "gene", "M1"));
+    }
+
+    public void testMergeWithExistingSection() throws Exception {
+        IdResolver mapped = new IdResolver();
+        mapped.addSynonyms("101", "gene", "Gene3", set("syn3"));
+        mapped.addSynonyms("101", "gene", "Gene1", set("syn4"));
+        mapped.addSnapshot(compileSnapshot());
+        heap.addSynonyms("101", "gene", "Gene3", set("syn3"));
+        heap.addSynonyms("101", "gene", "Gene1", set("syn4"));
+        // the existing section is merged, the others are still read from the snapshot
+        assertFalse(mapped.snapshotSections.containsKey(new MultiKey("101", "gene")));
+        assertTrue(mapped.snapshotSections.containsKey(new MultiKey("102", "gene")));
+        for (String id : new String[] {"Gene1", "Gene3", "G1", "syn1", "syn3", "syn4"}) {
+            assertEquals(id, heap.resolveId("101", "gene", id),
+                    mapped.resolveId("101", "gene", id));
+        }
+        assertEquals(heap.getSynonyms("101", "gene", "Gene1"),
+                mapped.getSynonyms("101", "gene", "Gene1"));
+    }
+
+    public void testMergeSnapshots() throws Exception {
+        IdResolverSnapshot first = compileSnapshot();
+        IdResolver mapped = new IdResolver();
+        mapped.addSnapshot(first);
+        // adding the same snapshot again changes nothing
+        mapped.addSnapshot(first);
+        assertTrue(mapped.snapshotSections.containsKey(new MultiKey("101", "gene")));
+
+        IdResolver other = new IdResolver();
+        other.addSynonyms("101", "gene", "Gene3", set("syn3"));
+        other.addMainIds("103", "gene", "Gene9", set("G9"));
+        File otherCache = new File(dir, "other.cache");
+        other.writeToFile(otherCache);
+        File otherSnapshot = new File(dir, "other.snapshot");
+        IdResolverSnapshot.compile(otherCache, otherSnapshot);
+        mapped.addSnapshot(IdResolverSnapshot.open(otherSnapshot));
+        heap.populateFromFile(otherCache);
+
+        assertEquals(heap.getTaxons(), mapped.getTaxons());
+        assertTrue(mapped.snapshotSections.containsKey(new MultiKey("103", "gene")));
+        for (String id : new String[] {"Gene1", "Gene2", "Gene3", "G1", "syn1", "syn3"}) {
+            assertEquals(id, heap.resolveId("101", "gene", id),
+                    mapped.resolveId("101", "gene", id));
+        }
+        assertEquals(heap.resolveId("103", "gene", "G9"), mapped.resolveId("103", "gene", "G9"));
+    }
+
+    public void testReopenRecompiled() throws Exception {
+        File snapshotFile = new File(dir, "idresolver.snapshot");
+        IdResolverSnapshot.compile(cacheFile, snapshotFile);
+        IdResolverSnapshot snapshot = IdResolverSnapshot.open(snapshotFile);
+        assertSame(snapshot, IdResolverSnapshot.open(snapshotFile));
+        long modified = snapshotFile.lastModified();
+
+        IdResolver resolver = new IdResolver();
+        resolver.addMainIds("103", "gene", "Gene9", set("G9"));
+        resolver.writeToFile(cacheFile);
+        IdResolverSnapshot.compile(cacheFile, snapshotFile);
+        // as if the file was replaced within the resolution of its modification time
+        snapshotFile.setLastModified(modified);
+        IdResolverSnapshot reopened = IdResolverSnapshot.open(snapshotFile);
+        assertNotSame(snapshot, reopened);
+        assertFalse(snapshot.getSections().containsKey(new MultiKey("103", "gene")));
+        assertTrue(reopened.getSections().containsKey(new MultiKey("103", "gene")));
+    }
+
+    public void testStaleSnapshot() throws Exception {
+        File snapshotFile = new File(dir, "idresolver.snapshot");
+        IdResolverSnapshot.compile(cacheFile, snapshotFile);
+        IdResolver resolver = new IdResolver();
+        resolver.addSynonyms("103", "gene", "Gene9", set("syn9"));
+        resolver.writeToFile(cacheFile);
+        assertFalse(IdResolverSnapshot.open(snapshotFile).isCompiledFrom(cacheFile));
+    }
+}
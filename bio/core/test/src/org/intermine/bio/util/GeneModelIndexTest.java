@@ -0,0 +1,61 @@
+package org.intermine.bio.util;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the GeneModelIndex class.
+ */
+public class GeneModelIndexTest extends TestCase
+{
+    private Map<Integer, Set<Integer>> geneModelIds;
+
+    public void setUp() {
+        geneModelIds = new HashMap<Integer, Set<Integer>>();
+        geneModelIds.put(30, new HashSet<Integer>(Arrays.asList(30, 31, 32, 33)));
+        geneModelIds.put(10, new HashSet<Integer>(Arrays.asList(10, 11, 12)));
+        geneModelIds.put(20, new HashSet<Integer>(Arrays.asList(20)));
+    }
+
+    public void testEmpty() {
+        GeneModelIndex index = GeneModelIndex.create(new HashMap<Integer, Set<Integer>>());
+        assertEquals(0, index.getGeneCount());
+        assertEquals(0, index.getIdCount());
+        assertTrue(index.getIds(10).isEmpty());
+    }
+
+    public void testGetIds() {
+        GeneModelIndex index = GeneModelIndex.create(geneModelIds);
+        assertEquals(3, index.getGeneCount());
+        assertEquals(8, index.getIdCount());
+        for (Map.Entry<Integer, Set<Integer>> entry : geneModelIds.entrySet()) {
+            assertEquals(entry.getValue(), index.getIds(entry.getKey()));
+        }
+        // a gene that isn't on the chromosome, or an id that isn't a gene
+        assertTrue(index.getIds(40).isEmpty());
+        assertTrue(index.getIds(11).isEmpty());
+        assertTrue(index.getIds(5).isEmpty());
+    }
+
+    public void testResultIsCopy() {
+        GeneModelIndex index = GeneModelIndex.create(geneModelIds);
+        index.getIds(10).add(99);
+        geneModelIds.get(10).add(98);
+        assertEquals(new HashSet<Integer>(Arrays.asList(10, 11, 12)), index.getIds(10));
+    }
+}
@@ -0,0 +1,104 @@
+package org.intermine.bio.util;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the InteractionIndex class.
+ */
+public class InteractionIndexTest extends TestCase
+{
+    private InteractionIndex makeIndex() {
+        InteractionIndex index = new InteractionIndex(1);
+        index.add(1, 2, "physical");
+        index.add(1, 2, "physical");
+        index.add(1, 2, "genetic");
+        index.add(2, 1, "physical");
+        index.add(1, 3, "genetic");
+        index.add(4, 5, null);
+        index.add(3, 3, "physical");
+        index.index();
+        return index;
+    }
+
+    public void testEmpty() {
+        InteractionIndex index = new InteractionIndex();
+        index.index();
+        assertEquals(0, index.size());
+        assertEquals(0, index.getInteractors(1).length);
+        index.add(1, 2, "physical");
+        index.index();
+        assertEquals(1, index.size());
+    }
+
+    public void testNotIndexed() {
+        InteractionIndex index = new InteractionIndex();
+        index.add(1, 2, "physical");
+        try {
+            index.getInteractors(1);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testInteractors() {
+        InteractionIndex index = makeIndex();
+        assertEquals(6, index.size());
+        assertEquals(4, index.getGeneCount());
+        assertTrue(Arrays.equals(new int[] {2, 3}, index.getInteractors(1)));
+        assertTrue(Arrays.equals(new int[] {1}, index.getInteractors(2)));
+        assertTrue(Arrays.equals(new int[0], index.getInteractors(5)));
+        assertEquals(Arrays.asList("physical", "genetic"), index.getInteractionTypes(1, 2));
+        assertEquals(Collections.singletonList(null), index.getInteractionTypes(4, 5));
+        assertTrue(index.getInteractionTypes(2, 3).isEmpty());
+    }
+
+    public void testNetwork() {
+        InteractionIndex index = makeIndex();
+        assertEquals(new LinkedHashSet<Integer>(Arrays.asList(2, 4, 1, 5)),
+                index.getInteractingGenes(Arrays.asList(2, 4)));
+
+        Set<Integer> genes = new HashSet<Integer>(Arrays.asList(1, 2, 3, 5));
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 2, 3)),
+                index.getConnectedGenes(genes));
+        // 1-2 in both directions counts once, then 1-3 and 3-3
+        assertEquals(3, index.countInteractions(genes));
+        assertEquals(0, index.countInteractions(new HashSet<Integer>(Arrays.asList(2, 5))));
+    }
+
+    public void testReadWrite() throws Exception {
+        InteractionIndex index = makeIndex();
+        InteractionIndex read = InteractionIndex.read(new ByteArrayInputStream(
+                index.toByteArray()));
+        assertEquals(index.size(), read.size());
+        assertEquals(index.getGeneCount(), read.getGeneCount());
+        for (int gene = 0; gene < 7; gene++) {
+            assertTrue(Arrays.equals(index.getInteractors(gene), read.getInteractors(gene)));
+        }
+        assertEquals(Arrays.asList("physical", "genetic"), read.getInteractionTypes(1, 2));
+        assertEquals(Collections.singletonList(null), read.getInteractionTypes(4, 5));
+
+        // an index that has been read can still be added to
+        read.add(7, 1, "physical");
+        read.index();
+        assertTrue(Arrays.equals(new int[] {1}, read.getInteractors(7)));
+        assertTrue(Arrays.equals(new int[] {2, 3}, read.getInteractors(1)));
+    }
+}
@@ -0,0 +1,101 @@
+package org.intermine.bio.util;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the IntervalIndex class.
+ */
+public class IntervalIndexTest extends TestCase
+{
+    public void testEmpty() {
+        IntervalIndex index = new IntervalIndex();
+        index.index();
+        assertEquals(0, index.findOverlapping(1, 100).length);
+    }
+
+    public void testClosedCoordinates() {
+        IntervalIndex index = new IntervalIndex(1);
+        index.add(20, 30, 2);
+        index.add(10, 20, 1);
+        index.add(31, 40, 3);
+        index.index();
+        assertEquals(1, index.getValue(0));
+        assertEquals(10, index.getStart(0));
+        assertEquals(20, index.getEnd(0));
+        assertValues(index, index.findOverlapping(20, 20), 1, 2);
+        assertValues(index, index.findOverlapping(30, 31), 2, 3);
+        assertValues(index, index.findOverlapping(41, 50));
+    }
+
+    public void testNotIndexed() {
+        IntervalIndex index = new IntervalIndex();
+        index.add(1, 2, 0);
+        try {
+            index.findOverlapping(1, 2);
+            fail("Expected an exception");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testAgainstLinearSearch() {
+        Random random = new Random(42);
+        for (int n : new int[] {1, 2, 3, 7, 16, 17, 100, 1000, 5000}) {
+            IntervalIndex index = new IntervalIndex();
+            int[][] intervals = new int[n][];
+            for (int i = 0; i < n; i++) {
+                int start = random.nextInt(100000);
+                // mostly short features with the occasional very long one
+                int length = (random.nextInt(50) == 0) ? random.nextInt(50000)
+                    : random.nextInt(500);
+                intervals[i] = new int[] {start, start + length};
+                index.add(start, start + length, i);
+            }
+            index.index();
+            for (int q = 0; q < 200; q++) {
+                int start = random.nextInt(110000) - 5000;
+                int end = start + random.nextInt(2000);
+                List<Integer> expected = new ArrayList<Integer>();
+                for (int i = 0; i < n; i++) {
+                    if (intervals[i][0] <= end && intervals[i][1] >= start) {
+                        expected.add(i);
+                    }
+                }
+                int[] found = index.findOverlapping(start, end);
+                List<Integer> actual = new ArrayList<Integer>();
+                for (int i = 0; i < found.length; i++) {
+                    if (i > 0) {
+                        assertTrue(index.getStart(found[i - 1]) <= index.getStart(found[i]));
+                    }
+                    actual.add(index.getValue(found[i]));
+                }
+                Collections.sort(actual);
+                assertEquals("n = " + n + ", query " + start + ".." + end, expected, actual);
+            }
+        }
+    }
+
+    private void assertValues(IntervalIndex index, int[] positions, int... expected) {
+        int[] values = new int[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            values[i] = index.getValue(positions[i]);
+        }
+        assertEquals(Arrays.toString(expected), Arrays.toString(values));
+    }
+}
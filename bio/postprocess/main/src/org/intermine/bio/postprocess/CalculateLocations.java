@@ -15,9 +15,15 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.intermine.bio.util.BioQueries;
@@ -59,6 +65,8 @@ import org.intermine.util.DynamicUtil;
 public class CalculateLocations
 {
     private static final Logger LOG = Logger.getLogger(CalculateLocations.class);
+    // the most chromosomes to find overlaps for at once
+    private static final int OVERLAP_THREADS = 4;
 
     protected ObjectStoreWriter osw;
     protected ObjectStore os;
@@ -88,16 +96,47 @@ public class CalculateLocations
      * same class
      * @throws Exception if anything goes wrong
      */
-    public void createOverlapRelations(List<String> classNamesToIgnore, boolean ignoreSelfMatches)
-        throws Exception {
-        osw.beginTransaction();
+    public void createOverlapRelations(final List<String> classNamesToIgnore,
+            final boolean ignoreSelfMatches) throws Exception {
         Map<String, Integer> summary = new HashMap<String, Integer>();
         Map<Integer, Chromosome> chromosomeMap = makeChromosomeMap();
-        Iterator<?> chromosomeIdIter = chromosomeMap.keySet().iterator();
-        while (chromosomeIdIter.hasNext()) {
-            Integer id = (Integer) chromosomeIdIter.next();
-            createSubjectOverlapRelations(chromosomeMap.get(id), classNamesToIgnore,
-                    ignoreSelfMatches, summary);
+
+        // Overlaps are found for several chromosomes at once in a pool of threads, but are
+        // written on this thread in chromosome order.  Only a few chromosomes are found ahead
+        // of the one being written, to bound the memory used to hold them.
+        int threads = Math.max(1, Math.min(OVERLAP_THREADS,
+                    Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        LinkedList<Future<OverlapUtil.Overlaps>> pending =
+            new LinkedList<Future<OverlapUtil.Overlaps>>();
+        Iterator<Chromosome> chromosomeIter = chromosomeMap.values().iterator();
+        osw.beginTransaction();
+        try {
+            while (chromosomeIter.hasNext() || !pending.isEmpty()) {
+                while (chromosomeIter.hasNext() && pending.size() <= threads) {
+                    final Chromosome subject = chromosomeIter.next();
+                    pending.add(pool.submit(new Callable<OverlapUtil.Overlaps>() {
+                        public OverlapUtil.Overlaps call() throws Exception {
+                            LOG.info("Creating overlaps for id " + subject.getId()
+                                    + ", identifier: " + subject.getPrimaryIdentifier());
+                            return OverlapUtil.findOverlaps(os, subject, classNamesToIgnore,
+                                    ignoreSelfMatches);
+                        }
+                    }));
+                }
+                OverlapUtil.Overlaps overlaps;
+                try {
+                    overlaps = pending.removeFirst().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+                OverlapUtil.storeOverlaps(osw, overlaps, summary);
+            }
+        } finally {
+            pool.shutdownNow();
         }
         osw.commitTransaction();
         LOG.info("Stored a total of " + summary.remove("total") + " overlaps");
@@ -139,28 +178,6 @@ public class CalculateLocations
         }
     }
 
-    /**
-     * Create OverlapRelation objects for locations that have the given subject.
-     *
-     * @param subject a Chromosome object on which to create the overlaps
-     * @param classNamesToIgnore a List of the names of those classes that should be ignored when
-     * searching for overlaps.  Sub classes to these classes are ignored too. In addition, an
-     * entry can be of the form class=class, which specifies that the particular combination should
-     * be ignored. Hence an entry of the form class is equivalent to class=InterMineObject
-     * @param ignoreSelfMatches if true, don't create OverlapRelations between two objects of the
-     * same class
-     * @param summary a Map to which summary data will be added
-     */
-    private void createSubjectOverlapRelations(Chromosome subject, List<String> classNamesToIgnore,
-            boolean ignoreSelfMatches, Map<String, Integer> summary) throws Exception {
-        LOG.info("Creating overlaps for id " + subject.getId() + ", identifier: "
-                 + subject.getPrimaryIdentifier());
-
-        OverlapUtil.createOverlaps(os, subject, classNamesToIgnore, ignoreSelfMatches, osw,
-                summary);
-    }
-
-
     /**
      * Create a Location that spans the locations of some child objects.  eg. create a location for
      * Transcript that is as big as all the exons in it's exons collection.  One new location will
@@ -0,0 +1,97 @@
+package org.intermine.bio.postprocess;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.intermine.bio.util.InteractionIndex;
+import org.intermine.metadata.MetaDataException;
+import org.intermine.metadata.Model;
+import org.intermine.modelproduction.MetadataManager;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.query.ConstraintOp;
+import org.intermine.objectstore.query.ContainsConstraint;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryCollectionReference;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryForeignKey;
+import org.intermine.sql.Database;
+
+/**
+ * Reads the interactions between genes into an InteractionIndex and stores it in the database,
+ * to be loaded by the web application to draw interaction networks without querying.
+ */
+public final class CreateInteractionIndex
+{
+    private static final Logger LOG = Logger.getLogger(CreateInteractionIndex.class);
+
+    private CreateInteractionIndex() {
+        // don't
+    }
+
+    /**
+     * Create an index of the interactions in the database and store it in the database.
+     * @param os the ObjectStore to query
+     * @throws SQLException if failure to write the index to the database
+     */
+    public static void createIndex(ObjectStore os) throws SQLException {
+        long startTime = System.currentTimeMillis();
+        Model model = os.getModel();
+        try {
+            String errorMessage = "Not creating interaction index ";
+            PostProcessUtil.checkFieldExists(model, "Interaction", "gene1", errorMessage);
+            PostProcessUtil.checkFieldExists(model, "Interaction", "gene2", errorMessage);
+            PostProcessUtil.checkFieldExists(model, "Interaction", "details", errorMessage);
+            PostProcessUtil.checkFieldExists(model, "InteractionDetail", "type", errorMessage);
+        } catch (MetaDataException e) {
+            return;
+        }
+
+        Query q = new Query();
+        q.setDistinct(true);
+
+        QueryClass qcInteraction =
+            new QueryClass(model.getClassDescriptorByName("Interaction").getType());
+        QueryClass qcDetail =
+            new QueryClass(model.getClassDescriptorByName("InteractionDetail").getType());
+
+        q.addFrom(qcInteraction);
+        q.addFrom(qcDetail);
+
+        q.addToSelect(new QueryForeignKey(qcInteraction, "gene1"));
+        q.addToSelect(new QueryForeignKey(qcInteraction, "gene2"));
+        q.addToSelect(new QueryField(qcDetail, "type"));
+
+        QueryCollectionReference details = new QueryCollectionReference(qcInteraction, "details");
+        q.setConstraint(new ContainsConstraint(details, ConstraintOp.CONTAINS, qcDetail));
+
+        InteractionIndex index = new InteractionIndex();
+        for (Object row : os.execute(q, 100000, true, false, false)) {
+            List<?> resRow = (List<?>) row;
+            Integer gene1 = (Integer) resRow.get(0);
+            Integer gene2 = (Integer) resRow.get(1);
+            if (gene1 != null && gene2 != null) {
+                index.add(gene1.intValue(), gene2.intValue(), (String) resRow.get(2));
+            }
+        }
+        index.index();
+
+        Database db = ((ObjectStoreInterMineImpl) os).getDatabase();
+        MetadataManager.storeBinary(db, MetadataManager.INTERACTION_INDEX, index.toByteArray());
+        LOG.info("Created interaction index of " + index.size() + " interactions for "
+                + index.getGeneCount() + " genes, took: "
+                + (System.currentTimeMillis() - startTime) + "ms");
+    }
+}
@@ -13,6 +13,8 @@ package org.intermine.bio.postprocess;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
 
 import org.apache.log4j.Logger;
@@ -80,6 +82,12 @@ public final class CreateModMineMetaDataCache
 
         readSubmissionFileSourceCounts(os, props);
 
+        readSubmissionIds(os, props);
+        readSubmissionRepositoryEntries(os, props);
+
+        props.put(ModMineCacheKeys.CACHE_FORMAT_VERSION,
+                ModMineCacheKeys.CURRENT_CACHE_FORMAT_VERSION);
+
         Database db = ((ObjectStoreInterMineImpl) os).getDatabase();
         MetadataManager.store(db, MetadataManager.MODMINE_METADATA_CACHE,
                 PropertiesUtil.serialize(props));
@@ -573,6 +581,95 @@ public final class CreateModMineMetaDataCache
                 + "ms");
     }
 
+    private static void readSubmissionIds(ObjectStore os, Properties props) {
+        long startTime = System.currentTimeMillis();
+
+        Model model = os.getModel();
+
+        Query q = new Query();
+        QueryClass qcSub = new QueryClass(model.getClassDescriptorByName("Submission").getType());
+        QueryField qfDccId = new QueryField(qcSub, "DCCid");
+        QueryField qfId = new QueryField(qcSub, "id");
+
+        q.addFrom(qcSub);
+        q.addToSelect(qfDccId);
+        q.addToSelect(qfId);
+
+        Results results = os.execute(q);
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Iterator<ResultsRow> iter = (Iterator) results.iterator();
+        while (iter.hasNext()) {
+            ResultsRow<?> row = iter.next();
+            String dccId = (String) row.get(0);
+            Integer id = (Integer) row.get(1);
+
+            props.put(ModMineCacheKeys.SUB_ID + "." + dccId, "" + id);
+        }
+        long timeTaken = System.currentTimeMillis() - startTime;
+        LOG.info("Read submission ids, took: " + timeTaken + " ms.");
+    }
+
+    private static void readSubmissionRepositoryEntries(ObjectStore os, Properties props) {
+        long startTime = System.currentTimeMillis();
+
+        Model model = os.getModel();
+
+        Query q = new Query();
+        QueryClass qcSub = new QueryClass(model.getClassDescriptorByName("Submission").getType());
+        QueryClass qcRecord =
+            new QueryClass(model.getClassDescriptorByName("DatabaseRecord").getType());
+
+        QueryField qfDccId = new QueryField(qcSub, "DCCid");
+        QueryField qfDatabase = new QueryField(qcRecord, "database");
+        QueryField qfAccession = new QueryField(qcRecord, "accession");
+        QueryField qfUrl = new QueryField(qcRecord, "url");
+
+        q.addFrom(qcSub);
+        q.addFrom(qcRecord);
+
+        q.addToSelect(qfDccId);
+        q.addToSelect(qfDatabase);
+        q.addToSelect(qfAccession);
+        q.addToSelect(qfUrl);
+
+        QueryCollectionReference records = new QueryCollectionReference(qcSub, "databaseRecords");
+        q.setConstraint(new ContainsConstraint(records, ConstraintOp.CONTAINS, qcRecord));
+
+        q.addToOrderBy(qfDccId);
+        q.addToOrderBy(qfDatabase);
+
+        Results results = os.execute(q);
+
+        Map<String, StringBuilder> entries = new LinkedHashMap<String, StringBuilder>();
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Iterator<ResultsRow> iter = (Iterator) results.iterator();
+        while (iter.hasNext()) {
+            ResultsRow<?> row = iter.next();
+            String dccId = (String) row.get(0);
+
+            StringBuilder sb = entries.get(dccId);
+            if (sb == null) {
+                sb = new StringBuilder();
+                entries.put(dccId, sb);
+            } else {
+                sb.append('\n');
+            }
+            sb.append(fixNull(row.get(1))).append('\t').append(fixNull(row.get(2))).append('\t')
+                .append(fixNull(row.get(3)));
+        }
+        for (Map.Entry<String, StringBuilder> entry : entries.entrySet()) {
+            props.put(ModMineCacheKeys.SUB_REPOSITORY_ENTRIES + "." + entry.getKey(),
+                    entry.getValue().toString());
+        }
+        long timeTaken = System.currentTimeMillis() - startTime;
+        LOG.info("Read submission repository entries, took: " + timeTaken + " ms.");
+    }
+
+    private static String fixNull(Object value) {
+        return (value == null) ? "" : (String) value;
+    }
+
 
 //    private static void readSubmissionRepositoryEntries(ObjectStore os) {
 //        //
@@ -10,6 +10,8 @@ package org.intermine.bio.postprocess;
  *
  */
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -18,6 +20,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.intermine.bio.util.IntervalIndex;
 import org.intermine.metadata.Model;
 import org.intermine.model.InterMineObject;
 import org.intermine.model.bio.Location;
@@ -72,39 +75,28 @@ public abstract class OverlapUtil
             List<?> classNamesToIgnore, boolean ignoreSelfMatches, ObjectStoreWriter osw,
             Map<String, Integer> summary)
         throws ObjectStoreException, ClassNotFoundException {
-        Model model = os.getModel();
-
-        Map<Class<?>, Set<Class<?>>> classesToIgnore = new HashMap<Class<?>, Set<Class<?>>>();
-
-        Iterator<?> classNamesToIgnoreIter = classNamesToIgnore.iterator();
-
-        while (classNamesToIgnoreIter.hasNext()) {
-            String className = (String) classNamesToIgnoreIter.next();
-
-            int eq = className.indexOf('=');
-            String targetClassName = (eq == -1 ? "org.intermine.model.InterMineObject"
-                    : className.substring(eq + 1));
-            className = (eq == -1 ? className : className.substring(0, eq));
-
-            className = (className.indexOf('.') == -1 ? model.getPackageName() + "." + className
-                    : className);
-            targetClassName = (targetClassName.indexOf('.') == -1 ? model.getPackageName() + "."
-                    + targetClassName : targetClassName);
-
-            try {
-                Class<?> thisClass = Class.forName(className);
-                Class<?> targetClass = Class.forName(targetClassName);
+        storeOverlaps(osw, findOverlaps(os, subject, classNamesToIgnore, ignoreSelfMatches),
+                summary);
+    }
 
-                Set<Class<?>> targetClasses = classesToIgnore.get(thisClass);
-                if (targetClasses == null) {
-                    targetClasses = new HashSet<Class<?>>();
-                    classesToIgnore.put(thisClass, targetClasses);
-                }
-                targetClasses.add(targetClass);
-            } catch (java.lang.ClassNotFoundException e) {
-                // ignore
-            }
-        }
+    /**
+     * Find the overlapping SequenceFeature objects that are located on the given subject
+     * (generally a Chromosome), without writing anything.  Only the ids, classes and
+     * coordinates of the features are fetched, and the overlaps are found with an
+     * IntervalIndex, so this may be run for several subjects at once in separate threads.
+     *
+     * @param os the ObjectStore to query
+     * @param subject the SequenceFeature (eg. a Chromosome) where the LSFs are located
+     * @param classNamesToIgnore as for createOverlaps()
+     * @param ignoreSelfMatches if true, don't find overlaps between two objects of the same class
+     * @return the overlaps found
+     * @throws ObjectStoreException if there is an ObjectStore problem
+     */
+    public static Overlaps findOverlaps(ObjectStore os, SequenceFeature subject,
+            List<?> classNamesToIgnore, boolean ignoreSelfMatches)
+        throws ObjectStoreException {
+        Map<Class<?>, Set<Class<?>>> classesToIgnore =
+            parseClassesToIgnore(os.getModel(), classNamesToIgnore);
 
         Query q = new Query();
         ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
@@ -112,12 +104,13 @@ public abstract class OverlapUtil
 
         QueryClass qcLoc = new QueryClass(Location.class);
         q.addFrom(qcLoc);
-        q.addToSelect(qcLoc);
-
         q.setDistinct(false);
         QueryClass qcObj = new QueryClass(SequenceFeature.class);
         q.addFrom(qcObj);
-        q.addToSelect(qcObj);
+        q.addToSelect(new QueryField(qcObj, "id"));
+        q.addToSelect(new QueryField(qcObj, "class"));
+        q.addToSelect(new QueryField(qcLoc, "start"));
+        q.addToSelect(new QueryField(qcLoc, "end"));
 
         QueryObjectReference ref1 = new QueryObjectReference(qcLoc, "feature");
         ContainsConstraint cc1 = new ContainsConstraint(ref1, ConstraintOp.CONTAINS, qcObj);
@@ -128,86 +121,186 @@ public abstract class OverlapUtil
                 subject);
         cs.addConstraint(subjectIdConstraint);
 
-        q.addToOrderBy(new QueryField(qcLoc, "start"));
+        // the ids and classes of the located features, indexed by the values in the index
+        List<Integer> featureIds = new ArrayList<Integer>();
+        List<Class<?>> featureClasses = new ArrayList<Class<?>>();
+        IntervalIndex index = new IntervalIndex();
 
         try {
             ((ObjectStoreInterMineImpl) os).goFaster(q);
-            Results results = os.execute(q);
-            Map<Location, SequenceFeature> currentLocations
-                = new HashMap<Location, SequenceFeature>();
-            int count = 0;
+            Results results = os.execute(q, 10000, true, false, false);
             Iterator<?> resIter = results.iterator();
-
             while (resIter.hasNext()) {
                 ResultsRow<?> rr = (ResultsRow<?>) resIter.next();
-
-                Location location = (Location) rr.get(0);
-
-                if (location.getStart() == null || location.getEnd() == null) {
+                Class<?> featureClass = (Class<?>) rr.get(1);
+                Integer start = (Integer) rr.get(2);
+                Integer end = (Integer) rr.get(3);
+                if (start == null || end == null || end.intValue() < start.intValue()) {
                     continue;
                 }
-
-                SequenceFeature lsf = (SequenceFeature) rr.get(1);
-
-                if (isAClassToIgnore(classesToIgnore, lsf.getClass())) {
+                if (isAClassToIgnore(classesToIgnore, featureClass)) {
+                    continue;
+                }
+                index.add(start.intValue(), end.intValue(), featureIds.size());
+                featureIds.add((Integer) rr.get(0));
+                featureClasses.add(featureClass);
+            }
+        } finally {
+            ((ObjectStoreInterMineImpl) os).releaseGoFaster(q);
+        }
+        index.index();
+
+        Overlaps overlaps = new Overlaps(subject);
+        // the result of checking each combination of classes, which are few
+        Map<Class<?>, Map<Class<?>, String>> summaryLines =
+            new HashMap<Class<?>, Map<Class<?>, String>>();
+        for (int i = 0; i < index.size(); i++) {
+            int[] found = index.findOverlapping(index.getStart(i), index.getEnd(i));
+            Class<?> class1 = featureClasses.get(index.getValue(i));
+            for (int j : found) {
+                // each pair is found from both sides, only take it once
+                if (j <= i) {
                     continue;
                 }
+                Class<?> class2 = featureClasses.get(index.getValue(j));
+                Map<Class<?>, String> lines = summaryLines.get(class1);
+                if (lines == null) {
+                    lines = new HashMap<Class<?>, String>();
+                    summaryLines.put(class1, lines);
+                }
+                if (!lines.containsKey(class2)) {
+                    lines.put(class2, getSummaryLine(classesToIgnore, ignoreSelfMatches, class1,
+                                class2));
+                }
+                String summaryLine = lines.get(class2);
+                if (summaryLine != null) {
+                    overlaps.add(featureIds.get(index.getValue(i)),
+                            featureIds.get(index.getValue(j)), summaryLine);
+                }
+            }
+        }
+        overlaps.featureCount = index.size();
+        return overlaps;
+    }
 
-                int start = location.getStart().intValue();
-
-                // Okay, first we compare this location to all the currentLocations.
-                Iterator<?> currIter = currentLocations.entrySet().iterator();
-                while (currIter.hasNext()) {
-                    Map.Entry<Location, SequenceFeature> currEntry = (Map.Entry<Location,
-                            SequenceFeature>) currIter.next();
-                    Location currLoc = currEntry.getKey();
-                    SequenceFeature currLsf = currEntry.getValue();
-                    if (currLoc.getEnd().intValue() < start) {
-                        currIter.remove();
-                    } else {
-                        // They overlap, so check to see if we have configured them out.
-                        if ((!ignoreSelfMatches)
-                                || (!lsf.getClass().equals(currLsf.getClass()))) {
-                            if (!(ignoreCombination(classesToIgnore, lsf.getClass(),
-                                            currLsf.getClass())
-                                    || ignoreCombination(classesToIgnore, currLsf.getClass(),
-                                        lsf.getClass()))) {
-                                ++count;
-                                osw.addToCollection(lsf.getId(), SequenceFeature.class,
-                                        "overlappingFeatures", currLsf.getId());
-                                osw.addToCollection(currLsf.getId(), SequenceFeature.class,
-                                        "overlappingFeatures", lsf.getId());
-
-                                // Log it, for the summary.
-                                String classname1 = DynamicUtil.getFriendlyName(lsf.getClass());
-                                String classname2 = DynamicUtil.getFriendlyName(currLsf
-                                        .getClass());
-
-                                String summaryLine = classname1.compareTo(classname2) > 0
-                                    ? classname2 + " - " + classname1 : classname1 + " - "
-                                    + classname2;
-                                Integer summaryCount = summary.get(summaryLine);
-                                if (summaryCount == null) {
-                                    summaryCount = new Integer(0);
-                                }
-                                summary.put(summaryLine, new Integer(summaryCount.intValue()
-                                            + 1));
-                            }
-                        }
-                    }
+    /**
+     * Store overlaps found by findOverlaps().
+     *
+     * @param osw the ObjectStoreWriter to use to write to the database
+     * @param overlaps the overlaps to store
+     * @param summary a Map, to which summary data will be added
+     * @throws ObjectStoreException if an error occurs while writing
+     */
+    public static void storeOverlaps(ObjectStoreWriter osw, Overlaps overlaps,
+            Map<String, Integer> summary) throws ObjectStoreException {
+        for (int i = 0; i < overlaps.count; i++) {
+            int id1 = overlaps.pairs[2 * i];
+            int id2 = overlaps.pairs[2 * i + 1];
+            osw.addToCollection(id1, SequenceFeature.class, "overlappingFeatures", id2);
+            osw.addToCollection(id2, SequenceFeature.class, "overlappingFeatures", id1);
+        }
+        for (Map.Entry<String, Integer> entry : overlaps.summary.entrySet()) {
+            Integer summaryCount = summary.get(entry.getKey());
+            summary.put(entry.getKey(), new Integer(entry.getValue().intValue()
+                        + (summaryCount == null ? 0 : summaryCount.intValue())));
+        }
+        LOG.info("Stored " + overlaps.count + " overlaps for " + overlaps.featureCount
+                + " features on feature id " + overlaps.subject.getId() + ", identifier: "
+                + overlaps.subject.getSecondaryIdentifier());
+        Integer summaryCount = summary.get("total");
+        if (summaryCount == null) {
+            summaryCount = new Integer(0);
+        }
+        summary.put("total", new Integer(summaryCount.intValue() + overlaps.count));
+    }
+
+    /**
+     * Return the summary line to log overlaps between two classes under, or null if overlaps
+     * between them are configured out.
+     */
+    private static String getSummaryLine(Map<Class<?>, Set<Class<?>>> classesToIgnore,
+            boolean ignoreSelfMatches, Class<?> class1, Class<?> class2) {
+        if (ignoreSelfMatches && class1.equals(class2)) {
+            return null;
+        }
+        if (ignoreCombination(classesToIgnore, class1, class2)
+                || ignoreCombination(classesToIgnore, class2, class1)) {
+            return null;
+        }
+        String classname1 = DynamicUtil.getFriendlyName(class1);
+        String classname2 = DynamicUtil.getFriendlyName(class2);
+        return classname1.compareTo(classname2) > 0
+            ? classname2 + " - " + classname1 : classname1 + " - " + classname2;
+    }
+
+    private static Map<Class<?>, Set<Class<?>>> parseClassesToIgnore(Model model,
+            List<?> classNamesToIgnore) {
+        Map<Class<?>, Set<Class<?>>> classesToIgnore = new HashMap<Class<?>, Set<Class<?>>>();
+
+        Iterator<?> classNamesToIgnoreIter = classNamesToIgnore.iterator();
+
+        while (classNamesToIgnoreIter.hasNext()) {
+            String className = (String) classNamesToIgnoreIter.next();
+
+            int eq = className.indexOf('=');
+            String targetClassName = (eq == -1 ? "org.intermine.model.InterMineObject"
+                    : className.substring(eq + 1));
+            className = (eq == -1 ? className : className.substring(0, eq));
+
+            className = (className.indexOf('.') == -1 ? model.getPackageName() + "." + className
+                    : className);
+            targetClassName = (targetClassName.indexOf('.') == -1 ? model.getPackageName() + "."
+                    + targetClassName : targetClassName);
+
+            try {
+                Class<?> thisClass = Class.forName(className);
+                Class<?> targetClass = Class.forName(targetClassName);
+
+                Set<Class<?>> targetClasses = classesToIgnore.get(thisClass);
+                if (targetClasses == null) {
+                    targetClasses = new HashSet<Class<?>>();
+                    classesToIgnore.put(thisClass, targetClasses);
                 }
-                currentLocations.put(location, lsf);
+                targetClasses.add(targetClass);
+            } catch (java.lang.ClassNotFoundException e) {
+                // ignore
             }
-            LOG.info("Stored " + count + " overlaps for " + results.size()
-                    + " features on feature id " + subject.getId() + ", identifier: "
-                     + subject.getSecondaryIdentifier());
-            Integer summaryCount = summary.get("total");
-            if (summaryCount == null) {
-                summaryCount = new Integer(0);
+        }
+        return classesToIgnore;
+    }
+
+    /**
+     * The overlapping pairs of features found on one subject, held as pairs of ids.
+     */
+    public static class Overlaps
+    {
+        private final SequenceFeature subject;
+        private int[] pairs = new int[1024];
+        private int count = 0;
+        private int featureCount = 0;
+        private final Map<String, Integer> summary = new HashMap<String, Integer>();
+
+        Overlaps(SequenceFeature subject) {
+            this.subject = subject;
+        }
+
+        private void add(int id1, int id2, String summaryLine) {
+            if (2 * count == pairs.length) {
+                pairs = Arrays.copyOf(pairs, pairs.length * 2);
             }
-            summary.put("total", new Integer(summaryCount.intValue() + count));
-        } finally {
-            ((ObjectStoreInterMineImpl) os).releaseGoFaster(q);
+            pairs[2 * count] = id1;
+            pairs[2 * count + 1] = id2;
+            count++;
+            Integer summaryCount = summary.get(summaryLine);
+            summary.put(summaryLine, new Integer(summaryCount == null ? 1
+                        : summaryCount.intValue() + 1));
+        }
+
+        /**
+         * @return the number of overlapping pairs
+         */
+        public int size() {
+            return count;
         }
     }
 
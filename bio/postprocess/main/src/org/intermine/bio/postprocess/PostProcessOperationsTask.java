@@ -280,6 +280,8 @@ public class PostProcessOperationsTask extends DynamicAttributeTask
                 CreateFlyBaseLinkIns.createLinkInFile(getObjectStoreWriter().getObjectStore());
             } else if ("modmine-metadata-cache".equals(operation)) {
                 CreateModMineMetaDataCache.createCache(getObjectStoreWriter().getObjectStore());
+            } else if ("create-interaction-index".equals(operation)) {
+                CreateInteractionIndex.createIndex(getObjectStoreWriter().getObjectStore());
             } else {
                 throw new BuildException("unknown operation: " + operation);
             }
@@ -10,10 +10,18 @@ package org.intermine.bio.postprocess;
  *
  */
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.intermine.bio.util.ClobAccessReverseComplement;
@@ -39,6 +47,7 @@ import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryCollectionReference;
 import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryFunction;
 import org.intermine.objectstore.query.QueryNode;
 import org.intermine.objectstore.query.QueryObjectReference;
 import org.intermine.objectstore.query.QueryValue;
@@ -50,7 +59,9 @@ import org.intermine.util.DynamicUtil;
 
 /**
  * Transfer sequences from the Assembly objects to the other objects that are located on the
- * Assemblys and to the objects that the Assemblys are located on (eg. Chromosomes).
+ * Assemblys and to the objects that the Assemblys are located on (eg. Chromosomes).  The work
+ * is split into independent parts, one for each chromosome or range of transcripts, which are
+ * run in a pool of threads that each store through their own ObjectStoreWriter.
  *
  * @author Kim Rutherford
  */
@@ -60,6 +71,10 @@ public class TransferSequences
     protected ObjectStoreWriter osw;
     private Model model;
     private static final Logger LOG = Logger.getLogger(TransferSequences.class);
+    // the most chromosomes or ranges of transcripts to transfer sequences for at once
+    private static final int TRANSFER_THREADS = 4;
+    // the number of ranges of transcript ids to make for each thread, so they finish together
+    private static final int RANGES_PER_THREAD = 4;
 
     /**
      * Create a new TransferSequences object from the given ObjectStoreWriter
@@ -70,17 +85,50 @@ public class TransferSequences
         this.model = osw.getModel();
     }
 
-    private void storeNewSequence(SequenceFeature feature, ClobAccess sequenceString)
-        throws ObjectStoreException {
+    private static void storeNewSequence(ObjectStoreWriter writer, SequenceFeature feature,
+            ClobAccess sequenceString) throws ObjectStoreException {
         Sequence sequence =
             (Sequence) DynamicUtil.createObject(Collections.singleton(Sequence.class));
         sequence.setResidues(sequenceString);
         sequence.setLength(sequenceString.length());
-        osw.store(sequence);
-        feature.proxySequence(new ProxyReference(osw.getObjectStore(),
+        writer.store(sequence);
+        feature.proxySequence(new ProxyReference(writer.getObjectStore(),
                                                  sequence.getId(), Sequence.class));
         feature.setLength(new Integer(sequenceString.length()));
-        osw.store(feature);
+        writer.store(feature);
+    }
+
+    /**
+     * Runs some parts of a transfer in a pool of threads, and waits for them all to finish.
+     *
+     * @param tasks the parts, which each return the number of sequences they stored
+     * @return the total number of sequences stored
+     * @throws Exception if any of the parts fails
+     */
+    private static int runInParallel(List<Callable<Integer>> tasks) throws Exception {
+        int threads = Math.max(1, Math.min(TRANSFER_THREADS,
+                    Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        int total = 0;
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (Callable<Integer> task : tasks) {
+                futures.add(pool.submit(task));
+            }
+            for (Future<Integer> future : futures) {
+                try {
+                    total += future.get().intValue();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return total;
     }
 
     /**
@@ -107,7 +155,7 @@ public class TransferSequences
         SingletonResults res = os.executeSingleton(q);
         Iterator<?> chrIter = res.iterator();
 
-        Set<Chromosome> chromosomes = new HashSet<Chromosome>();
+        List<Chromosome> chromosomes = new ArrayList<Chromosome>();
         while (chrIter.hasNext()) {
             Chromosome chr = (Chromosome) chrIter.next();
             chromosomes.add(chr);
@@ -116,22 +164,44 @@ public class TransferSequences
         LOG.info("Found " + chromosomes.size() + " chromosomes with sequence, took "
                 + (System.currentTimeMillis() - startTime) + " ms.");
 
-        for (Chromosome chr : chromosomes) {
-            String organism = "";
-            if (chr.getOrganism() != null) {
-                organism = chr.getOrganism().getShortName();
+        // Start the longest chromosomes first, so the threads finish at about the same time
+        Collections.sort(chromosomes, new Comparator<Chromosome>() {
+            public int compare(Chromosome a, Chromosome b) {
+                int lengthA = (a.getLength() == null ? 0 : a.getLength().intValue());
+                int lengthB = (b.getLength() == null ? 0 : b.getLength().intValue());
+                if (lengthA != lengthB) {
+                    return (lengthA > lengthB ? -1 : 1);
+                }
+                return a.getId().compareTo(b.getId());
             }
-            LOG.info("Starting transfer for " + organism + " chromosome "
-                    + chr.getPrimaryIdentifier());
-            transferForChromosome(chr);
+        });
+
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (final Chromosome chr : chromosomes) {
+            tasks.add(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    return new Integer(transferForChromosome(chr));
+                }
+            });
         }
+        int total = runInParallel(tasks);
+
+        LOG.info("Finished setting " + total + " feature sequences for " + chromosomes.size()
+                + " chromosomes - took " + (System.currentTimeMillis() - startTime) + " ms.");
     }
 
 
-    private void transferForChromosome(Chromosome chr) throws Exception {
+    private int transferForChromosome(Chromosome chr) throws Exception {
 
         long startTime = System.currentTimeMillis();
 
+        String organism = "";
+        if (chr.getOrganism() != null) {
+            organism = chr.getOrganism().getShortName();
+        }
+        LOG.info("Starting transfer for " + organism + " chromosome "
+                + chr.getPrimaryIdentifier());
+
         ObjectStore os = osw.getObjectStore();
         Query q = new Query();
         q.setDistinct(false);
@@ -167,89 +237,100 @@ public class TransferSequences
 
         q.setConstraint(cs);
 
-        osw.beginTransaction();
+        // The sequence of the chromosome is fetched once, and the features' sequences are cut
+        // from it without reading the residues
+        ClobAccess chrResidues = chr.getSequence().getResidues();
 
-        Set<QueryNode> indexesToCreate = new HashSet<QueryNode>();
-        indexesToCreate.add(qcLoc);
-        indexesToCreate.add(qcSub);
-        ((ObjectStoreInterMineImpl) os).precompute(q, indexesToCreate,
-            Constants.PRECOMPUTE_CATEGORY);
-        Results results = os.execute(q, 1000, true, true, true);
+        ObjectStoreWriter writer = os.getNewWriter();
+        int i = 0;
+        try {
+            writer.beginTransaction();
 
-        @SuppressWarnings("unchecked") Iterator<ResultsRow> resIter = (Iterator) results.iterator();
+            Set<QueryNode> indexesToCreate = new HashSet<QueryNode>();
+            indexesToCreate.add(qcLoc);
+            indexesToCreate.add(qcSub);
+            ((ObjectStoreInterMineImpl) os).precompute(q, indexesToCreate,
+                Constants.PRECOMPUTE_CATEGORY);
+            Results results = os.execute(q, 1000, true, true, true);
 
-        long start = System.currentTimeMillis();
-        int i = 0;
-        while (resIter.hasNext()) {
-            ResultsRow<?> rr = resIter.next();
+            @SuppressWarnings("unchecked") Iterator<ResultsRow> resIter =
+                (Iterator) results.iterator();
 
-            SequenceFeature feature = (SequenceFeature) rr.get(0);
-            Location locationOnChr = (Location) rr.get(1);
+            long start = System.currentTimeMillis();
+            while (resIter.hasNext()) {
+                ResultsRow<?> rr = resIter.next();
 
-            try {
+                SequenceFeature feature = (SequenceFeature) rr.get(0);
+                Location locationOnChr = (Location) rr.get(1);
 
-                if (PostProcessUtil.isInstance(model, feature, "ChromosomeBand")) {
-                    continue;
-                }
+                try {
 
-                if (PostProcessUtil.isInstance(model, feature, "SNP")) {
-                    continue;
-                }
+                    if (PostProcessUtil.isInstance(model, feature, "ChromosomeBand")) {
+                        continue;
+                    }
 
-                if (feature instanceof Gene) {
-                    Gene gene = (Gene) feature;
-                    if (gene.getLength() != null && gene.getLength().intValue() > 2000000) {
-                        LOG.warn("gene too long in transferToSequenceFeatures() ignoring: "
-                                  + gene);
+                    if (PostProcessUtil.isInstance(model, feature, "SNP")) {
                         continue;
                     }
-                }
 
-                ClobAccess featureSeq = getSubSequence(chr.getSequence(), locationOnChr);
+                    if (feature instanceof Gene) {
+                        Gene gene = (Gene) feature;
+                        if (gene.getLength() != null && gene.getLength().intValue() > 2000000) {
+                            LOG.warn("gene too long in transferToSequenceFeatures() ignoring: "
+                                      + gene);
+                            continue;
+                        }
+                    }
+
+                    ClobAccess featureSeq = getSubSequence(chrResidues, locationOnChr);
 
-                if (featureSeq == null) {
-                    // probably the locationOnChr is out of range
-                    continue;
-                }
+                    if (featureSeq == null) {
+                        // probably the locationOnChr is out of range
+                        continue;
+                    }
 
-                Sequence sequence =
-                    (Sequence) DynamicUtil.createObject(Collections.singleton(Sequence.class));
-                sequence.setResidues(featureSeq);
-                sequence.setLength(featureSeq.length());
-                osw.store(sequence);
-                SequenceFeature cloneLsf = PostProcessUtil.cloneInterMineObject(feature);
-                cloneLsf.setSequence(sequence);
-                cloneLsf.setLength(new Integer(featureSeq.length()));
-                osw.store(cloneLsf);
-                i++;
-                if (i % 1000 == 0) {
-                    long now = System.currentTimeMillis();
-                    LOG.info("Set sequences for " + i + " features"
-                             + " (avg = " + ((60000L * i) / (now - start)) + " per minute)");
+                    Sequence sequence = (Sequence) DynamicUtil.createObject(
+                            Collections.singleton(Sequence.class));
+                    sequence.setResidues(featureSeq);
+                    sequence.setLength(featureSeq.length());
+                    writer.store(sequence);
+                    SequenceFeature cloneLsf = PostProcessUtil.cloneInterMineObject(feature);
+                    cloneLsf.setSequence(sequence);
+                    cloneLsf.setLength(new Integer(featureSeq.length()));
+                    writer.store(cloneLsf);
+                    i++;
+                    if (i % 1000 == 0) {
+                        long now = System.currentTimeMillis();
+                        LOG.info("Set sequences for " + i + " features on chromosome "
+                                + chr.getPrimaryIdentifier() + " (avg = "
+                                + ((60000L * i) / (now - start)) + " per minute)");
+                    }
+                } catch (Exception e) {
+                    Exception e2 = new Exception("Exception while processing SequenceFeature "
+                            + feature);
+                    e2.initCause(e);
+                    throw e2;
                 }
-            } catch (Exception e) {
-                Exception e2 = new Exception("Exception while processing SequenceFeature "
-                        + feature);
-                e2.initCause(e);
-                throw e2;
             }
-        }
-
-        osw.commitTransaction();
 
-        String organism = "";
-        if (chr.getOrganism() != null) {
-            organism = chr.getOrganism().getShortName();
+            writer.commitTransaction();
+        } finally {
+            if (writer.isInTransaction()) {
+                writer.abortTransaction();
+            }
+            writer.close();
         }
+
         LOG.info("Finished setting " + i + " feature sequences for " + organism + " chromosome "
                 + chr.getPrimaryIdentifier() + " - took "
                 + (System.currentTimeMillis() - startTime) + " ms.");
+        return i;
     }
 
-    private ClobAccess getSubSequence(Sequence chromosomeSequence, Location locationOnChr) {
+    private ClobAccess getSubSequence(ClobAccess chromosomeSequenceString,
+            Location locationOnChr) {
         int charsToCopy =
             locationOnChr.getEnd().intValue() - locationOnChr.getStart().intValue() + 1;
-        ClobAccess chromosomeSequenceString = chromosomeSequence.getResidues();
 
         if (charsToCopy > chromosomeSequenceString.length()) {
             LOG.warn("SequenceFeature too long, ignoring - Location: "
@@ -307,9 +388,61 @@ public class TransferSequences
 
         long startTime = System.currentTimeMillis();
 
-        osw.beginTransaction();
-
         ObjectStore os = osw.getObjectStore();
+        Class<?> transcriptClass = model.getClassDescriptorByName("Transcript").getType();
+
+        // Precompute the whole query once, the queries for each range of transcripts use it
+        ((ObjectStoreInterMineImpl) os).precompute(makeTranscriptQuery(null, null),
+                Constants.PRECOMPUTE_CATEGORY);
+
+        // The transcripts are split into ranges of id rather than by chromosome, because the
+        // exons of a trans-spliced transcript may be on different chromosomes
+        Query rangeQuery = new Query();
+        QueryClass qcRange = new QueryClass(transcriptClass);
+        rangeQuery.addFrom(qcRange);
+        rangeQuery.addToSelect(new QueryFunction(new QueryField(qcRange, "id"),
+                    QueryFunction.MIN));
+        rangeQuery.addToSelect(new QueryFunction(new QueryField(qcRange, "id"),
+                    QueryFunction.MAX));
+        List<ResultsRow<Object>> rangeRows = os.execute(rangeQuery, 0, 1, false, false,
+                ObjectStore.SEQUENCE_IGNORE);
+        if (rangeRows.isEmpty() || (rangeRows.get(0).get(0) == null)) {
+            LOG.error("in transferToTranscripts(): no Transcripts found");
+            return;
+        }
+        long minId = ((Number) rangeRows.get(0).get(0)).longValue();
+        long maxId = ((Number) rangeRows.get(0).get(1)).longValue();
+        int ranges = TRANSFER_THREADS * RANGES_PER_THREAD;
+        long step = (maxId - minId) / ranges + 1;
+
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (long low = minId; low <= maxId; low += step) {
+            final Integer from = new Integer((int) low);
+            final Integer to = new Integer((int) Math.min(low + step, maxId + 1L));
+            tasks.add(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    return new Integer(transferForTranscripts(from, to));
+                }
+            });
+        }
+        int total = runInParallel(tasks);
+
+        if (total == 0) {
+            LOG.error("in transferToTranscripts(): no Transcripts found");
+        }
+        LOG.info("Finished setting " + total + " Trascript sequences - took "
+                 + (System.currentTimeMillis() - startTime) + " ms.");
+    }
+
+    /**
+     * Makes the query for the exons of transcripts that don't have a sequence, in transcript
+     * and exon start order.
+     *
+     * @param from the lowest id of the transcripts to find, or null for no limit
+     * @param to the id above the highest id of the transcripts to find, or null for no limit
+     * @return a Query
+     */
+    private Query makeTranscriptQuery(Integer from, Integer to) {
         Query q = new Query();
         q.setDistinct(false);
 
@@ -361,55 +494,74 @@ public class TransferSequences
 
         cs.addConstraint(lsfSeqRefNull);
 
+        QueryField qfTranscriptId = new QueryField(qcTranscript, "id");
+        if (from != null) {
+            cs.addConstraint(new SimpleConstraint(qfTranscriptId,
+                        ConstraintOp.GREATER_THAN_EQUALS, new QueryValue(from)));
+        }
+        if (to != null) {
+            cs.addConstraint(new SimpleConstraint(qfTranscriptId, ConstraintOp.LESS_THAN,
+                        new QueryValue(to)));
+        }
+
         q.setConstraint(cs);
+        return q;
+    }
 
-        ((ObjectStoreInterMineImpl) os).precompute(q, Constants
-                                                   .PRECOMPUTE_CATEGORY);
-        Results res = os.execute(q, 1000, true, true, true);
+    private int transferForTranscripts(Integer from, Integer to) throws Exception {
+        ObjectStore os = osw.getObjectStore();
+        Results res = os.execute(makeTranscriptQuery(from, to), 1000, true, true, true);
 
         Iterator<?> resIter = res.iterator();
 
         SequenceFeature currentTranscript = null;
         StringBuffer currentTranscriptBases = new StringBuffer();
 
+        ObjectStoreWriter writer = os.getNewWriter();
         long start = System.currentTimeMillis();
         int i = 0;
-        while (resIter.hasNext()) {
-            ResultsRow<?> rr = (ResultsRow<?>) resIter.next();
-            SequenceFeature transcript =  (SequenceFeature) rr.get(0);
-
-            if (currentTranscript == null || !transcript.equals(currentTranscript)) {
-                if (currentTranscript != null) {
-                    storeNewSequence(currentTranscript,
-                            new PendingClob(currentTranscriptBases.toString()));
-                    i++;
-                    if (i % 100 == 0) {
-                        long now = System.currentTimeMillis();
-                        LOG.info("Set sequences for " + i + " Transcripts"
-                                + " (avg = " + ((60000L * i) / (now - start)) + " per minute)");
+        try {
+            writer.beginTransaction();
+            while (resIter.hasNext()) {
+                ResultsRow<?> rr = (ResultsRow<?>) resIter.next();
+                SequenceFeature transcript =  (SequenceFeature) rr.get(0);
+
+                if (currentTranscript == null || !transcript.equals(currentTranscript)) {
+                    if (currentTranscript != null) {
+                        storeNewSequence(writer, currentTranscript,
+                                new PendingClob(currentTranscriptBases.toString()));
+                        i++;
+                        if (i % 100 == 0) {
+                            long now = System.currentTimeMillis();
+                            LOG.info("Set sequences for " + i + " Transcripts with ids from "
+                                    + from + " (avg = " + ((60000L * i) / (now - start))
+                                    + " per minute)");
+                        }
                     }
+                    currentTranscriptBases = new StringBuffer();
+                    currentTranscript = transcript;
                 }
-                currentTranscriptBases = new StringBuffer();
-                currentTranscript = transcript;
-            }
 
-            Sequence exonSequence = (Sequence) rr.get(2);
-            Location  location = (Location) rr.get(3);
-            if (location.getStrand() != null && "-1".equals(location.getStrand())) {
-                currentTranscriptBases.insert(0, exonSequence.getResidues().toString());
-            } else {
-                currentTranscriptBases.append(exonSequence.getResidues().toString());
+                Sequence exonSequence = (Sequence) rr.get(2);
+                Location  location = (Location) rr.get(3);
+                if (location.getStrand() != null && "-1".equals(location.getStrand())) {
+                    currentTranscriptBases.insert(0, exonSequence.getResidues().toString());
+                } else {
+                    currentTranscriptBases.append(exonSequence.getResidues().toString());
+                }
             }
+            if (currentTranscript != null) {
+                storeNewSequence(writer, currentTranscript,
+                        new PendingClob(currentTranscriptBases.toString()));
+                i++;
+            }
+            writer.commitTransaction();
+        } finally {
+            if (writer.isInTransaction()) {
+                writer.abortTransaction();
+            }
+            writer.close();
         }
-        if (currentTranscript == null) {
-            LOG.error("in transferToTranscripts(): no Transcripts found");
-        } else {
-            storeNewSequence(currentTranscript, new PendingClob(currentTranscriptBases.toString()));
-        }
-
-        LOG.info("Finished setting " + i + " Trascript sequences - took "
-                 + (System.currentTimeMillis() - startTime) + " ms.");
-
-        osw.commitTransaction();
+        return i;
     }
 }
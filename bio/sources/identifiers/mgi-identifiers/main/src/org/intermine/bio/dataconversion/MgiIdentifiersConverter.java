@@ -43,6 +43,17 @@ public class MgiIdentifiersConverter extends BioFileConverter
         super(writer, model, DATA_SOURCE_NAME, DATASET_TITLE);
     }
 
+    /**
+     * Each line is converted on its own and nothing is kept between files, so files can be
+     * converted in parallel.  The Organism and DataSet made by each converter instance are merged
+     * by the keys of this source.
+     * @return true
+     */
+    @Override
+    public boolean isShardable() {
+        return true;
+    }
+
     /**
      *
      *
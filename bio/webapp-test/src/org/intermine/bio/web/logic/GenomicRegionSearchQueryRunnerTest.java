@@ -0,0 +1,121 @@
+package org.intermine.bio.web.logic;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.intermine.bio.web.model.GenomicRegion;
+import org.intermine.model.bio.Gene;
+import org.intermine.objectstore.query.ResultsRow;
+import org.junit.Test;
+
+public class GenomicRegionSearchQueryRunnerTest {
+
+    private static GenomicRegion region(String chr, int start, int end) {
+        GenomicRegion gr = new GenomicRegion();
+        gr.setChr(chr);
+        gr.setStart(start);
+        gr.setEnd(end);
+        return gr;
+    }
+
+    // Same columns as the queries: id, primaryIdentifier, symbol, class, chromosome, start, end
+    private static ResultsRow<?> row(String id, int start, int end) {
+        return new ResultsRow<Object>(Arrays.<Object>asList(id.hashCode(), id, null,
+                    Gene.class, "2L", start, end));
+    }
+
+    private static List<String> ids(List<ResultsRow<?>> rows) {
+        List<String> ids = new ArrayList<String>();
+        for (ResultsRow<?> row : rows) {
+            ids.add((String) row.get(1));
+        }
+        return ids;
+    }
+
+    @Test
+    public void overlappingRegions() {
+        GenomicRegion first = region("2L", 100, 200);
+        GenomicRegion second = region("2L", 150, 300);
+        List<ResultsRow<?>> rows = Arrays.<ResultsRow<?>>asList(row("late", 250, 260),
+                row("both", 160, 170), row("early", 90, 110), row("none", 400, 500));
+
+        Map<GenomicRegion, List<ResultsRow<?>>> assigned =
+            GenomicRegionSearchQueryRunner.assignToRegions(Arrays.asList(first, second), rows);
+        assertEquals(Arrays.asList("early", "both"), ids(assigned.get(first)));
+        assertEquals(Arrays.asList("both", "late"), ids(assigned.get(second)));
+    }
+
+    @Test
+    public void adjacentRegions() {
+        GenomicRegion first = region("2L", 1, 100);
+        GenomicRegion second = region("2L", 101, 200);
+        List<ResultsRow<?>> rows = Arrays.<ResultsRow<?>>asList(row("end", 90, 100),
+                row("across", 100, 101), row("start", 101, 110));
+
+        Map<GenomicRegion, List<ResultsRow<?>>> assigned =
+            GenomicRegionSearchQueryRunner.assignToRegions(Arrays.asList(first, second), rows);
+        assertEquals(Arrays.asList("end", "across"), ids(assigned.get(first)));
+        assertEquals(Arrays.asList("across", "start"), ids(assigned.get(second)));
+    }
+
+    @Test
+    public void extendedAndZeroExtensionRegions() {
+        GenomicRegion plain = region("2L", 1000, 2000);
+        GenomicRegion extended = region("2L", 5000, 6000);
+        GenomicRegionSearchUtil.extendGenomicRegions(Collections.singletonList(extended), 100);
+        List<ResultsRow<?>> rows = Arrays.<ResultsRow<?>>asList(row("beforePlain", 950, 990),
+                row("beforeExtended", 4950, 4990), row("afterExtended", 6050, 6200));
+
+        Map<GenomicRegion, List<ResultsRow<?>>> assigned =
+            GenomicRegionSearchQueryRunner.assignToRegions(Arrays.asList(plain, extended), rows);
+        assertEquals(Collections.emptyList(), assigned.get(plain));
+        assertEquals(Arrays.asList("beforeExtended", "afterExtended"),
+                ids(assigned.get(extended)));
+    }
+
+    @Test
+    public void longFeatureStartingFarBefore() {
+        GenomicRegion gr = region("2L", 50000, 50100);
+        List<ResultsRow<?>> rows = Arrays.<ResultsRow<?>>asList(row("short", 10, 20),
+                row("long", 1, 100000), row("inside", 50010, 50020));
+
+        Map<GenomicRegion, List<ResultsRow<?>>> assigned =
+            GenomicRegionSearchQueryRunner.assignToRegions(Collections.singletonList(gr), rows);
+        assertEquals(Arrays.asList("long", "inside"), ids(assigned.get(gr)));
+    }
+
+    @Test
+    public void noRows() {
+        GenomicRegion gr = region("2L", 100, 200);
+        Map<GenomicRegion, List<ResultsRow<?>>> assigned =
+            GenomicRegionSearchQueryRunner.assignToRegions(Collections.singletonList(gr),
+                    Collections.<ResultsRow<?>>emptyList());
+        assertEquals(Collections.emptyList(), assigned.get(gr));
+    }
+
+    @Test
+    public void crossChromosomeRegions() {
+        GenomicRegion first = region("2L", 100, 200);
+        GenomicRegion onX = region("X", 100, 200);
+        GenomicRegion second = region("2L", 300, 400);
+
+        Map<String, List<GenomicRegion>> byChr = GenomicRegionSearchQueryRunner
+            .groupByChromosome(Arrays.asList(first, onX, second));
+        assertEquals(2, byChr.size());
+        assertEquals(Arrays.asList(first, second), byChr.get("2L"));
+        assertEquals(Arrays.asList(onX), byChr.get("X"));
+
+        // rows found on 2L are only assigned to the regions on 2L
+        Map<GenomicRegion, List<ResultsRow<?>>> assigned =
+            GenomicRegionSearchQueryRunner.assignToRegions(byChr.get("2L"),
+                    Arrays.<ResultsRow<?>>asList(row("gene", 150, 160)));
+        assertEquals(2, assigned.size());
+        assertEquals(Arrays.asList("gene"), ids(assigned.get(first)));
+        assertEquals(Collections.emptyList(), assigned.get(second));
+    }
+}
@@ -0,0 +1,102 @@
+package org.intermine.bio.web.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.intermine.bio.web.model.GenomicRegion;
+import org.intermine.model.bio.Gene;
+import org.intermine.objectstore.query.Query;
+import org.junit.Test;
+
+public class GenomicRegionSearchUtilTest {
+
+    private static GenomicRegion region(String chr, int start, int end) {
+        GenomicRegion gr = new GenomicRegion();
+        gr.setChr(chr);
+        gr.setStart(start);
+        gr.setEnd(end);
+        return gr;
+    }
+
+    private static List<int[]> ranges(int... bounds) {
+        List<int[]> ranges = new ArrayList<int[]>();
+        for (int i = 0; i < bounds.length; i += 2) {
+            ranges.add(new int[] {bounds[i], bounds[i + 1]});
+        }
+        return ranges;
+    }
+
+    private static void assertRanges(List<int[]> expected, List<int[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(Arrays.toString(expected.get(i)), Arrays.toString(actual.get(i)));
+        }
+    }
+
+    @Test
+    public void mergeOverlapping() {
+        assertRanges(ranges(10, 30), GenomicRegionSearchUtil.mergeRanges(ranges(15, 30, 10, 20)));
+        // contained
+        assertRanges(ranges(10, 50), GenomicRegionSearchUtil.mergeRanges(ranges(10, 50, 20, 30)));
+    }
+
+    @Test
+    public void mergeAdjacent() {
+        assertRanges(ranges(10, 30), GenomicRegionSearchUtil.mergeRanges(ranges(10, 20, 21, 30)));
+        assertRanges(ranges(10, 20, 22, 30),
+                GenomicRegionSearchUtil.mergeRanges(ranges(22, 30, 10, 20)));
+    }
+
+    @Test
+    public void mergeDoesNotChangeInput() {
+        List<int[]> input = ranges(10, 20, 15, 30);
+        GenomicRegionSearchUtil.mergeRanges(input);
+        assertRanges(ranges(10, 20, 15, 30), input);
+    }
+
+    @Test
+    public void zeroExtension() {
+        GenomicRegion gr = region("2L", 100, 200);
+        List<GenomicRegion> extended =
+            GenomicRegionSearchUtil.extendGenomicRegions(Collections.singletonList(gr), 0);
+        assertEquals(1, extended.size());
+        assertSame(gr, extended.get(0));
+        assertNull(gr.getExtendedStart());
+        assertEquals(100, GenomicRegionSearchUtil.getSearchStart(gr));
+        assertEquals(200, GenomicRegionSearchUtil.getSearchEnd(gr));
+    }
+
+    @Test
+    public void extension() {
+        GenomicRegion gr = region("2L", 100, 200);
+        GenomicRegion nearStart = region("2L", 5, 10);
+        GenomicRegionSearchUtil.extendGenomicRegions(Arrays.asList(gr, nearStart), 50);
+        assertEquals(50, GenomicRegionSearchUtil.getSearchStart(gr));
+        assertEquals(250, GenomicRegionSearchUtil.getSearchEnd(gr));
+        assertEquals(1, GenomicRegionSearchUtil.getSearchStart(nearStart));
+        assertEquals(60, GenomicRegionSearchUtil.getSearchEnd(nearStart));
+    }
+
+    @Test
+    public void batchedQueriesPerChromosome() {
+        Set<Class<?>> featureTypes = new HashSet<Class<?>>();
+        featureTypes.add(Gene.class);
+        List<GenomicRegion> regions = Arrays.asList(region("2L", 100, 200),
+                region("X", 100, 200), region("2L", 150, 300), region("2L", 1000, 2000));
+
+        Map<String, List<Query>> queries = GenomicRegionSearchUtil.createBatchedRegionQueries(
+                regions, 0, "D. melanogaster", featureTypes, false);
+        assertEquals(Arrays.asList("2L", "X"), new ArrayList<String>(queries.keySet()));
+        assertEquals(1, queries.get("2L").size());
+        assertEquals(1, queries.get("X").size());
+    }
+}
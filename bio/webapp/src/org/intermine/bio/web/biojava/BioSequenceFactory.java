@@ -67,6 +67,19 @@ public abstract class BioSequenceFactory
         }
     }
 
+    /**
+     * Create a new BioSequence from a SequenceFeature, using residues that the caller has already
+     * found for it, for example as part of a chromosome sequence.
+     * @param feature the SequenceFeature
+     * @param residues the residues of the feature
+     * @return a new BioSequence object
+     * @throws IllegalSymbolException if any of the residues can't be turned into DNA symbols.
+     */
+    public static BioSequence make(SequenceFeature feature, CharSequence residues)
+        throws IllegalSymbolException {
+        return new BioSequence(DNATools.createDNA(residues.toString()), feature);
+    }
+
     /**
      * Create a new BioSequence from a Protein
      * @param protein the Protein
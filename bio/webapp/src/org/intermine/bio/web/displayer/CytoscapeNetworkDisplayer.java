@@ -129,7 +129,8 @@ public class CytoscapeNetworkDisplayer extends ReportDisplayer
 
 
         //=== Query a full set of interacting genes ===
-        CytoscapeNetworkDBQueryRunner queryRunner = new CytoscapeNetworkDBQueryRunner();
+        CytoscapeNetworkDBQueryRunner queryRunner = new CytoscapeNetworkDBQueryRunner(
+                CytoscapeNetworkUtil.getInteractionIndex(os));
         Set<Integer> fullInteractingGeneSet = queryRunner.getInteractingGenes(
                 featureType, startingFeatureSet, model, executor);
 
@@ -202,7 +202,8 @@ public final class FriendlyMineLinkGenerator extends InterMineLinkGenerator
         try {
             final String webserviceURL = mine.getUrl() + WEBSERVICE_URL + QUERY_PATH
                     + URLEncoder.encode("" + q.toXml(), "UTF-8");
-            BufferedReader reader = FriendlyMineQueryRunner.runWebServiceQuery(webserviceURL);
+            BufferedReader reader = FriendlyMineQueryRunner.runWebServiceQuery(mine,
+                    webserviceURL);
             if (reader == null) {
                 LOG.warn(mine.getName() + " could not run query " + webserviceURL);
                 return null;
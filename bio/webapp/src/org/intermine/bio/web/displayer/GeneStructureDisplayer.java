@@ -46,7 +46,7 @@ public class GeneStructureDisplayer extends ReportDisplayer
     @Override
     public void display(HttpServletRequest request, ReportObject reportObject) {
         List<GeneModel> geneModels =
-            GeneModelCache.getGeneModels(reportObject.getObject(), im.getModel());
+            GeneModelCache.getGeneModels(reportObject.getObject(), im.getObjectStore());
 
         if (geneModels != null && !geneModels.isEmpty()) {
             Gene gene = geneModels.get(0).getGene();
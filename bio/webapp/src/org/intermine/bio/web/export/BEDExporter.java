@@ -108,8 +108,10 @@ public class BEDExporter implements Exporter
             throw new ExportException("No columns with sequence");
         }
         try {
-            while (resultIt.hasNext()) {
-                List<ResultElement> row = resultIt.next();
+            Iterator<List<ResultElement>> rows = new FeatureBatchIterator(resultIt,
+                    FeatureBatchIterator.LOCATION_REFERENCES);
+            while (rows.hasNext()) {
+                List<ResultElement> row = rows.next();
                 exportRow(row);
             }
             finishLastRow();
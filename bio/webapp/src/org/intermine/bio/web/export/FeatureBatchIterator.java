@@ -0,0 +1,134 @@
+package org.intermine.bio.web.export;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.intermine.api.results.ResultElement;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.proxy.ProxyReference;
+
+/**
+ * An Iterator over rows of results that reads the rows in batches, and fetches the objects
+ * referenced by the features in each batch with one query before the rows are handed on. The
+ * GFF3, BED and FASTA exporters otherwise look up the location, chromosome, organism and sequence
+ * of each feature one at a time as they write it. The objects fetched for a batch are held until
+ * the next batch is read, so they stay in the ObjectStore cache while they are used.
+ */
+public class FeatureBatchIterator implements Iterator<List<ResultElement>>
+{
+    private static final Logger LOG = Logger.getLogger(FeatureBatchIterator.class);
+
+    /** The number of rows read for each batch. */
+    public static final int BATCH_SIZE = 1000;
+
+    /** The references of a SequenceFeature used to make GFF3 and BED records. */
+    public static final List<String> LOCATION_REFERENCES = Arrays.asList("chromosomeLocation",
+            "chromosome", "organism");
+
+    /** The references of a SequenceFeature or Protein used to make FASTA records. */
+    public static final List<String> SEQUENCE_REFERENCES = Arrays.asList("chromosomeLocation",
+            "chromosome", "organism", "sequence");
+
+    private final Iterator<? extends List<ResultElement>> rows;
+    private final Collection<String> references;
+    private final LinkedList<List<ResultElement>> batch = new LinkedList<List<ResultElement>>();
+    private List<InterMineObject> fetched = new ArrayList<InterMineObject>();
+
+    /**
+     * Constructor.
+     *
+     * @param rows the rows to iterate over
+     * @param references the names of the references to fetch for each object in the rows
+     */
+    public FeatureBatchIterator(Iterator<? extends List<ResultElement>> rows,
+            Collection<String> references) {
+        this.rows = rows;
+        this.references = references;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        if (batch.isEmpty() && rows.hasNext()) {
+            readBatch();
+        }
+        return !batch.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<ResultElement> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return batch.removeFirst();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private void readBatch() {
+        fetched = new ArrayList<InterMineObject>();
+        Set<Integer> ids = new HashSet<Integer>();
+        ObjectStore os = null;
+        while ((batch.size() < BATCH_SIZE) && rows.hasNext()) {
+            List<ResultElement> row = rows.next();
+            batch.add(row);
+            for (ResultElement el : row) {
+                if ((el == null) || !(el.getObject() instanceof InterMineObject)) {
+                    continue;
+                }
+                InterMineObject o = (InterMineObject) el.getObject();
+                for (String reference : references) {
+                    Object proxy;
+                    try {
+                        proxy = o.getFieldProxy(reference);
+                    } catch (IllegalAccessException e) {
+                        continue;
+                    } catch (IllegalArgumentException e) {
+                        // This class does not have the reference
+                        continue;
+                    }
+                    if (proxy instanceof ProxyReference) {
+                        ids.add(((ProxyReference) proxy).getId());
+                        os = ((ProxyReference) proxy).getObjectStore();
+                    }
+                }
+            }
+        }
+        if (!ids.isEmpty()) {
+            try {
+                fetched.addAll(os.getObjectsByIds(ids));
+            } catch (ObjectStoreException e) {
+                // Only a hint - the objects will be fetched one at a time instead
+                LOG.warn("Failed to fetch " + ids.size() + " referenced objects", e);
+            }
+        }
+    }
+}
@@ -162,8 +162,10 @@ public class GFF3Exporter implements Exporter
         }
         try {
             // LOG.info("SOO:" + cNames.toString());
-            while (resultIt.hasNext()) {
-                List<ResultElement> row = resultIt.next();
+            Iterator<List<ResultElement>> rows = new FeatureBatchIterator(resultIt,
+                    FeatureBatchIterator.LOCATION_REFERENCES);
+            while (rows.hasNext()) {
+                List<ResultElement> row = rows.next();
                 exportRow(row, unionPathCollection, newPathCollection);
             }
 
@@ -1,5 +1,6 @@
 package org.intermine.bio.web.export;
 
+import java.io.BufferedOutputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
@@ -12,7 +13,6 @@ import java.util.Map;
 
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.collections.keyvalue.MultiKey;
 import org.biojava.bio.seq.DNATools;
 import org.biojava.bio.seq.Sequence;
 import org.biojava.bio.seq.io.FastaFormat;
@@ -22,6 +22,7 @@ import org.intermine.model.bio.Chromosome;
 import org.intermine.model.bio.Organism;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.ClobAccess;
 import org.intermine.util.DynamicUtil;
 import org.intermine.util.StringUtil;
 
@@ -34,8 +35,6 @@ public class GenomicRegionSequenceExporter
 {
     private ObjectStore os;
     private OutputStream out;
-    // Map to hold DNA sequence of a whole chromosome in memory
-    private static Map<MultiKey, String> chromosomeSequenceMap = new HashMap<MultiKey, String>();
 
     /**
      * Instructor
@@ -45,7 +44,7 @@ public class GenomicRegionSequenceExporter
      */
     public GenomicRegionSequenceExporter(ObjectStore os, OutputStream out) {
         this.os = os;
-        this.out = out;
+        this.out = new BufferedOutputStream(out);
     }
 
     /**
@@ -62,26 +61,25 @@ public class GenomicRegionSequenceExporter
 
         org = (Organism) os.getObjectByExample(org, Collections.singleton("shortName"));
 
+        // The chromosomes of the regions, looked up once each. Regions are sliced from the
+        // residues of their chromosome, so only the pages of the sequence that hold the regions
+        // are fetched, and they are shared by regions close to each other.
+        Map<String, Chromosome> chromosomes = new HashMap<String, Chromosome>();
+        Map<String, ClobAccess> residues = new HashMap<String, ClobAccess>();
         for (GenomicRegion gr : grList) {
-            Chromosome chr = (Chromosome) DynamicUtil.createObject(Collections.singleton(Chromosome.class));
-            chr.setPrimaryIdentifier(gr.getChr());
-            chr.setOrganism(org);
-
-            chr = (Chromosome) os.getObjectByExample(chr,
+            Chromosome chr = chromosomes.get(gr.getChr());
+            if (chr == null) {
+                chr = (Chromosome) DynamicUtil.createObject(Collections
+                        .singleton(Chromosome.class));
+                chr.setPrimaryIdentifier(gr.getChr());
+                chr.setOrganism(org);
+
+                chr = (Chromosome) os.getObjectByExample(chr,
                         new HashSet<String>(Arrays.asList("primaryIdentifier", "organism")));
-
-            String chrResidueString;
-            if (chromosomeSequenceMap.get(new MultiKey(gr.getChr(), gr
-                    .getOrganism())) == null) {
-                chrResidueString = chr.getSequence().getResidues()
-                        .toString();
-                chromosomeSequenceMap.put(
-                        new MultiKey(gr.getChr(), gr.getOrganism()), chr
-                                .getSequence().getResidues().toString());
-            } else {
-                chrResidueString = chromosomeSequenceMap.get(new MultiKey(
-                        gr.getChr(), gr.getOrganism()));
+                chromosomes.put(gr.getChr(), chr);
+                residues.put(gr.getChr(), chr.getSequence().getResidues());
             }
+            ClobAccess chrResidues = residues.get(gr.getChr());
 
             int chrLength = chr.getLength();
             int start;
@@ -109,7 +107,7 @@ public class GenomicRegionSequenceExporter
                     + gr.getOrganism().replace("\\. ", "_");
 
             Sequence chrSeg = DNATools.createDNASequence(
-                chrResidueString.substring(start - 1, end),
+                chrResidues.subSequence(start - 1, end).toString(),
                 seqName);
             chrSeg.getAnnotation().setProperty(
                     FastaFormat.PROPERTY_DESCRIPTIONLINE, header);
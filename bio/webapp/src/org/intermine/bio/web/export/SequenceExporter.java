@@ -10,6 +10,7 @@ package org.intermine.bio.web.export;
  *
  */
 
+import java.io.BufferedOutputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
@@ -20,7 +21,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.collections.keyvalue.MultiKey;
 import org.apache.log4j.Logger;
 import org.biojava.bio.Annotation;
 import org.biojava.bio.seq.DNATools;
@@ -30,6 +30,7 @@ import org.biojava.bio.seq.io.SeqIOTools;
 import org.biojava.bio.symbol.IllegalSymbolException;
 import org.intermine.api.config.ClassKeyHelper;
 import org.intermine.api.results.ResultElement;
+import org.intermine.bio.util.ClobAccessReverseComplement;
 import org.intermine.bio.web.biojava.BioSequence;
 import org.intermine.bio.web.biojava.BioSequenceFactory;
 import org.intermine.metadata.FieldDescriptor;
@@ -41,6 +42,7 @@ import org.intermine.model.bio.Location;
 import org.intermine.model.bio.Protein;
 import org.intermine.model.bio.SequenceFeature;
 import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.query.ClobAccess;
 import org.intermine.pathquery.Path;
 import org.intermine.util.IntPresentSet;
 import org.intermine.util.StringUtil;
@@ -67,8 +69,9 @@ public class SequenceExporter implements Exporter
     private final Map<String, List<FieldDescriptor>> classKeys;
 
     private int extension; // must > 0
-    // Map to hold DNA sequence of a whole chromosome in memory
-    private static Map<MultiKey, String> chromosomeSequenceMap = new HashMap<MultiKey, String>();
+    // The residues of each chromosome seen, which feature sequences are sliced from, so that the
+    // pages of a chromosome sequence are fetched once for all the features on it
+    private final Map<Integer, ClobAccess> chromosomeResidues = new HashMap<Integer, ClobAccess>();
 
     /**
      * Constructor.
@@ -84,7 +87,7 @@ public class SequenceExporter implements Exporter
     public SequenceExporter(ObjectStore os, OutputStream outputStream,
             int featureIndex, Map<String, List<FieldDescriptor>> classKeys, int extension) {
         this.os = os;
-        this.out = outputStream;
+        this.out = new BufferedOutputStream(outputStream);
         this.featureIndex = featureIndex;
         this.classKeys = classKeys;
         this.extension = extension;
@@ -114,15 +117,17 @@ public class SequenceExporter implements Exporter
         IntPresentSet exportedIDs = new IntPresentSet();
 
         try {
-            while (resultIt.hasNext()) {
-                List<ResultElement> row = resultIt.next();
+            Iterator<List<ResultElement>> rows = new FeatureBatchIterator(resultIt,
+                    FeatureBatchIterator.SEQUENCE_REFERENCES);
+            while (rows.hasNext()) {
+                List<ResultElement> row = rows.next();
 
                 StringBuffer header = new StringBuffer();
 
                 ResultElement resultElement = row.get(featureIndex);
 
                 Sequence bioSequence;
-                Object object = os.getObjectById(resultElement.getId());
+                Object object = resultElement.getObject();
                 if (!(object instanceof InterMineObject)) {
                     continue;
                 }
@@ -205,7 +210,12 @@ public class SequenceExporter implements Exporter
         throws IllegalSymbolException {
         BioSequence bioSequence;
         SequenceFeature feature = (SequenceFeature) object;
-        bioSequence = BioSequenceFactory.make(feature);
+        if (feature.getSequence() == null || feature.getSequence().getResidues() == null) {
+            bioSequence = null;
+        } else {
+            bioSequence = BioSequenceFactory.make(feature,
+                    getResidues(feature.getChromosome(), feature.getSequence().getResidues()));
+        }
 
         makeHeader(header, object, row, unionPathCollection, newPathCollection);
         return bioSequence;
@@ -226,15 +236,7 @@ public class SequenceExporter implements Exporter
         int end = feature.getChromosomeLocation().getEnd();
         String org = feature.getOrganism().getShortName();
 
-        String chrResidueString;
-        if (chromosomeSequenceMap.get(new MultiKey(chrName, org)) == null) {
-            chrResidueString = chr.getSequence().getResidues()
-                    .toString();
-            chromosomeSequenceMap.put(
-                    new MultiKey(chrName, org), chr.getSequence().getResidues().toString());
-        } else {
-            chrResidueString = chromosomeSequenceMap.get(new MultiKey(chrName, org));
-        }
+        ClobAccess chrResidues = getChromosomeResidues(chr);
 
         if (extension > 0) {
             start = start - extension;
@@ -248,13 +250,49 @@ public class SequenceExporter implements Exporter
                 + start + "_" + end + "_"
                 + org.replace("\\. ", "_");
 
-        Sequence seq = DNATools.createDNASequence(chrResidueString.substring(start - 1, end),
-                        seqName);
+        Sequence seq = DNATools.createDNASequence(chrResidues.subSequence(start - 1, end)
+                .toString(), seqName);
 
         makeHeader(header, object, row, unionPathCollection, newPathCollection);
         return seq;
     }
 
+    private ClobAccess getChromosomeResidues(Chromosome chr) {
+        ClobAccess residues = chromosomeResidues.get(chr.getId());
+        if (residues == null && !chromosomeResidues.containsKey(chr.getId())) {
+            if (chr.getSequence() != null) {
+                residues = chr.getSequence().getResidues();
+            }
+            chromosomeResidues.put(chr.getId(), residues);
+        }
+        return residues;
+    }
+
+    /**
+     * Returns the residues of a feature, read through the residues of its chromosome if the
+     * feature sequence is a part of the chromosome sequence.
+     */
+    private CharSequence getResidues(Chromosome chr, ClobAccess residues) {
+        if (chr == null) {
+            return residues;
+        }
+        ClobAccess chrResidues = getChromosomeResidues(chr);
+        if (chrResidues == null || !residues.getClob().equals(chrResidues.getClob())) {
+            return residues;
+        }
+        int start = residues.getOffset() - chrResidues.getOffset();
+        if (start < 0 || start + residues.length() > chrResidues.length()) {
+            return residues;
+        }
+        ClobAccess slice = chrResidues.subSequence(start, start + residues.length());
+        if (residues instanceof ClobAccessReverseComplement) {
+            return new ClobAccessReverseComplement(slice);
+        } else if (ClobAccess.class.equals(residues.getClass())) {
+            return slice;
+        }
+        return residues;
+    }
+
     /**
      * Set the header to be the contents of row, separated by spaces.
      */
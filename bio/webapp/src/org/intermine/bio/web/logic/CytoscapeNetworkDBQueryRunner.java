@@ -10,6 +10,7 @@ package org.intermine.bio.web.logic;
  *
  */
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -19,12 +20,14 @@ import org.apache.log4j.Logger;
 import org.intermine.api.query.PathQueryExecutor;
 import org.intermine.api.results.ExportResultsIterator;
 import org.intermine.api.results.ResultElement;
+import org.intermine.bio.util.InteractionIndex;
 import org.intermine.metadata.Model;
 import org.intermine.pathquery.Constraints;
 import org.intermine.pathquery.PathQuery;
 
 /**
- * This class has the logics to query the database for interaction information.
+ * This class has the logics to query the database for interaction information.  If an
+ * InteractionIndex is available the interacting genes are found in it rather than queried.
  *
  * @author Fengyuan Hu
  *
@@ -34,6 +37,24 @@ public class CytoscapeNetworkDBQueryRunner
     @SuppressWarnings("unused")
     private static final Logger LOG = Logger.getLogger(CytoscapeNetworkDBQueryRunner.class);
 
+    private final InteractionIndex interactionIndex;
+
+    /**
+     * Construct a query runner that queries the database for all interactions.
+     */
+    public CytoscapeNetworkDBQueryRunner() {
+        this(null);
+    }
+
+    /**
+     * Construct a query runner that uses an index of interactions where it can.
+     *
+     * @param interactionIndex the index of interactions, or null to query the database
+     */
+    public CytoscapeNetworkDBQueryRunner(InteractionIndex interactionIndex) {
+        this.interactionIndex = interactionIndex;
+    }
+
     /**
      * Find all genes that interact with each other.
      *
@@ -70,6 +91,9 @@ public class CytoscapeNetworkDBQueryRunner
         }
 
         //=== Get genes interacting with starting genes ===
+        if (interactionIndex != null) {
+            return interactionIndex.getInteractingGenes(startingGeneSet);
+        }
 
         PathQuery q = new PathQuery(model);
 
@@ -112,6 +136,14 @@ public class CytoscapeNetworkDBQueryRunner
             return null;
         }
 
+        if (interactionIndex != null) {
+            // only genes with interactions within the network need to be queried
+            keys = interactionIndex.getConnectedGenes(keys);
+            if (keys.isEmpty()) {
+                return null;
+            }
+        }
+
         q.addViews("Gene.primaryIdentifier",
                 "Gene.symbol",
                 "Gene.interactions.details.type",
@@ -135,7 +167,7 @@ public class CytoscapeNetworkDBQueryRunner
      * Query interactions to extend current network.
      *
      * @param geneId the internal object id of the gene to extend network for
-     * @param keys a list of genes
+     * @param keys the genes already in the network, may be null
      * @param model the Model
      * @param executor the PathQueryExecutor
      * @return raw query results
@@ -143,10 +175,13 @@ public class CytoscapeNetworkDBQueryRunner
     public ExportResultsIterator extendNetwork(String geneId,
             Set<Integer> keys, Model model, PathQueryExecutor executor) {
 
-        Set<Integer> startingGeneSet = new HashSet<Integer>(Integer.valueOf(geneId));
+        Set<Integer> startingGeneSet = Collections.singleton(Integer.valueOf(geneId));
 
         Set<Integer> fullInteractingGeneSet = getInteractingGenes("Gene",
                 startingGeneSet, model, executor);
+        if (keys != null) {
+            fullInteractingGeneSet.addAll(keys);
+        }
         ExportResultsIterator results = getInteractions(fullInteractingGeneSet, model, executor);
 
         return results;
@@ -29,6 +29,7 @@ import org.intermine.api.profile.Profile;
 import org.intermine.api.query.PathQueryExecutor;
 import org.intermine.api.results.ExportResultsIterator;
 import org.intermine.api.results.ResultElement;
+import org.intermine.bio.util.InteractionIndex;
 import org.intermine.bio.web.model.CytoscapeNetworkEdgeData;
 import org.intermine.bio.web.model.CytoscapeNetworkNodeData;
 import org.intermine.metadata.Model;
@@ -86,8 +87,22 @@ public class CytoscapeNetworkService
             fullInteractingGeneSet.add(Integer.valueOf(s));
         }
 
+        //=== Check the size of the network without querying if possible ===
+        InteractionIndex interactionIndex = CytoscapeNetworkUtil.getInteractionIndex(os);
+        if (interactionIndex != null) {
+            int edgeCount = interactionIndex.countInteractions(fullInteractingGeneSet);
+            if (edgeCount == 0) {
+                return NO_INTERACTION_FOR_INPUT_GENE;
+            }
+            if (!ignoreLargeNetworkTest && interactionIndex.getConnectedGenes(
+                    fullInteractingGeneSet).size() + edgeCount >= LARGE_NETWORK_ELEMENT_COUNT) {
+                return LARGE_NETWORK;
+            }
+        }
+
         //=== Query interactions ===
-        CytoscapeNetworkDBQueryRunner queryRunner = new CytoscapeNetworkDBQueryRunner();
+        CytoscapeNetworkDBQueryRunner queryRunner =
+            new CytoscapeNetworkDBQueryRunner(interactionIndex);
         ExportResultsIterator rawIntData = queryRunner.getInteractions(
                 fullInteractingGeneSet, model, executor);
 
@@ -10,6 +10,9 @@ package org.intermine.bio.web.logic;
  *
  */
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -20,9 +23,14 @@ import org.apache.log4j.Logger;
 import org.intermine.api.query.PathQueryExecutor;
 import org.intermine.api.results.ExportResultsIterator;
 import org.intermine.api.results.ResultElement;
+import org.intermine.bio.util.InteractionIndex;
 import org.intermine.metadata.Model;
+import org.intermine.modelproduction.MetadataManager;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
 import org.intermine.pathquery.OrderDirection;
 import org.intermine.pathquery.PathQuery;
+import org.intermine.sql.Database;
 
 /**
  * Utility methods for Cytoscape Web and interaction data.
@@ -34,6 +42,8 @@ public final class CytoscapeNetworkUtil
     protected static final Logger LOG = Logger.getLogger(CytoscapeNetworkUtil.class);
 
     private static Map<String, Set<String>> interactionInfoMap = null;
+    private static InteractionIndex interactionIndex = null;
+    private static boolean interactionIndexLoaded = false;
 
     private CytoscapeNetworkUtil() {
         super();
@@ -58,6 +68,43 @@ public final class CytoscapeNetworkUtil
         return interactionInfoMap;
     }
 
+    /**
+     * Get the index of interactions between genes built by the create-interaction-index
+     * postprocess, loading it from the database the first time it is needed.
+     *
+     * @param os the ObjectStore
+     * @return the index, or null if the database has no interaction index
+     */
+    public static synchronized InteractionIndex getInteractionIndex(ObjectStore os) {
+        if (!interactionIndexLoaded) {
+            if (os instanceof ObjectStoreInterMineImpl) {
+                Database db = ((ObjectStoreInterMineImpl) os).getDatabase();
+                // only remember the outcome once the index has been read or is known to be
+                // missing, so a failed read is tried again by the next request
+                try {
+                    InputStream is = MetadataManager.retrieveBLOBInputStream(db,
+                            MetadataManager.INTERACTION_INDEX);
+                    if (is != null) {
+                        interactionIndex = InteractionIndex.read(is);
+                        LOG.info("Loaded interaction index of " + interactionIndex.size()
+                                + " interactions");
+                    } else {
+                        LOG.warn("No interaction index found in database, interaction networks"
+                                + " will be queried");
+                    }
+                    interactionIndexLoaded = true;
+                } catch (SQLException e) {
+                    LOG.error("Failed to read interaction index", e);
+                } catch (IOException e) {
+                    LOG.error("Failed to read interaction index", e);
+                }
+            } else {
+                interactionIndexLoaded = true;
+            }
+        }
+        return interactionIndex;
+    }
+
     /**
      * Query the general interaction information.
      *
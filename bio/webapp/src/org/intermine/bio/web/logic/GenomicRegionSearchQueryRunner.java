@@ -11,6 +11,7 @@ package org.intermine.bio.web.logic;
  */
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -62,7 +63,7 @@ public class GenomicRegionSearchQueryRunner implements Runnable
     private HttpServletRequest request = null;
     private String spanUUIDString = null;
     private GenomicRegionSearchConstraint grsc = null;
-    private Map<GenomicRegion, Query> queryMap = null;
+    private List<GenomicRegion> regions = null;
 
     private static Map<String, Map<String, ChromosomeInfo>> chrInfoMap = null;
 
@@ -72,15 +73,15 @@ public class GenomicRegionSearchQueryRunner implements Runnable
      * @param request HttpServletRequest
      * @param spanUUIDString UUID
      * @param grsc GenomicRegionSearchConstraint
-     * @param queryMap map of span and its query
+     * @param regions the spans to search, already extended by the flanking size
      */
     public GenomicRegionSearchQueryRunner(HttpServletRequest request, String spanUUIDString,
-            GenomicRegionSearchConstraint grsc, Map<GenomicRegion, Query> queryMap) {
+            GenomicRegionSearchConstraint grsc, List<GenomicRegion> regions) {
 
         this.request = request;
         this.spanUUIDString = spanUUIDString;
         this.grsc = grsc;
-        this.queryMap = queryMap;
+        this.regions = regions;
     }
 
     /**
@@ -125,7 +126,6 @@ public class GenomicRegionSearchQueryRunner implements Runnable
     /**
      * The method to run all the queries.
      */
-    @SuppressWarnings("rawtypes")
     private void queryExecutor() {
 
         // Use spanOverlapFullResultMap to store the data in the session
@@ -169,57 +169,166 @@ public class GenomicRegionSearchQueryRunner implements Runnable
                 ObjectStore os = SessionMethods.getInterMineAPI(
                         request.getSession()).getObjectStore();
 
-                for (Entry<GenomicRegion, Query> e : queryMap.entrySet()) {
-                    Results results = os.execute(e.getValue());
+                // Run one query per chromosome rather than one per region, assign the rows to
+                // the regions they overlap, and publish each region's results in the original
+                // order as soon as they and all the regions before them are ready.
+                Map<String, List<Query>> chrQueries =
+                    GenomicRegionSearchUtil.createBatchedRegionQueries(regions, 0,
+                        grsc.getOrgName(), grsc.getFeatureTypes(), false);
+                Map<String, List<GenomicRegion>> chrRegions = groupByChromosome(regions);
+                Map<GenomicRegion, List<ResultsRow<?>>> found =
+                    new HashMap<GenomicRegion, List<ResultsRow<?>>>();
+                int published = 0;
+
+                for (Entry<String, List<Query>> e : chrQueries.entrySet()) {
+                    List<ResultsRow<?>> rows = new ArrayList<ResultsRow<?>>();
+                    for (Query q : e.getValue()) {
+                        for (Iterator<?> iter = os.execute(q).iterator(); iter.hasNext();) {
+                            rows.add((ResultsRow<?>) iter.next());
+                        }
+                    }
+                    found.putAll(assignToRegions(chrRegions.get(e.getKey()), rows));
+
+                    while (published < regions.size()
+                            && found.containsKey(regions.get(published))) {
+                        GenomicRegion gr = regions.get(published);
+                        publish(gr, found.remove(gr), spanOverlapResultDisplayMap,
+                                spanOverlapResultStatMap);
+                        published++;
+                    }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
-                    List<List<String>> spanResults = new ArrayList<List<String>>();
+    /**
+     * Group regions by chromosome, keeping their order on each chromosome.
+     *
+     * @param regions the regions to search
+     * @return map from chromosome to the regions on it
+     */
+    static Map<String, List<GenomicRegion>> groupByChromosome(
+            List<GenomicRegion> regions) {
+        Map<String, List<GenomicRegion>> chrRegions =
+            new HashMap<String, List<GenomicRegion>>();
+        for (GenomicRegion gr : regions) {
+            List<GenomicRegion> onChr = chrRegions.get(gr.getChr());
+            if (onChr == null) {
+                onChr = new ArrayList<GenomicRegion>();
+                chrRegions.put(gr.getChr(), onChr);
+            }
+            onChr.add(gr);
+        }
+        return chrRegions;
+    }
 
-                    Map<String, Integer> spanStatMap = new HashMap<String, Integer>();
-                    ValueComparator bvc =  new ValueComparator(spanStatMap);
-                    @SuppressWarnings("unchecked")
-                    TreeMap<String, Integer> sortedStatMap = new TreeMap<String, Integer>(bvc);
+    /**
+     * Assign the rows found for a chromosome to the regions on it that they overlap, keeping the
+     * rows for each region ordered by location start as the per-region queries did.
+     *
+     * @param regions the regions on one chromosome
+     * @param rows the rows found for all those regions, location start and end in columns 5 and 6
+     * @return map from region to the rows overlapping it
+     */
+    static Map<GenomicRegion, List<ResultsRow<?>>> assignToRegions(
+            List<GenomicRegion> regions, List<ResultsRow<?>> rows) {
+        List<ResultsRow<?>> sorted = new ArrayList<ResultsRow<?>>(rows);
+        Collections.sort(sorted, new Comparator<ResultsRow<?>>() {
+            @Override
+            public int compare(ResultsRow<?> a, ResultsRow<?> b) {
+                int sa = getStart(a), sb = getStart(b);
+                return (sa < sb) ? -1 : ((sa == sb) ? 0 : 1);
+            }
+        });
+        int[] starts = new int[sorted.size()];
+        int maxLength = 0;
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = getStart(sorted.get(i));
+            maxLength = Math.max(maxLength, getEnd(sorted.get(i)) - starts[i]);
+        }
 
-                    if (results == null || results.isEmpty()) {
-                        spanOverlapResultDisplayMap.put(e.getKey(), null);
-                    }
-                    else {
-                        for (Iterator<?> iter = results.iterator(); iter.hasNext();) {
-                            ResultsRow<?> row = (ResultsRow<?>) iter.next();
-
-                            List<String> resultRow = new ArrayList<String>();
-
-                            for (Object o : row) {
-                                String item = new String();
-
-                                // NULL for symbol or PID
-                                o = o == null ? new String() : o;
-
-                                if (o instanceof Class) {
-                                    item = ((Class) o).getSimpleName();
-                                    // add class stat to spanStatMap
-                                    if (spanStatMap.containsKey(item)) {
-                                        spanStatMap.put(item, spanStatMap.get(item) + 1);
-                                    } else {
-                                        spanStatMap.put(item, 1);
-                                    }
-                                } else {
-                                    item = o.toString();
-                                }
-
-                                resultRow.add(item);
-                            }
-                            spanResults.add(resultRow);
-                        }
-                        spanOverlapResultDisplayMap.put(e.getKey(), spanResults);
+        Map<GenomicRegion, List<ResultsRow<?>>> assigned =
+            new HashMap<GenomicRegion, List<ResultsRow<?>>>();
+        for (GenomicRegion gr : regions) {
+            int start = GenomicRegionSearchUtil.getSearchStart(gr);
+            int end = GenomicRegionSearchUtil.getSearchEnd(gr);
+            // no row starting before start - maxLength can reach this region
+            int i = Arrays.binarySearch(starts, start - maxLength);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            while (i > 0 && starts[i - 1] >= start - maxLength) {
+                i--;
+            }
+            List<ResultsRow<?>> overlapping = new ArrayList<ResultsRow<?>>();
+            for (; i < starts.length && starts[i] <= end; i++) {
+                if (getEnd(sorted.get(i)) >= start) {
+                    overlapping.add(sorted.get(i));
+                }
+            }
+            assigned.put(gr, overlapping);
+        }
+        return assigned;
+    }
+
+    private static int getStart(ResultsRow<?> row) {
+        return ((Integer) row.get(5)).intValue();
+    }
+
+    private static int getEnd(ResultsRow<?> row) {
+        return ((Integer) row.get(6)).intValue();
+    }
+
+    /**
+     * Convert the rows for a region for display and put them in the session maps.
+     */
+    @SuppressWarnings("rawtypes")
+    private static void publish(GenomicRegion gr, List<ResultsRow<?>> rows,
+            Map<GenomicRegion, List<List<String>>> spanOverlapResultDisplayMap,
+            Map<GenomicRegion, Map<String, Integer>> spanOverlapResultStatMap) {
+        if (rows.isEmpty()) {
+            spanOverlapResultDisplayMap.put(gr, null);
+            return;
+        }
+
+        List<List<String>> spanResults = new ArrayList<List<String>>();
+
+        Map<String, Integer> spanStatMap = new HashMap<String, Integer>();
+        ValueComparator bvc =  new ValueComparator(spanStatMap);
+        @SuppressWarnings("unchecked")
+        TreeMap<String, Integer> sortedStatMap = new TreeMap<String, Integer>(bvc);
+
+        for (ResultsRow<?> row : rows) {
+            List<String> resultRow = new ArrayList<String>();
 
-                        sortedStatMap.putAll(spanStatMap);
-                        spanOverlapResultStatMap.put(e.getKey(), sortedStatMap);
+            for (Object o : row) {
+                String item = new String();
+
+                // NULL for symbol or PID
+                o = o == null ? new String() : o;
+
+                if (o instanceof Class) {
+                    item = ((Class) o).getSimpleName();
+                    // add class stat to spanStatMap
+                    if (spanStatMap.containsKey(item)) {
+                        spanStatMap.put(item, spanStatMap.get(item) + 1);
+                    } else {
+                        spanStatMap.put(item, 1);
                     }
+                } else {
+                    item = o.toString();
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
+
+                resultRow.add(item);
             }
+            spanResults.add(resultRow);
         }
+        spanOverlapResultDisplayMap.put(gr, spanResults);
+
+        sortedStatMap.putAll(spanStatMap);
+        spanOverlapResultStatMap.put(gr, sortedStatMap);
     }
 
     /**
@@ -678,16 +678,14 @@ public class GenomicRegionSearchService
     }
 
     /**
-     * To prepare queries for genomic regions
+     * To extend genomic regions by the flanking size
      *
-     * @return a list of prepared queries for genomic regions
+     * @return a list of genomic regions to search
      */
-    public Map<GenomicRegion, Query> createQueryList() {
-        return GenomicRegionSearchUtil.createQueryList(
+    public List<GenomicRegion> extendGenomicRegions() {
+        return GenomicRegionSearchUtil.extendGenomicRegions(
             grsc.getGenomicRegionList(),
-            grsc.getExtendedRegionSize(),
-            grsc.getOrgName(),
-            grsc.getFeatureTypes());
+            grsc.getExtendedRegionSize());
     }
 
     /**
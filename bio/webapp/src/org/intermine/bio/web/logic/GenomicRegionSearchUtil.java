@@ -13,6 +13,8 @@ package org.intermine.bio.web.logic;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -62,6 +64,9 @@ public final class GenomicRegionSearchUtil
     private static final Pattern SINGLE_POS =
         Pattern.compile("[^:]+: ?\\d+$"); // "chr:singlePosition" - [^:]+:[\d]+$
 
+    // the most merged regions to combine into one overlap query
+    private static final int MAX_RANGES_PER_QUERY = 500;
+
     private GenomicRegionSearchUtil() {
 
     }
@@ -230,151 +235,212 @@ public final class GenomicRegionSearchUtil
     }
 
     /**
-     * Create a list of queries from user regions.
+     * Extend user regions by the flanking size.
      *
      * @param genomicRegions list of gr
      * @param extension the flanking
-     * @param organismName org short name
-     * @param featureTypes ft
-     * @return map of gr-query
+     * @return list of gr, extended if the flanking is greater than 0
      */
-    public static Map<GenomicRegion, Query> createQueryList(
-            Collection<GenomicRegion> genomicRegions,
-            int extension,
-            String organismName,
-            Set<Class<?>> featureTypes) {
-        return createRegionQueries(genomicRegions, extension, organismName,
-                featureTypes, false);
+    public static List<GenomicRegion> extendGenomicRegions(
+            Collection<GenomicRegion> genomicRegions, int extension) {
+        List<GenomicRegion> extended = new ArrayList<GenomicRegion>();
+        for (GenomicRegion aSpan : genomicRegions) {
+            if (extension > 0) {
+                aSpan = extendGenomicRegion(aSpan, extension);
+            }
+            extended.add(aSpan);
+        }
+        return extended;
     }
 
     /**
-     * Create a list of queries from user regions.
+     * Create queries for the features overlapping any of a collection of regions.  Rather than
+     * one query per region there is one query per chromosome, which finds the features
+     * overlapping any of the regions on it, with overlapping regions merged.  Chromosomes with
+     * very many regions are split over several queries to keep the SQL a sensible size.
+     *
+     * If idOnly is false the queries also select the feature identifiers, class and chromosome
+     * and the location start and end, so that results can be assigned back to the regions they
+     * overlap.
      *
      * @param genomicRegions list of gr
-     * @param extension the flanking
-     * @param chromInfo chr info map
+     * @param extension the flanking, or 0 if the regions have already been extended
      * @param organismName org short name
      * @param featureTypes ft
-     * @return map of gr-query
+     * @param idOnly if true, only select the feature id
+     * @return a map from chromosome to the queries for the regions on it
      */
-    public static Map<GenomicRegion, Query> createRegionListQueries(
+    public static Map<String, List<Query>> createBatchedRegionQueries(
             Collection<GenomicRegion> genomicRegions,
             int extension,
-            Map<String, ChromosomeInfo> chromInfo,
             String organismName,
-            Set<Class<?>> featureTypes) {
-        return createRegionQueries(genomicRegions, extension, organismName,
-                featureTypes, true);
-    }
+            Set<Class<?>> featureTypes, boolean idOnly) {
 
-    private static Map<GenomicRegion, Query> createRegionQueries(
-            Collection<GenomicRegion> genomicRegions,
-                int extension, String organismName,
-                Set<Class<?>> featureTypes, boolean idOnly) {
+        Map<String, List<int[]>> rangesByChr = new LinkedHashMap<String, List<int[]>>();
+        for (GenomicRegion gr : genomicRegions) {
+            if (extension > 0) {
+                gr = extendGenomicRegion(gr, extension);
+            }
+            List<int[]> ranges = rangesByChr.get(gr.getChr());
+            if (ranges == null) {
+                ranges = new ArrayList<int[]>();
+                rangesByChr.put(gr.getChr(), ranges);
+            }
+            ranges.add(new int[] {getSearchStart(gr), getSearchEnd(gr)});
+        }
 
-        Map<GenomicRegion, Query> queryMap = new LinkedHashMap<GenomicRegion, Query>();
+        Map<String, List<Query>> queries = new LinkedHashMap<String, List<Query>>();
+        for (Map.Entry<String, List<int[]>> e : rangesByChr.entrySet()) {
+            List<int[]> merged = mergeRanges(e.getValue());
+            List<Query> chrQueries = new ArrayList<Query>();
+            for (int i = 0; i < merged.size(); i += MAX_RANGES_PER_QUERY) {
+                List<int[]> batch =
+                    merged.subList(i, Math.min(merged.size(), i + MAX_RANGES_PER_QUERY));
+                chrQueries.add(createOverlapQuery(e.getKey(), batch, organismName,
+                        featureTypes, idOnly));
+            }
+            queries.put(e.getKey(), chrQueries);
+        }
+        return queries;
+    }
 
-        for (GenomicRegion aSpan : genomicRegions) {
+    /**
+     * @param gr a genomic region
+     * @return the start of the region to search, including any flanking region
+     */
+    public static int getSearchStart(GenomicRegion gr) {
+        return (gr.getExtendedStart() == null) ? gr.getStart() : gr.getExtendedStart();
+    }
 
-            Integer start;
-            Integer end;
+    /**
+     * @param gr a genomic region
+     * @return the end of the region to search, including any flanking region
+     */
+    public static int getSearchEnd(GenomicRegion gr) {
+        return (gr.getExtendedEnd() == null) ? gr.getEnd() : gr.getExtendedEnd();
+    }
 
-            if (extension > 0) {
-                aSpan = extendGenomicRegion(aSpan, extension);
-                start = aSpan.getExtendedStart();
-                end = aSpan.getExtendedEnd();
+    /**
+     * Sort ranges by start and merge those that overlap or abut.
+     *
+     * @param ranges start and end pairs
+     * @return the merged ranges, ordered by start
+     */
+    static List<int[]> mergeRanges(List<int[]> ranges) {
+        List<int[]> sorted = new ArrayList<int[]>(ranges);
+        Collections.sort(sorted, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return (a[0] < b[0]) ? -1 : ((a[0] == b[0]) ? 0 : 1);
+            }
+        });
+        List<int[]> merged = new ArrayList<int[]>();
+        int[] current = null;
+        for (int[] range : sorted) {
+            if (current != null && range[0] <= current[1] + 1) {
+                current[1] = Math.max(current[1], range[1]);
             } else {
-                start = aSpan.getStart();
-                end = aSpan.getEnd();
+                current = new int[] {range[0], range[1]};
+                merged.add(current);
             }
+        }
+        return merged;
+    }
 
-            Query q = new Query();
-            q.setDistinct(true);
-
-            String chrPID = aSpan.getChr();
-
-
-            QueryClass qcOrg = new QueryClass(Organism.class);
-            QueryClass qcChr = new QueryClass(Chromosome.class);
-            QueryClass qcFeature = new QueryClass(SequenceFeature.class);
-            QueryClass qcLoc = new QueryClass(Location.class);
-
-            QueryField qfOrgName = new QueryField(qcOrg, "shortName");
-            QueryField qfFeatureId = new QueryField(qcFeature, "id");
-            QueryField qfFeaturePID = new QueryField(qcFeature,
-                    "primaryIdentifier");
-            QueryField qfFeatureSymbol = new QueryField(qcFeature, "symbol");
-            QueryField qfFeatureClass = new QueryField(qcFeature, "class");
-            QueryField qfChr = new QueryField(qcChr, "primaryIdentifier");
-            QueryField qfLocStart = new QueryField(qcLoc, "start");
-            QueryField qfLocEnd = new QueryField(qcLoc, "end");
-
-            q.addToSelect(qfFeatureId);
-            q.addFrom(qcFeature);
-            q.addFrom(qcChr);
-            q.addFrom(qcOrg);
-            q.addFrom(qcLoc);
-            if (!idOnly) {
-                q.addToSelect(qfFeaturePID);
-                q.addToSelect(qfFeatureSymbol);
-                q.addToSelect(qfFeatureClass);
-                q.addToSelect(qfChr);
-                q.addToSelect(qfLocStart);
-                q.addToSelect(qfLocEnd);
-                q.addToOrderBy(qfLocStart, "ascending");
-            }
+    private static Query createOverlapQuery(String chrPID, List<int[]> ranges,
+            String organismName, Set<Class<?>> featureTypes, boolean idOnly) {
+        Query q = new Query();
+        q.setDistinct(true);
+
+        QueryClass qcOrg = new QueryClass(Organism.class);
+        QueryClass qcChr = new QueryClass(Chromosome.class);
+        QueryClass qcFeature = new QueryClass(SequenceFeature.class);
+        QueryClass qcLoc = new QueryClass(Location.class);
+
+        QueryField qfOrgName = new QueryField(qcOrg, "shortName");
+        QueryField qfFeatureId = new QueryField(qcFeature, "id");
+        QueryField qfFeaturePID = new QueryField(qcFeature,
+                "primaryIdentifier");
+        QueryField qfFeatureSymbol = new QueryField(qcFeature, "symbol");
+        QueryField qfFeatureClass = new QueryField(qcFeature, "class");
+        QueryField qfChr = new QueryField(qcChr, "primaryIdentifier");
+        QueryField qfLocStart = new QueryField(qcLoc, "start");
+        QueryField qfLocEnd = new QueryField(qcLoc, "end");
+
+        q.addToSelect(qfFeatureId);
+        q.addFrom(qcFeature);
+        q.addFrom(qcChr);
+        q.addFrom(qcOrg);
+        q.addFrom(qcLoc);
+        if (!idOnly) {
+            q.addToSelect(qfFeaturePID);
+            q.addToSelect(qfFeatureSymbol);
+            q.addToSelect(qfFeatureClass);
+            q.addToSelect(qfChr);
+            q.addToSelect(qfLocStart);
+            q.addToSelect(qfLocEnd);
+            q.addToOrderBy(qfLocStart, "ascending");
+        }
 
-            ConstraintSet constraints = new ConstraintSet(ConstraintOp.AND);
-
-            q.setConstraint(constraints);
-
-            // SequenceFeature.organism = Organism
-            QueryObjectReference organism = new QueryObjectReference(qcFeature,
-                    "organism");
-            ContainsConstraint ccOrg = new ContainsConstraint(organism,
-                    ConstraintOp.CONTAINS, qcOrg);
-            constraints.addConstraint(ccOrg);
-
-            // Organism.name = orgName
-            SimpleConstraint scOrg = new SimpleConstraint(qfOrgName,
-                    ConstraintOp.EQUALS, new QueryValue(organismName));
-            constraints.addConstraint(scOrg);
-
-            // Location.feature = SequenceFeature
-            QueryObjectReference locSubject = new QueryObjectReference(qcLoc,
-                    "feature");
-            ContainsConstraint ccLocSubject = new ContainsConstraint(
-                    locSubject, ConstraintOp.CONTAINS, qcFeature);
-            constraints.addConstraint(ccLocSubject);
-
-            // Location.locatedOn = Chromosome
-            QueryObjectReference locObject = new QueryObjectReference(qcLoc,
-                    "locatedOn");
-            ContainsConstraint ccLocObject = new ContainsConstraint(locObject,
-                    ConstraintOp.CONTAINS, qcChr);
-            constraints.addConstraint(ccLocObject);
-
-            // Chromosome.primaryIdentifier = chrPID
-            SimpleConstraint scChr = new SimpleConstraint(qfChr,
-                    ConstraintOp.EQUALS, new QueryValue(chrPID));
-            constraints.addConstraint(scChr);
-
-            // SequenceFeature.class in a list
-            constraints.addConstraint(new BagConstraint(qfFeatureClass,
-                    ConstraintOp.IN, featureTypes));
-
-            OverlapRange overlapInput = new OverlapRange(new QueryValue(start),
-                    new QueryValue(end), locObject);
+        ConstraintSet constraints = new ConstraintSet(ConstraintOp.AND);
+
+        q.setConstraint(constraints);
+
+        // SequenceFeature.organism = Organism
+        QueryObjectReference organism = new QueryObjectReference(qcFeature,
+                "organism");
+        ContainsConstraint ccOrg = new ContainsConstraint(organism,
+                ConstraintOp.CONTAINS, qcOrg);
+        constraints.addConstraint(ccOrg);
+
+        // Organism.name = orgName
+        SimpleConstraint scOrg = new SimpleConstraint(qfOrgName,
+                ConstraintOp.EQUALS, new QueryValue(organismName));
+        constraints.addConstraint(scOrg);
+
+        // Location.feature = SequenceFeature
+        QueryObjectReference locSubject = new QueryObjectReference(qcLoc,
+                "feature");
+        ContainsConstraint ccLocSubject = new ContainsConstraint(
+                locSubject, ConstraintOp.CONTAINS, qcFeature);
+        constraints.addConstraint(ccLocSubject);
+
+        // Location.locatedOn = Chromosome
+        QueryObjectReference locObject = new QueryObjectReference(qcLoc,
+                "locatedOn");
+        ContainsConstraint ccLocObject = new ContainsConstraint(locObject,
+                ConstraintOp.CONTAINS, qcChr);
+        constraints.addConstraint(ccLocObject);
+
+        // Chromosome.primaryIdentifier = chrPID
+        SimpleConstraint scChr = new SimpleConstraint(qfChr,
+                ConstraintOp.EQUALS, new QueryValue(chrPID));
+        constraints.addConstraint(scChr);
+
+        // SequenceFeature.class in a list
+        constraints.addConstraint(new BagConstraint(qfFeatureClass,
+                ConstraintOp.IN, featureTypes));
+
+        // Location overlaps any of the ranges, each of which can use the bioseg index
+        ConstraintSet overlaps = new ConstraintSet(ConstraintOp.OR);
+        for (int[] range : ranges) {
+            OverlapRange overlapInput = new OverlapRange(new QueryValue(range[0]),
+                    new QueryValue(range[1]), locObject);
             OverlapRange overlapFeature = new OverlapRange(new QueryField(
                     qcLoc, "start"), new QueryField(qcLoc, "end"), locObject);
             OverlapConstraint oc = new OverlapConstraint(overlapInput,
                     ConstraintOp.OVERLAPS, overlapFeature);
-            constraints.addConstraint(oc);
-
-            queryMap.put(aSpan, q);
+            if (ranges.size() == 1) {
+                constraints.addConstraint(oc);
+            } else {
+                overlaps.addConstraint(oc);
+            }
+        }
+        if (ranges.size() > 1) {
+            constraints.addConstraint(overlaps);
         }
 
-        return queryMap;
+        return q;
     }
 
     /**
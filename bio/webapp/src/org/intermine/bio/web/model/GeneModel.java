@@ -15,6 +15,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -43,6 +44,7 @@ public class GeneModel
     List<InterMineObject> introns;
     List<InterMineObject> cdss;
     Set<Integer> ids = null;
+    private Map<String, List<InterMineObject>> components = null;
 
     private static String[] types = new String[] {"Gene", "Transcript", "Exon", "UTR", "CDS"};
     /**
@@ -61,10 +63,27 @@ public class GeneModel
      * @param transcript the transcript to construct a gene model for
      */
     public GeneModel(Model model, Gene gene, InterMineObject transcript) {
+        this(model, gene, transcript, null);
+    }
+
+    /**
+     * Construct a new gene model for the given transcript and gene from components that have
+     * already been fetched.  The components are keyed by the name of the Transcript field they
+     * are in (exons, introns, CDSs, UTRs), and any field that is not in the map is fetched from
+     * the transcript.
+     * @param model the data model
+     * @param gene the parent gene
+     * @param transcript the transcript to construct a gene model for
+     * @param components a map from Transcript field name to the objects in it, or null
+     */
+    public GeneModel(Model model, Gene gene, InterMineObject transcript,
+            Map<String, List<InterMineObject>> components) {
         this.gene = gene;
         this.transcript = transcript;
         this.model = model;
+        this.components = components;
         init();
+        this.components = null;
     }
 
     @SuppressWarnings("unchecked")
@@ -79,48 +98,26 @@ public class GeneModel
 
         // TODO sort exons and introns by start position
         if (fieldExists("Transcript", "exons")) {
-            exons = new ArrayList<InterMineObject>();
-            try {
-                Collection<InterMineObject> transcriptExons =
-                    (Collection<InterMineObject>) transcript.getFieldValue("exons");
-                for (InterMineObject exon : transcriptExons) {
-                    exons.add(exon);
-                }
-            } catch (IllegalAccessException e) {
-                LOG.warn("Failed to fetch exons for transcript: " + transcript.getId());
-            }
+            exons = getComponents("exons");
         }
 
         if (fieldExists("Transcript", "introns")) {
-            introns = new ArrayList<InterMineObject>();
-            try {
-                Collection<InterMineObject> transcriptIntrons =
-                    (Collection<InterMineObject>) transcript.getFieldValue("introns");
-                for (InterMineObject intron : transcriptIntrons) {
-                    introns.add(intron);
-                }
-            } catch (IllegalAccessException e) {
-                LOG.warn("Failed to fetch introns for transcript: " + transcript.getId());
-            }
+            introns = getComponents("introns");
         }
 
         if (fieldExists("Transcript", "CDSs")) {
-            cdss = new ArrayList<InterMineObject>();
-            try {
-                Collection<InterMineObject> transcriptCdss =
-                    (Collection<InterMineObject>) transcript.getFieldValue("CDSs");
-                for (InterMineObject cds : transcriptCdss) {
-                    cdss.add(cds);
-                }
-            } catch (IllegalAccessException e) {
-                LOG.warn("Failed to fetch CDSs for transcript: " + transcript.getId());
-            }
+            cdss = getComponents("CDSs");
         }
 
         if (fieldExists("Transcript", "UTRs")) {
             try {
-                Collection<InterMineObject> transcriptUTRs =
-                    (Collection<InterMineObject>) transcript.getFieldValue("UTRs");
+                Collection<InterMineObject> transcriptUTRs;
+                if (components != null && components.containsKey("UTRs")) {
+                    transcriptUTRs = components.get("UTRs");
+                } else {
+                    transcriptUTRs =
+                        (Collection<InterMineObject>) transcript.getFieldValue("UTRs");
+                }
                 for (InterMineObject utr : transcriptUTRs) {
                     String clsName = DynamicUtil.getSimpleClass(utr).getSimpleName();
                     if ("FivePrimeUTR".equals(clsName)) {
@@ -147,6 +144,25 @@ public class GeneModel
 
     }
 
+    @SuppressWarnings("unchecked")
+    private List<InterMineObject> getComponents(String fieldName) {
+        List<InterMineObject> retval = new ArrayList<InterMineObject>();
+        if (components != null && components.containsKey(fieldName)) {
+            retval.addAll(components.get(fieldName));
+            return retval;
+        }
+        try {
+            Collection<InterMineObject> transcriptComponents =
+                (Collection<InterMineObject>) transcript.getFieldValue(fieldName);
+            for (InterMineObject component : transcriptComponents) {
+                retval.add(component);
+            }
+        } catch (IllegalAccessException e) {
+            LOG.warn("Failed to fetch " + fieldName + " for transcript: " + transcript.getId());
+        }
+        return retval;
+    }
+
     /**
      * The parent gene for this gene model.
      * @return the gene
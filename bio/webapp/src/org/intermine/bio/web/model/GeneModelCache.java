@@ -15,18 +15,28 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
+import org.apache.commons.collections.keyvalue.MultiKey;
 import org.apache.log4j.Logger;
+import org.intermine.bio.util.GeneModelIndex;
 import org.intermine.metadata.ClassDescriptor;
 import org.intermine.metadata.FieldDescriptor;
 import org.intermine.metadata.Model;
+import org.intermine.metadata.ReferenceDescriptor;
 import org.intermine.model.InterMineObject;
 import org.intermine.model.bio.Gene;
 import org.intermine.model.bio.Organism;
 import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.query.BagConstraint;
 import org.intermine.objectstore.query.ConstraintOp;
 import org.intermine.objectstore.query.ConstraintSet;
 import org.intermine.objectstore.query.ContainsConstraint;
@@ -34,25 +44,61 @@ import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryCollectionReference;
 import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryForeignKey;
 import org.intermine.objectstore.query.QueryObjectReference;
 import org.intermine.objectstore.query.QueryValue;
 import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SimpleConstraint;
-import org.intermine.util.CacheMap;
 import org.intermine.util.DynamicUtil;
 
 /**
  * A cache for gene models by Gene object id.  A GeneModel represetnts a transcripts with exons,
  * introns, UTRs and CDSs where data are available.  Lookups can be done by any component of the
- * gene model and the corresponding gene will be found first.  The implementation uses a CacheMap
- * to allow garbage collection.
+ * gene model and the corresponding gene will be found first.  The gene models of the most recently
+ * used genes are held, and the components of all the transcripts of a gene are fetched together.
+ * The ids of the objects in gene models are indexed for a whole chromosome at a time, so that they
+ * can be looked up without fetching the objects.
  * @author Richard Smith
  *
  */
 public final class GeneModelCache
 {
-    private static CacheMap<Integer, List<GeneModel>> cache =
-        new CacheMap<Integer, List<GeneModel>>();
+    /**
+     * The number of genes to hold gene models for.
+     */
+    public static final int CACHE_SIZE = 1000;
+    /**
+     * The number of chromosomes to hold indexes of gene model ids for.
+     */
+    public static final int CHROMOSOME_CACHE_SIZE = 100;
+    /**
+     * The fields of Transcript that hold the components of a gene model.
+     */
+    private static final String[] COMPONENT_FIELDS = new String[] {"exons", "introns", "CDSs",
+        "UTRs"};
+
+    private static Map<Integer, List<GeneModel>> cache =
+        new LinkedHashMap<Integer, List<GeneModel>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<GeneModel>> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+    private static Map<Integer, GeneModelIndex> chromosomeIndexes =
+        new LinkedHashMap<Integer, GeneModelIndex>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, GeneModelIndex> eldest) {
+                return size() > CHROMOSOME_CACHE_SIZE;
+            }
+        };
+    // The chromosomes being indexed, so that other requests for them wait for the same index
+    private static ConcurrentMap<Integer, FutureTask<GeneModelIndex>> indexing =
+        new ConcurrentHashMap<Integer, FutureTask<GeneModelIndex>>();
     protected static final Logger LOG = Logger.getLogger(GeneModelCache.class);
     private static Map<String, GeneModelSettings> organismSettings =
         new HashMap<String, GeneModelSettings>();
@@ -67,10 +113,14 @@ public final class GeneModelCache
      * all transcripts of that gene regardless of whether they contain that exon.  If called with an
      * object that isn't a gene model component an empty list is returned.
      * @param object a the gene to get gene models for, or a component of a gene model
-     * @param model the data model
+     * @param os the ObjectStore the object is from
      * @return a list of GeneModels, one per transcript or an empty list
      */
-    public static List<GeneModel> getGeneModels(InterMineObject object, Model model) {
+    public static List<GeneModel> getGeneModels(InterMineObject object, ObjectStore os) {
+        return fetchGeneModels(findGene(object), os);
+    }
+
+    private static Gene findGene(InterMineObject object) {
         String clsName = DynamicUtil.getSimpleClass(object).getSimpleName();
 
         // TODO make this deal with inheritance (transcripts and UTRs in on statement)
@@ -89,30 +139,47 @@ public final class GeneModelCache
                 LOG.warn("Failed to get gene from " + clsName + ": " + object.getId());
             }
         }
-        return fetchGeneModels(gene, model);
+        return gene;
     }
 
     /**
      * Look up gene models for a particular gene, either fetch from cache or create new gene models
      * for each transcript.
      * @param gene the gene to fetch gene models for
-     * @param model the data model
+     * @param os the ObjectStore the gene is from
      * @return a list of gene models or an empty list
      */
     @SuppressWarnings("unchecked")
-    protected static synchronized List<GeneModel> fetchGeneModels(Gene gene, Model model) {
+    protected static synchronized List<GeneModel> fetchGeneModels(Gene gene, ObjectStore os) {
         if (gene == null) {
             return Collections.EMPTY_LIST;
         }
         List<GeneModel> geneModels = cache.get(gene.getId());
         if (geneModels == null) {
             geneModels = new ArrayList<GeneModel>();
+            Model model = os.getModel();
 
             try {
                 Collection<InterMineObject> transcripts =
                     (Collection<InterMineObject>) gene.getFieldValue("transcripts");
+                List<Integer> transcriptIds = new ArrayList<Integer>();
+                for (InterMineObject transcript : transcripts) {
+                    transcriptIds.add(transcript.getId());
+                }
+                Map<String, Map<Integer, List<InterMineObject>>> components =
+                    fetchComponents(transcriptIds, os);
                 for (InterMineObject transcript : transcripts) {
-                    geneModels.add(new GeneModel(model, gene, transcript));
+                    Map<String, List<InterMineObject>> transcriptComponents =
+                        new HashMap<String, List<InterMineObject>>();
+                    for (Map.Entry<String, Map<Integer, List<InterMineObject>>> entry
+                            : components.entrySet()) {
+                        List<InterMineObject> objects = entry.getValue().get(transcript.getId());
+                        if (objects == null) {
+                            objects = Collections.EMPTY_LIST;
+                        }
+                        transcriptComponents.put(entry.getKey(), objects);
+                    }
+                    geneModels.add(new GeneModel(model, gene, transcript, transcriptComponents));
                 }
                 cache.put(gene.getId(), geneModels);
             } catch (IllegalAccessException e) {
@@ -123,6 +190,238 @@ public final class GeneModelCache
         return geneModels;
     }
 
+    /**
+     * Fetch the components of a set of transcripts with one query for each Transcript field that
+     * holds components.
+     * @return a map from field name to a map from transcript id to the objects in that field
+     */
+    private static Map<String, Map<Integer, List<InterMineObject>>> fetchComponents(
+            Collection<Integer> transcriptIds, ObjectStore os) {
+        Map<String, Map<Integer, List<InterMineObject>>> components =
+            new HashMap<String, Map<Integer, List<InterMineObject>>>();
+        Model model = os.getModel();
+        if (transcriptIds.isEmpty() || !model.hasClassDescriptor("Transcript")) {
+            return components;
+        }
+        for (String fieldName : COMPONENT_FIELDS) {
+            Query q = new Query();
+            ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+            q.setConstraint(cs);
+            QueryClass qcTranscript =
+                new QueryClass(model.getClassDescriptorByName("Transcript").getType());
+            q.addFrom(qcTranscript);
+            QueryClass qcComponent = addComponent(q, qcTranscript, fieldName, model);
+            if (qcComponent == null) {
+                continue;
+            }
+            QueryField qfTranscriptId = new QueryField(qcTranscript, "id");
+            cs.addConstraint(new BagConstraint(qfTranscriptId, ConstraintOp.IN, transcriptIds));
+            q.addToSelect(qfTranscriptId);
+            q.addToSelect(qcComponent);
+
+            Map<Integer, List<InterMineObject>> byTranscript =
+                new HashMap<Integer, List<InterMineObject>>();
+            for (Object row : os.execute(q, 1000, true, false, false)) {
+                Integer transcriptId = (Integer) ((ResultsRow<?>) row).get(0);
+                List<InterMineObject> objects = byTranscript.get(transcriptId);
+                if (objects == null) {
+                    objects = new ArrayList<InterMineObject>();
+                    byTranscript.put(transcriptId, objects);
+                }
+                objects.add((InterMineObject) ((ResultsRow<?>) row).get(1));
+            }
+            components.put(fieldName, byTranscript);
+        }
+        return components;
+    }
+
+    /**
+     * Add a component of a transcript to a query, constrained to be in the given field of the
+     * transcript.  The query must already have an AND ConstraintSet.
+     * @return the QueryClass of the component, or null if Transcript has no such field
+     */
+    private static QueryClass addComponent(Query q, QueryClass qcTranscript, String fieldName,
+            Model model) {
+        ClassDescriptor cldTranscript =
+            model.getClassDescriptorByName(qcTranscript.getType().getName());
+        FieldDescriptor fld = cldTranscript.getFieldDescriptorByName(fieldName);
+        if (fld == null || fld.isAttribute()) {
+            return null;
+        }
+        QueryClass qcComponent = new QueryClass(((ReferenceDescriptor) fld)
+                .getReferencedClassDescriptor().getType());
+        q.addFrom(qcComponent);
+        ContainsConstraint cc;
+        if (fld.isReference()) {
+            QueryObjectReference ref = new QueryObjectReference(qcTranscript, fieldName);
+            cc = new ContainsConstraint(ref, ConstraintOp.CONTAINS, qcComponent);
+        } else {
+            QueryCollectionReference col = new QueryCollectionReference(qcTranscript, fieldName);
+            cc = new ContainsConstraint(col, ConstraintOp.CONTAINS, qcComponent);
+        }
+        ((ConstraintSet) q.getConstraint()).addConstraint(cc);
+        return qcComponent;
+    }
+
+    /**
+     * Return the index of gene model ids for a chromosome, building it if the chromosome hasn't
+     * been asked for recently.  The index is built without holding any lock that requests for
+     * other chromosomes need, and requests for a chromosome that is being indexed wait for it.
+     * @param chromosomeId the id of the chromosome
+     * @param os the ObjectStore the chromosome is in
+     * @return a GeneModelIndex, or null if the thread was interrupted while waiting for it
+     */
+    protected static GeneModelIndex getChromosomeIndex(final Integer chromosomeId,
+            final ObjectStore os) {
+        synchronized (chromosomeIndexes) {
+            GeneModelIndex index = chromosomeIndexes.get(chromosomeId);
+            if (index != null) {
+                return index;
+            }
+        }
+        FutureTask<GeneModelIndex> task = new FutureTask<GeneModelIndex>(
+                new Callable<GeneModelIndex>() {
+                    public GeneModelIndex call() {
+                        return createChromosomeIndex(chromosomeId, os);
+                    }
+                });
+        FutureTask<GeneModelIndex> building = indexing.putIfAbsent(chromosomeId, task);
+        if (building == null) {
+            // Nobody else is indexing this chromosome, so index it in this thread
+            building = task;
+            try {
+                task.run();
+            } finally {
+                indexing.remove(chromosomeId, task);
+            }
+        }
+        try {
+            return building.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException("Failed to index chromosome " + chromosomeId, cause);
+        }
+    }
+
+    private static GeneModelIndex createChromosomeIndex(Integer chromosomeId, ObjectStore os) {
+        long startTime = System.currentTimeMillis();
+        GeneModelIndex index = GeneModelIndex.create(fetchChromosomeGeneModelIds(chromosomeId,
+                    os));
+        synchronized (chromosomeIndexes) {
+            chromosomeIndexes.put(chromosomeId, index);
+        }
+        LOG.info("Indexed gene models for chromosome " + chromosomeId + ": "
+                + index.getGeneCount() + " genes, " + index.getIdCount() + " ids in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+        return index;
+    }
+
+    private static Map<Integer, Set<Integer>> fetchChromosomeGeneModelIds(Integer chromosomeId,
+            ObjectStore os) {
+        Map<Integer, Set<Integer>> geneModelIds = new HashMap<Integer, Set<Integer>>();
+        Model model = os.getModel();
+        ClassDescriptor cldGene = model.getClassDescriptorByName("Gene");
+        if (!model.hasClassDescriptor("Transcript") || cldGene == null
+                || cldGene.getFieldDescriptorByName("transcripts") == null
+                || cldGene.getFieldDescriptorByName("chromosome") == null) {
+            return geneModelIds;
+        }
+
+        Map<Integer, Integer> transcriptToGene = new HashMap<Integer, Integer>();
+        Query q = makeChromosomeQuery(chromosomeId, null, model);
+        for (Object row : os.execute(q, 10000, true, false, false)) {
+            Integer geneId = (Integer) ((ResultsRow<?>) row).get(0);
+            Integer transcriptId = (Integer) ((ResultsRow<?>) row).get(1);
+            Set<Integer> ids = geneModelIds.get(geneId);
+            if (ids == null) {
+                ids = new HashSet<Integer>();
+                ids.add(geneId);
+                geneModelIds.put(geneId, ids);
+            }
+            ids.add(transcriptId);
+            transcriptToGene.put(transcriptId, geneId);
+        }
+        // GeneModel only uses the first FivePrimeUTR and ThreePrimeUTR of each transcript
+        Set<MultiKey> utrsFound = new HashSet<MultiKey>();
+        for (String fieldName : COMPONENT_FIELDS) {
+            boolean utrs = "UTRs".equals(fieldName);
+            q = makeChromosomeQuery(chromosomeId, fieldName, model);
+            if (q == null) {
+                continue;
+            }
+            for (Object row : os.execute(q, 10000, true, false, false)) {
+                Integer transcriptId = (Integer) ((ResultsRow<?>) row).get(0);
+                Integer geneId = transcriptToGene.get(transcriptId);
+                if (geneId == null) {
+                    continue;
+                }
+                Integer componentId;
+                if (utrs) {
+                    InterMineObject utr = (InterMineObject) ((ResultsRow<?>) row).get(1);
+                    String clsName = DynamicUtil.getSimpleClass(utr).getSimpleName();
+                    if ((!"FivePrimeUTR".equals(clsName) && !"ThreePrimeUTR".equals(clsName))
+                            || !utrsFound.add(new MultiKey(transcriptId, clsName))) {
+                        continue;
+                    }
+                    componentId = utr.getId();
+                } else {
+                    componentId = (Integer) ((ResultsRow<?>) row).get(1);
+                }
+                geneModelIds.get(geneId).add(componentId);
+            }
+        }
+        return geneModelIds;
+    }
+
+    /**
+     * Make a query for the transcript ids of all genes on a chromosome, along with either the
+     * gene ids or the ids of the objects in a component field of the transcripts.  UTRs are
+     * selected as objects rather than ids, as their class decides whether they are used.  The
+     * results are in order of transcript then component id, the same order as the components
+     * of a transcript are given to GeneModel.
+     * @return a Query, or null if Transcript has no such field
+     */
+    private static Query makeChromosomeQuery(Integer chromosomeId, String fieldName,
+            Model model) {
+        Query q = new Query();
+        q.setDistinct(false);
+        ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+        q.setConstraint(cs);
+        QueryClass qcGene = new QueryClass(Gene.class);
+        q.addFrom(qcGene);
+        QueryClass qcTranscript =
+            new QueryClass(model.getClassDescriptorByName("Transcript").getType());
+        q.addFrom(qcTranscript);
+        cs.addConstraint(new SimpleConstraint(new QueryForeignKey(qcGene, "chromosome"),
+                ConstraintOp.EQUALS, new QueryValue(chromosomeId)));
+        cs.addConstraint(new ContainsConstraint(new QueryCollectionReference(qcGene,
+                "transcripts"), ConstraintOp.CONTAINS, qcTranscript));
+        if (fieldName == null) {
+            q.addToSelect(new QueryField(qcGene, "id"));
+            q.addToSelect(new QueryField(qcTranscript, "id"));
+        } else {
+            QueryClass qcComponent = addComponent(q, qcTranscript, fieldName, model);
+            if (qcComponent == null) {
+                return null;
+            }
+            q.addToSelect(new QueryField(qcTranscript, "id"));
+            if ("UTRs".equals(fieldName)) {
+                q.addToSelect(qcComponent);
+            } else {
+                q.addToSelect(new QueryField(qcComponent, "id"));
+            }
+        }
+        return q;
+    }
+
     /**
      *
      * @param organismName org name
@@ -229,12 +528,32 @@ public final class GeneModelCache
      * objects involved.  If no gene model is found or object is not a gene model component and
      * empty set is returned.
      * @param object a gene or gene model component to look up
-     * @param model the data model
+     * @param os the ObjectStore the object is from
      * @return the ids of all objects in the gene model or an empty set
      */
-    public static Set<Integer> getGeneModelIds(InterMineObject object, Model model) {
+    public static Set<Integer> getGeneModelIds(InterMineObject object, ObjectStore os) {
+        Gene gene = findGene(object);
         Set<Integer> geneModelIds = new HashSet<Integer>();
-        for (GeneModel geneModel : getGeneModels(object, model)) {
+        if (gene == null) {
+            return geneModelIds;
+        }
+        Integer chromosomeId = null;
+        try {
+            Object chromosome = gene.getFieldProxy("chromosome");
+            if (chromosome instanceof InterMineObject) {
+                // a ProxyReference gives the id without fetching the chromosome
+                chromosomeId = ((InterMineObject) chromosome).getId();
+            }
+        } catch (IllegalAccessException e) {
+            LOG.warn("Failed to get chromosome of gene: " + gene.getId());
+        }
+        if (chromosomeId != null) {
+            GeneModelIndex index = getChromosomeIndex(chromosomeId, os);
+            if (index != null) {
+                return index.getIds(gene.getId());
+            }
+        }
+        for (GeneModel geneModel : fetchGeneModels(gene, os)) {
             geneModelIds.addAll(geneModel.getIds());
         }
         return geneModelIds;
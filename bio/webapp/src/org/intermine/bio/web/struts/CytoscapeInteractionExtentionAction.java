@@ -10,16 +10,29 @@ package org.intermine.bio.web.struts;
  *
  */
 
-import javax.servlet.ServletInputStream;
-import javax.servlet.ServletOutputStream;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.struts.action.Action;
 import org.apache.struts.action.ActionForm;
 import org.apache.struts.action.ActionForward;
 import org.apache.struts.action.ActionMapping;
+import org.intermine.api.InterMineAPI;
+import org.intermine.api.profile.Profile;
+import org.intermine.api.query.PathQueryExecutor;
+import org.intermine.bio.web.logic.CytoscapeNetworkDBQueryRunner;
+import org.intermine.bio.web.logic.CytoscapeNetworkService;
+import org.intermine.bio.web.logic.CytoscapeNetworkUtil;
+import org.intermine.util.StringUtil;
+import org.intermine.web.logic.session.SessionMethods;
 
 /**
  * This class will take ajax calls by POST to extent the network.
@@ -41,28 +54,45 @@ public class CytoscapeInteractionExtentionAction extends Action
                                  HttpServletResponse response)
         throws Exception {
 
+        HttpSession session = request.getSession(); // Get HttpSession
+        final InterMineAPI im = SessionMethods.getInterMineAPI(session); // Get InterMineAPI
+        Profile profile = SessionMethods.getProfile(session); // Get Profile
+        PathQueryExecutor executor = im.getPathQueryExecutor(profile); // Get PathQueryExecutor
+
         //========== input ==========
         // List of all nodes in the network, the current list should be always saved in the jsp
-        @SuppressWarnings("unused")
         String nodeList = request.getParameter("nodeList");
         // The node is one of the list
-        @SuppressWarnings("unused")
         String nodeToExtent = request.getParameter("nodeToExtent");
 
+        if (StringUtils.isBlank(nodeToExtent)) {
+            return null;
+        }
+
         //========== logics ==========
-        // TODO add logics
+        Set<Integer> fullInteractingGeneSet = new LinkedHashSet<Integer>();
+        if (StringUtils.isNotBlank(nodeList)) {
+            for (String s : StringUtil.tokenize(nodeList, ",")) {
+                fullInteractingGeneSet.add(Integer.valueOf(s.trim()));
+            }
+        }
 
-        //========== output ==========
-        ServletInputStream is = request.getInputStream();
-        ServletOutputStream out = response.getOutputStream();
+        // Add the genes interacting with the node to the network
+        CytoscapeNetworkDBQueryRunner queryRunner = new CytoscapeNetworkDBQueryRunner(
+                CytoscapeNetworkUtil.getInteractionIndex(im.getObjectStore()));
+        fullInteractingGeneSet.addAll(queryRunner.getInteractingGenes("Gene",
+                Collections.singleton(Integer.valueOf(nodeToExtent.trim())), im.getModel(),
+                executor));
 
-        byte[] b = new byte[16384];
+        CytoscapeNetworkService networkSrv = new CytoscapeNetworkService();
+        String network = networkSrv.getNetwork(
+                StringUtil.join(fullInteractingGeneSet, ","), session, false);
 
-        int i = 0;
-        while ((i = is.read(b)) != -1) {
-            out.write(b, 0, i);
-        }
+        //========== output ==========
+        response.setContentType("text/xml");
+        PrintWriter out = response.getWriter();
 
+        out.println(network);
         out.flush();
         out.close();
 
@@ -15,20 +15,19 @@ import java.io.PrintWriter;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 import org.intermine.api.InterMineAPI;
 import org.intermine.api.profile.Profile;
 import org.intermine.api.query.PathQueryExecutor;
 import org.intermine.api.results.ExportResultsIterator;
-import org.intermine.bio.web.model.GenomicRegion;
+import org.intermine.metadata.ClassDescriptor;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.pathquery.Constraints;
+import org.intermine.pathquery.OrderDirection;
 import org.intermine.pathquery.PathQuery;
 import org.intermine.util.StringUtil;
 import org.intermine.web.logic.export.Exporter;
@@ -70,9 +69,7 @@ public abstract class AbstractRegionExportService extends GenomicRegionSearchSer
         GenomicRegionSearchListInput searchInput = (GenomicRegionSearchListInput) input;
 
         Set<Integer> objectIds = new HashSet<Integer>();
-        Map<GenomicRegion, Query> queries = createQueries(searchInput.getSearchInfo());
-        for (Entry<GenomicRegion, Query> e: queries.entrySet()) {
-            Query q = e.getValue();
+        for (Query q : createQueries(searchInput.getSearchInfo())) {
             ObjectStore os = im.getObjectStore();
             Results rs = os.execute(q);
             Iterator<Object> it = rs.iterator();
@@ -96,6 +93,13 @@ public abstract class AbstractRegionExportService extends GenomicRegionSearchSer
         PathQuery pq = new PathQuery(im.getModel());
         pq.addView(type + ".primaryIdentifier");
         pq.addConstraint(Constraints.inIds(type, ids));
+        ClassDescriptor cld = im.getModel().getClassDescriptorByName(type);
+        if (cld != null && cld.getFieldDescriptorByName("chromosome") != null
+                && cld.getFieldDescriptorByName("chromosomeLocation") != null) {
+            // Write the features out in the order they are on the genome
+            pq.addOrderBy(type + ".chromosome.primaryIdentifier", OrderDirection.ASC);
+            pq.addOrderBy(type + ".chromosomeLocation.start", OrderDirection.ASC);
+        }
         checkPathQuery(pq);
         return pq;
     }
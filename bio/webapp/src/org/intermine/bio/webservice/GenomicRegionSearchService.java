@@ -13,7 +13,6 @@ package org.intermine.bio.webservice;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 import javax.servlet.http.HttpServletRequest;
@@ -23,13 +22,10 @@ import org.intermine.api.bag.ClassKeysNotFoundException;
 import org.intermine.api.bag.UnknownBagTypeException;
 import org.intermine.api.profile.InterMineBag;
 import org.intermine.api.profile.Profile;
-import org.intermine.bio.web.logic.GenomicRegionSearchQueryRunner;
 import org.intermine.bio.web.logic.GenomicRegionSearchUtil;
-import org.intermine.bio.web.model.GenomicRegion;
 import org.intermine.bio.webservice.GenomicRegionSearchListInput.GenomicRegionSearchInfo;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.query.Query;
-import org.intermine.web.logic.session.SessionMethods;
 import org.intermine.webservice.server.exceptions.BadRequestException;
 import org.intermine.webservice.server.lists.ListInput;
 import org.intermine.webservice.server.lists.ListMakerService;
@@ -102,9 +98,7 @@ public class GenomicRegionSearchService extends ListMakerService
         UnknownBagTypeException {
         final InterMineBag tempBag = profile.createBag(
                 input.getTemporaryListName(), type, input.getDescription(), im.getClassKeys());
-        Map<GenomicRegion, Query> queries = createQueries(input.getSearchInfo());
-        for (Entry<GenomicRegion, Query> e : queries.entrySet()) {
-            Query q = e.getValue();
+        for (Query q : createQueries(input.getSearchInfo())) {
             tempBag.addToBagFromQuery(q);
         }
         return tempBag;
@@ -141,16 +135,20 @@ public class GenomicRegionSearchService extends ListMakerService
     }
 
     /**
-     * Create the queries used to run the genomic region search.
+     * Create the queries used to run the genomic region search. There is one query per
+     * chromosome (or batch of regions on it) rather than one per region.
      * @param info The options input object.
-     * @return A map from a region to the query needed to find objects in that region.
+     * @return The queries needed to find the ids of objects in all the regions.
      */
-    protected Map<GenomicRegion, Query> createQueries(GenomicRegionSearchInfo info) {
-        return GenomicRegionSearchUtil.createRegionListQueries(
+    protected List<Query> createQueries(GenomicRegionSearchInfo info) {
+        List<Query> queries = new ArrayList<Query>();
+        for (List<Query> chrQueries : GenomicRegionSearchUtil.createBatchedRegionQueries(
                 info.getGenomicRegions(),
                 info.getExtension(),
-                GenomicRegionSearchQueryRunner.getChromosomeInfo(im, SessionMethods.getProfile(request.getSession())).get(info.getOrganism()),
                 info.getOrganism(),
-                info.getFeatureClasses());
+                info.getFeatureClasses(), true).values()) {
+            queries.addAll(chrQueries);
+        }
+        return queries;
     }
 }
@@ -13,12 +13,22 @@ package org.intermine.task;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.BuildListener;
 import org.apache.tools.ant.Task;
 import org.apache.tools.ant.taskdefs.Ant;
 import org.apache.tools.ant.taskdefs.Property;
@@ -31,6 +41,15 @@ import org.intermine.task.project.UserProperty;
 /**
  * A task that can read a project.xml file and run a data integration build.
  *
+ * If retrieveThreads is more than one, the retrieve actions of several sources are run at once,
+ * while the load actions are still run one at a time in project.xml order.  A source is loaded as
+ * soon as its own retrieve and the loads of all the sources before it have finished.  Sources that
+ * write to the same items database (see ITEMS_PREFIX_PROPERTY) are never retrieved at the same
+ * time, and a source is not retrieved into a shared items database until the previous source
+ * using it has been loaded, so the default set up, where all sources share one items database,
+ * runs in the same order as before.  Ant projects can't be used from several threads, so each
+ * concurrent retrieve is run from a Project of its own.
+ *
  * @author tom
  */
 public class Integrate extends Task
@@ -45,9 +64,20 @@ public class Integrate extends Task
 
     private Set<String> possibleActions = new HashSet<String>(Arrays.asList(possibleActionsArray));
 
+    /**
+     * The property used to name the items objectstore that a source retrieves into, as
+     * os.${common.os.prefix}-tgt-items-std.  Sources that set their own value in project.xml have
+     * their own items database and so can be retrieved alongside other sources.
+     */
+    public static final String ITEMS_PREFIX_PROPERTY = "common.os.prefix";
+
     private File projectXml;
     private Project intermineProject;
     private String action, sourceAttribute;
+    private int retrieveThreads = 1;
+    // source name -> elapsed milliseconds of each action performed on it, in order of completion
+    private final Map<String, Map<String, Long>> timings =
+        new LinkedHashMap<String, Map<String, Long>>();
 
     /**
      * Set the project.xml to use for this Task.
@@ -73,6 +103,15 @@ public class Integrate extends Task
         this.sourceAttribute = source;
     }
 
+    /**
+     * Set the maximum number of sources to retrieve at the same time.  The default is one,
+     * meaning that every action is performed in turn.
+     * @param retrieveThreads the number of retrieve actions that may run at once
+     */
+    public void setRetrieveThreads(int retrieveThreads) {
+        this.retrieveThreads = retrieveThreads;
+    }
+
 
     /**
      * Run the integration.
@@ -117,17 +156,149 @@ public class Integrate extends Task
         }
 
         for (String thisSourceName: sourceNames) {
-            Source sourceObject = intermineProject.getSources().get(thisSourceName);
-            if (sourceObject == null) {
+            if (intermineProject.getSources().get(thisSourceName) == null) {
                 throw new BuildException("can't find source in project definition file: "
                                          + thisSourceName);
             }
+        }
 
-            if ("".equals(action)) {
-                performAction(thisSourceName, sourceObject.getType());
+        try {
+            if (retrieveThreads > 1 && sourceNames.size() > 1
+                && ("".equals(action) || "retrieve".equals(action))) {
+                performConcurrently(sourceNames, "".equals(action));
             } else {
-                performAction(action, thisSourceName, sourceObject.getType());
+                for (String thisSourceName: sourceNames) {
+                    Source sourceObject = intermineProject.getSources().get(thisSourceName);
+                    if ("".equals(action)) {
+                        performAction(thisSourceName, sourceObject.getType());
+                    } else {
+                        performAction(action, thisSourceName, sourceObject.getType());
+                    }
+                }
             }
+        } finally {
+            printTimings();
+        }
+    }
+
+    /**
+     * Retrieve the given sources using a pool of retrieveThreads threads, and if load is true,
+     * load each of them in order as soon as it and the sources before it are ready.
+     */
+    private void performConcurrently(List<String> sourceNames, boolean load) {
+        System.out.print("Retrieving up to " + retrieveThreads + " sources at a time" + ENDL);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(retrieveThreads,
+                    sourceNames.size()));
+        // The retrieves are submitted in order, and each only waits for a source before it, so
+        // the pool can't fill up with tasks that are waiting for a task that hasn't started.
+        Map<String, CountDownLatch> lastUsers = new HashMap<String, CountDownLatch>();
+        List<Future<Object>> retrieves = new ArrayList<Future<Object>>();
+        List<CountDownLatch> finished = new ArrayList<CountDownLatch>();
+        try {
+            for (final String sourceName : sourceNames) {
+                final Source source = intermineProject.getSources().get(sourceName);
+                String itemsDb = getItemsPrefix(source);
+                final CountDownLatch previous = lastUsers.get(itemsDb);
+                final CountDownLatch done = new CountDownLatch(1);
+                final boolean releaseAfterRetrieve = !load;
+                lastUsers.put(itemsDb, done);
+                finished.add(done);
+                retrieves.add(pool.submit(new Callable<Object>() {
+                    public Object call() throws InterruptedException {
+                        if (previous != null) {
+                            previous.await();
+                        }
+                        try {
+                            performAction(createProject(), "retrieve", sourceName,
+                                    source.getType());
+                        } finally {
+                            if (releaseAfterRetrieve) {
+                                done.countDown();
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (int i = 0; i < sourceNames.size(); i++) {
+                String sourceName = sourceNames.get(i);
+                try {
+                    retrieves.get(i).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof BuildException) {
+                        throw (BuildException) e.getCause();
+                    }
+                    throw new BuildException("retrieve failed for source " + sourceName,
+                            e.getCause());
+                } catch (InterruptedException e) {
+                    throw new BuildException("interrupted while retrieving source " + sourceName,
+                            e);
+                }
+                if (load) {
+                    performAction("load", sourceName,
+                            intermineProject.getSources().get(sourceName).getType());
+                    finished.get(i).countDown();
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Create a Project that reports to the same listeners as this task's project, for running an
+     * action in another thread.
+     */
+    private org.apache.tools.ant.Project createProject() {
+        org.apache.tools.ant.Project parent = getProject();
+        org.apache.tools.ant.Project project = new org.apache.tools.ant.Project();
+        project.setDefaultInputStream(parent.getDefaultInputStream());
+        project.setInputHandler(parent.getInputHandler());
+        for (Object listener : parent.getBuildListeners()) {
+            project.addBuildListener((BuildListener) listener);
+        }
+        project.init();
+        project.setBaseDir(parent.getBaseDir());
+        parent.copyUserProperties(project);
+        return project;
+    }
+
+    /**
+     * Return the prefix of the items objectstore that a source retrieves into, which is set by
+     * a property of the source or else by a global property.
+     */
+    private String getItemsPrefix(Source source) {
+        String prefix = "";
+        for (UserProperty sp : intermineProject.getProperties()) {
+            if (ITEMS_PREFIX_PROPERTY.equals(sp.getName()) && sp.getValue() != null) {
+                prefix = sp.getValue();
+            }
+        }
+        // source properties are passed to the source after global ones, so they take precedence
+        for (UserProperty sp : source.getUserProperties()) {
+            if (ITEMS_PREFIX_PROPERTY.equals(sp.getName()) && sp.getValue() != null) {
+                prefix = sp.getValue();
+            }
+        }
+        return prefix;
+    }
+
+    private void printTimings() {
+        synchronized (timings) {
+            if (timings.isEmpty()) {
+                return;
+            }
+            StringBuffer sb = new StringBuffer();
+            sb.append("Integration timings (seconds):").append(ENDL);
+            for (Map.Entry<String, Map<String, Long>> entry : timings.entrySet()) {
+                sb.append("  ").append(entry.getKey());
+                for (Map.Entry<String, Long> actionTime : entry.getValue().entrySet()) {
+                    sb.append("  ").append(actionTime.getKey()).append(": ")
+                        .append(String.format("%.1f", actionTime.getValue() / 1000.0));
+                }
+                sb.append(ENDL);
+            }
+            System.out.print(sb.toString());
         }
     }
 
@@ -137,6 +308,11 @@ public class Integrate extends Task
     }
 
     private void performAction(String actionName, String sourceName, String sourceType) {
+        performAction(getProject(), actionName, sourceName, sourceType);
+    }
+
+    private void performAction(org.apache.tools.ant.Project antProject, String actionName,
+            String sourceName, String sourceType) {
         Source s = (Source) intermineProject.getSources().get(sourceName);
         File sourceDir = s.getLocation();
         
@@ -147,21 +323,21 @@ public class Integrate extends Task
         ant.setDir(sourceDir);
         ant.setInheritAll(false);
         ant.setTarget(actionName);
-        ant.setProject(getProject());
+        ant.setProject(antProject);
 
         // Tell sub-invocation to execute targets on dependencies.  This is needed so that ant in
         // the source directories correctly runs ant on it's dependencies
         Property depProp = ant.createProperty();
         depProp.setName("no.dep");
         depProp.setValue("false");
-        depProp.setProject(getProject());
+        depProp.setProject(antProject);
         depProp.execute();
 
         // pass the integrate project's basedir to the source
         Property integrateBasedir = ant.createProperty();
         integrateBasedir.setName("integrate.basedir");
-        integrateBasedir.setLocation(getProject().getBaseDir());
-        integrateBasedir.setProject(getProject());
+        integrateBasedir.setLocation(antProject.getBaseDir());
+        integrateBasedir.setProject(antProject);
         integrateBasedir.execute();
 
         // Add global properties
@@ -173,7 +349,7 @@ public class Integrate extends Task
                 prop.setName(sp.getName());
             }
             if (sp.isLocation()) {
-                prop.setLocation(getProject().resolveFile(sp.getLocation()));
+                prop.setLocation(antProject.resolveFile(sp.getLocation()));
             } else {
                 if (sp.getValue() == null) {
                     throw new BuildException("value null for property: " + sp.getName());
@@ -181,7 +357,7 @@ public class Integrate extends Task
                     prop.setValue(sp.getValue());
                 }
             }
-            prop.setProject(getProject());
+            prop.setProject(antProject);
             prop.execute();
         }
 
@@ -190,11 +366,11 @@ public class Integrate extends Task
             Property prop = ant.createProperty();
             prop.setName(sp.getName());
             if (sp.isLocation()) {
-                prop.setLocation(getProject().resolveFile(sp.getLocation()));
+                prop.setLocation(antProject.resolveFile(sp.getLocation()));
             } else {
                 prop.setValue(sp.getValue());
             }
-            prop.setProject(getProject());
+            prop.setProject(antProject);
             prop.execute();
         }
 
@@ -220,6 +396,21 @@ public class Integrate extends Task
         }
         allSourcesProp.setValue(sb.toString());
 
-        ant.execute();
+        long start = System.currentTimeMillis();
+        try {
+            ant.execute();
+        } finally {
+            long elapsed = System.currentTimeMillis() - start;
+            synchronized (timings) {
+                Map<String, Long> sourceTimings = timings.get(sourceName);
+                if (sourceTimings == null) {
+                    sourceTimings = new LinkedHashMap<String, Long>();
+                    timings.put(sourceName, sourceTimings);
+                }
+                sourceTimings.put(actionName, new Long(elapsed));
+            }
+            System.out.print("Finished integration action \"" + actionName + "\" for source \""
+                             + sourceName + "\" in " + (elapsed / 1000) + " seconds" + ENDL);
+        }
     }
 }
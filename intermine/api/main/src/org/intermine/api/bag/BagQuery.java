@@ -289,6 +289,14 @@ public class BagQuery
         return this.matchesAreIssues;
     }
 
+    /**
+     * Return true if this is the default query, searching the key fields of the type.
+     * @return true for the default query
+     */
+    public boolean isDefaultQuery() {
+        return isDefaultQuery;
+    }
+
     /**
      * Return the message that was passed to the constructor.
      * @return the message
@@ -0,0 +1,286 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.intermine.api.config.ClassKeyHelper;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.util.TypeUtil;
+
+/**
+ * An in-memory index of the class key values of some types, used by BagQueryRunner to answer the
+ * default bag query without going to the database.  For each indexed type the lower case values
+ * of its key fields are held in a sorted map to the ids of the objects that have them, so exact
+ * identifiers are a map lookup and wildcards only need to look at the values that share the
+ * text before the first '*'.  Only types whose key fields are all Strings can be indexed, other
+ * types are left to the default query.  The index is built from the production ObjectStore,
+ * which doesn't change while the webapp is running.
+ */
+public class BagQueryIndex
+{
+    private static final Logger LOG = Logger.getLogger(BagQueryIndex.class);
+    private static final int BATCH_SIZE = 10000;
+
+    private final ObjectStore os;
+    private final Model model;
+    private final Map<String, List<FieldDescriptor>> classKeys;
+    private final Map<String, NavigableMap<String, int[]>> index =
+        Collections.synchronizedMap(new HashMap<String, NavigableMap<String, int[]>>());
+
+    /**
+     * Construct an empty index, call build() to add types to it.
+     *
+     * @param os the ObjectStore to read the key values from
+     * @param classKeys the class keys Map
+     */
+    public BagQueryIndex(ObjectStore os, Map<String, List<FieldDescriptor>> classKeys) {
+        this.os = os;
+        this.model = os.getModel();
+        this.classKeys = classKeys;
+    }
+
+    /**
+     * Read the key values of the given types into the index.  Types that can't be indexed are
+     * logged and skipped.
+     *
+     * @param types unqualified class names
+     */
+    public void build(Collection<String> types) {
+        for (String type : types) {
+            try {
+                build(type);
+            } catch (Exception e) {
+                LOG.error("Failed to build the bag query index for " + type, e);
+            }
+        }
+    }
+
+    /**
+     * Read the key values of a type into the index.
+     *
+     * @param type an unqualified class name
+     * @return true if the type was indexed, false if it has no key fields or a key field that
+     * isn't a String
+     * @throws ClassNotFoundException if the type isn't in the model
+     */
+    public boolean build(String type) throws ClassNotFoundException {
+        String className = model.getPackageName() + "." + TypeUtil.unqualifiedName(type);
+        if (!ClassKeyHelper.hasKeyFields(classKeys, className)) {
+            return false;
+        }
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Class.forName(className));
+        q.addFrom(qc);
+        q.addToSelect(new QueryField(qc, "id"));
+        for (FieldDescriptor fld : ClassKeyHelper.getKeyFields(classKeys, className)) {
+            if (!fld.isAttribute()) {
+                continue;
+            }
+            QueryField field = new QueryField(qc, fld.getName());
+            if (!String.class.equals(field.getType())) {
+                LOG.info("Not indexing " + type + " for bag queries, key field "
+                        + fld.getName() + " isn't a String");
+                return false;
+            }
+            q.addToSelect(field);
+        }
+        if (q.getSelect().size() == 1) {
+            return false;
+        }
+
+        long start = System.currentTimeMillis();
+        NavigableMap<String, int[]> values = new TreeMap<String, int[]>();
+        Results res = os.execute(q, BATCH_SIZE, true, false, false);
+        for (Object rowObj : res) {
+            ResultsRow<?> row = (ResultsRow<?>) rowObj;
+            int id = ((Integer) row.get(0)).intValue();
+            for (int i = 1; i < row.size(); i++) {
+                Object value = row.get(i);
+                if (value != null) {
+                    add(values, ((String) value).toLowerCase(), id);
+                }
+            }
+        }
+        index.put(TypeUtil.unqualifiedName(type), values);
+        LOG.info("Indexed " + values.size() + " key values of " + type + " for bag queries in "
+                + (System.currentTimeMillis() - start) + "ms");
+        return true;
+    }
+
+    private static void add(Map<String, int[]> values, String value, int id) {
+        int[] ids = values.get(value);
+        if (ids == null) {
+            values.put(value, new int[] {id});
+        } else {
+            for (int existing : ids) {
+                if (existing == id) {
+                    return;
+                }
+            }
+            int[] newIds = new int[ids.length + 1];
+            System.arraycopy(ids, 0, newIds, 0, ids.length);
+            newIds[ids.length] = id;
+            values.put(value, newIds);
+        }
+    }
+
+    /**
+     * Return true if the key values of a type have been read into the index.
+     *
+     * @param type an unqualified or qualified class name
+     * @return true if the type is indexed
+     */
+    public boolean isIndexed(String type) {
+        return index.containsKey(TypeUtil.unqualifiedName(type));
+    }
+
+    /**
+     * Look up identifiers in the index.
+     *
+     * @param type an unqualified or qualified class name
+     * @param input the identifiers as input
+     * @return map from input identifier to the ids of the objects with that key value, in
+     * input order, with no entry for identifiers that aren't found, or null if the type isn't
+     * indexed
+     */
+    public Map<String, Set<Integer>> lookup(String type, Collection<String> input) {
+        NavigableMap<String, int[]> values = index.get(TypeUtil.unqualifiedName(type));
+        if (values == null) {
+            return null;
+        }
+        Map<String, Set<Integer>> found = new LinkedHashMap<String, Set<Integer>>();
+        for (String identifier : input) {
+            int[] ids = values.get(identifier.toLowerCase());
+            if (ids != null) {
+                found.put(identifier, toSet(ids));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Match wildcards against the index.
+     *
+     * @param type an unqualified or qualified class name
+     * @param wildcards the wildcard identifiers as input, containing '*'
+     * @return map from wildcard to the ids of the objects with a matching key value, with no
+     * entry for wildcards that don't match anything, or null if the type isn't indexed
+     */
+    public Map<String, Set<Integer>> lookupWildcards(String type, Collection<String> wildcards) {
+        NavigableMap<String, int[]> values = index.get(TypeUtil.unqualifiedName(type));
+        if (values == null) {
+            return null;
+        }
+        Map<String, Set<Integer>> found = new LinkedHashMap<String, Set<Integer>>();
+        for (String wildcard : wildcards) {
+            Pattern pattern = wildcardPattern(wildcard);
+            Set<Integer> ids = new LinkedHashSet<Integer>();
+            for (Map.Entry<String, int[]> entry
+                    : prefixRange(values, wildcardPrefix(wildcard)).entrySet()) {
+                if (pattern.matcher(entry.getKey()).matches()) {
+                    ids.addAll(toSet(entry.getValue()));
+                }
+            }
+            if (!ids.isEmpty()) {
+                found.put(wildcard, ids);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Return the pattern that a lower case value must match for a wildcard.
+     *
+     * @param wildcard the wildcard as input
+     * @return the pattern
+     */
+    static Pattern wildcardPattern(String wildcard) {
+        return Pattern.compile(wildcard.toLowerCase().replaceAll("\\*", "\\.\\*"));
+    }
+
+    /**
+     * Return the lower case text before the first '*' of a wildcard, which every value matching
+     * the wildcard starts with.
+     *
+     * @param wildcard the wildcard as input
+     * @return the prefix, possibly empty
+     */
+    static String wildcardPrefix(String wildcard) {
+        String lower = wildcard.toLowerCase();
+        int star = lower.indexOf('*');
+        String prefix = (star == -1) ? lower : lower.substring(0, star);
+        // the prefix is used literally, so stop at anything the pattern would treat specially
+        for (int i = 0; i < prefix.length(); i++) {
+            if ("\\.[]{}()?+|^$".indexOf(prefix.charAt(i)) != -1) {
+                return prefix.substring(0, i);
+            }
+        }
+        return prefix;
+    }
+
+    /**
+     * Return the part of a sorted map whose keys start with a prefix.
+     *
+     * @param values the sorted map
+     * @param prefix the prefix
+     * @param <V> the type of the values
+     * @return a view of the entries with keys starting with the prefix
+     */
+    static <V> NavigableMap<String, V> prefixRange(NavigableMap<String, V> values,
+            String prefix) {
+        if (prefix.length() == 0) {
+            return values;
+        }
+        return values.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    private static Set<Integer> toSet(int[] ids) {
+        Set<Integer> set = new LinkedHashSet<Integer>();
+        for (int id : ids) {
+            set.add(Integer.valueOf(id));
+        }
+        return set;
+    }
+
+    /**
+     * Return the number of values held for each indexed type.
+     *
+     * @return map from unqualified class name to number of key values
+     */
+    public Map<String, Integer> getSizes() {
+        Map<String, Integer> sizes = new HashMap<String, Integer>();
+        synchronized (index) {
+            for (Map.Entry<String, NavigableMap<String, int[]>> entry : index.entrySet()) {
+                sizes.put(entry.getKey(), Integer.valueOf(entry.getValue().size()));
+            }
+        }
+        return sizes;
+    }
+}
@@ -11,12 +11,21 @@ package org.intermine.api.bag;
  */
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
@@ -38,7 +47,9 @@ import org.intermine.util.TypeUtil;
 
 /**
  * For a given list of input strings search for objects using default and configured queries for a
- * particular type.
+ * particular type.  Large inputs are split into shards of SHARD_SIZE identifiers and the
+ * shards of a query are run at the same time.  If a BagQueryIndex has been set the default query
+ * for an indexed type is answered from the index.
  *
  * @author Richard Smith
  */
@@ -51,6 +62,18 @@ public class BagQueryRunner
     private BagQueryConfig bagQueryConfig;
     private TemplateManager templateManager;
     private static final boolean MATCHES_ARE_ISSUES_DEFAULT = true;
+    /** The largest number of identifiers put in one query */
+    protected static final int SHARD_SIZE = 10000;
+    private static final int SHARD_THREADS = 4;
+    private static final ExecutorService SHARD_EXECUTOR =
+        Executors.newFixedThreadPool(SHARD_THREADS, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "BagQueryRunner shard");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    private BagQueryIndex index = null;
 
     /**
      * Construct with configured bag queries and a map of type -&gt; key fields.
@@ -70,6 +93,24 @@ public class BagQueryRunner
         this.templateManager = templateManager;
     }
 
+    /**
+     * Set the index used to answer the default query for the types it holds.
+     *
+     * @param index the index, or null to always query the database
+     */
+    public void setIndex(BagQueryIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Return the index used to answer the default query, if any.
+     *
+     * @return the index or null
+     */
+    public BagQueryIndex getIndex() {
+        return index;
+    }
+
     /**
      * Given an input list of string identifiers search for corresponding objects. First run a
      * default query then any queries configured for the specified type.
@@ -113,7 +154,6 @@ public class BagQueryRunner
         Map<String, String> lowerCaseInput = new HashMap<String, String>();
         List<String> cleanInput = new ArrayList<String>();
         List<String> wildcardInput = new ArrayList<String>();
-        Map<String, Pattern> patterns = new HashMap<String, Pattern>();
         for (String inputString : input) {
             if (StringUtils.isNotEmpty(inputString)) {
                 if (inputString.indexOf('*') == -1 || !doWildcards) {
@@ -123,8 +163,6 @@ public class BagQueryRunner
                     }
                 } else {
                     wildcardInput.add(inputString);
-                    patterns.put(inputString, Pattern.compile(inputString.toLowerCase()
-                            .replaceAll("\\*", "\\.\\*")));
                 }
             }
         }
@@ -148,77 +186,51 @@ public class BagQueryRunner
         // return first record ONLY for identifier.  otherwise, run all queries and return all
         boolean matchOnFirst = bagQueryConfig.getMatchOnFirst();
 
+        Set<String> cleanInputSet = new HashSet<String>(cleanInput);
+        // the index holds lower case values, and can't apply the extra constraint
+        boolean useIndex = index != null && index.isIndexed(type) && !caseSensitive
+            && StringUtils.isEmpty(extraFieldValue);
+
         for (BagQuery bq : queries) {
             // run the next query on identifiers not yet resolved
             // OR all identifiers if matchOnFirst = FALSE
             if (!unresolved.isEmpty() || !matchOnFirst) {
+                Collection<String> toResolve = matchOnFirst ? unresolved : unresolvedOriginal;
                 Map<String, Set<Integer>> resMap = new HashMap<String, Set<Integer>>();
-                Query q = null;
-                try {
-                    if (matchOnFirst) {
-                        q = bq.getQuery(unresolved, extraFieldValue);
-                    } else {
-                        q = bq.getQuery(unresolvedOriginal, extraFieldValue);
-                    }
-                    Results res = os.execute(q, 10000, true, true, false);
-                    for (Object rowObj : res) {
-                        ResultsRow<?> row = (ResultsRow<?>) rowObj;
-                        Integer id = (Integer) row.get(0);
-                        for (int i = 1; i < row.size(); i++) {
-                            Object fieldObject = row.get(i);
-                            if (fieldObject != null) {
-                                if (!(fieldObject instanceof String)) {
-                                    fieldObject = fieldObject.toString();
-                                }
-                                String field = (String) fieldObject;
-                                String lowerField = field.toLowerCase();
-                                if (caseSensitive) {
-                                    if (cleanInput.contains(field)) {
-                                        processMatch(resMap, unresolved, id, field);
-                                    }
-                                } else if (lowerCaseInput.containsKey(lowerField)) {
-                                    // because we are converting to lower case we need to match
-                                    // to original input so that 'h' matches 'H' and 'h' becomes
-                                    // a duplicate.
-                                    String originalInput = lowerCaseInput.get(lowerField);
-                                    processMatch(resMap, unresolved, id, originalInput);
-                                }
-                            }
+                if (useIndex && bq.isDefaultQuery()) {
+                    resMap.putAll(index.lookup(type, toResolve));
+                    unresolved.removeAll(resMap.keySet());
+                } else {
+                    try {
+                        List<Query> shardQueries = new ArrayList<Query>();
+                        for (List<String> shard : shards(toResolve, SHARD_SIZE)) {
+                            shardQueries.add(bq.getQuery(shard, extraFieldValue));
                         }
+                        for (Object[] match : runShards(shardQueries, cleanInputSet,
+                                    lowerCaseInput, caseSensitive)) {
+                            processMatch(resMap, unresolved, (Integer) match[0],
+                                    (String) match[1]);
+                        }
+                    } catch (IllegalArgumentException e) {
+                        // Query couldn't handle extra value
                     }
-                } catch (IllegalArgumentException e) {
-                    // Query couldn't handle extra value
                 }
                 addResults(resMap, unresolved, bqr, bq.getMessage(), typeCls, false,
                             matchOnFirst, bq.matchesAreIssues());
             }
             if (!wildcardInput.isEmpty()) {
-                Map<String, Set<Integer>> resMap = new HashMap<String, Set<Integer>>();
+                Map<String, Set<Integer>> resMap;
                 try {
-                    Query q = bq.getQueryForWildcards(wildcardInput, extraFieldValue);
-                    Results res = os.execute(q, ResultsBatches.DEFAULT_BATCH_SIZE, true, true,
-                            false);
-                    for (Object rowObj : res) {
-                        ResultsRow<?> row = (ResultsRow<?>) rowObj;
-                        Integer id = (Integer) row.get(0);
-                        for (int i = 1; i < row.size(); i++) {
-                            String field = "" + row.get(i);
-                            String lowerField = field.toLowerCase();
-                            for (String wildcard : wildcardInput) {
-                                Pattern pattern = patterns.get(wildcard);
-                                if (pattern.matcher(lowerField).matches()) {
-                                    Set<Integer> ids = resMap.get(wildcard);
-                                    if (ids == null) {
-                                        ids = new LinkedHashSet<Integer>();
-                                        resMap.put(wildcard, ids);
-                                    }
-                                    ids.add(id);
-                                    // we have matched at least once with wildcard
-                                    wildcardUnresolved.remove(wildcard);
-                                }
-                            }
-                        }
+                    if (useIndex && bq.isDefaultQuery()) {
+                        resMap = index.lookupWildcards(type, wildcardInput);
+                    } else {
+                        Query q = bq.getQueryForWildcards(wildcardInput, extraFieldValue);
+                        Results res = os.execute(q, ResultsBatches.DEFAULT_BATCH_SIZE, true,
+                                true, false);
+                        resMap = matchWildcards(res, wildcardInput);
                     }
+                    // we have matched at least once with wildcard
+                    wildcardUnresolved.removeAll(resMap.keySet());
                     for (Map.Entry<String, Set<Integer>> entry : resMap.entrySet()) {
                         // This is a dummy issue just to give a message when running queries
                         bqr.addIssue(BagQueryResult.WILDCARD, bq.getMessage(),
@@ -249,6 +261,130 @@ public class BagQueryRunner
         return bqr;
     }
 
+    /**
+     * Run the queries for the shards of an input, at the same time if there is more than one,
+     * and return the matches found as pairs of object id and input identifier, in shard order.
+     */
+    private List<Object[]> runShards(List<Query> shardQueries, final Set<String> cleanInput,
+            final Map<String, String> lowerCaseInput, final boolean caseSensitive)
+        throws InterMineException {
+        if (shardQueries.size() == 1) {
+            return findMatches(shardQueries.get(0), cleanInput, lowerCaseInput, caseSensitive);
+        }
+        List<Future<List<Object[]>>> futures = new ArrayList<Future<List<Object[]>>>();
+        for (final Query q : shardQueries) {
+            futures.add(SHARD_EXECUTOR.submit(new Callable<List<Object[]>>() {
+                public List<Object[]> call() {
+                    return findMatches(q, cleanInput, lowerCaseInput, caseSensitive);
+                }
+            }));
+        }
+        List<Object[]> matches = new ArrayList<Object[]>();
+        try {
+            for (Future<List<Object[]>> future : futures) {
+                matches.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterMineException("Interrupted while running bag query", e);
+        } catch (ExecutionException e) {
+            throw new InterMineException("Error running bag query", e.getCause());
+        } finally {
+            for (Future<List<Object[]>> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return matches;
+    }
+
+    private List<Object[]> findMatches(Query q, Set<String> cleanInput,
+            Map<String, String> lowerCaseInput, boolean caseSensitive) {
+        List<Object[]> matches = new ArrayList<Object[]>();
+        Results res = os.execute(q, SHARD_SIZE, true, true, false);
+        for (Object rowObj : res) {
+            ResultsRow<?> row = (ResultsRow<?>) rowObj;
+            Integer id = (Integer) row.get(0);
+            for (int i = 1; i < row.size(); i++) {
+                Object fieldObject = row.get(i);
+                if (fieldObject != null) {
+                    String field = fieldObject.toString();
+                    if (caseSensitive) {
+                        if (cleanInput.contains(field)) {
+                            matches.add(new Object[] {id, field});
+                        }
+                    } else {
+                        // because we are converting to lower case we need to match
+                        // to original input so that 'h' matches 'H' and 'h' becomes
+                        // a duplicate.
+                        String originalInput = lowerCaseInput.get(field.toLowerCase());
+                        if (originalInput != null) {
+                            matches.add(new Object[] {id, originalInput});
+                        }
+                    }
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Match the results of a wildcard query against the wildcards.  The values are sorted so
+     * that each wildcard is only tried against the values starting with the text before its
+     * first '*'.
+     */
+    private Map<String, Set<Integer>> matchWildcards(Results res,
+            Collection<String> wildcardInput) {
+        NavigableMap<String, Set<Integer>> values = new TreeMap<String, Set<Integer>>();
+        for (Object rowObj : res) {
+            ResultsRow<?> row = (ResultsRow<?>) rowObj;
+            Integer id = (Integer) row.get(0);
+            for (int i = 1; i < row.size(); i++) {
+                String lowerField = ("" + row.get(i)).toLowerCase();
+                Set<Integer> ids = values.get(lowerField);
+                if (ids == null) {
+                    ids = new LinkedHashSet<Integer>();
+                    values.put(lowerField, ids);
+                }
+                ids.add(id);
+            }
+        }
+        Map<String, Set<Integer>> resMap = new HashMap<String, Set<Integer>>();
+        for (String wildcard : wildcardInput) {
+            Pattern pattern = BagQueryIndex.wildcardPattern(wildcard);
+            Set<Integer> ids = null;
+            for (Map.Entry<String, Set<Integer>> entry : BagQueryIndex.prefixRange(values,
+                        BagQueryIndex.wildcardPrefix(wildcard)).entrySet()) {
+                if (pattern.matcher(entry.getKey()).matches()) {
+                    if (ids == null) {
+                        ids = new LinkedHashSet<Integer>();
+                        resMap.put(wildcard, ids);
+                    }
+                    ids.addAll(entry.getValue());
+                }
+            }
+        }
+        return resMap;
+    }
+
+    /**
+     * Split a collection into lists of at most the given size, in order.
+     */
+    private static <E> List<List<E>> shards(Collection<E> input, int size) {
+        List<List<E>> shards = new ArrayList<List<E>>();
+        List<E> shard = null;
+        for (E e : input) {
+            if (shard == null || shard.size() >= size) {
+                shard = new ArrayList<E>(Math.min(size, input.size()));
+                shards.add(shard);
+            }
+            shard.add(e);
+        }
+        if (shards.isEmpty()) {
+            shards.add(new ArrayList<E>());
+        }
+        return shards;
+    }
+
     private void processMatch(Map<String, Set<Integer>> resMap, Set<String> unresolved,
         Integer id, String field) {
         Set<Integer> ids = resMap.get(field);
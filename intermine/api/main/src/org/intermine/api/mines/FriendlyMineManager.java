@@ -10,11 +10,14 @@ package org.intermine.api.mines;
  *
  */
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import org.apache.commons.collections.keyvalue.MultiKey;
 import org.apache.commons.lang.StringUtils;
@@ -95,14 +98,28 @@ public class FriendlyMineManager
     }
 
     /**
-     * if an hour has passed, update data
+     * if an hour has passed, update data.  Links are only discarded for mines whose release
+     * version has changed.
      */
     public static synchronized void primeCache() {
         long timeSinceLastRefresh = System.currentTimeMillis() - lastCacheRefresh;
         if (timeSinceLastRefresh > ONE_HOUR || !cached || DEBUG) {
             lastCacheRefresh = System.currentTimeMillis();
             cached = true;
-            FriendlyMineQueryRunner.updateReleaseVersion(mines);
+            Collection<Mine> changed = FriendlyMineQueryRunner.updateReleaseVersion(mines);
+            if (!changed.isEmpty()) {
+                Set<String> changedNames = new HashSet<String>();
+                for (Mine mine : changed) {
+                    changedNames.add(mine.getName());
+                }
+                synchronized (intermineLinkCache) {
+                    for (MultiKey key : new ArrayList<MultiKey>(intermineLinkCache.keySet())) {
+                        if (changedNames.contains(key.getKey(0))) {
+                            intermineLinkCache.remove(key);
+                        }
+                    }
+                }
+            }
         }
     }
 
@@ -111,7 +128,9 @@ public class FriendlyMineManager
      * @return homologues for this key combo
      */
     public Collection<JSONObject> getLink(MultiKey key) {
-        return intermineLinkCache.get(key);
+        synchronized (intermineLinkCache) {
+            return intermineLinkCache.get(key);
+        }
     }
 
     /**
@@ -119,7 +138,9 @@ public class FriendlyMineManager
      * @param results homologues for this key combo
      */
     public void addLink(MultiKey key, Collection<JSONObject> results) {
-        intermineLinkCache.put(key, results);
+        synchronized (intermineLinkCache) {
+            intermineLinkCache.put(key, results);
+        }
     }
 
     private Map<String, Mine> readConfig(InterMineAPI im, String localMineName) {
@@ -142,6 +163,7 @@ public class FriendlyMineManager
             String bgcolor = mineProps.getProperty("bgcolor");
             String frontcolor = mineProps.getProperty("frontcolor");
             String description = mineProps.getProperty("description");
+            String timeout = mineProps.getProperty("timeout");
 
             if (StringUtils.isEmpty(mineName) || StringUtils.isEmpty(url)) {
                 final String msg = "InterMine configured incorrectly in web.properties.  "
@@ -159,6 +181,7 @@ public class FriendlyMineManager
                 if (mine == null) {
                     parseRemoteConfig(mineName, mineId, defaultValues, url, logo, bgcolor,
                             frontcolor, description);
+                    setTimeout(mines.get(mineId), timeout);
                 }
             }
         }
@@ -189,6 +212,16 @@ public class FriendlyMineManager
         mines.put(mineId, mine);
     }
 
+    private void setTimeout(Mine mine, String timeout) {
+        if (StringUtils.isNotEmpty(timeout)) {
+            try {
+                mine.setTimeout(Integer.parseInt(timeout.trim()));
+            } catch (NumberFormatException e) {
+                LOG.error("Invalid timeout configured for " + mine.getName() + ": " + timeout);
+            }
+        }
+    }
+
     /**
      * @param mineName name of mine
      * @return mine
@@ -18,20 +18,39 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.collections.keyvalue.MultiKey;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
-import org.intermine.util.CacheMap;
 import org.intermine.webservice.client.results.XMLTableResult;
 import org.json.JSONObject;
 
 /**
- * Class to query friendly mines.
+ * Class to query friendly mines.  Every request to a mine has a connect and read timeout, and a
+ * mine that fails several times in a row is not asked again until a retry interval has passed,
+ * so that one slow or dead mine does not hold up pages that show results from the others.
+ * Identical queries that are running at the same time share one request, and results are cached
+ * for a limited time until the release version of their mine changes.
  *
  * @author Julie Sullivan
  */
@@ -40,12 +59,35 @@ public final class FriendlyMineQueryRunner
     private static final Logger LOG = Logger.getLogger(FriendlyMineQueryRunner.class);
     private static final String WEBSERVICE_URL = "/service";
     private static final String QUERY_PATH = "/query/results?format=xml&query=";
-    private static Map<MultiKey, JSONObject> queryResultsCache
-        = new CacheMap<MultiKey, JSONObject>();
     private static final String RELEASE_VERSION_URL = "/version/release";
     private static final boolean DEBUG = false;
-    private static final int CONNECT_TIMEOUT = 20000; // 20 seconds
-    
+    /** The connect and read timeout used for mines that do not configure their own. */
+    public static final int DEFAULT_TIMEOUT = 20000; // 20 seconds
+    /** The number of failures in a row after which a mine is left alone for a while. */
+    public static final int FAILURES_BEFORE_OPEN = 3;
+    /** How long a failing mine is left alone before it is tried again. */
+    public static final long RETRY_INTERVAL = 60000;
+    /** The maximum number of results held in the cache. */
+    public static final int CACHE_SIZE = 1000;
+    /** How long results are cached for. */
+    public static final long CACHE_TTL = 3600000;
+    /** The most mines asked at the same time when updating release versions. */
+    private static final int MAX_THREADS = 8;
+
+    private static Map<MultiKey, CachedResult> queryResultsCache =
+        new LinkedHashMap<MultiKey, CachedResult>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<MultiKey, CachedResult> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+    private static ConcurrentMap<MultiKey, FutureTask<JSONObject>> inFlight =
+        new ConcurrentHashMap<MultiKey, FutureTask<JSONObject>>();
+    private static Map<String, CircuitBreaker> breakers = new HashMap<String, CircuitBreaker>();
+    private static final ExecutorService EXECUTOR = createExecutor();
+
     private FriendlyMineQueryRunner() {
         // don't
     }
@@ -59,52 +101,105 @@ public final class FriendlyMineQueryRunner
      * @return map of results
      * @throws IOException if something goes wrong
      */
-    public static JSONObject runJSONWebServiceQuery(Mine mine, String xmlQuery)
+    public static JSONObject runJSONWebServiceQuery(final Mine mine, final String xmlQuery)
         throws IOException {
         MultiKey key = new MultiKey(mine, xmlQuery);
-        JSONObject jsonMine = queryResultsCache.get(key);
+        JSONObject jsonMine = getCachedResult(key);
         if (jsonMine != null) {
             return jsonMine;
         }
+        FutureTask<JSONObject> task = new FutureTask<JSONObject>(new Callable<JSONObject>() {
+            public JSONObject call() throws IOException {
+                return fetchJSONWebServiceQuery(mine, xmlQuery);
+            }
+        });
+        FutureTask<JSONObject> running = inFlight.putIfAbsent(key, task);
+        if (running == null) {
+            // Nobody else is running this query, so run it in this thread
+            running = task;
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+        }
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while querying " + mine.getName(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Failed to query " + mine.getName(), cause);
+        }
+    }
+
+    private static JSONObject fetchJSONWebServiceQuery(Mine mine, String xmlQuery)
+        throws IOException {
         List<Map<String, String>> results = new ArrayList<Map<String, String>>();
 
-        BufferedReader reader = runWebServiceQuery(mine, xmlQuery);
+        BufferedReader reader = runXMLQuery(mine, xmlQuery);
         if (reader == null) {
             LOG.info(String.format("no results found for %s for query \"%s\"",
                     mine.getName(), xmlQuery));
             return null;
         }
-        XMLTableResult table = new XMLTableResult(reader);
-        for (List<String> row: table.getData()) {
-            Map<String, String> result = new HashMap<String, String>();
-            result.put("id", row.get(0));
-            result.put("name", row.get(1));
-            if (row.size() > 2) {
-                // used for extra value, eg. organism name
-                result.put("ref", row.get(2));
+        try {
+            XMLTableResult table = new XMLTableResult(reader);
+            for (List<String> row: table.getData()) {
+                Map<String, String> result = new HashMap<String, String>();
+                result.put("id", row.get(0));
+                result.put("name", row.get(1));
+                if (row.size() > 2) {
+                    // used for extra value, eg. organism name
+                    result.put("ref", row.get(2));
+                }
+                results.add(result);
             }
-            results.add(result);
+        } finally {
+            reader.close();
         }
         Map<String, Object> data = new HashMap<String, Object>();
         data.put("results", results);
-        jsonMine = new JSONObject(data);
-        queryResultsCache.put(key, jsonMine);
+        JSONObject jsonMine = new JSONObject(data);
+        synchronized (queryResultsCache) {
+            queryResultsCache.put(new MultiKey(mine, xmlQuery), new CachedResult(jsonMine));
+        }
         return jsonMine;
     }
 
+    private static JSONObject getCachedResult(MultiKey key) {
+        synchronized (queryResultsCache) {
+            CachedResult cached = queryResultsCache.get(key);
+            if (cached == null) {
+                return null;
+            }
+            if (System.currentTimeMillis() - cached.created > CACHE_TTL) {
+                queryResultsCache.remove(key);
+                return null;
+            }
+            return cached.result;
+        }
+    }
+
     /**
      * Run a query on a mine using XML query
      * @param mine mine to query
      * @param xmlQuery pathQuery.toXML()
      * @return results
      */
-    private static BufferedReader runWebServiceQuery(Mine mine, String xmlQuery) {
+    private static BufferedReader runXMLQuery(Mine mine, String xmlQuery) {
         try {
             String urlString = mine.getUrl() + WEBSERVICE_URL + QUERY_PATH
                     + URLEncoder.encode("" + xmlQuery, "UTF-8");
-            URL url = new URL(urlString);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream()));
-            return reader;
+            return get(mine, urlString);
         } catch (Exception e) {
             LOG.info("Unable to access " + mine.getName() + " exception: " + e.getMessage());
             return null;
@@ -113,88 +208,257 @@ public final class FriendlyMineQueryRunner
 
     /**
      * get release version number for each mine.  if release number is different from the one
-     * we have locally, run queries to populate maps
+     * we have locally, run queries to populate maps.  The mines are all asked at once, on the
+     * threads shared by all callers, and the cached results are discarded only for mines whose
+     * release has changed.
      * @param mines list of mines to update
+     * @return the mines whose release version has changed
      */
-    public static void updateReleaseVersion(Map<String, Mine> mines) {
-        boolean clearCache = false;
-        for (Mine mine : mines.values()) {
-            String currentReleaseVersion = mine.getReleaseVersion();
-            String url = mine.getUrl() + WEBSERVICE_URL + RELEASE_VERSION_URL;
-            BufferedReader reader = runWebServiceQuery(url);
-            final String msg = "Unable to retrieve release version for " + mine.getName();
-            String newReleaseVersion = null;
-            
-            if (reader != null) {
+    public static Collection<Mine> updateReleaseVersion(Map<String, Mine> mines) {
+        Set<Mine> changed = new HashSet<Mine>();
+        Map<Mine, Future<String>> versions = new LinkedHashMap<Mine, Future<String>>();
+        try {
+            for (final Mine mine : mines.values()) {
+                versions.put(mine, EXECUTOR.submit(new Callable<String>() {
+                    public String call() throws IOException {
+                        return fetchReleaseVersion(mine);
+                    }
+                }));
+            }
+            for (Map.Entry<Mine, Future<String>> entry : versions.entrySet()) {
+                Mine mine = entry.getKey();
+                String currentReleaseVersion = mine.getReleaseVersion();
+                final String msg = "Unable to retrieve release version for " + mine.getName();
+                String newReleaseVersion = null;
                 try {
-                    newReleaseVersion = IOUtils.toString(reader);
-                } catch (Exception e) {
-                    LOG.warn(msg, e);
+                    newReleaseVersion = entry.getValue().get();
+                } catch (ExecutionException e) {
+                    LOG.warn(msg, e.getCause());
                     continue;
                 }
-            }
 
-            if (StringUtils.isBlank(newReleaseVersion)
-                    && StringUtils.isBlank(currentReleaseVersion)) {
-                // didn't get a release version this time or last time
-                LOG.warn(msg);
-                continue;
-            }
+                if (StringUtils.isBlank(newReleaseVersion)
+                        && StringUtils.isBlank(currentReleaseVersion)) {
+                    // didn't get a release version this time or last time
+                    LOG.warn(msg);
+                    continue;
+                }
 
-            // if release version is different
-            if (!StringUtils.equals(newReleaseVersion, currentReleaseVersion)
-                    || StringUtils.isBlank(currentReleaseVersion)
-                    || DEBUG) {
+                // if release version is different
+                if (!StringUtils.equals(newReleaseVersion, currentReleaseVersion)
+                        || StringUtils.isBlank(currentReleaseVersion)
+                        || DEBUG) {
 
-                // update release version
-                mine.setReleaseVersion(newReleaseVersion);
-                clearCache = true;
+                    // update release version
+                    mine.setReleaseVersion(newReleaseVersion);
+                    changed.add(mine);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Future<String> version : versions.values()) {
+                version.cancel(true);
             }
         }
-        if (clearCache) {
-            queryResultsCache = new HashMap<MultiKey, JSONObject>();
+        if (!changed.isEmpty()) {
+            synchronized (queryResultsCache) {
+                Iterator<MultiKey> keyIter = queryResultsCache.keySet().iterator();
+                while (keyIter.hasNext()) {
+                    if (changed.contains(keyIter.next().getKey(0))) {
+                        keyIter.remove();
+                    }
+                }
+            }
         }
+        return changed;
     }
 
+    private static String fetchReleaseVersion(Mine mine) throws IOException {
+        String url = mine.getUrl() + WEBSERVICE_URL + RELEASE_VERSION_URL;
+        BufferedReader reader;
+        try {
+            reader = get(mine, url);
+        } catch (IOException e) {
+            // an unreachable mine has no release version
+            LOG.info("Unable to access " + url + " exception: " + e.getMessage());
+            return null;
+        }
+        if (reader == null) {
+            return null;
+        }
+        try {
+            return IOUtils.toString(reader);
+        } finally {
+            reader.close();
+        }
+    }
 
     /**
-     * Run a query via the web service
+     * Run a query via the web service, using the timeout of the mine and leaving the mine alone
+     * if it has failed too often lately.
      *
+     * @param mine mine to query
      * @param urlString url to query
      * @return reader
      */
-    public static BufferedReader runWebServiceQuery(String urlString) {
+    public static BufferedReader runWebServiceQuery(Mine mine, String urlString) {
         if (StringUtils.isEmpty(urlString)) {
             return null;
         }
-        BufferedReader reader = null;
         try {
             if (!urlString.contains("?")) {
                 // GET
-                URL url = new URL(urlString);
-                URLConnection conn = url.openConnection();
-                conn.setConnectTimeout(CONNECT_TIMEOUT);
-                reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
+                BufferedReader reader = get(mine, urlString);
                 LOG.info("FriendlyMine URL (GET) " + urlString);
+                return reader;
             } else {
                 // POST
                 String[] params = urlString.split("\\?");
                 String newUrlString = params[0];
                 String queryString = params[1];
                 URL url = new URL(newUrlString);
-                URLConnection conn = url.openConnection();
-                conn.setDoOutput(true);
-                OutputStreamWriter wr = new OutputStreamWriter(conn.getOutputStream());
-                wr.write(queryString);
-                wr.flush();
-                reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-                LOG.info("FriendlyMine URL (POST) " + urlString);
+                CircuitBreaker breaker = getCircuitBreaker(mine);
+                if (!breaker.allowRequest()) {
+                    LOG.info("Not accessing " + mine.getName() + " after repeated failures");
+                    return null;
+                }
+                try {
+                    int timeout = getTimeout(mine);
+                    URLConnection conn = url.openConnection();
+                    conn.setConnectTimeout(timeout);
+                    conn.setReadTimeout(timeout);
+                    conn.setDoOutput(true);
+                    OutputStreamWriter wr = new OutputStreamWriter(conn.getOutputStream());
+                    wr.write(queryString);
+                    wr.flush();
+                    BufferedReader reader =
+                        new BufferedReader(new InputStreamReader(conn.getInputStream()));
+                    breaker.success();
+                    LOG.info("FriendlyMine URL (POST) " + urlString);
+                    return reader;
+                } catch (IOException e) {
+                    breaker.failure();
+                    throw e;
+                }
             }
-            return reader;
         } catch (Exception e) {
             LOG.info("Unable to access " + urlString + " exception: " + e.getMessage());
             return null;
         }
     }
-}
 
+    /**
+     * Open a GET request with the timeout of the mine, unless the mine has failed too often lately.
+     * @return a reader, or null if the mine is being left alone
+     */
+    private static BufferedReader get(Mine mine, String urlString) throws IOException {
+        URL url = new URL(urlString);
+        CircuitBreaker breaker = getCircuitBreaker(mine);
+        if (!breaker.allowRequest()) {
+            LOG.info("Not accessing " + mine.getName() + " after repeated failures");
+            return null;
+        }
+        try {
+            int timeout = getTimeout(mine);
+            URLConnection conn = url.openConnection();
+            conn.setConnectTimeout(timeout);
+            conn.setReadTimeout(timeout);
+            BufferedReader reader =
+                new BufferedReader(new InputStreamReader(conn.getInputStream()));
+            breaker.success();
+            return reader;
+        } catch (IOException e) {
+            breaker.failure();
+            throw e;
+        }
+    }
+
+    private static int getTimeout(Mine mine) {
+        return mine.getTimeout() > 0 ? mine.getTimeout() : DEFAULT_TIMEOUT;
+    }
+
+    private static synchronized CircuitBreaker getCircuitBreaker(Mine mine) {
+        CircuitBreaker breaker = breakers.get(mine.getName());
+        if (breaker == null) {
+            breaker = new CircuitBreaker();
+            breakers.put(mine.getName(), breaker);
+        }
+        return breaker;
+    }
+
+    private static ExecutorService createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "FriendlyMineQueryRunner");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        // don't keep threads around between updates
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Reset the cached results, the queries in progress and the record of failing mines.
+     */
+    static void reset() {
+        synchronized (queryResultsCache) {
+            queryResultsCache.clear();
+        }
+        inFlight.clear();
+        synchronized (FriendlyMineQueryRunner.class) {
+            breakers.clear();
+        }
+    }
+
+    /**
+     * A cached set of results, with the time it was fetched.
+     */
+    private static class CachedResult
+    {
+        private final JSONObject result;
+        private final long created = System.currentTimeMillis();
+
+        CachedResult(JSONObject result) {
+            this.result = result;
+        }
+    }
+
+    /**
+     * Records the failures of one server.  After FAILURES_BEFORE_OPEN failures in a row no more
+     * requests are made to the server until RETRY_INTERVAL has passed, after which one request is
+     * let through to find out whether the server has recovered.
+     */
+    private static class CircuitBreaker
+    {
+        private int failures = 0;
+        private long openUntil = 0;
+
+        synchronized boolean allowRequest() {
+            if (failures < FAILURES_BEFORE_OPEN) {
+                return true;
+            }
+            long now = System.currentTimeMillis();
+            if (now >= openUntil) {
+                // let one request through, and hold the others until it has finished
+                openUntil = now + RETRY_INTERVAL;
+                return true;
+            }
+            return false;
+        }
+
+        synchronized void success() {
+            failures = 0;
+            openUntil = 0;
+        }
+
+        synchronized void failure() {
+            failures++;
+            if (failures >= FAILURES_BEFORE_OPEN) {
+                openUntil = System.currentTimeMillis() + RETRY_INTERVAL;
+            }
+        }
+    }
+}
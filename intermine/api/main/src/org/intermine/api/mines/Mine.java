@@ -29,6 +29,7 @@ public class Mine
     protected Set<String> defaultValues = new HashSet<String>();
     protected String releaseVersion = null;
     protected String description = null;
+    protected int timeout = 0;
 
     /**
      * Constructor
@@ -131,6 +132,21 @@ public class Mine
         this.releaseVersion = releaseVersion;
     }
 
+    /**
+     * @return the connect and read timeout for requests to this mine in milliseconds, or 0 if
+     * the default should be used
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout the connect and read timeout for requests to this mine in milliseconds
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
     /**
      * @return the defaultValue
      */
@@ -112,6 +112,9 @@ public final class MainHelper
 
     private static final LookupTokeniser LOOKUP_TOKENISER = LookupTokeniser.getLookupTokeniser();
 
+    private static final QueryPlanCache PLAN_CACHE =
+        new QueryPlanCache(QueryPlanCache.DEFAULT_SIZE);
+
     /**
      * Converts a PathQuery object into an ObjectStore Query object, and optionally populates a Map
      * from String path in the PathQuery to the object in the Query that represents it.
@@ -134,17 +137,96 @@ public final class MainHelper
             if (!problems.isEmpty()) {
                 throw new ObjectStoreException("PathQuery is invalid: " + problems);
             }
+            PathQuery toExecute = pathQuery.getQueryToExecute();
+            String key = QueryPlanCache.getKey(toExecute);
+            if (key == null) {
+                Query q = new Query();
+                try {
+                    makeQuery(q, pathQuery.getRootClass(), pathQuery, savedBags, pathToQueryNode,
+                            bagQueryRunner, returnBagQueryResults, null);
+                } catch (PathException e) {
+                    throw new Error("PathQuery is invalid, but was valid earlier", e);
+                }
+                return q;
+            }
+            QueryPlanCache.QueryPlan plan = PLAN_CACHE.get(key);
+            if (plan != null) {
+                return makeQuery(plan, toExecute, savedBags, pathToQueryNode, bagQueryRunner,
+                        returnBagQueryResults);
+            }
             Query q = new Query();
+            Map<String, QuerySelectable> queryBits = new HashMap<String, QuerySelectable>();
+            Map<String, Constraint> valueConstraints = new HashMap<String, Constraint>();
+            Map<String, Path> paths = new HashMap<String, Path>();
             try {
-                makeQuery(q, pathQuery.getRootClass(), pathQuery, savedBags, pathToQueryNode,
-                        bagQueryRunner, returnBagQueryResults);
+                makeQuery(q, pathQuery.getRootClass(), pathQuery, savedBags, queryBits,
+                        bagQueryRunner, returnBagQueryResults, valueConstraints);
+                Map<String, String> subclasses = toExecute.getSubclasses();
+                for (String code : valueConstraints.keySet()) {
+                    paths.put(code, new Path(toExecute.getModel(),
+                                toExecute.getConstraintForCode(code).getPath(), subclasses));
+                }
             } catch (PathException e) {
                 throw new Error("PathQuery is invalid, but was valid earlier", e);
             }
+            PLAN_CACHE.put(key, q, queryBits, valueConstraints, paths);
+            if (pathToQueryNode != null) {
+                pathToQueryNode.putAll(queryBits);
+            }
             return q;
         }
     }
 
+    /**
+     * Returns the cache of compiled query plans used by makeQuery, so that its hit rate can be
+     * monitored.
+     *
+     * @return the QueryPlanCache
+     */
+    public static QueryPlanCache getQueryPlanCache() {
+        return PLAN_CACHE;
+    }
+
+    /**
+     * Makes an ObjectStore Query from a cached plan, building new Constraints for the constraint
+     * values in the PathQuery.
+     *
+     * @param plan the plan for the shape of the PathQuery
+     * @param pathQuery the PathQuery to execute, from getQueryToExecute()
+     * @param savedBags the current saved bags map (a Map from bag name to InterMineBag)
+     * @param pathToQueryNode optional parameter which will be populated with entries, mapping from
+     * String path in the pathQuery to objects in the result Query
+     * @param bagQueryRunner a BagQueryRunner to use to perform LOOKUPs
+     * @param returnBagQueryResults optional parameter in which any BagQueryResult objects can be
+     * returned
+     * @return an ObjectStore Query object
+     * @throws ObjectStoreException if something goes wrong
+     */
+    private static Query makeQuery(QueryPlanCache.QueryPlan plan, PathQuery pathQuery,
+            Map<String, InterMineBag> savedBags, Map<String, QuerySelectable> pathToQueryNode,
+            BagQueryRunner bagQueryRunner,
+            Map<String, BagQueryResult> returnBagQueryResults) throws ObjectStoreException {
+        Query q = plan.newQuery();
+        Map<String, QuerySelectable> queryBits = plan.getQueryBits();
+        Map<String, Constraint> replacements = new HashMap<String, Constraint>();
+        for (String code : plan.getValueCodes()) {
+            PathConstraint constraint = pathQuery.getConstraintForCode(code);
+            Constraint c = makeConstraint(q, constraint, plan.getPath(code),
+                    queryBits.get(constraint.getPath()), pathQuery.getModel(), queryBits,
+                    Collections.<PathConstraintLoop>emptySet(), savedBags, bagQueryRunner,
+                    returnBagQueryResults);
+            replacements.put(code, c);
+        }
+        Constraint c = plan.getConstraint(replacements);
+        if (c != null) {
+            q.setConstraint(c);
+        }
+        if (pathToQueryNode != null) {
+            pathToQueryNode.putAll(queryBits);
+        }
+        return q;
+    }
+
     /**
      * Converts a PathQuery object into an ObjectStore Query object, and optionally populates a Map
      * from String path in the PathQuery to the object in the Query that represents it. This is the
@@ -161,12 +243,14 @@ public final class MainHelper
      * @param bagQueryRunner a BagQueryRunner to use to perform LOOKUPs
      * @param returnBagQueryResults optional parameter in which any BagQueryResult objects can be
      * returned
+     * @param valueConstraints optional parameter which will be populated with the Constraints
+     * made for constraints that have a value, by code, for use in a QueryPlanCache
      * @throws ObjectStoreException if something goes wrong
      */
     private static void makeQuery(Queryable q, String root, PathQuery pathQuery,
             Map<String, InterMineBag> savedBags, Map<String, QuerySelectable> pathToQueryNode,
-            BagQueryRunner bagQueryRunner,
-            Map<String, BagQueryResult> returnBagQueryResults) throws ObjectStoreException {
+            BagQueryRunner bagQueryRunner, Map<String, BagQueryResult> returnBagQueryResults,
+            Map<String, Constraint> valueConstraints) throws ObjectStoreException {
         Model model = pathQuery.getModel();
 
         // We need to call getQueryToExecute() first.  For template queries this gets a query that
@@ -327,7 +411,8 @@ public final class MainHelper
                                         = new QueryCollectionPathExpression(parentQc,
                                                 path.getLastElement(), path.getEndType());
                                     makeQuery(qn, stringPath, pathQuery, savedBags,
-                                            pathToQueryNode, bagQueryRunner, returnBagQueryResults);
+                                            pathToQueryNode, bagQueryRunner, returnBagQueryResults,
+                                            null);
                                     queryBits.put(stringPath, qn);
                                     pathExpressions.put(stringPath, qn);
                                 } else {
@@ -335,7 +420,7 @@ public final class MainHelper
                                         = new QueryObjectPathExpression(parentQc,
                                                 path.getLastElement(), path.getEndType());
                                     makeQuery(qn, stringPath, pathQuery, savedBags, pathToQueryNode,
-                                            bagQueryRunner, returnBagQueryResults);
+                                            bagQueryRunner, returnBagQueryResults, null);
                                     queryBits.put(stringPath, qn);
                                     pathExpressions.put(stringPath, qn);
                                 }
@@ -366,137 +451,14 @@ public final class MainHelper
                         field = new QueryField(qc, path.getLastElement());
                         queryBits.put(stringPath, field);
                     }
-                    if (constraint instanceof PathConstraintAttribute) {
-                        PathConstraintAttribute pca = (PathConstraintAttribute) constraint;
-                        Class<?> fieldType = path.getEndType();
-                        if (String.class.equals(fieldType)) {
-                            codeToConstraint.put(code, makeQueryStringConstraint(
-                                        (QueryField) field, pca));
-                        } else if (Date.class.equals(fieldType)) {
-                            codeToConstraint.put(code, makeQueryDateConstraint(
-                                        (QueryField) field, pca));
-                        } else {
-                            codeToConstraint.put(code, new SimpleConstraint((QueryField) field,
-                                        pca.getOp(), new QueryValue(TypeUtil.stringToObject(
-                                                fieldType, pca.getValue()))));
-                        }
-                    
-                    } else if (constraint instanceof PathConstraintNull) {
-                        // This is a null constraint. If it is on a class, then we need do nothing,
-                        // as the mere presence of the constraint has caused the class to make it
-                        // into the FROM list above.
-                        
-                        // TODO - make IS NULL also work on references and collections.
-                        if (path.endIsAttribute()) {
-                            codeToConstraint.put(code, new SimpleConstraint((QueryField) field,
-                                        constraint.getOp()));
-                        } else if (path.endIsReference()) {
-                            String parent = path.getPrefix().getNoConstraintsString();
-                            QueryClass parentQc = (QueryClass) ((queryBits.get(parent)
-                                        instanceof QueryClass) ? queryBits.get(parent) : null);
-                            QueryObjectReference qr = new QueryObjectReference(parentQc, path.getLastElement());
-                            codeToConstraint.put(code, new ContainsConstraint(qr, constraint.getOp()));
-                        } else if (path.endIsCollection()) {
-                            String parent = path.getPrefix().getNoConstraintsString();
-                            QueryClass parentQC = (QueryClass) ((queryBits.get(parent)
-                                        instanceof QueryClass) ? queryBits.get(parent) : null);
-                            Query subQ = new Query();
-                            QueryCollectionReference qcr = new QueryCollectionReference(
-                                    parentQC, path.getLastElement());
-                            subQ.setDistinct(false);
-                            if (q instanceof Query) {
-                                Query mainQ = (Query) q;
-                                // Manually import the alias from the surrounding query.
-                                subQ.alias(parentQC, ((Query) q).getAliases().get(parentQC));
-                            } else {
-                                subQ.alias(parentQC, "default");
-                            }
-                            
-                            QueryClass pathFrom = new QueryClass(path.getEndType());
-                            subQ.addFrom(pathFrom);
-                            subQ.addToSelect(new QueryValue(1));
-                            subQ.setConstraint(new ContainsConstraint(qcr, ConstraintOp.CONTAINS, pathFrom));
-                            
-                            codeToConstraint.put(code, new SubqueryExistsConstraint(
-                                    ((constraint.getOp() == ConstraintOp.IS_NULL) ? ConstraintOp.DOES_NOT_EXIST : ConstraintOp.EXISTS),
-                                    subQ
-                                ));
-                        }
-                    } else if (constraint instanceof PathConstraintLoop) {
-                        // We need to act if this is not a participating constraint - otherwise
-                        // this has been taken care of above.
-                        if (!participatingLoops.contains(constraint)) {
-                            PathConstraintLoop pcl = (PathConstraintLoop) constraint;
-                            if (pcl.getPath().length() > pcl.getLoopPath().length()) {
-                                codeToConstraint.put(code, new ClassConstraint((QueryClass)
-                                            queryBits.get(pcl.getLoopPath()), constraint.getOp(),
-                                            (QueryClass) field));
-                            } else {
-                                codeToConstraint.put(code, new ClassConstraint((QueryClass) field,
-                                            constraint.getOp(), (QueryClass) queryBits
-                                            .get(((PathConstraintLoop) constraint).getLoopPath())));
-                            }
+                    Constraint c = makeConstraint(q, constraint, path, field, model,
+                            queryBits, participatingLoops, savedBags, bagQueryRunner,
+                            returnBagQueryResults);
+                    if (c != null) {
+                        codeToConstraint.put(code, c);
+                        if ((valueConstraints != null) && QueryPlanCache.hasValue(constraint)) {
+                            valueConstraints.put(code, c);
                         }
-                    } else if (constraint instanceof PathConstraintSubclass) {
-                        // No action needed.
-                    } else if (constraint instanceof PathConstraintBag) {
-                        PathConstraintBag pcb = (PathConstraintBag) constraint;
-                        InterMineBag bag = savedBags.get(pcb.getBag());
-                        if (bag == null) {
-                            throw new BagNotFound(pcb.getBag());
-                        }
-                        codeToConstraint.put(code, new BagConstraint((QueryNode) field, pcb.getOp(),
-                                    bag.getOsb()));
-                    } else if (constraint instanceof PathConstraintIds) {
-                        codeToConstraint.put(code, new BagConstraint(new QueryField(
-                                        (QueryClass) field, "id"), constraint.getOp(),
-                                    ((PathConstraintIds) constraint).getIds()));
-                    } else if (constraint instanceof PathConstraintRange) {
-                        PathConstraintRange pcr = (PathConstraintRange) constraint;
-                        codeToConstraint.put(code, makeRangeConstraint(q, (QueryNode) field, pcr));
-                    } else if (constraint instanceof PathConstraintMultitype) {
-                        PathConstraintMultitype pcmt = (PathConstraintMultitype) constraint;
-                        codeToConstraint.put(code, makeMultiTypeConstraint(pathQuery.getModel(), (QueryNode) field, pcmt));
-                    } else if (constraint instanceof PathConstraintMultiValue) {
-                        Class<?> fieldType = path.getEndType();
-                        if (String.class.equals(fieldType)) {
-                            codeToConstraint.put(code, new BagConstraint((QueryField) field,
-                                    constraint.getOp(), ((PathConstraintMultiValue) constraint)
-                                    .getValues()));
-                        } else {
-                            Collection<Object> objects = new ArrayList<Object>();
-                            for (String s : ((PathConstraintMultiValue) constraint).getValues()) {
-                                objects.add(TypeUtil.stringToObject(fieldType, s));
-                            }
-                            codeToConstraint.put(code, new BagConstraint((QueryField) field,
-                                    constraint.getOp(), objects));
-                        }
-                    } else if (constraint instanceof PathConstraintLookup) {
-                        QueryClass qc = (QueryClass) field;
-                        PathConstraintLookup pcl = (PathConstraintLookup) constraint;
-                        if (bagQueryRunner == null) {
-                            throw new NullPointerException("Cannot convert this PathQuery to an "
-                                    + "ObjectStore Query without a BagQueryRunner");
-                        }
-                        String identifiers = pcl.getValue();
-                        BagQueryResult bagQueryResult;
-                        List<String> identifierList = LOOKUP_TOKENISER.tokenise(identifiers);
-                        try {
-                            bagQueryResult = bagQueryRunner.searchForBag(qc.getType()
-                                    .getSimpleName(), identifierList, pcl.getExtraValue(), true);
-                        } catch (ClassNotFoundException e) {
-                            throw new ObjectStoreException(e);
-                        } catch (InterMineException e) {
-                            throw new ObjectStoreException(e);
-                        }
-                        codeToConstraint.put(code, new BagConstraint(new QueryField(qc, "id"),
-                                    ConstraintOp.IN, bagQueryResult.getMatchAndIssueIds()));
-                        if (returnBagQueryResults != null) {
-                            returnBagQueryResults.put(stringPath, bagQueryResult);
-                        }
-                    } else {
-                        throw new ObjectStoreException("Unknown constraint type "
-                                + constraint.getClass().getName());
                     }
                 }
             }
@@ -617,6 +579,164 @@ public final class MainHelper
         }
     }
 
+
+    /**
+     * Creates the ObjectStore Constraint for a single PathConstraint.
+     *
+     * @param q the Query, QueryObjectPathExpression, or QueryCollectionPathExpression the
+     * constraint will be placed in
+     * @param constraint the PathConstraint
+     * @param path the Path of the constraint
+     * @param field the object in the query that represents the path of the constraint
+     * @param model the Model
+     * @param queryBits a Map from String path to the objects in the query
+     * @param participatingLoops loop constraints that have already been handled by merging classes
+     * @param savedBags the current saved bags map (a Map from bag name to InterMineBag)
+     * @param bagQueryRunner a BagQueryRunner to use to perform LOOKUPs
+     * @param returnBagQueryResults optional parameter in which any BagQueryResult objects can be
+     * returned
+     * @return a Constraint, or null if the PathConstraint needs no Constraint of its own
+     * @throws ObjectStoreException if something goes wrong
+     */
+    private static Constraint makeConstraint(Queryable q, PathConstraint constraint, Path path,
+            QuerySelectable field, Model model, Map<String, QuerySelectable> queryBits,
+            Set<PathConstraintLoop> participatingLoops, Map<String, InterMineBag> savedBags,
+            BagQueryRunner bagQueryRunner,
+            Map<String, BagQueryResult> returnBagQueryResults) throws ObjectStoreException {
+        if (constraint instanceof PathConstraintAttribute) {
+            PathConstraintAttribute pca = (PathConstraintAttribute) constraint;
+            Class<?> fieldType = path.getEndType();
+            if (String.class.equals(fieldType)) {
+                return makeQueryStringConstraint(
+                            (QueryField) field, pca);
+            } else if (Date.class.equals(fieldType)) {
+                return makeQueryDateConstraint(
+                            (QueryField) field, pca);
+            } else {
+                return new SimpleConstraint((QueryField) field,
+                            pca.getOp(), new QueryValue(TypeUtil.stringToObject(
+                                    fieldType, pca.getValue())));
+            }
+        
+        } else if (constraint instanceof PathConstraintNull) {
+            // This is a null constraint. If it is on a class, then we need do nothing,
+            // as the mere presence of the constraint has caused the class to make it
+            // into the FROM list above.
+            
+            // TODO - make IS NULL also work on references and collections.
+            if (path.endIsAttribute()) {
+                return new SimpleConstraint((QueryField) field,
+                            constraint.getOp());
+            } else if (path.endIsReference()) {
+                String parent = path.getPrefix().getNoConstraintsString();
+                QueryClass parentQc = (QueryClass) ((queryBits.get(parent)
+                            instanceof QueryClass) ? queryBits.get(parent) : null);
+                QueryObjectReference qr = new QueryObjectReference(parentQc, path.getLastElement());
+                return new ContainsConstraint(qr, constraint.getOp());
+            } else if (path.endIsCollection()) {
+                String parent = path.getPrefix().getNoConstraintsString();
+                QueryClass parentQC = (QueryClass) ((queryBits.get(parent)
+                            instanceof QueryClass) ? queryBits.get(parent) : null);
+                Query subQ = new Query();
+                QueryCollectionReference qcr = new QueryCollectionReference(
+                        parentQC, path.getLastElement());
+                subQ.setDistinct(false);
+                if (q instanceof Query) {
+                    // Manually import the alias from the surrounding query.
+                    subQ.alias(parentQC, ((Query) q).getAliases().get(parentQC));
+                } else {
+                    subQ.alias(parentQC, "default");
+                }
+                
+                QueryClass pathFrom = new QueryClass(path.getEndType());
+                subQ.addFrom(pathFrom);
+                subQ.addToSelect(new QueryValue(1));
+                subQ.setConstraint(new ContainsConstraint(qcr, ConstraintOp.CONTAINS, pathFrom));
+                
+                return new SubqueryExistsConstraint(
+                        ((constraint.getOp() == ConstraintOp.IS_NULL) ? ConstraintOp.DOES_NOT_EXIST : ConstraintOp.EXISTS),
+                        subQ
+                    );
+            }
+        } else if (constraint instanceof PathConstraintLoop) {
+            // We need to act if this is not a participating constraint - otherwise
+            // this has been taken care of above.
+            if (!participatingLoops.contains(constraint)) {
+                PathConstraintLoop pcl = (PathConstraintLoop) constraint;
+                if (pcl.getPath().length() > pcl.getLoopPath().length()) {
+                    return new ClassConstraint((QueryClass)
+                                queryBits.get(pcl.getLoopPath()), constraint.getOp(),
+                                (QueryClass) field);
+                } else {
+                    return new ClassConstraint((QueryClass) field,
+                                constraint.getOp(), (QueryClass) queryBits
+                                .get(((PathConstraintLoop) constraint).getLoopPath()));
+                }
+            }
+        } else if (constraint instanceof PathConstraintSubclass) {
+            // No action needed.
+        } else if (constraint instanceof PathConstraintBag) {
+            PathConstraintBag pcb = (PathConstraintBag) constraint;
+            InterMineBag bag = savedBags.get(pcb.getBag());
+            if (bag == null) {
+                throw new BagNotFound(pcb.getBag());
+            }
+            return new BagConstraint((QueryNode) field, pcb.getOp(),
+                        bag.getOsb());
+        } else if (constraint instanceof PathConstraintIds) {
+            return new BagConstraint(new QueryField(
+                            (QueryClass) field, "id"), constraint.getOp(),
+                        ((PathConstraintIds) constraint).getIds());
+        } else if (constraint instanceof PathConstraintRange) {
+            PathConstraintRange pcr = (PathConstraintRange) constraint;
+            return makeRangeConstraint(q, (QueryNode) field, pcr);
+        } else if (constraint instanceof PathConstraintMultitype) {
+            PathConstraintMultitype pcmt = (PathConstraintMultitype) constraint;
+            return makeMultiTypeConstraint(model, (QueryNode) field, pcmt);
+        } else if (constraint instanceof PathConstraintMultiValue) {
+            Class<?> fieldType = path.getEndType();
+            if (String.class.equals(fieldType)) {
+                return new BagConstraint((QueryField) field,
+                        constraint.getOp(), ((PathConstraintMultiValue) constraint)
+                        .getValues());
+            } else {
+                Collection<Object> objects = new ArrayList<Object>();
+                for (String s : ((PathConstraintMultiValue) constraint).getValues()) {
+                    objects.add(TypeUtil.stringToObject(fieldType, s));
+                }
+                return new BagConstraint((QueryField) field,
+                        constraint.getOp(), objects);
+            }
+        } else if (constraint instanceof PathConstraintLookup) {
+            QueryClass qc = (QueryClass) field;
+            PathConstraintLookup pcl = (PathConstraintLookup) constraint;
+            if (bagQueryRunner == null) {
+                throw new NullPointerException("Cannot convert this PathQuery to an "
+                        + "ObjectStore Query without a BagQueryRunner");
+            }
+            String identifiers = pcl.getValue();
+            BagQueryResult bagQueryResult;
+            List<String> identifierList = LOOKUP_TOKENISER.tokenise(identifiers);
+            try {
+                bagQueryResult = bagQueryRunner.searchForBag(qc.getType()
+                        .getSimpleName(), identifierList, pcl.getExtraValue(), true);
+            } catch (ClassNotFoundException e) {
+                throw new ObjectStoreException(e);
+            } catch (InterMineException e) {
+                throw new ObjectStoreException(e);
+            }
+            if (returnBagQueryResults != null) {
+                returnBagQueryResults.put(constraint.getPath(), bagQueryResult);
+            }
+            return new BagConstraint(new QueryField(qc, "id"),
+                        ConstraintOp.IN, bagQueryResult.getMatchAndIssueIds());
+        } else {
+            throw new ObjectStoreException("Unknown constraint type "
+                    + constraint.getClass().getName());
+        }
+        return null;
+    }
+
     /**
      * Construct a new multi-type constraint. 
      * @param model The model to look for types within.
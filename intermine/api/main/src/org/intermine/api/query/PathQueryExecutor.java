@@ -24,15 +24,18 @@ import org.intermine.api.bag.BagQueryRunner;
 import org.intermine.api.profile.BagState;
 import org.intermine.api.profile.InterMineBag;
 import org.intermine.api.profile.Profile;
+import org.intermine.api.results.ContinuationResultsIterator;
 import org.intermine.api.results.ExportResultsIterator;
 import org.intermine.api.results.ResultElement;
 import org.intermine.metadata.FieldDescriptor;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.query.ContinuationToken;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QuerySelectable;
 import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.pathquery.PathQuery;
 
 /**
@@ -46,6 +49,8 @@ public class PathQueryExecutor extends QueryExecutor
 {
 
     public static final int DEFAULT_BATCH_SIZE = 5000;
+    /** The largest page of results that a continuation token can be used to fetch */
+    public static final int MAX_CONTINUATION_PAGE = 10000;
     private static final long MAX_WAIT_TIME = 2000;
     private int batchSize = DEFAULT_BATCH_SIZE;
 
@@ -151,6 +156,44 @@ public class PathQueryExecutor extends QueryExecutor
         }
     }
 
+    /**
+     * Executes object store query and returns one page of results as iterator over rows, starting
+     * at a continuation token from an earlier page. Unlike execute(pathQuery, start, limit), this
+     * only fetches the rows of the page from the database, starting them a short way after a value
+     * of the first ORDER BY element held in the token, so deep pages cost no more than the first.
+     *
+     * @param pathQuery path query to be executed
+     * @param continuation a continuation token, as returned by getNext() of the previous page,
+     * or ContinuationToken.FIRST for the first page
+     * @param limit maximum number of results, up to MAX_CONTINUATION_PAGE
+     * @return results, which can give the token for the next page
+     * @throws IllegalArgumentException if the token is not valid for this query
+     */
+    public ContinuationResultsIterator execute(PathQuery pathQuery, String continuation,
+            int limit) {
+        int pageSize = Math.min(limit, MAX_CONTINUATION_PAGE);
+        try {
+            Map<String, QuerySelectable> pathToQueryNode = new HashMap<String, QuerySelectable>();
+            Map<String, BagQueryResult> returnBagQueryResults = new HashMap<String, BagQueryResult>();
+
+            Query q = makeQuery(pathQuery, returnBagQueryResults, pathToQueryNode);
+            ContinuationToken from = ContinuationToken.parse(continuation, q);
+            // fetch one row more than the page, to know whether the page is the last one
+            List<ResultsRow<Object>> rows;
+            if (os instanceof ObjectStoreInterMineImpl) {
+                rows = ((ObjectStoreInterMineImpl) os).execute(q, from, pageSize + 1, true, true,
+                        ObjectStore.SEQUENCE_IGNORE);
+            } else {
+                rows = os.execute(q, from.getRow(), pageSize + 1, true, true,
+                        ObjectStore.SEQUENCE_IGNORE);
+            }
+            return new ContinuationResultsIterator(pathQuery, q, rows, rows.size() <= pageSize,
+                    pathToQueryNode, from, pageSize);
+        } catch (ObjectStoreException e) {
+            throw new RuntimeException("Creating export results iterator failed", e);
+        }
+    }
+
     private Query makeQuery(PathQuery pathQuery, Map<String, BagQueryResult> pathToBagQueryResult,
             Map<String, QuerySelectable> pathToQueryNode) throws ObjectStoreException {
 
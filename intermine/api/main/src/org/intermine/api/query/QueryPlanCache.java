@@ -0,0 +1,364 @@
+package org.intermine.api.query;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.intermine.objectstore.query.Constraint;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.FromElement;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryOrderable;
+import org.intermine.objectstore.query.QuerySelectable;
+import org.intermine.pathquery.Path;
+import org.intermine.pathquery.PathConstraint;
+import org.intermine.pathquery.PathConstraintAttribute;
+import org.intermine.pathquery.PathConstraintBag;
+import org.intermine.pathquery.PathConstraintIds;
+import org.intermine.pathquery.PathConstraintLookup;
+import org.intermine.pathquery.PathConstraintLoop;
+import org.intermine.pathquery.PathConstraintMultiValue;
+import org.intermine.pathquery.PathConstraintMultitype;
+import org.intermine.pathquery.PathConstraintRange;
+import org.intermine.pathquery.PathConstraintSubclass;
+import org.intermine.pathquery.PathException;
+import org.intermine.pathquery.PathQuery;
+
+/**
+ * A cache of compiled query plans, used by MainHelper to avoid converting the same shape of
+ * PathQuery into an ObjectStore Query over and over again.  Template and web service traffic is
+ * dominated by a small number of query shapes that differ only in their constraint values, so a
+ * plan is keyed on everything about a PathQuery except those values: the view, the sort order,
+ * the subclasses, the constraint paths, operations and codes, and the constraint logic.
+ *
+ * A plan holds the FROM, SELECT and ORDER BY lists and the constraint tree of a query compiled
+ * earlier, along with the constraints in that tree that depend on a value.  A new query is made
+ * from a plan by rebuilding only those constraints.  The QueryClass and QueryField objects of a
+ * plan are shared by all the queries made from it, in the same way as QueryCloner shares them.
+ *
+ * Only queries without outer joins or range constraints are cached, as the constraints for those
+ * are built inside path expressions or depend on the rest of the query.
+ */
+public class QueryPlanCache
+{
+    private static final Logger LOG = Logger.getLogger(QueryPlanCache.class);
+
+    /** The default number of plans held. */
+    public static final int DEFAULT_SIZE = 1000;
+
+    private final Map<String, QueryPlan> plans;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Create a cache holding up to the given number of plans, discarding the least recently used
+     * plan when it is full.
+     * @param maxSize the maximum number of plans to hold
+     */
+    public QueryPlanCache(final int maxSize) {
+        plans = new LinkedHashMap<String, QueryPlan>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, QueryPlan> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Return the key that identifies the shape of a PathQuery, or null if queries of that shape
+     * can not be cached.  The PathQuery should already have been verified, and should be the
+     * result of getQueryToExecute().
+     * @param pathQuery the PathQuery
+     * @return a String key, or null
+     */
+    public static String getKey(PathQuery pathQuery) {
+        StringBuilder key = new StringBuilder();
+        try {
+            String root = pathQuery.getRootClass();
+            for (String group : pathQuery.getOuterJoinGroups().values()) {
+                if (!root.equals(group)) {
+                    return null;
+                }
+            }
+            key.append(pathQuery.getModel().getName()).append('|').append(root);
+        } catch (PathException e) {
+            return null;
+        }
+        key.append('|').append(pathQuery.getView());
+        key.append('|').append(pathQuery.getOrderBy());
+        for (Map.Entry<PathConstraint, String> entry : pathQuery.getConstraints().entrySet()) {
+            PathConstraint constraint = entry.getKey();
+            if (constraint instanceof PathConstraintRange) {
+                return null;
+            }
+            key.append('|').append(entry.getValue()).append(':')
+                .append(constraint.getClass().getSimpleName()).append(':')
+                .append(constraint.getPath()).append(':').append(constraint.getOp());
+            if (constraint instanceof PathConstraintLoop) {
+                key.append(':').append(((PathConstraintLoop) constraint).getLoopPath());
+            } else if (constraint instanceof PathConstraintSubclass) {
+                key.append(':').append(((PathConstraintSubclass) constraint).getType());
+            }
+        }
+        key.append('|').append(pathQuery.getConstraintLogic());
+        return key.toString();
+    }
+
+    /**
+     * Returns true if the Constraint made for a PathConstraint depends on its value, and must
+     * therefore be rebuilt each time a plan is used.  Other constraints are shared.
+     * @param constraint a PathConstraint
+     * @return true if the constraint has a value
+     */
+    public static boolean hasValue(PathConstraint constraint) {
+        return (constraint instanceof PathConstraintAttribute)
+            || (constraint instanceof PathConstraintBag)
+            || (constraint instanceof PathConstraintIds)
+            || (constraint instanceof PathConstraintLookup)
+            || (constraint instanceof PathConstraintMultiValue)
+            || (constraint instanceof PathConstraintMultitype);
+    }
+
+    /**
+     * Fetch the plan for a key, counting a hit or a miss.
+     * @param key a key from getKey()
+     * @return the plan, or null if there is none
+     */
+    public synchronized QueryPlan get(String key) {
+        QueryPlan plan = plans.get(key);
+        if (plan == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return plan;
+    }
+
+    /**
+     * Make a plan from a freshly compiled query and store it.  The query itself is not kept, so
+     * the caller may go on to use or alter it.
+     * @param key a key from getKey()
+     * @param q the compiled Query
+     * @param queryBits the Map from String path to the objects in the query
+     * @param valueConstraints a Map from constraint code to the Constraint in the query for every
+     * constraint that has a value
+     * @param paths a Map from constraint code to the Path of the constraint, for the same codes
+     */
+    public void put(String key, Query q, Map<String, QuerySelectable> queryBits,
+            Map<String, Constraint> valueConstraints, Map<String, Path> paths) {
+        QueryPlan plan = QueryPlan.create(q, queryBits, valueConstraints, paths);
+        if (plan == null) {
+            LOG.debug("Not caching plan for query shape " + key);
+            return;
+        }
+        synchronized (this) {
+            plans.put(key, plan);
+        }
+    }
+
+    /**
+     * @return the number of times a plan was found
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of times a plan was not found
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the proportion of lookups that found a plan, or 0 if there have been none
+     */
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return (total == 0) ? 0.0 : ((double) hits) / total;
+    }
+
+    /**
+     * @return the number of plans held
+     */
+    public synchronized int size() {
+        return plans.size();
+    }
+
+    /**
+     * Discard all plans, for instance after a change to the model.  The counts are kept.
+     */
+    public synchronized void clear() {
+        plans.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        return "QueryPlanCache(size: " + plans.size() + ", hits: " + hits + ", misses: " + misses
+            + ")";
+    }
+
+    /**
+     * The parts of a compiled query that do not depend on constraint values.
+     */
+    public static final class QueryPlan
+    {
+        private final List<FromElement> from = new ArrayList<FromElement>();
+        private final List<QuerySelectable> select = new ArrayList<QuerySelectable>();
+        private final List<QueryOrderable> orderBy;
+        private final Map<Object, String> aliases = new IdentityHashMap<Object, String>();
+        private final boolean distinct;
+        private final Constraint constraint;
+        private final Map<String, QuerySelectable> queryBits;
+        private final Map<String, Constraint> valueConstraints;
+        private final Map<String, Path> paths;
+
+        private QueryPlan(Query q, Map<String, QuerySelectable> queryBits,
+                Map<String, Constraint> valueConstraints, Map<String, Path> paths) {
+            for (FromElement fe : q.getFrom()) {
+                from.add(fe);
+                aliases.put(fe, q.getAliases().get(fe));
+            }
+            for (QuerySelectable qs : q.getSelect()) {
+                select.add(qs);
+                aliases.put(qs, q.getAliases().get(qs));
+            }
+            orderBy = new ArrayList<QueryOrderable>(q.getOrderBy());
+            distinct = q.isDistinct();
+            constraint = copy(q.getConstraint(), Collections.<Constraint, Constraint>emptyMap());
+            this.queryBits = Collections.unmodifiableMap(
+                    new HashMap<String, QuerySelectable>(queryBits));
+            this.valueConstraints = new HashMap<String, Constraint>(valueConstraints);
+            this.paths = new HashMap<String, Path>(paths);
+        }
+
+        /**
+         * Make a plan, or return null if the value constraints can not be found in the query.
+         * That happens when two constraints are equal and ConstraintSet has merged them.
+         */
+        private static QueryPlan create(Query q, Map<String, QuerySelectable> queryBits,
+                Map<String, Constraint> valueConstraints, Map<String, Path> paths) {
+            Map<Constraint, Integer> found = new IdentityHashMap<Constraint, Integer>();
+            for (Constraint c : valueConstraints.values()) {
+                found.put(c, Integer.valueOf(0));
+            }
+            if (found.size() != valueConstraints.size()) {
+                return null;
+            }
+            count(q.getConstraint(), found);
+            for (Integer count : found.values()) {
+                if (count.intValue() != 1) {
+                    return null;
+                }
+            }
+            return new QueryPlan(q, queryBits, valueConstraints, paths);
+        }
+
+        private static void count(Constraint c, Map<Constraint, Integer> found) {
+            Integer count = found.get(c);
+            if (count != null) {
+                found.put(c, Integer.valueOf(count.intValue() + 1));
+            } else if (c instanceof ConstraintSet) {
+                for (Constraint child : ((ConstraintSet) c).getConstraints()) {
+                    count(child, found);
+                }
+            }
+        }
+
+        /**
+         * Copy a constraint tree, replacing some constraints.  ConstraintSets are copied, as they
+         * are mutable, and other constraints are shared.
+         */
+        private static Constraint copy(Constraint c, Map<Constraint, Constraint> replacements) {
+            Constraint replacement = replacements.get(c);
+            if (replacement != null) {
+                return replacement;
+            } else if (c instanceof ConstraintSet) {
+                ConstraintSet cs = (ConstraintSet) c;
+                ConstraintSet retval = new ConstraintSet(cs.getOp());
+                for (Constraint child : cs.getConstraints()) {
+                    retval.addConstraint(copy(child, replacements));
+                }
+                return retval;
+            }
+            return c;
+        }
+
+        /**
+         * Returns a new Query with the FROM, SELECT and ORDER BY lists of this plan, and no
+         * constraint.
+         * @return a Query
+         */
+        public Query newQuery() {
+            Query q = new Query();
+            for (FromElement fe : from) {
+                q.addFrom(fe, aliases.get(fe));
+            }
+            for (QuerySelectable qs : select) {
+                q.addToSelect(qs, aliases.get(qs));
+            }
+            for (QueryOrderable qo : orderBy) {
+                q.addToOrderBy(qo);
+            }
+            q.setDistinct(distinct);
+            return q;
+        }
+
+        /**
+         * Returns a copy of the constraint tree of this plan, with the value constraints
+         * replaced.
+         * @param replacements a Map from constraint code to the new Constraint for that code
+         * @return a Constraint, or null if the query has no constraint
+         */
+        public Constraint getConstraint(Map<String, Constraint> replacements) {
+            Map<Constraint, Constraint> byIdentity = new IdentityHashMap<Constraint, Constraint>();
+            for (Map.Entry<String, Constraint> entry : replacements.entrySet()) {
+                byIdentity.put(valueConstraints.get(entry.getKey()), entry.getValue());
+            }
+            return copy(constraint, byIdentity);
+        }
+
+        /**
+         * @return the constraint codes that must be rebound when this plan is used
+         */
+        public Iterable<String> getValueCodes() {
+            return valueConstraints.keySet();
+        }
+
+        /**
+         * @param code a constraint code
+         * @return the Path of the constraint with that code
+         */
+        public Path getPath(String code) {
+            return paths.get(code);
+        }
+
+        /**
+         * @return a read-only Map from String path to the objects in the queries made from this
+         * plan
+         */
+        public Map<String, QuerySelectable> getQueryBits() {
+            return queryBits;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.intermine.api.results;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.intermine.objectstore.query.ContinuationToken;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QuerySelectable;
+import org.intermine.pathquery.PathQuery;
+
+/**
+ * An ExportResultsIterator over one page of exported rows, starting at a ContinuationToken. The
+ * rows of results for the page are fetched in one go, and flattened as the page is made, so the
+ * token for the next page is known before the page is read. Results rows that are flattened into
+ * more rows than are left in the page are carried over to the next page.
+ */
+public class ContinuationResultsIterator extends ExportResultsIterator
+{
+    private final Iterator<List<ResultElement>> pageIter;
+    private final ContinuationToken next;
+
+    /**
+     * Constructor for ContinuationResultsIterator.
+     *
+     * @param pathQuery the PathQuery that was run
+     * @param q the ObjectStore query the rows were fetched with
+     * @param rows the rows of results fetched from the token
+     * @param complete true if rows runs to the end of the results
+     * @param pathToQueryNode a map from path in pathQuery to QuerySelectable in the generated
+     * ObjectStore query
+     * @param from the ContinuationToken the rows were fetched from
+     * @param limit the maximum number of exported rows in the page
+     */
+    public ContinuationResultsIterator(PathQuery pathQuery, Query q, List<?> rows,
+            boolean complete, Map<String, QuerySelectable> pathToQueryNode,
+            ContinuationToken from, int limit) {
+        super(pathQuery, q, rows, pathToQueryNode);
+        List<List<ResultElement>> page = new ArrayList<List<ResultElement>>();
+        int rowsUsed = 0;
+        int usedOfNext = 0;
+        while ((rowsUsed < rows.size()) && (page.size() < limit)) {
+            Iterator<List<ResultElement>> flattened = decodeRow((List<?>) rows.get(rowsUsed));
+            int used = 0;
+            if (rowsUsed == 0) {
+                for (; (used < from.getUsed()) && flattened.hasNext(); used++) {
+                    flattened.next();
+                }
+            }
+            while (flattened.hasNext() && (page.size() < limit)) {
+                page.add(flattened.next());
+                used++;
+            }
+            if (flattened.hasNext()) {
+                usedOfNext = used;
+                break;
+            }
+            rowsUsed++;
+        }
+        pageIter = page.iterator();
+        if (complete && (rowsUsed == rows.size())) {
+            next = null;
+        } else {
+            next = from.next(q, rows, rowsUsed, usedOfNext);
+        }
+    }
+
+    /**
+     * Returns the token for the page after this one.
+     *
+     * @return a ContinuationToken, or null if this page is the end of the results
+     */
+    public ContinuationToken getNext() {
+        return next;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNext() {
+        return pageIter.hasNext();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<ResultElement> next() {
+        return pageIter.next();
+    }
+}
@@ -16,6 +16,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.apache.log4j.Logger;
 import org.intermine.api.query.QueryExecutor;
@@ -34,7 +35,8 @@ import org.intermine.pathquery.PathQuery;
 
 /**
  * An Iterator that produces data in a format suitable for exporting. The data is flattened, so if
- * there are outer joined collections, there may be more rows than in the original results.
+ * there are outer joined collections, there may be more rows than in the original results. The
+ * flattened rows of each row of the results are made as they are read, rather than all at once.
  *
  * @author Matthew Wakeling
  */
@@ -42,10 +44,10 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
 {
     private static final Logger LOG = Logger.getLogger(ExportResultsIterator.class);
 
-    private Iterator<List> osIter;
+    private Iterator<?> osIter;
     protected Iterator<List<ResultElement>> subIter;
     // This object contains a description of the collections in the input.
-    private List columns;
+    private List<Object> columns;
     private final List<Path> paths = new ArrayList<Path>();
     private final Query query;
     private int columnCount;
@@ -68,7 +70,25 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
         this.results = results;
         this.originatingQuery = pathQuery;
         this.query = q;
-        init(pathQuery, pathToQueryNode);
+        init(pathQuery, results, pathToQueryNode);
+    }
+
+    /**
+     * Constructor for subclasses that have already fetched the rows of the results they export,
+     * rather than reading them from a Results object.
+     *
+     * @param pathQuery the PathQuery that was run
+     * @param q the ObjectStore query the rows were fetched with
+     * @param rows the rows of results to export
+     * @param pathToQueryNode a map from path in pathQuery to QuerySelectable in the generated
+     * ObjectStore query
+     */
+    protected ExportResultsIterator(PathQuery pathQuery, Query q, List<?> rows,
+            Map<String, QuerySelectable> pathToQueryNode) {
+        this.results = null;
+        this.originatingQuery = pathQuery;
+        this.query = q;
+        init(pathQuery, rows, pathToQueryNode);
     }
 
     public PathQuery getQuery() {
@@ -79,8 +99,8 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
         return Collections.unmodifiableList(paths);
     }
 
-    private void init(PathQuery pq, Map<String, QuerySelectable> pathToQueryNode) {
-        osIter = ((List) results).iterator();
+    private void init(PathQuery pq, List<?> rows, Map<String, QuerySelectable> pathToQueryNode) {
+        osIter = rows.iterator();
       
         List<List<ResultElement>> empty = Collections.emptyList();
         subIter = empty.iterator();
@@ -104,7 +124,7 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
     @Override
     public boolean hasNext() {
         while ((!subIter.hasNext()) && osIter.hasNext()) {
-            subIter = decodeRow(osIter.next()).iterator();
+            subIter = decodeRow((List<?>) osIter.next());
         }
         return subIter.hasNext();
     }
@@ -115,7 +135,7 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
     @Override
     public List<ResultElement> next() {
         while ((!subIter.hasNext()) && osIter.hasNext()) {
-            subIter = decodeRow(osIter.next()).iterator();
+            subIter = decodeRow((List<?>) osIter.next());
         }
         return subIter.next();
     }
@@ -136,7 +156,8 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
      */
     public void goFaster()  {
         try {
-            if ((!results.isSingleBatch()) && (!isGoingFaster)) {
+            if ((results != null) && (!results.isSingleBatch()) && (!isGoingFaster)
+                    && (results.getObjectStore() instanceof ObjectStoreInterMineImpl)) {
                 ((ObjectStoreInterMineImpl) results.getObjectStore()).goFaster(results.getQuery());
                 isGoingFaster = true;
             }
@@ -186,7 +207,7 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
      * ]
      * </pre>
      */
-    private List convertColumnTypes(
+    private List<Object> convertColumnTypes(
             final List<? extends QuerySelectable> select,
             final PathQuery pq,
             final Map<String, QuerySelectable> pathToQueryNode) {
@@ -199,7 +220,7 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
         if (pathToQueryNode == null) {
             throw new IllegalArgumentException("pathToQueryNode may not be null");
         }
-        List retval = new ArrayList();
+        List<Object> retval = new ArrayList<Object>();
         for (QuerySelectable qs : select) {
             boolean notFinished = true;
             while (notFinished) {
@@ -263,78 +284,136 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
      *
      * @return columns
      */
-    protected List getColumns() {
+    protected List<Object> getColumns() {
         return columns;
     }
 
-    private List<List<ResultElement>> decodeRow(List row) {
-        List<ResultElement> template = new ArrayList<ResultElement>();
+    /**
+     * Returns the rows that a row of the results is exported as.
+     *
+     * @param row a row of the results
+     * @return an Iterator over the flattened rows
+     */
+    protected Iterator<List<ResultElement>> decodeRow(List<?> row) {
+        List<ResultElement> template = new ArrayList<ResultElement>(columnCount);
         for (int i = 0; i < columnCount; i++) {
             template.add(null);
         }
-        List<List<ResultElement>> retval = new ArrayList<List<ResultElement>>();
-        expandCollections(row, retval, template, columns);
-        return retval;
+        return expandCollections(row, template, columns);
     }
 
-    private void expandCollections(List row, List<List<ResultElement>> retval,
-            List<ResultElement> template, List cols) {
+    /**
+     * Expands a row of the results, or a row of a collection inside them, into the rows it is
+     * exported as. The rows are made one at a time as they are asked for, so a row with large
+     * outer joined collections never has all of its rows in memory at once.
+     *
+     * @param row the row to expand
+     * @param template the values of the columns filled in by the rows this row is inside
+     * @param cols the description of the columns of the row
+     * @return an Iterator over the expanded rows
+     */
+    private Iterator<List<ResultElement>> expandCollections(List<?> row,
+            List<ResultElement> template, List<?> cols) {
         if (row.size() != cols.size()) {
             throw new IllegalArgumentException("Column description (size " + cols.size()
                     + ") does not match input data (size " + row.size() + ")");
         }
-        List<ResultElement> templateResults = new ArrayList(template);
+        List<ResultElement> templateResults = new ArrayList<ResultElement>(template);
         int columnNo = 0;
         boolean multiRow = false;
         for (Object column : cols) {
             if (column instanceof Map) {
-                Map<Path, Integer> desc = (Map<Path, Integer>) column;
-                for (Map.Entry<Path, Integer> descEntry : desc.entrySet()) {
-                    templateResults.set(descEntry.getValue().intValue(),
-                            new ResultElement((FastPathObject) row.get(columnNo),
-                                descEntry.getKey(), false));
-                }
+                setColumns(templateResults, (Map<?, ?>) column, row.get(columnNo));
             } else if (!multiRow) {
                 // Check the collection size, to see if we can get away with a single row.
-                List<List> collection = (List<List>) row.get(columnNo);
+                List<?> collection = (List<?>) row.get(columnNo);
                 if (collection != null) {
                     if (collection.size() > 1) {
                         multiRow = true;
                     } else if (collection.size() == 1) {
-                        multiRow = isCollectionMultiRow(collection.iterator().next(),
-                                (List) column);
+                        multiRow = isCollectionMultiRow((List<?>) collection.get(0),
+                                (List<?>) column);
                     }
                 }
             }
             columnNo++;
         }
-        boolean hasCollections = false;
+        if (multiRow) {
+            return new CollectionExpander(row, cols, templateResults);
+        }
         columnNo = 0;
         for (Object column : cols) {
             if (column instanceof List) {
-                List<List> collection = (List<List>) row.get(columnNo);
+                List<?> collection = (List<?>) row.get(columnNo);
                 if (collection != null) {
-                    for (List subRow : collection) {
-                        if (multiRow) {
-                            hasCollections = true;
-                            expandCollections(subRow,
-                                    retval, templateResults, (List) column);
-                        } else {
-                            expandCollectionsJustOneRow(subRow,
-                                    retval, templateResults, (List) column);
-                        }
+                    for (Object subRow : collection) {
+                        expandCollectionsJustOneRow((List<?>) subRow, templateResults,
+                                (List<?>) column);
                     }
                 }
             }
             columnNo++;
         }
-        if (!hasCollections) {
-            retval.add(templateResults);
+        return Collections.singletonList(templateResults).iterator();
+    }
+
+    /**
+     * An Iterator over the rows of a row with collections that need more than one row, which
+     * expands each element of each collection in turn.
+     */
+    private class CollectionExpander implements Iterator<List<ResultElement>>
+    {
+        private final List<?> row;
+        private final List<?> cols;
+        private final List<ResultElement> template;
+        private int columnNo = 0;
+        private List<?> currentColumn = null;
+        private Iterator<?> collectionIter = null;
+        private Iterator<List<ResultElement>> subRowIter = null;
+
+        public CollectionExpander(List<?> row, List<?> cols, List<ResultElement> template) {
+            this.row = row;
+            this.cols = cols;
+            this.template = template;
+        }
+
+        public boolean hasNext() {
+            while ((subRowIter == null) || (!subRowIter.hasNext())) {
+                if ((collectionIter != null) && collectionIter.hasNext()) {
+                    subRowIter = expandCollections((List<?>) collectionIter.next(), template,
+                            currentColumn);
+                } else if (columnNo < cols.size()) {
+                    Object column = cols.get(columnNo);
+                    collectionIter = null;
+                    if (column instanceof List) {
+                        List<?> collection = (List<?>) row.get(columnNo);
+                        if (collection != null) {
+                            currentColumn = (List<?>) column;
+                            collectionIter = collection.iterator();
+                        }
+                    }
+                    columnNo++;
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public List<ResultElement> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return subRowIter.next();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
         }
     }
 
-    private void expandCollectionsJustOneRow(List row, List<List<ResultElement>> retval,
-            List<ResultElement> template, List cols) {
+    private void expandCollectionsJustOneRow(List<?> row, List<ResultElement> template,
+            List<?> cols) {
         if (row.size() != cols.size()) {
             throw new IllegalArgumentException("Column description (size " + cols.size()
                     + ") does not match input data (size " + row.size() + ")");
@@ -342,32 +421,43 @@ public class ExportResultsIterator implements Iterator<List<ResultElement>>
         int columnNo = 0;
         for (Object column : cols) {
             if (column instanceof Map) {
-                Map<Path, Integer> desc = (Map<Path, Integer>) column;
-                for (Map.Entry<Path, Integer> descEntry : desc.entrySet()) {
-                    template.set(descEntry.getValue().intValue(),
-                            new ResultElement((FastPathObject) row.get(columnNo),
-                                descEntry.getKey(), false));
-                }
+                setColumns(template, (Map<?, ?>) column, row.get(columnNo));
             } else {
-                List<List> collection = (List<List>) row.get(columnNo);
-                for (List subRow : collection) {
-                    expandCollectionsJustOneRow(subRow, retval, template, (List) column);
+                List<?> collection = (List<?>) row.get(columnNo);
+                for (Object subRow : collection) {
+                    expandCollectionsJustOneRow((List<?>) subRow, template, (List<?>) column);
                 }
             }
             columnNo++;
         }
     }
 
-    private boolean isCollectionMultiRow(List row, List cols) {
+    /**
+     * Fills in the columns of an exported row that come from one object in the results.
+     *
+     * @param template the exported row
+     * @param desc a map from the Path of each column to its position in the exported row
+     * @param value the object from the results
+     */
+    private static void setColumns(List<ResultElement> template, Map<?, ?> desc,
+            Object value) {
+        for (Map.Entry<?, ?> descEntry : desc.entrySet()) {
+            template.set(((Integer) descEntry.getValue()).intValue(),
+                    new ResultElement((FastPathObject) value, (Path) descEntry.getKey(), false));
+        }
+    }
+
+    private boolean isCollectionMultiRow(List<?> row, List<?> cols) {
         boolean multiRow = false;
         int columnNo = 0;
         for (Object column : cols) {
             if ((column instanceof List) && (!multiRow)) {
-                List<List> collection = (List<List>) row.get(columnNo);
+                List<?> collection = (List<?>) row.get(columnNo);
                 if (collection.size() > 1) {
                     multiRow = true;
                 } else if (collection.size() == 1) {
-                    multiRow = isCollectionMultiRow(collection.iterator().next(), (List) column);
+                    multiRow = isCollectionMultiRow((List<?>) collection.get(0),
+                            (List<?>) column);
                 }
             }
             columnNo++;
@@ -55,11 +55,11 @@ public class GlobalRepository extends UserRepository
         WebSearchable ws = e.getOrigin();
         if (TagNames.IM_PUBLIC.equals(e.getTagName())) {
             searchItems.add(ws);
-            dropIndex(ws);
+            updateIndex(ws);
             ws.addObserver(this);
         } else {
             if (searchItems.contains(ws)) {
-                dropIndex(ws);
+                updateIndex(ws);
             }
         }
     }
@@ -69,11 +69,11 @@ public class GlobalRepository extends UserRepository
         WebSearchable ws = e.getOrigin();
         if (TagNames.IM_PUBLIC.equals(e.getTagName())) {
             searchItems.remove(ws);
-            dropIndex(ws);
+            removeFromIndex(ws);
             ws.removeObserver(this);
         } else {
             if (searchItems.contains(ws)) {
-                dropIndex(ws);
+                updateIndex(ws);
             }
         }
     }
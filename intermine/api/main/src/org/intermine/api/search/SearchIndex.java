@@ -0,0 +1,210 @@
+package org.intermine.api.search;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.StopAnalyzer;
+import org.apache.lucene.analysis.snowball.SnowballAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.intermine.api.profile.Profile;
+import org.intermine.api.profile.TagManager;
+import org.intermine.api.tag.AspectTagUtil;
+import org.intermine.model.userprofile.Tag;
+
+/**
+ * The Lucene index of the web searchables of one type in a search repository.  The index is
+ * built once, and then kept up to date by adding, replacing and removing the document of a
+ * single web searchable as the repository hears about changes.  The writer stays open, and the
+ * reader used for searching is reopened after a change, which only reads the new segments.
+ */
+class SearchIndex
+{
+    private static final Logger LOG = Logger.getLogger(SearchIndex.class);
+    // untokenised copy of the name, to find the document of a web searchable again
+    private static final String KEY_FIELD = "key";
+
+    private final String type;
+    private final Profile profile;
+    private final TagManager tagManager;
+    private final RAMDirectory directory = new RAMDirectory();
+    private final IndexWriter writer;
+    // the name each web searchable had when it was indexed, they may be renamed since
+    private final Map<WebSearchable, String> indexedNames =
+        new IdentityHashMap<WebSearchable, String>();
+    private boolean changed = false;
+    private IndexReader reader = null;
+    private IndexSearcher searcher = null;
+
+    /**
+     * Index the web searchables of a type.
+     * @param type The type of the websearchables to index. Should be a valid TagType.
+     * @param items The collection of websearchables watched by the repository.
+     * @param profile The profile of the owner of the websearchables.
+     * @param tagManager The tag manager to read the tags with.
+     */
+    SearchIndex(String type, Collection<WebSearchable> items, Profile profile,
+            TagManager tagManager) {
+        if (type == null) {
+            throw new IllegalArgumentException("'type' may not be null");
+        }
+        this.type = type;
+        this.profile = profile;
+        this.tagManager = tagManager;
+        long time = System.currentTimeMillis();
+        LOG.info("Indexing webSearchable queries");
+        try {
+            SnowballAnalyzer snowballAnalyzer = new SnowballAnalyzer(Version.LUCENE_30, "English",
+                    StopAnalyzer.ENGLISH_STOP_WORDS_SET);
+            writer = new IndexWriter(directory, snowballAnalyzer, true,
+                    IndexWriter.MaxFieldLength.UNLIMITED);
+        } catch (IOException err) {
+            throw new RuntimeException("Failed to create lucene IndexWriter", err);
+        }
+
+        int indexed = 0;
+        for (WebSearchable webSearchable : items) {
+            if (type.equals(webSearchable.getTagType())) {
+                add(webSearchable);
+                indexed++;
+            }
+        }
+        commit();
+
+        time = System.currentTimeMillis() - time;
+        LOG.info("Indexed " + indexed + " webSearchables in " + time + " milliseconds");
+    }
+
+    /**
+     * Add a web searchable to the index, or replace its document if it is already there.
+     * @param webSearchable the web searchable that has been created or changed
+     */
+    synchronized void update(WebSearchable webSearchable) {
+        if (type.equals(webSearchable.getTagType())) {
+            remove(webSearchable);
+            add(webSearchable);
+        }
+    }
+
+    /**
+     * Remove the document of a web searchable from the index, if it is there.
+     * @param webSearchable the web searchable
+     */
+    synchronized void remove(WebSearchable webSearchable) {
+        String name = indexedNames.remove(webSearchable);
+        if (name != null) {
+            try {
+                writer.deleteDocuments(new Term(KEY_FIELD, name));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write to index", e);
+            }
+            changed = true;
+        }
+    }
+
+    private void add(WebSearchable webSearchable) {
+        Document doc = new Document();
+        // Store names and tags for retrieval, but all searched information goes into the
+        // content buffer.
+        doc.add(new Field(KEY_FIELD, webSearchable.getName(), Field.Store.NO,
+                          Field.Index.NOT_ANALYZED));
+        doc.add(new Field("name", webSearchable.getName(), Field.Store.YES,
+                          Field.Index.ANALYZED));
+        StringBuffer contentBuffer = new StringBuffer(webSearchable.getTitle() + " : "
+                                           + webSearchable.getDescription());
+        List<Tag> tags = tagManager.getTags(null, webSearchable.getName(), type,
+                profile.getUsername());
+        StringBuilder tagSB = new StringBuilder();
+
+        for (Tag tag: tags) {
+            String tagName = tag.getTagName();
+            tagSB.append(" " + tagName);
+            if (AspectTagUtil.isAspectTag(tagName)) {
+                contentBuffer.append(' ').append(AspectTagUtil.getAspect(tagName));
+            } else {
+                contentBuffer.append(' ').append(tagName);
+            }
+        }
+        doc.add(new Field("tags", tagSB.toString(), Field.Store.YES, Field.Index.ANALYZED));
+
+        // normalise the text
+        String content = contentBuffer.toString().replaceAll("[^a-zA-Z0-9]", " ");
+        doc.add(new Field("content", content, Field.Store.NO,
+                          Field.Index.ANALYZED));
+
+        try {
+            writer.addDocument(doc);
+        } catch (IOException e) {
+            LOG.error("Failed to add webSearchable " + webSearchable.getName()
+                    + " to the index", e);
+            throw new RuntimeException("Failed to write to index", e);
+        }
+        indexedNames.put(webSearchable, webSearchable.getName());
+        changed = true;
+    }
+
+    private void commit() {
+        if (changed) {
+            try {
+                writer.commit();
+            } catch (IOException e) {
+                LOG.error("IOException while committing the index", e);
+                throw new RuntimeException("Failed to commit to index", e);
+            }
+            changed = false;
+        }
+    }
+
+    /**
+     * Return the directory holding the index, with all changes committed.
+     * @return the directory
+     */
+    synchronized Directory getDirectory() {
+        commit();
+        return directory;
+    }
+
+    /**
+     * Return a searcher over the index as it is now.  The same searcher is returned until the
+     * index changes.
+     * @return the searcher
+     * @throws IOException if the index can't be read
+     */
+    synchronized IndexSearcher getSearcher() throws IOException {
+        commit();
+        if (reader == null) {
+            reader = IndexReader.open(directory, true);
+            searcher = new IndexSearcher(reader);
+        } else {
+            IndexReader newReader = reader.reopen();
+            if (newReader != reader) {
+                // searches may still be using the old reader, it is in memory so leave it to
+                // the garbage collector rather than closing it
+                reader = newReader;
+                searcher = new IndexSearcher(reader);
+            }
+        }
+        return searcher;
+    }
+}
@@ -11,34 +11,28 @@ package org.intermine.api.search;
  */
 
 import java.io.IOException;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
-import org.apache.lucene.analysis.StopAnalyzer;
-import org.apache.lucene.analysis.snowball.SnowballAnalyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.RAMDirectory;
-import org.apache.lucene.util.Version;
 import org.intermine.api.profile.Profile;
 import org.intermine.api.profile.TagManager;
 import org.intermine.api.profile.TagManagerFactory;
-import org.intermine.api.tag.AspectTagUtil;
-import org.intermine.model.userprofile.Tag;
 
 /**
  * The base class for search repositories. Classes that extend this base must provide
  * implementations that define the responses to change events that affect the web searchables this
  * repository is possibly interested in.
  *
+ * The index for a type is only built when it is first searched.  After that, changes to single
+ * web searchables update their documents in the index rather than dropping it.
+ *
  * @author Alex Kalderimis
  *
  */
@@ -51,7 +45,7 @@ public abstract class SearchRepository implements WebSearchWatcher
     private static final Logger LOG = Logger.getLogger(SearchRepository.class);
 
     protected Set<WebSearchable> searchItems = new HashSet<WebSearchable>();
-    protected Map<String, Directory> indexes = new HashMap<String, Directory>();
+    protected Map<String, SearchIndex> indexes = new ConcurrentHashMap<String, SearchIndex>();
 
     protected final Profile profile;
     protected final TagManager tagManager;
@@ -200,102 +194,58 @@ public abstract class SearchRepository implements WebSearchWatcher
     }
 
     /**
-     * Retrieve a search index for a given type of web searchable objects. If there is already
-     * an index around, that will be returned. If not, one will be created and returned.
-     * @param type The type of the web searchables to index. Should be a valid TagType.
-     * @return a RAMDirectory containing the index.
+     * Add or replace the document of a web searchable in the index of its type, if that index
+     * has been built.
+     * @param ws The item that has been created or changed.
      */
-    public Directory getSearchIndex(String type) {
-        if (!(indexes.containsKey(type) && indexes.get(type) != null)) {
-
-            indexes.put(type, index(type, searchItems, profile));
+    protected synchronized void updateIndex(WebSearchable ws) {
+        SearchIndex index = indexes.get(ws.getTagType());
+        if (index != null) {
+            index.update(ws);
         }
-        return indexes.get(type);
     }
 
     /**
-     * Index some WebSearchables and return the RAMDirectory containing the index.
-     *
-     * @param type The type of the websearchables to index. Should be a valid TagType.
-     * @param items The collection of websearchables watched by this repository.
-     * @param profile The profile of the owner of the websearchables.
-     * @return a RAMDirectory containing the index
+     * Remove the document of a web searchable from the index of its type, if that index has been
+     * built.
+     * @param ws The item that has gone from this repository.
      */
-    private static Directory index(String type, Collection<WebSearchable> items, Profile profile) {
-        if (type == null) {
-            throw new IllegalArgumentException("'type' may not be null");
-        }
-        long time = System.currentTimeMillis();
-        LOG.info("Indexing webSearchable queries");
-
-        TagManager tagManager = new TagManagerFactory(profile.getProfileManager()).getTagManager();
-        RAMDirectory ram = new RAMDirectory();
-        IndexWriter writer;
-        try {
-            SnowballAnalyzer snowballAnalyzer = new SnowballAnalyzer(Version.LUCENE_30, "English",
-                    StopAnalyzer.ENGLISH_STOP_WORDS_SET);
-            writer = new IndexWriter(ram, snowballAnalyzer, true,
-                    IndexWriter.MaxFieldLength.UNLIMITED);
-        } catch (IOException err) {
-            throw new RuntimeException("Failed to create lucene IndexWriter", err);
-        }
-
-        // step global webSearchables, indexing a Document for each webSearchable
-        int indexed = 0;
-
-        for (WebSearchable webSearchable : items) {
-            if (!type.equals(webSearchable.getTagType())) {
-                continue;
-            }
-            Document doc = new Document();
-            // Store names and tags for retrieval, but all searched information goes into the
-            // content buffer.
-            doc.add(new Field("name", webSearchable.getName(), Field.Store.YES,
-                              Field.Index.ANALYZED));
-            StringBuffer contentBuffer = new StringBuffer(webSearchable.getTitle() + " : "
-                                               + webSearchable.getDescription());
-            List<Tag> tags = tagManager.getTags(null, webSearchable.getName(), type,
-                    profile.getUsername());
-            StringBuilder tagSB = new StringBuilder();
-
-            for (Tag tag: tags) {
-                String tagName = tag.getTagName();
-                tagSB.append(" " + tagName);
-                if (AspectTagUtil.isAspectTag(tagName)) {
-                    contentBuffer.append(' ').append(AspectTagUtil.getAspect(tagName));
-                } else {
-                    contentBuffer.append(' ').append(tagName);
-                }
-            }
-            doc.add(new Field("tags", tagSB.toString(), Field.Store.YES, Field.Index.ANALYZED));
-
-            // normalise the text
-            String content = contentBuffer.toString().replaceAll("[^a-zA-Z0-9]", " ");
-            doc.add(new Field("content", content, Field.Store.NO,
-                              Field.Index.ANALYZED));
-            //doc.add(new Field("scope", scope, Field.Store.YES, Field.Index.NO));
-
-            try {
-                writer.addDocument(doc);
-                indexed++;
-            } catch (IOException e) {
-                LOG.error("Failed to add webSearchable " + webSearchable.getName()
-                        + " to the index", e);
-                throw new RuntimeException("Failed to write to index", e);
-            }
+    protected synchronized void removeFromIndex(WebSearchable ws) {
+        SearchIndex index = indexes.get(ws.getTagType());
+        if (index != null) {
+            index.remove(ws);
         }
+    }
 
-        try {
-            writer.close();
-        } catch (IOException e) {
-            LOG.error("IOException while closing IndexWriter", e);
-            throw new RuntimeException("Failed to close IndexWriter", e);
+    private synchronized SearchIndex getIndex(String type) {
+        SearchIndex index = indexes.get(type);
+        if (index == null) {
+            index = new SearchIndex(type, new HashSet<WebSearchable>(searchItems), profile,
+                    tagManager);
+            indexes.put(type, index);
         }
+        return index;
+    }
 
-        time = System.currentTimeMillis() - time;
-        LOG.info("Indexed " + indexed + " webSearchables in " + time + " milliseconds");
+    /**
+     * Retrieve a search index for a given type of web searchable objects. If there is already
+     * an index around, that will be returned. If not, one will be created and returned.
+     * @param type The type of the web searchables to index. Should be a valid TagType.
+     * @return a RAMDirectory containing the index.
+     */
+    public Directory getSearchIndex(String type) {
+        return getIndex(type).getDirectory();
+    }
 
-        return ram;
+    /**
+     * Get a searcher over the index for a given type of web searchable objects, building the
+     * index if there isn't one.
+     * @param type The type of the web searchables to search. Should be a valid TagType.
+     * @return a searcher over the current index.
+     * @throws IOException if the index can't be read.
+     */
+    public IndexSearcher getSearcher(String type) throws IOException {
+        return getIndex(type).getSearcher();
     }
 
     /**
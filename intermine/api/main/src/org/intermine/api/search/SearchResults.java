@@ -31,7 +31,6 @@ import org.apache.lucene.analysis.StopAnalyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.snowball.SnowballAnalyzer;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
@@ -44,7 +43,6 @@ import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
 import org.apache.lucene.search.highlight.NullFragmenter;
 import org.apache.lucene.search.highlight.QueryScorer;
 import org.apache.lucene.search.highlight.TokenGroup;
-import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.Version;
 import org.intermine.api.profile.TagManager;
 import org.intermine.api.profile.TagManagerFactory;
@@ -186,29 +184,25 @@ public final class SearchResults implements Iterable<SearchResult>
     }
 
     /**
-     * Get an object capable of searching over multiple directories.
+     * Get an object capable of searching over multiple indices.
      * @param target What type and scope we are looking for.
-     * @param userDirectory The user's index.
-     * @param globalDirectories All the globally available indices.
+     * @param userSearcher A searcher over the user's index.
+     * @param globalSearchers Searchers over all the globally available indices.
      * @return A searcher object.
-     * @throws CorruptIndexException If one of the indices cannot be used.
      * @throws IOException If there is a problem reading the indices.
      */
     private static MultiSearcher prepareSearcher(SearchTarget target,
-            Directory userDirectory, List<Directory> globalDirectories)
-            throws CorruptIndexException, IOException {
-        IndexSearcher userIndexSearcher = new IndexSearcher(userDirectory);
-        IndexSearcher[] globalIndexSearchers = new IndexSearcher[globalDirectories.size()];
-        for (int i = 0; i < globalDirectories.size(); i++) {
-            globalIndexSearchers[i] = new IndexSearcher(globalDirectories.get(i));
-        }
+            IndexSearcher userSearcher, List<IndexSearcher> globalSearchers)
+        throws IOException {
+        IndexSearcher[] globalIndexSearchers =
+            globalSearchers.toArray(new IndexSearcher[globalSearchers.size()]);
         Searchable[] searchables;
         if (target.isUserOnly()) {
-            searchables = new Searchable[]{userIndexSearcher};
+            searchables = new Searchable[]{userSearcher};
         } else if (target.isGlobalOnly()) {
             searchables = globalIndexSearchers;
         } else { // ALL
-            searchables = (Searchable[]) ArrayUtils.add(globalIndexSearchers, userIndexSearcher);
+            searchables = (Searchable[]) ArrayUtils.add(globalIndexSearchers, userSearcher);
         }
         MultiSearcher searcher = new MultiSearcher(searchables);
 
@@ -250,15 +244,21 @@ public final class SearchResults implements Iterable<SearchResult>
         String type = target.getType();
         Map<String, WebSearchable> globalWebSearchables = new HashMap<String, WebSearchable>();
         Set<SearchRepository> globals = SearchRepository.getGlobalSearchRepositories();
-        List<Directory> globalDirs = new ArrayList<Directory>();
+        List<IndexSearcher> globalSearchers = new ArrayList<IndexSearcher>();
         for (SearchRepository sr: globals) {
             globalWebSearchables.putAll(sr.getWebSearchableMap(type));
-            globalDirs.add(sr.getSearchIndex(type));
+            if (!target.isUserOnly()) {
+                globalSearchers.add(sr.getSearcher(type));
+            }
         }
         Map<String, WebSearchable> userWebSearchables = profileRepo.getWebSearchableMap(type);
-        Directory userDirectory = profileRepo.getSearchIndex(type);
+        // the user's own index is only built when the user's items are searched
+        IndexSearcher userSearcher = null;
+        if (!target.isGlobalOnly()) {
+            userSearcher = profileRepo.getSearcher(type);
+        }
 
-        MultiSearcher searcher = prepareSearcher(target, userDirectory, globalDirs);
+        MultiSearcher searcher = prepareSearcher(target, userSearcher, globalSearchers);
 
         // required to expand search terms
         query = searcher.rewrite(query);
@@ -374,11 +374,12 @@ public final class SearchResults implements Iterable<SearchResult>
                                 .getTagManager();
 
         for (WebSearchable ws: items) {
+            // only the items of the requested type are returned, so only read their tags
             if (target.getType().equals(ws.getTagType())) {
                 wsMap.put(ws.getName(), ws);
                 descs.put(ws, ws.getDescription());
+                tags.put(ws, tm.getObjectTagNames(ws, userRepo.getProfile()));
             }
-            tags.put(ws, tm.getObjectTagNames(ws, userRepo.getProfile()));
         }
 
         return new SearchResults(hitMap, wsMap, descs, tags);
@@ -34,7 +34,7 @@ public class UserRepository extends SearchRepository
     protected void handleCreation(CreationEvent e) {
         WebSearchable ws = e.getOrigin();
         searchItems.add(ws);
-        dropIndex(ws);
+        updateIndex(ws);
         ws.addObserver(this);
     }
 
@@ -42,23 +42,23 @@ public class UserRepository extends SearchRepository
     protected void handleDeletion(DeletionEvent e) {
         WebSearchable ws = e.getOrigin();
         searchItems.remove(ws);
-        dropIndex(ws);
+        removeFromIndex(ws);
         ws.removeObserver(this);
     }
 
     @Override
     protected void handlePropertyChange(PropertyChangeEvent e) {
-        dropIndex(e.getOrigin());
+        updateIndex(e.getOrigin());
     }
 
     @Override
     protected void handleTagAddition(TaggingEvent e) {
-        dropIndex(e.getOrigin());
+        updateIndex(e.getOrigin());
     }
 
     @Override
     protected void handleTagRemoval(TaggingEvent e) {
-        dropIndex(e.getOrigin());
+        updateIndex(e.getOrigin());
     }
 
     @Override
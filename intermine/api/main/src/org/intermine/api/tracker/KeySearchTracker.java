@@ -28,6 +28,7 @@ public class KeySearchTracker extends TrackerAbstract
 {
     private static final Logger LOG = Logger.getLogger(KeySearchTracker.class);
     private static KeySearchTracker searchTracker = null;
+    private final Map<String, Integer> keywordSearches = new HashMap<String, Integer>();
 
     /**
         * Build a search tracker
@@ -53,6 +54,7 @@ public class KeySearchTracker extends TrackerAbstract
             } catch (Exception e) {
                 LOG.error("Error creating the table associated to the ListTracker" + e);
             }
+            searchTracker.loadKeywordSearches(con);
         } else {
             searchTracker.setTrackQueue(trackQueue);
         }
@@ -77,7 +79,9 @@ public class KeySearchTracker extends TrackerAbstract
         KeySearchTrack searchTrack = new KeySearchTrack(keyword, userName, sessionIdentifier,
                                                        new Timestamp(System.currentTimeMillis()));
         if (searchTrack  != null) {
-            searchTracker.storeTrack(searchTrack);
+            if (searchTracker.storeTrack(searchTrack)) {
+                searchTracker.increment(keyword);
+            }
         } else {
             LOG.warn("Keyword search not tracked. Check if the KeySearchTrack has been configured");
         }
@@ -85,29 +89,39 @@ public class KeySearchTracker extends TrackerAbstract
 
     /**
      * Return the number of search for each keyword
-     * @param con the connection
      * @return map with key the keyword and the number of searches for that keyword
      */
-    protected Map<String, Integer> getKeywordSearches(Connection con) {
+    protected synchronized Map<String, Integer> getKeywordSearches() {
+        return new HashMap<String, Integer>(keywordSearches);
+    }
+
+    /**
+     * Load the number of searches for each keyword from the database, the counts are then updated
+     * as the tracks arrive
+     * @param con the connection
+     */
+    private synchronized void loadKeywordSearches(Connection con) {
         ResultSet rs = null;
         Statement stm = null;
-        Map<String, Integer> keywordSearches = new HashMap<String, Integer>();
         try {
             stm = con.createStatement();
-            String sql = "SELECT keyword, COUNT(keyword) as searchnumbers "
+            String sql = "SELECT keyword, COUNT(keyword) "
                         + "FROM searchtrack "
                         + "GROUP BY keyword";
             rs = stm.executeQuery(sql);
             while (rs.next()) {
                 keywordSearches.put(rs.getString(1), rs.getInt(2));
             }
-            return keywordSearches;
         } catch (SQLException sqle) {
-            LOG.error("Error in getKeywordSearches method: ", sqle);
+            LOG.error("Error in loadKeywordSearches method: ", sqle);
         } finally {
             releaseResources(rs, stm);
         }
-        return null;
+    }
+
+    private synchronized void increment(String key) {
+        Integer count = keywordSearches.get(key);
+        keywordSearches.put(key, (count == null) ? 1 : count.intValue() + 1);
     }
 
 }
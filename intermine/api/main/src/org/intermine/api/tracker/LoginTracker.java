@@ -32,6 +32,7 @@ public class LoginTracker extends TrackerAbstract
 {
     private static final Logger LOG = Logger.getLogger(LoginTracker.class);
     private static LoginTracker loginTracker = null;
+    private final Map<String, Integer> userLogins = new HashMap<String, Integer>();
 
     /**
     * Build a login tracker
@@ -57,6 +58,7 @@ public class LoginTracker extends TrackerAbstract
             } catch (Exception e) {
                 LOG.error("Error creating the table associated to the ListTracker" + e);
             }
+            loginTracker.loadUserLogins(con);
         } else {
             loginTracker.setTrackQueue(trackQueue);
         }
@@ -86,7 +88,9 @@ public class LoginTracker extends TrackerAbstract
     protected void trackLogin(String username) {
         LoginTrack loginTrack = new LoginTrack(username, new Timestamp(System.currentTimeMillis()));
         if (loginTracker  != null) {
-            loginTracker.storeTrack(loginTrack);
+            if (loginTracker.storeTrack(loginTrack)) {
+                loginTracker.increment(username);
+            }
         } else {
             LOG.warn("Logine not tracked. Check if the LoginTracker has been configured");
         }
@@ -94,28 +98,38 @@ public class LoginTracker extends TrackerAbstract
 
     /**
      * Return the number of access for each user
-     * @param con the connection
      * @return map with key the user name and access number
      */
-    protected Map<String, Integer> getUserLogin(Connection con) {
+    protected synchronized Map<String, Integer> getUserLogin() {
+        return new HashMap<String, Integer>(userLogins);
+    }
+
+    /**
+     * Load the number of accesses of each user from the database, the counts are then updated
+     * as the tracks arrive
+     * @param con the connection
+     */
+    private synchronized void loadUserLogins(Connection con) {
         ResultSet rs = null;
         Statement stm = null;
-        Map<String, Integer> userLogin = new HashMap<String, Integer>();
         try {
             stm = con.createStatement();
-            String sql = "SELECT username, COUNT(username) as accessnumbers "
+            String sql = "SELECT username, COUNT(username) "
                         + "FROM logintrack "
                         + "GROUP BY username";
             rs = stm.executeQuery(sql);
             while (rs.next()) {
-                userLogin.put(rs.getString(1), rs.getInt(2));
+                userLogins.put(rs.getString(1), rs.getInt(2));
             }
-            return userLogin;
         } catch (SQLException sqle) {
-            LOG.error("Error in getUserLogin method: ", sqle);
+            LOG.error("Error in loadUserLogins method: ", sqle);
         } finally {
             releaseResources(rs, stm);
         }
-        return null;
+    }
+
+    private synchronized void increment(String key) {
+        Integer count = userLogins.get(key);
+        userLogins.put(key, (count == null) ? 1 : count.intValue() + 1);
     }
 }
@@ -113,39 +113,22 @@ public class TemplateTracker extends TrackerAbstract
         TemplateTrack templateTrack = new TemplateTrack(templateName,
                                       userName, sessionIdentifier, new Timestamp(System.currentTimeMillis()));
         if (templateTracker  != null) {
-            templateTracker.storeTrack(templateTrack);
-            templatesExecutionCache.addExecution(templateTrack);
+            if (templateTracker.storeTrack(templateTrack)) {
+                templatesExecutionCache.addExecution(templateTrack);
+            }
         } else {
             LOG.warn("Template not tracked. Check if the TemplateTracker has been configured");
         }
     }
 
     /**
-     * Return the number of executions for each public template
+     * Return the number of executions for each public template, from the executions held in
+     * memory rather than from the database.
+     * @param templateManager the template manager used to retrieve the global templates
      * @return map with key the template name and executions number
      */
-    protected Map<String, Integer> getAccessCounter(Connection con) {
-        ResultSet rs = null;
-        Statement stm = null;
-        Map<String, Integer> templateRank = new HashMap<String, Integer>();
-        try {
-            stm = con.createStatement();
-            String sql = "SELECT tt.templatename, COUNT(tt.templatename) as accessnumbers "
-                        + "FROM templatetrack tt, tag t "
-                        + "WHERE tt.templatename=t.objectidentifier "
-                        + "AND t.tagname LIKE '%public' AND t.type='template' "
-                        + "GROUP BY tt.templatename";
-            rs = stm.executeQuery(sql);
-            while (rs.next()) {
-                templateRank.put(rs.getString(1), rs.getInt(2));
-            }
-            return templateRank;
-        } catch (SQLException sqle) {
-            LOG.error("Error in getAccessCounter method: ", sqle);
-        } finally {
-            releaseResources(rs, stm);
-        }
-        return null;
+    protected Map<String, Integer> getAccessCounter(TemplateManager templateManager) {
+        return templatesExecutionCache.getExecutionCounts(templateManager);
     }
 
     /**
@@ -255,6 +238,7 @@ public class TemplateTracker extends TrackerAbstract
                         + " SET templatename = '" + newTemplateName + "'"
                         + " WHERE templatename = '" + oldTemplateName + "'";
             stm.executeUpdate(sql);
+            templatesExecutionCache.renameTemplate(oldTemplateName, newTemplateName);
         } catch (SQLException sqe) {
             LOG.error("Problem during updating templatename in updateTemplateName() ,method", sqe);
         } finally {
@@ -26,31 +26,34 @@ public class TemplatesExecutionMap
 {
     protected Map<String, Map<String, Integer>> templateExecutions =
                                               new HashMap<String, Map<String, Integer>>();
+    private Map<String, Double> logSums = new HashMap<String, Double>();
+    private Map<String, Integer> totals = new HashMap<String, Integer>();
 
     /**
      * Add a new template track into the map
      * @param templateTrack the template track to add
      */
-    public void addExecution(TemplateTrack templateTrack) {
+    public synchronized void addExecution(TemplateTrack templateTrack) {
         String executionKey = (templateTrack.getUserName() != null
                               && !"".equals(templateTrack.getUserName()))
                               ? templateTrack.getUserName()
                               : templateTrack.getSessionIdentifier();
         String templateName = templateTrack.getTemplateName();
-        Map<String, Integer> execution;
-        if (!templateExecutions.containsKey(templateName)) {
+        Map<String, Integer> execution = templateExecutions.get(templateName);
+        if (execution == null) {
             execution = new HashMap<String, Integer>();
-            execution.put(executionKey, 1);
             templateExecutions.put(templateName, execution);
         }
-        else {
-            execution = templateExecutions.get(templateName);
-            if (!execution.containsKey(executionKey)) {
-                execution.put(executionKey, 1);
-            } else {
-                execution.put(executionKey, execution.get(executionKey).intValue() + 1);
-            }
-        }
+        Integer previous = execution.get(executionKey);
+        int count = (previous == null) ? 0 : previous.intValue();
+        execution.put(executionKey, count + 1);
+
+        // log(count + 1) is replaced by log(count + 2) in the sum for this template
+        Double logSum = logSums.get(templateName);
+        double sum = (logSum == null) ? 0 : logSum.doubleValue();
+        logSums.put(templateName, sum + Math.log(count + 2) - Math.log(count + 1));
+        Integer total = totals.get(templateName);
+        totals.put(templateName, (total == null) ? 1 : total.intValue() + 1);
     }
 
     /**
@@ -61,21 +64,16 @@ public class TemplatesExecutionMap
      * @param templateManager the template manager used to retrieve the global templates
      * @return map having as key the template's name and as value the logarithm sum
      */
-    public Map<String, Double> getLogarithmMap(String executionKey,
+    public synchronized Map<String, Double> getLogarithmMap(String executionKey,
                                                TemplateManager templateManager) {
         Map<String, Double> logarithmMap = new HashMap<String, Double>();
         if (executionKey == null) {
             if (templateManager != null) {
                 Map<String, ApiTemplate> publicTemplates =
                     templateManager.getValidGlobalTemplates();
-                for (String templateName : templateExecutions.keySet()) {
-                    if (publicTemplates.containsKey(templateName)) {
-                        Map<String, Integer> execution = templateExecutions.get(templateName);
-                        double accessLn = 0;
-                        for (String key : execution.keySet()) {
-                            accessLn = accessLn + Math.log(execution.get(key) + 1);
-                        }
-                        logarithmMap.put(templateName, accessLn);
+                for (Map.Entry<String, Double> entry : logSums.entrySet()) {
+                    if (publicTemplates.containsKey(entry.getKey())) {
+                        logarithmMap.put(entry.getKey(), entry.getValue());
                     }
                 }
             }
@@ -90,4 +88,53 @@ public class TemplatesExecutionMap
         }
         return logarithmMap;
     }
+
+    /**
+     * Return the number of executions of each public template.
+     * @param templateManager the template manager used to retrieve the global templates
+     * @return map having as key the template's name and as value the number of executions
+     */
+    public synchronized Map<String, Integer> getExecutionCounts(TemplateManager templateManager) {
+        Map<String, Integer> executionCounts = new HashMap<String, Integer>();
+        Map<String, ApiTemplate> publicTemplates = templateManager.getValidGlobalTemplates();
+        for (Map.Entry<String, Integer> entry : totals.entrySet()) {
+            if (publicTemplates.containsKey(entry.getKey())) {
+                executionCounts.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return executionCounts;
+    }
+
+    /**
+     * Move the executions of a template to its new name.
+     * @param oldTemplateName the old name
+     * @param newTemplateName the new name
+     */
+    public synchronized void renameTemplate(String oldTemplateName, String newTemplateName) {
+        Map<String, Integer> execution = templateExecutions.remove(oldTemplateName);
+        if (execution == null) {
+            return;
+        }
+        Double logSum = logSums.remove(oldTemplateName);
+        Integer total = totals.remove(oldTemplateName);
+        Map<String, Integer> existing = templateExecutions.get(newTemplateName);
+        if (existing == null) {
+            templateExecutions.put(newTemplateName, execution);
+            logSums.put(newTemplateName, logSum);
+            totals.put(newTemplateName, total);
+        } else {
+            // unusual, but merge rather than lose the executions already under the new name
+            double sum = 0;
+            for (Map.Entry<String, Integer> entry : execution.entrySet()) {
+                Integer count = existing.get(entry.getKey());
+                existing.put(entry.getKey(), (count == null) ? entry.getValue()
+                        : count.intValue() + entry.getValue());
+            }
+            for (Integer count : existing.values()) {
+                sum += Math.log(count + 1);
+            }
+            logSums.put(newTemplateName, sum);
+            totals.put(newTemplateName, totals.get(newTemplateName) + total);
+        }
+    }
 }
@@ -29,8 +29,9 @@ public interface Tracker
     /**
      * Save into the table a Track
      * @param track the object saved into the database representing the user activity
+     * @return true if the track was accepted to be saved, false if it was invalid or dropped
      */
-    void storeTrack(Track track);
+    boolean storeTrack(Track track);
 
     /**
      * Return the tracker's name
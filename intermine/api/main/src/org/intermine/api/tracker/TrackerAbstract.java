@@ -14,6 +14,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.intermine.api.tracker.track.Track;
@@ -27,6 +28,7 @@ import org.intermine.sql.DatabaseUtil;
 public abstract class TrackerAbstract implements Tracker
 {
     private static final Logger LOG = Logger.getLogger(TrackerAbstract.class);
+    private static final AtomicLong DROPPED_TRACKS = new AtomicLong();
     protected Queue<Track> trackQueue = null;
     protected String trackTableName;
     protected TrackerLogger trackerLogger = null;
@@ -72,14 +74,18 @@ public abstract class TrackerAbstract implements Tracker
     /**
      * Save into the table the track object representing the user activity
      * @param track the object saved into the database
+     * @return true if the track was queued to be saved, false if it was invalid or dropped
      */
-    public void storeTrack(Track track) {
+    public boolean storeTrack(Track track) {
         if (trackTableName != null) {
             if (track.validate()) {
-                try {
-                    trackQueue.add(track);
-                } catch (IllegalStateException ise) {
-                    LOG.error("Problem adding the track to the queue", ise);
+                // if the database can't keep up, drop the track rather than hold up the request
+                if (trackQueue.offer(track)) {
+                    return true;
+                }
+                long dropped = DROPPED_TRACKS.incrementAndGet();
+                if (dropped % 1000 == 1) {
+                    LOG.warn("Track queue is full, " + dropped + " tracks dropped so far");
                 }
             } else {
                 LOG.error("Failed to write to track table: input non valid");
@@ -87,6 +93,15 @@ public abstract class TrackerAbstract implements Tracker
         } else {
             LOG.error("The trackTableName is null, set it");
         }
+        return false;
+    }
+
+    /**
+     * Return the number of tracks dropped because the queue was full.
+     * @return the number of tracks
+     */
+    public static long getDroppedTracks() {
+        return DROPPED_TRACKS.get();
     }
 
     /**
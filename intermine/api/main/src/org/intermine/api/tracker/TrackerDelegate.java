@@ -12,10 +12,10 @@ package org.intermine.api.tracker;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.log4j.Logger;
 import org.intermine.api.profile.Profile;
@@ -27,6 +27,7 @@ import org.intermine.api.tracker.util.ListTrackerEvent;
 import org.intermine.api.tracker.util.TrackerUtil;
 import org.intermine.objectstore.ObjectStoreWriter;
 import org.intermine.objectstore.intermine.ObjectStoreWriterInterMineImpl;
+import org.intermine.sql.Database;
 import org.intermine.api.template.TemplateManager;
 
 /**
@@ -37,9 +38,13 @@ import org.intermine.api.template.TemplateManager;
 public class TrackerDelegate
 {
     private static final Logger LOG = Logger.getLogger(TrackerDelegate.class);
+    /** The number of tracks that can wait to be written before new tracks are dropped */
+    protected static final int TRACK_QUEUE_CAPACITY = 10000;
     protected Map<String, Tracker> trackers = new HashMap<String, Tracker>();
     protected ObjectStoreWriter osw;
     protected Connection connection = null;
+    protected BlockingQueue<Track> trackQueue;
+    protected TrackerLogger trackerLogger;
     protected Thread trackerLoggerThread;
 
     /**
@@ -48,7 +53,7 @@ public class TrackerDelegate
      * @param osw the object store witer used to retrieve the connections
      */
     public TrackerDelegate(String[] trackerClassNames, ObjectStoreWriter osw) {
-        Queue<Track> trackQueue = new LinkedList<Track>();
+        trackQueue = new LinkedBlockingQueue<Track>(TRACK_QUEUE_CAPACITY);
         this.osw = osw;
         try {
             connection = getConnection();
@@ -67,7 +72,7 @@ public class TrackerDelegate
                       + " hasn't been instatiated", sqle);
         }
 
-        TrackerLogger trackerLogger = new TrackerLogger(connection, trackQueue);
+        trackerLogger = new TrackerLogger(connection, trackQueue);
         trackerLoggerThread = new Thread(trackerLogger);
         trackerLoggerThread.setDaemon(true);
         trackerLoggerThread.start();
@@ -119,21 +124,14 @@ public class TrackerDelegate
     }
 
     /**
-     * Return the rank associated to the templates
-     * @return map with key the template name and value the rank associated
+     * Return the number of executions of each public template, without querying the database
+     * @param templateManager the template manager used to retrieve the global templates
+     * @return map with key the template name and executions number
      */
-    public Map<String, Integer> getAccessCounter() {
+    public Map<String, Integer> getAccessCounter(TemplateManager templateManager) {
         TemplateTracker tt = getTemplateTracker();
         if (tt != null) {
-            Connection connection = null;
-            try {
-                connection = getConnection();
-                return tt.getAccessCounter(connection);
-            } catch (SQLException sqle) {
-                LOG.error("Problems retrieving conn for getAccessCounter ", sqle);
-            } finally {
-                releaseConnection(connection);
-            }
+            return tt.getAccessCounter(templateManager);
         }
         return null;
     }
@@ -242,15 +240,7 @@ public class TrackerDelegate
     public Map<String, Integer> getUserLogin() {
         Tracker lt = getTracker(TrackerUtil.LOGIN_TRACKER);
         if (lt != null) {
-            Connection connection = null;
-            try {
-                connection = getConnection();
-                return ((LoginTracker) lt).getUserLogin(connection);
-            } catch (SQLException sqle) {
-                LOG.error("Problems retrieving conn for getUserLogin ", sqle);
-            } finally {
-                releaseConnection(connection);
-            }
+            return ((LoginTracker) lt).getUserLogin();
         }
         return null;
     }
@@ -276,15 +266,7 @@ public class TrackerDelegate
     public Map<String, Integer> getKeywordSearches() {
         Tracker st = getTracker(TrackerUtil.SEARCH_TRACKER);
         if (st != null) {
-            Connection connection = null;
-            try {
-                connection = getConnection();
-                return ((KeySearchTracker) st).getKeywordSearches(connection);
-            } catch (SQLException sqle) {
-                LOG.error("Problems retrieving conn for getKeywordSearches ", sqle);
-            } finally {
-                releaseConnection(connection);
-            }
+            return ((KeySearchTracker) st).getKeywordSearches();
         }
         return null;
     }
@@ -303,6 +285,38 @@ public class TrackerDelegate
         }
     }
 
+    /**
+     * Return the number of tracks waiting to be written to the database
+     * @return the number of tracks
+     */
+    public int getQueuedTracks() {
+        return trackQueue.size();
+    }
+
+    /**
+     * Return the number of tracks written to the database
+     * @return the number of tracks
+     */
+    public long getStoredTracks() {
+        return trackerLogger.getStoredTracks();
+    }
+
+    /**
+     * Return the number of tracks that could not be written to the database
+     * @return the number of tracks
+     */
+    public long getFailedTracks() {
+        return trackerLogger.getFailedTracks();
+    }
+
+    /**
+     * Return the number of tracks dropped because too many were waiting to be written
+     * @return the number of tracks
+     */
+    public long getDroppedTracks() {
+        return TrackerAbstract.getDroppedTracks();
+    }
+
     /**
      * Release the database connection
      * @param conn the connection to release
@@ -327,7 +341,7 @@ public class TrackerDelegate
 
     private Connection getConnection() throws SQLException {
         ObjectStoreWriterInterMineImpl uosw = (ObjectStoreWriterInterMineImpl) osw;
-        return uosw.getDatabase().getConnection();
+        return uosw.getDatabase().getConnection(Database.TRACKER);
     }
 
     public void close() {
@@ -10,44 +10,158 @@ package org.intermine.api.tracker;
  *
  */
 import java.sql.Connection;
-import java.util.Queue;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.intermine.api.tracker.track.Track;
+import org.intermine.sql.writebatch.Batch;
+import org.intermine.sql.writebatch.BatchWriterPreparedStatementImpl;
 
 /**
  * Runnable object providing insertion into the database. TrackerLogger is created
- * for a specific connection and table.
+ * for a specific connection. It waits for tracks to arrive on the queue, then takes all the
+ * tracks waiting (up to MAX_BATCH_SIZE) and writes them to their tables with a Batch, so that
+ * a burst of activity is stored with a few multi-row writes rather than a statement per track.
  * @author dbutano
  *
  */
 public class TrackerLogger implements Runnable
 {
     private static final Logger LOG = Logger.getLogger(TrackerLogger.class);
+    /** The largest number of tracks written in one batch */
+    protected static final int MAX_BATCH_SIZE = 1000;
+    private static final long POLL_TIMEOUT = 1000;
+
     private Connection connection;
-    private Queue<Track> trackQueue;
+    private BlockingQueue<Track> trackQueue;
+    private Batch batch;
+    private Map<String, String[]> columnNames = new HashMap<String, String[]>();
+    private final AtomicLong storedTracks = new AtomicLong();
+    private final AtomicLong failedTracks = new AtomicLong();
 
     /**
-     * Construct a TrackerLogger for a specific connection and table
+     * Construct a TrackerLogger for a specific connection
      * @param connection the connection to the database
+     * @param trackQueue the queue where the trackers put the tracks
      */
-    public TrackerLogger(Connection connection, Queue<Track> trackQueue) {
+    public TrackerLogger(Connection connection, BlockingQueue<Track> trackQueue) {
         this.connection = connection;
         this.trackQueue = trackQueue;
+        // the COPY writer can't encode timestamps, all the track tables have one
+        this.batch = new Batch(new BatchWriterPreparedStatementImpl());
     }
 
+    /**
+     * {@inheritDoc}
+     */
     public void run() {
-        for (;;) {
-            Track track = trackQueue.poll();
-            if (track != null) {
-                track.store(connection);
-            } else {
+        List<Track> tracks = new ArrayList<Track>();
+        try {
+            for (;;) {
+                Track track = trackQueue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (track != null) {
+                    tracks.add(track);
+                    trackQueue.drainTo(tracks, MAX_BATCH_SIZE - 1);
+                    store(tracks);
+                    tracks.clear();
+                }
+            }
+        } catch (InterruptedException ie) {
+            // store whatever is left before stopping
+            trackQueue.drainTo(tracks);
+            store(tracks);
+            if (connection != null) {
                 try {
-                    Thread.sleep(3000);
-                } catch (InterruptedException ie) {
-                    return;
+                    batch.close(connection);
+                } catch (SQLException e) {
+                    LOG.error("Problem closing the track batch", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write a list of tracks to the database.
+     * @param tracks the tracks to write
+     */
+    protected void store(List<Track> tracks) {
+        if (tracks.isEmpty() || connection == null) {
+            return;
+        }
+        try {
+            for (Track track : tracks) {
+                String tableName = track.getTableName();
+                String[] colNames = getColumnNames(tableName);
+                batch.addRow(connection, tableName, null, colNames,
+                        toColumnValues(track.getFormattedTrack()));
+            }
+            batch.flush(connection);
+            storedTracks.addAndGet(tracks.size());
+        } catch (SQLException e) {
+            failedTracks.addAndGet(tracks.size());
+            batch.clear();
+            LOG.error("Problem storing " + tracks.size() + " tracks", e);
+        }
+    }
+
+    // the tracks hold their values in the order of the table columns
+    private String[] getColumnNames(String tableName) throws SQLException {
+        String[] colNames = columnNames.get(tableName);
+        if (colNames == null) {
+            List<String> names = new ArrayList<String>();
+            ResultSet rs = connection.getMetaData().getColumns(null, null, tableName, null);
+            try {
+                while (rs.next()) {
+                    names.add(rs.getString("COLUMN_NAME"));
                 }
+            } finally {
+                rs.close();
+            }
+            if (names.isEmpty()) {
+                throw new SQLException("Can't find the columns of track table " + tableName);
+            }
+            colNames = names.toArray(new String[names.size()]);
+            columnNames.put(tableName, colNames);
+        }
+        return colNames;
+    }
+
+    // values other than numbers and timestamps are stored as text, as the tracks used to be
+    private static Object[] toColumnValues(Object[] values) {
+        Object[] columnValues = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            if (value == null || value instanceof Number || value instanceof Timestamp) {
+                columnValues[i] = value;
+            } else {
+                columnValues[i] = value.toString();
             }
         }
+        return columnValues;
+    }
+
+    /**
+     * Return the number of tracks written to the database.
+     * @return the number of tracks
+     */
+    public long getStoredTracks() {
+        return storedTracks.get();
+    }
+
+    /**
+     * Return the number of tracks that could not be written to the database.
+     * @return the number of tracks
+     */
+    public long getFailedTracks() {
+        return failedTracks.get();
     }
 }
@@ -0,0 +1,118 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+import org.intermine.objectstore.query.ResultsRow;
+
+public class BagQueryIndexTest extends TestCase
+{
+    public BagQueryIndexTest(String arg) {
+        super(arg);
+    }
+
+    public void testWildcardPrefix() {
+        assertEquals("emp", BagQueryIndex.wildcardPrefix("EMP*A*"));
+        assertEquals("", BagQueryIndex.wildcardPrefix("*A"));
+        assertEquals("emp", BagQueryIndex.wildcardPrefix("Emp.1*"));
+    }
+
+    public void testPrefixRange() {
+        NavigableMap<String, Integer> values = new TreeMap<String, Integer>();
+        for (String value : Arrays.asList("emp", "empa1", "empb1", "en", "dept", "em")) {
+            values.put(value, 1);
+        }
+        assertEquals(Arrays.asList("emp", "empa1", "empb1"),
+                Arrays.asList(BagQueryIndex.prefixRange(values, "emp").keySet().toArray()));
+        assertEquals(6, BagQueryIndex.prefixRange(values, "").size());
+        assertTrue(BagQueryIndex.prefixRange(values, "x").isEmpty());
+    }
+
+    public void testWildcardPattern() {
+        assertTrue(BagQueryIndex.wildcardPattern("EMP*1").matcher("empa1").matches());
+        assertFalse(BagQueryIndex.wildcardPattern("EMP*1").matcher("empa2").matches());
+    }
+
+    private BagQueryIndex makeIndex(String keyField) throws Exception {
+        Model model = Model.getInstanceByName("testmodel");
+        ObjectStoreDummyImpl os = new ObjectStoreDummyImpl();
+        os.setModel(model);
+        String[] names = new String[] {"EmployeeA1", "EmployeeA2", "EmployeeB1", "employeea1"};
+        for (int i = 0; i < names.length; i++) {
+            ResultsRow<Object> row = new ResultsRow<Object>();
+            row.add(new Integer(i + 1));
+            row.add(names[i]);
+            os.addRow(row);
+        }
+        os.setResultsSize(names.length);
+        Map<String, List<FieldDescriptor>> classKeys = new HashMap<String, List<FieldDescriptor>>();
+        classKeys.put("Employee", Collections.singletonList(
+                model.getClassDescriptorByName("Employee").getFieldDescriptorByName(keyField)));
+        return new BagQueryIndex(os, classKeys);
+    }
+
+    private static Set<Integer> ids(Integer... ids) {
+        return new LinkedHashSet<Integer>(Arrays.asList(ids));
+    }
+
+    public void testLookup() throws Exception {
+        BagQueryIndex index = makeIndex("name");
+        assertFalse(index.isIndexed("Employee"));
+        assertNull(index.lookup("Employee", Arrays.asList("EmployeeA1")));
+        assertTrue(index.build("Employee"));
+        assertTrue(index.isIndexed("Employee"));
+        assertTrue(index.isIndexed("org.intermine.model.testmodel.Employee"));
+        assertEquals(Collections.singletonMap("Employee", new Integer(3)), index.getSizes());
+
+        Map<String, Set<Integer>> found =
+            index.lookup("Employee", Arrays.asList("EMPLOYEEA1", "Nothing", "EmployeeB1"));
+        assertEquals(Arrays.asList("EMPLOYEEA1", "EmployeeB1"),
+                Arrays.asList(found.keySet().toArray()));
+        assertEquals(ids(1, 4), found.get("EMPLOYEEA1"));
+        assertEquals(ids(3), found.get("EmployeeB1"));
+
+        // types that haven't been indexed are left to the database
+        assertNull(index.lookup("Department", Arrays.asList("DepartmentA1")));
+        assertNull(index.lookupWildcards("Department", Arrays.asList("Dep*")));
+    }
+
+    public void testLookupWildcards() throws Exception {
+        BagQueryIndex index = makeIndex("name");
+        index.build("Employee");
+        Map<String, Set<Integer>> found = index.lookupWildcards("Employee",
+                Arrays.asList("employeea*", "*B1", "x*", "Emp*2"));
+        assertEquals(Arrays.asList("employeea*", "*B1", "Emp*2"),
+                Arrays.asList(found.keySet().toArray()));
+        assertEquals(ids(1, 4, 2), found.get("employeea*"));
+        assertEquals(ids(3), found.get("*B1"));
+        assertEquals(ids(2), found.get("Emp*2"));
+    }
+
+    public void testBuildNonStringKey() throws Exception {
+        BagQueryIndex index = makeIndex("age");
+        assertFalse(index.build("Employee"));
+        assertFalse(index.isIndexed("Employee"));
+    }
+}
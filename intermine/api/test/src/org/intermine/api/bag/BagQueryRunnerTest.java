@@ -322,4 +322,62 @@ public class BagQueryRunnerTest extends StoreDataTestCase {
         assertTrue("Should have issues", !res.getIssues().isEmpty());
         assertTrue("Should have no unresolved identifiers", res.getUnresolved().isEmpty());
     }
+
+    // the default query for an indexed type is answered from the index, with the same results
+    public void testSearchForBagWithIndex() throws Exception {
+        List input = Arrays.asList(new Object[] {"EmployeeA1", "employeea2", "EmployeeB*",
+            "Nobody"});
+        BagQueryResult expected = runner.searchForBag("Employee", input, null, true);
+        CountingIndex index = new CountingIndex(os, classKeys);
+        assertTrue(index.build("Employee"));
+        runner.setIndex(index);
+        BagQueryResult res = runner.searchForBag("Employee", input, null, true);
+        assertEquals(2, index.lookups);
+        assertEquals(expected.getMatches(), res.getMatches());
+        assertEquals(expected.getIssues(), res.getIssues());
+        assertEquals(expected.getUnresolved(), res.getUnresolved());
+    }
+
+    // case sensitive searches and types that aren't indexed still query the database
+    public void testSearchForBagWithIndexFallsBack() throws Exception {
+        CountingIndex index = new CountingIndex(os, classKeys);
+        assertTrue(index.build("Employee"));
+        runner.setIndex(index);
+
+        List input = Arrays.asList(new Object[] {"employeeA1", "EmployeeA2"});
+        BagQueryResult res = runner.search("Employee", input, null, true, true);
+        assertEquals(1, res.getMatches().size());
+        assertEquals(1, res.getUnresolved().size());
+
+        input = Arrays.asList(new Object[] {"Mr."});
+        res = runner.searchForBag("Manager", input, null, true);
+        assertEquals(0, res.getMatches().size());
+        assertTrue(res.getIssues().containsKey(BagQueryResult.DUPLICATE));
+        assertEquals(0, index.lookups);
+    }
+
+    /**
+     * A BagQueryIndex that counts the lookups made in it.
+     */
+    private static class CountingIndex extends BagQueryIndex
+    {
+        private int lookups = 0;
+
+        CountingIndex(ObjectStore os, Map<String, List<FieldDescriptor>> classKeys) {
+            super(os, classKeys);
+        }
+
+        @Override
+        public Map<String, Set<Integer>> lookup(String type, Collection<String> input) {
+            lookups++;
+            return super.lookup(type, input);
+        }
+
+        @Override
+        public Map<String, Set<Integer>> lookupWildcards(String type,
+                Collection<String> wildcards) {
+            lookups++;
+            return super.lookupWildcards(type, wildcards);
+        }
+    }
 }
@@ -10,37 +10,241 @@ package org.intermine.api.mines;
  *
  */
 
-import org.intermine.api.InterMineAPITestCase;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 
 /**
- * Class to query friendly mines.
+ * Tests for FriendlyMineQueryRunner, using a local server in place of the remote mines.
  *
  * @author Julie Sullivan
  */
-public final class FriendlyMineQueryRunnerTest extends InterMineAPITestCase
+public class FriendlyMineQueryRunnerTest extends TestCase
 {
-    private static final int CONNECT_TIMEOUT = 0;
+    private static final String RESULTS = "<ResultSet><Result><i>1</i><i>eve</i><i>D. mel</i>"
+        + "</Result><Result><i>2</i><i>zen</i><i>D. mel</i></Result></ResultSet>";
 
+    private HttpServer server;
+    private AtomicInteger queries = new AtomicInteger();
+    private AtomicInteger versions = new AtomicInteger();
+    private volatile String release = "1";
+    private volatile long delay = 0;
 
     public FriendlyMineQueryRunnerTest(String arg) {
         super(arg);
     }
-    
-    
+
     public void setUp() throws Exception {
         super.setUp();
+        FriendlyMineQueryRunner.reset();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                String body;
+                if (path.endsWith("/service/version/release")) {
+                    versions.incrementAndGet();
+                    body = release;
+                } else if (path.endsWith("/service/query/results")) {
+                    queries.incrementAndGet();
+                    body = RESULTS;
+                } else if (path.endsWith("/broken")) {
+                    exchange.sendResponseHeaders(500, -1);
+                    exchange.close();
+                    return;
+                } else {
+                    body = "hello";
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    // reply now
+                }
+                byte[] bytes = body.getBytes("UTF-8");
+                try {
+                    exchange.sendResponseHeaders(200, bytes.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(bytes);
+                    out.close();
+                } catch (IOException e) {
+                    // the client gave up
+                }
+                exchange.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
     }
-    
-    public void testRunJSONWebServiceQuery() {
-        assertTrue(false);
+
+    public void tearDown() throws Exception {
+        server.stop(0);
+        FriendlyMineQueryRunner.reset();
+        super.tearDown();
     }
 
-    public void testUpdateReleaseVersion() {
-        assertTrue(false);
+    private Mine makeMine(String name, String path) {
+        Mine mine = new Mine(name);
+        mine.setUrl("http://127.0.0.1:" + server.getAddress().getPort() + path);
+        return mine;
     }
 
-    public void testRunWebServiceQuery() {
-        assertTrue(false);
+    public void testRunJSONWebServiceQuery() throws Exception {
+        Mine mine = makeMine("FlyMine", "/flymine");
+        JSONObject results = FriendlyMineQueryRunner.runJSONWebServiceQuery(mine, "<query/>");
+        assertEquals(2, results.getJSONArray("results").length());
+        JSONObject first = results.getJSONArray("results").getJSONObject(0);
+        assertEquals("1", first.getString("id"));
+        assertEquals("eve", first.getString("name"));
+        assertEquals("D. mel", first.getString("ref"));
+
+        // cached
+        FriendlyMineQueryRunner.runJSONWebServiceQuery(mine, "<query/>");
+        assertEquals(1, queries.get());
     }
-}
 
+    public void testRunJSONWebServiceQueryConcurrent() throws Exception {
+        delay = 300;
+        final Mine mine = makeMine("FlyMine", "/flymine");
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        List<Future<JSONObject>> futures = new ArrayList<Future<JSONObject>>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(executor.submit(new Callable<JSONObject>() {
+                public JSONObject call() throws Exception {
+                    start.await();
+                    return FriendlyMineQueryRunner.runJSONWebServiceQuery(mine, "<query/>");
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<JSONObject> future : futures) {
+            assertEquals(2, future.get().getJSONArray("results").length());
+        }
+        executor.shutdown();
+        // identical queries in flight at the same time share one request
+        assertEquals(1, queries.get());
+    }
+
+    public void testUpdateReleaseVersionManyMines() throws Exception {
+        delay = 500;
+        Map<String, Mine> mines = new LinkedHashMap<String, Mine>();
+        for (int i = 0; i < 4; i++) {
+            mines.put("mine" + i, makeMine("Mine" + i, "/mine" + i));
+        }
+        long start = System.currentTimeMillis();
+        Collection<Mine> changed = FriendlyMineQueryRunner.updateReleaseVersion(mines);
+        long elapsed = System.currentTimeMillis() - start;
+        assertEquals(4, changed.size());
+        assertEquals(4, versions.get());
+        assertTrue("took " + elapsed + "ms", elapsed < 4 * delay);
+    }
+
+    public void testTimeout() throws Exception {
+        delay = 2000;
+        Mine mine = makeMine("SlowMine", "/slowmine");
+        mine.setTimeout(200);
+        long start = System.currentTimeMillis();
+        assertNull(FriendlyMineQueryRunner.runJSONWebServiceQuery(mine, "<query/>"));
+        assertTrue(System.currentTimeMillis() - start < delay);
+    }
+
+    public void testCircuitBreaker() throws Exception {
+        Mine broken = makeMine("BrokenMine", "/brokenmine");
+        Mine working = makeMine("FlyMine", "/flymine");
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/broken";
+        for (int i = 0; i < FriendlyMineQueryRunner.FAILURES_BEFORE_OPEN; i++) {
+            assertNull(FriendlyMineQueryRunner.runWebServiceQuery(broken, url));
+        }
+        // the mine is now left alone, even for requests that would succeed
+        String other = "http://127.0.0.1:" + server.getAddress().getPort() + "/other";
+        assertNull(FriendlyMineQueryRunner.runWebServiceQuery(broken, other));
+
+        // another mine on the same server is still asked
+        BufferedReader reader = FriendlyMineQueryRunner.runWebServiceQuery(working, other);
+        assertEquals("hello", reader.readLine());
+        reader.close();
+
+        FriendlyMineQueryRunner.reset();
+        reader = FriendlyMineQueryRunner.runWebServiceQuery(broken, other);
+        assertEquals("hello", reader.readLine());
+        reader.close();
+    }
+
+    public void testUpdateReleaseVersion() throws Exception {
+        Mine flyMine = makeMine("FlyMine", "/flymine");
+        Mine ratMine = makeMine("RatMine", "/ratmine");
+        Map<String, Mine> mines = new LinkedHashMap<String, Mine>();
+        mines.put("flymine", flyMine);
+        mines.put("ratmine", ratMine);
+
+        Collection<Mine> changed = FriendlyMineQueryRunner.updateReleaseVersion(mines);
+        assertEquals(2, versions.get());
+        assertEquals(2, changed.size());
+        assertEquals("1", flyMine.getReleaseVersion());
+        assertEquals("1", ratMine.getReleaseVersion());
+
+        FriendlyMineQueryRunner.runJSONWebServiceQuery(flyMine, "<query/>");
+        FriendlyMineQueryRunner.runJSONWebServiceQuery(ratMine, "<query/>");
+        assertEquals(2, queries.get());
+
+        // nothing changed, so the cached results are kept
+        assertTrue(FriendlyMineQueryRunner.updateReleaseVersion(mines).isEmpty());
+        FriendlyMineQueryRunner.runJSONWebServiceQuery(flyMine, "<query/>");
+        FriendlyMineQueryRunner.runJSONWebServiceQuery(ratMine, "<query/>");
+        assertEquals(2, queries.get());
+
+        // only the results of the mine with a new release are discarded
+        ratMine.setReleaseVersion("0");
+        changed = FriendlyMineQueryRunner.updateReleaseVersion(mines);
+        assertEquals(Arrays.asList(ratMine), new ArrayList<Mine>(changed));
+        FriendlyMineQueryRunner.runJSONWebServiceQuery(flyMine, "<query/>");
+        FriendlyMineQueryRunner.runJSONWebServiceQuery(ratMine, "<query/>");
+        assertEquals(3, queries.get());
+    }
+
+    public void testRunWebServiceQuery() throws Exception {
+        Mine mine = makeMine("FlyMine", "/flymine");
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/other";
+        BufferedReader reader = FriendlyMineQueryRunner.runWebServiceQuery(mine, url);
+        assertEquals("hello", reader.readLine());
+        reader.close();
+
+        reader = FriendlyMineQueryRunner.runWebServiceQuery(mine, url + "?a=b");
+        assertEquals("hello", reader.readLine());
+        reader.close();
+
+        assertNull(FriendlyMineQueryRunner.runWebServiceQuery(mine, ""));
+    }
+
+    public void testRunWebServiceQueryTimeout() throws Exception {
+        delay = 2000;
+        Mine mine = makeMine("SlowMine", "/slowmine");
+        mine.setTimeout(200);
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/other";
+        long start = System.currentTimeMillis();
+        assertNull(FriendlyMineQueryRunner.runWebServiceQuery(mine, url + "?a=b"));
+        assertTrue(System.currentTimeMillis() - start < delay);
+    }
+}
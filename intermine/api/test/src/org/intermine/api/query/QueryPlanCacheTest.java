@@ -0,0 +1,98 @@
+package org.intermine.api.query;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.Model;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QuerySelectable;
+import org.intermine.pathquery.Constraints;
+import org.intermine.pathquery.OuterJoinStatus;
+import org.intermine.pathquery.PathQuery;
+
+public class QueryPlanCacheTest extends TestCase {
+
+    private Model model;
+
+    public QueryPlanCacheTest(String name) {
+        super(name);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        model = Model.getInstanceByName("testmodel");
+    }
+
+    private PathQuery makePathQuery(int age, String name) {
+        PathQuery pq = new PathQuery(model);
+        pq.addViews("Employee.name", "Employee.department.name");
+        pq.addConstraint(Constraints.greaterThanEqualTo("Employee.age", "" + age), "A");
+        pq.addConstraint(Constraints.eq("Employee.department.name", name), "B");
+        pq.addConstraint(Constraints.eq("Employee.fullTime", "true"), "C");
+        pq.setConstraintLogic("(A or B) and C");
+        return pq;
+    }
+
+    private Query makeQuery(PathQuery pq, Map<String, QuerySelectable> pathToQueryNode)
+        throws Exception {
+        return MainHelper.makeQuery(pq, new HashMap(), pathToQueryNode, null, null);
+    }
+
+    public void testRebind() throws Exception {
+        QueryPlanCache cache = MainHelper.getQueryPlanCache();
+        cache.clear();
+        long hits = cache.getHits();
+        long misses = cache.getMisses();
+
+        Query first = makeQuery(makePathQuery(10, "DepartmentA1"), null);
+        assertEquals(misses + 1, cache.getMisses());
+        Map<String, QuerySelectable> pathToQueryNode = new HashMap<String, QuerySelectable>();
+        Query second = makeQuery(makePathQuery(20, "DepartmentB1"), pathToQueryNode);
+        assertEquals(hits + 1, cache.getHits());
+        assertEquals(1, cache.size());
+
+        String expected = "SELECT DISTINCT a1_, a2_ FROM org.intermine.model.testmodel.Employee AS"
+            + " a1_, org.intermine.model.testmodel.Department AS a2_ WHERE (a1_.department"
+            + " CONTAINS a2_ AND (a1_.age >= %d OR LOWER(a2_.name) LIKE '%s') AND a1_.fullTime"
+            + " = true) ORDER BY a1_.name, a2_.name";
+        assertEquals(String.format(expected, 10, "departmenta1"), first.toString());
+        assertEquals(String.format(expected, 20, "departmentb1"), second.toString());
+        // The first query must not have been changed by making the second
+        assertEquals(String.format(expected, 10, "departmenta1"), first.toString());
+        assertTrue(pathToQueryNode.containsKey("Employee.department.name"));
+        assertTrue(pathToQueryNode.containsKey("Employee.age"));
+    }
+
+    public void testDifferentShapes() throws Exception {
+        QueryPlanCache cache = MainHelper.getQueryPlanCache();
+        cache.clear();
+        makeQuery(makePathQuery(10, "DepartmentA1"), null);
+        PathQuery pq = makePathQuery(10, "DepartmentA1");
+        pq.setConstraintLogic("A and B and C");
+        Query q = makeQuery(pq, null);
+        assertEquals(2, cache.size());
+        assertTrue(q.toString().contains("(a1_.department CONTAINS a2_ AND a1_.age >= 10 AND"));
+
+        pq = makePathQuery(10, "DepartmentA1");
+        pq.replaceConstraint(pq.getConstraintForCode("A"),
+                Constraints.lessThan("Employee.age", "10"));
+        q = makeQuery(pq, null);
+        assertEquals(3, cache.size());
+        assertTrue(q.toString().contains("a1_.age < 10"));
+    }
+
+    public void testOuterJoinsNotCached() throws Exception {
+        PathQuery pq = makePathQuery(10, "DepartmentA1");
+        pq.setOuterJoinStatus("Employee.department", OuterJoinStatus.OUTER);
+        pq.removeConstraint(pq.getConstraintForCode("B"));
+        pq.setConstraintLogic("A and C");
+        assertNull(QueryPlanCache.getKey(pq.getQueryToExecute()));
+    }
+
+    public void testGetKeyIgnoresValues() throws Exception {
+        assertEquals(QueryPlanCache.getKey(makePathQuery(10, "DepartmentA1")),
+                QueryPlanCache.getKey(makePathQuery(99, "Other")));
+    }
+}
@@ -14,6 +14,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -464,4 +465,213 @@ public class ExportResultsIteratorTest extends TestCase
 
         assertEquals(expected, got);
     }
+
+    public void testCollectionExpandedOneRowAtATime() throws Exception {
+        ObjectStoreDummyImpl os = new ObjectStoreDummyImpl();
+        os.setResultsSize(2);
+
+        Company company1 = createCompany("Company1", 1);
+        Company company2 = createCompany("Company2", 2);
+        Department department1 = createDepartment("Department1", 3);
+        Department department2 = createDepartment("Department2", 4);
+        Department department3 = createDepartment("Department3", 5);
+        Department department4 = createDepartment("Department4", 6);
+
+        CountingList departments = new CountingList();
+        departments.add(singleRow(department1));
+        departments.add(singleRow(department2));
+        departments.add(singleRow(department3));
+        os.addRow(row(company1, departments));
+        List otherDepartments = new ArrayList();
+        otherDepartments.add(singleRow(department4));
+        os.addRow(row(company2, otherDepartments));
+
+        PathQuery pq = new PathQuery(model);
+        pq.addViews("Company.name", "Company.departments.name");
+        pq.setOuterJoinStatus("Company.departments", OuterJoinStatus.OUTER);
+        Path p1 = pq.makePath("Company.name");
+        Path p2 = pq.makePath("Company.departments.name");
+
+        Map pathToQueryNode = new HashMap();
+        Query q = MainHelper.makeQuery(pq, new HashMap(), pathToQueryNode, null, null);
+        List resultList = os.execute(q, 0, 2, true, true, new HashMap());
+        Results results = new DummyResults(q, resultList);
+        ExportResultsIterator iter = new ExportResultsIterator(pq, q, results, pathToQueryNode);
+
+        // Each department is only looked at when the row it is exported as is asked for
+        assertEquals(Arrays.asList(new ResultElement(company1, p1, false),
+                    new ResultElement(department1, p2, false)), iter.next());
+        assertEquals(1, departments.handedOut);
+        assertEquals(Arrays.asList(new ResultElement(company1, p1, false),
+                    new ResultElement(department2, p2, false)), iter.next());
+        assertEquals(2, departments.handedOut);
+        assertEquals(Arrays.asList(new ResultElement(company1, p1, false),
+                    new ResultElement(department3, p2, false)), iter.next());
+        assertEquals(3, departments.handedOut);
+        assertEquals(Arrays.asList(new ResultElement(company2, p1, false),
+                    new ResultElement(department4, p2, false)), iter.next());
+        assertFalse(iter.hasNext());
+    }
+
+    public void testEmptyCollection() throws Exception {
+        ObjectStoreDummyImpl os = new ObjectStoreDummyImpl();
+        os.setResultsSize(2);
+
+        Company company1 = createCompany("Company1", 1);
+        Company company2 = createCompany("Company2", 2);
+        Department department1 = createDepartment("Department1", 3);
+        Department department2 = createDepartment("Department2", 4);
+
+        // A company with no departments or contractors is exported as one row
+        os.addRow(row(company1, new ArrayList(), new ArrayList()));
+        // Beside a collection needing several rows, an empty collection adds none
+        List departments = new ArrayList();
+        departments.add(singleRow(department1));
+        departments.add(singleRow(department2));
+        os.addRow(row(company2, departments, new ArrayList()));
+
+        PathQuery pq = new PathQuery(model);
+        pq.addViews("Company.name", "Company.departments.name", "Company.contractors.name");
+        pq.setOuterJoinStatus("Company.departments", OuterJoinStatus.OUTER);
+        pq.setOuterJoinStatus("Company.contractors", OuterJoinStatus.OUTER);
+        Path p1 = pq.makePath("Company.name");
+        Path p2 = pq.makePath("Company.departments.name");
+
+        List expected = Arrays.asList(
+                Arrays.asList(new ResultElement(company1, p1, false), null, null),
+                Arrays.asList(new ResultElement(company2, p1, false),
+                    new ResultElement(department1, p2, false), null),
+                Arrays.asList(new ResultElement(company2, p1, false),
+                    new ResultElement(department2, p2, false), null));
+
+        assertEquals(expected, export(pq, os, 2));
+    }
+
+    public void testTwoCollectionsOnOneRow() throws Exception {
+        ObjectStoreDummyImpl os = new ObjectStoreDummyImpl();
+        os.setResultsSize(1);
+
+        Company company = createCompany("Company1", 1);
+        Department department1 = createDepartment("Department1", 2);
+        Department department2 = createDepartment("Department2", 3);
+        Employee employee1 = new Employee();
+        employee1.setName("Employee1");
+        employee1.setId(4);
+        Employee employee2 = new Employee();
+        employee2.setName("Employee2");
+        employee2.setId(5);
+        Contractor contractor1 = new Contractor();
+        contractor1.setName("Contractor1");
+        contractor1.setId(6);
+        Contractor contractor2 = new Contractor();
+        contractor2.setName("Contractor2");
+        contractor2.setId(7);
+
+        // The first department has two employees, which are expanded inside the departments
+        List departments = new ArrayList();
+        List employees = new ArrayList();
+        employees.add(singleRow(employee1));
+        employees.add(singleRow(employee2));
+        ResultsRow departmentRow = singleRow(department1);
+        departmentRow.add(employees);
+        departments.add(departmentRow);
+        departmentRow = singleRow(department2);
+        departmentRow.add(new ArrayList());
+        departments.add(departmentRow);
+        List contractors = new ArrayList();
+        contractors.add(singleRow(contractor1));
+        contractors.add(singleRow(contractor2));
+        os.addRow(row(company, departments, contractors));
+
+        PathQuery pq = new PathQuery(model);
+        pq.addViews("Company.name", "Company.departments.name",
+                "Company.departments.employees.name", "Company.contractors.name");
+        pq.setOuterJoinStatus("Company.departments", OuterJoinStatus.OUTER);
+        pq.setOuterJoinStatus("Company.departments.employees", OuterJoinStatus.OUTER);
+        pq.setOuterJoinStatus("Company.contractors", OuterJoinStatus.OUTER);
+        Path p1 = pq.makePath("Company.name");
+        Path p2 = pq.makePath("Company.departments.name");
+        Path p3 = pq.makePath("Company.departments.employees.name");
+        Path p4 = pq.makePath("Company.contractors.name");
+
+        ResultElement name = new ResultElement(company, p1, false);
+        List expected = Arrays.asList(
+                Arrays.asList(name, new ResultElement(department1, p2, false),
+                    new ResultElement(employee1, p3, false), null),
+                Arrays.asList(name, new ResultElement(department1, p2, false),
+                    new ResultElement(employee2, p3, false), null),
+                Arrays.asList(name, new ResultElement(department2, p2, false), null, null),
+                Arrays.asList(name, null, null, new ResultElement(contractor1, p4, false)),
+                Arrays.asList(name, null, null, new ResultElement(contractor2, p4, false)));
+
+        assertEquals(expected, export(pq, os, 1));
+    }
+
+    private static Company createCompany(String name, int id) {
+        Company company = (Company) DynamicUtil.createObject(Collections.singleton(Company.class));
+        company.setName(name);
+        company.setId(id);
+        return company;
+    }
+
+    private static Department createDepartment(String name, int id) {
+        Department department = new Department();
+        department.setName(name);
+        department.setId(id);
+        return department;
+    }
+
+    private static ResultsRow singleRow(Object o) {
+        ResultsRow row = new ResultsRow();
+        row.add(o);
+        return row;
+    }
+
+    private static ResultsRow row(Object o, List... collections) {
+        ResultsRow row = singleRow(o);
+        row.addAll(Arrays.asList(collections));
+        return row;
+    }
+
+    private List export(PathQuery pq, ObjectStoreDummyImpl os, int rows) throws Exception {
+        Map pathToQueryNode = new HashMap();
+        Query q = MainHelper.makeQuery(pq, new HashMap(), pathToQueryNode, null, null);
+        List resultList = os.execute(q, 0, rows, true, true, new HashMap());
+        Results results = new DummyResults(q, resultList);
+
+        ExportResultsIterator iter = new ExportResultsIterator(pq, q, results, pathToQueryNode);
+
+        List got = new ArrayList();
+        for (List gotRow : new IteratorIterable<List<ResultElement>>(iter)) {
+            got.add(gotRow);
+        }
+        return got;
+    }
+
+    /**
+     * A collection in the results that counts how many of its elements have been iterated over.
+     */
+    private static class CountingList extends ArrayList
+    {
+        int handedOut = 0;
+
+        @Override
+        public Iterator iterator() {
+            final Iterator iter = super.iterator();
+            return new Iterator() {
+                public boolean hasNext() {
+                    return iter.hasNext();
+                }
+
+                public Object next() {
+                    handedOut++;
+                    return iter.next();
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
 }
@@ -81,6 +81,19 @@ public class TemplateExecutionMapTest extends TestCase
         assertEquals(1, templateExecutions.get("sessionId1").intValue());
     }
 
+    /**
+     * Test the method renameTemplate
+     */
+    public void testRenameTemplate() {
+        templateExecutionsMap.renameTemplate("template2", "template1");
+        templateExecutionsMap.renameTemplate("template1", "template3");
+        assertEquals(1, templateExecutionsMap.getTemplateExecutions().size());
+        Map<String, Integer> templateExecutions = templateExecutionsMap.getTemplateExecutions()
+                                                                       .get("template3");
+        assertEquals(3, templateExecutions.get("userName1").intValue());
+        assertEquals(2, templateExecutions.get("userName2").intValue());
+    }
+
     /**
      * Moka class adding the method getTemplateExecutions to the TemplatesExecutionMap class
      */
@@ -158,10 +171,15 @@ public class TemplateExecutionMapTest extends TestCase
         assertEquals(Math.log(2), templateExecutionsMap.getLogarithmMap("sessionId1",
                                                         templateManager).get("template1"));
 
+        // the sums are kept up to date incrementally, so allow for rounding
         assertEquals(Math.log(4) + Math.log(2) + Math.log(2),
-                     templateExecutionsMap.getLogarithmMap(null, templateManager).get("template1"));
+                     templateExecutionsMap.getLogarithmMap(null, templateManager).get("template1"),
+                     1e-9);
         assertEquals(Math.log(2),
-                    templateExecutionsMap.getLogarithmMap(null, templateManager).get("template2"));
+                    templateExecutionsMap.getLogarithmMap(null, templateManager).get("template2"),
+                    1e-9);
+        assertEquals(5, templateExecutionsMap.getExecutionCounts(templateManager)
+                                             .get("template1").intValue());
 
         removeProfile();
     }
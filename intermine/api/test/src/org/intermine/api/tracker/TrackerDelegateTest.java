@@ -125,9 +125,11 @@ public class TrackerDelegateTest extends InterMineAPITestCase
     }
     public void testGetAccessCounter() throws SQLException, InterruptedException {
         //template1 is public, template2 not
+        TemplateManager templateManager = new TemplateManager(superUser, uosw.getModel());
         try {
-            assertEquals(4, trackerDelegate.getAccessCounter().get("template1").intValue());
-            assertNull(trackerDelegate.getAccessCounter().get("template2"));
+            assertEquals(4, trackerDelegate.getAccessCounter(templateManager).get("template1")
+                    .intValue());
+            assertNull(trackerDelegate.getAccessCounter(templateManager).get("template2"));
         } finally {
             deleteTrack(TrackerUtil.TEMPLATE_TRACKER_TABLE);
         }
@@ -14,8 +14,8 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.intermine.api.tracker.track.LoginTrack;
 import org.intermine.api.tracker.track.Track;
@@ -28,7 +28,7 @@ import junit.framework.TestCase;
 public class TrackerLoggerTest extends TestCase {
     ObjectStoreWriter uosw;
     Connection con;
-    Queue<Track> trackQueue;
+    BlockingQueue<Track> trackQueue;
     TrackerLogger trackerLogger = null;
     private int count = 100;
 
@@ -38,7 +38,7 @@ public class TrackerLoggerTest extends TestCase {
         if (uosw instanceof ObjectStoreWriterInterMineImpl) {
             con = ((ObjectStoreWriterInterMineImpl) uosw).getConnection();
         }
-        trackQueue = new LinkedList<Track>();
+        trackQueue = new LinkedBlockingQueue<Track>();
         //create the table if doesn't exist
         LoginTracker.getInstance(con, trackQueue);
     }
@@ -55,12 +55,14 @@ public class TrackerLoggerTest extends TestCase {
                           new Timestamp(System.currentTimeMillis())));
         }
         trackerLogger = new TrackerLogger(con, trackQueue);
-        new Thread(trackerLogger).start();
-        synchronized (trackQueue) {
-            while (!trackQueue.isEmpty()) {
-                Thread.sleep(100);
-            }
+        Thread thread = new Thread(trackerLogger);
+        thread.start();
+        for (int wait = 0; trackerLogger.getStoredTracks() < count && wait < 100; wait++) {
+            Thread.sleep(100);
         }
+        thread.interrupt();
+        thread.join();
+        assertEquals(0, trackerLogger.getFailedTracks());
         String sql = "SELECT COUNT(*) FROM logintrack";
         Statement stm = con.createStatement();
         ResultSet rs = stm.executeQuery(sql);
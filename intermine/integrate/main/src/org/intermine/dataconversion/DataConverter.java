@@ -40,6 +40,7 @@ public abstract class DataConverter
     private ItemFactory itemFactory;
     private DataConverterStoreHook storeHook = null;
     private Map<String, String> uniqueItems = new HashMap<String, String>();
+    private String aliasSuffix = "";
 
     /**
     * Constructor that should be called by children
@@ -50,6 +51,9 @@ public abstract class DataConverter
         this.writer = writer;
         this.model = model;
         this.itemFactory = new ItemFactory(this.model);
+        if (writer instanceof SharedItemWriter) {
+            aliasSuffix = ((SharedItemWriter) writer).getAliasSuffix();
+        }
     }
 
     /**
@@ -78,7 +82,7 @@ public abstract class DataConverter
         if (alias != null) {
             return alias;
         }
-        String nextIndex = "" + (nextClsId++);
+        String nextIndex = "" + (nextClsId++) + aliasSuffix;
         aliases.put(className, nextIndex);
         LOG.info("Aliasing className " + className + " to index " + nextIndex);
         return nextIndex;
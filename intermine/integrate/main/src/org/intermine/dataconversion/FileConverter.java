@@ -39,6 +39,19 @@ public abstract class FileConverter extends DataConverter
      */
     public abstract void process(Reader reader) throws Exception;
 
+    /**
+     * Return true if this converter can be run as several instances in parallel, each converting
+     * a share of the files.  Each file must then be convertible on its own: an instance must not
+     * refer to items created by another instance, and any items that every instance creates
+     * (such as organisms or data sets) must be merged by the primary keys of the source when
+     * loaded.  FileConverterTask only runs a converter in parallel if this returns true and the
+     * task's threads attribute is more than one.
+     * @return false, subclasses that meet the above should override this to return true
+     */
+    public boolean isShardable() {
+        return false;
+    }
+
     /**
      * Set the current File that is being processed.  Called by FileConverterTask.execute().
      * @param currentFile the current File that is being processed
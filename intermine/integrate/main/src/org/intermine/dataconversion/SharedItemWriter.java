@@ -0,0 +1,108 @@
+package org.intermine.dataconversion;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collection;
+
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.Reference;
+import org.intermine.model.fulldata.ReferenceList;
+import org.intermine.objectstore.ObjectStoreException;
+
+/**
+ * An ItemWriter that lets several converters running in different threads store into one
+ * underlying ItemWriter.  Calls are synchronised on the underlying writer, and each converter is
+ * given its own SharedItemWriter with a different alias suffix, which DataConverter appends to
+ * the class aliases of the item identifiers it creates so that the converters can not create the
+ * same identifier.  Closing a SharedItemWriter does not close the underlying writer, which
+ * should be closed once all the converters have finished.
+ */
+public class SharedItemWriter implements ItemWriter
+{
+    private final ItemWriter writer;
+    private final String aliasSuffix;
+
+    /**
+     * Create a SharedItemWriter.
+     * @param writer the underlying ItemWriter
+     * @param aliasSuffix a suffix for class aliases, which must not contain an underscore, or an
+     * empty string for the identifiers that a converter would make on its own
+     */
+    public SharedItemWriter(ItemWriter writer, String aliasSuffix) {
+        if (aliasSuffix.indexOf('_') != -1) {
+            throw new IllegalArgumentException("Alias suffix must not contain '_': "
+                    + aliasSuffix);
+        }
+        this.writer = writer;
+        this.aliasSuffix = aliasSuffix;
+    }
+
+    /**
+     * Return the suffix that converters using this writer should add to class aliases.
+     * @return the suffix
+     */
+    public String getAliasSuffix() {
+        return aliasSuffix;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Integer store(Item item) throws ObjectStoreException {
+        synchronized (writer) {
+            return writer.store(item);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void store(ReferenceList refList, Integer itemId) throws ObjectStoreException {
+        synchronized (writer) {
+            writer.store(refList, itemId);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void store(Reference ref, Integer itemId) throws ObjectStoreException {
+        synchronized (writer) {
+            writer.store(ref, itemId);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void store(Attribute att, Integer itemId) throws ObjectStoreException {
+        synchronized (writer) {
+            writer.store(att, itemId);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void storeAll(Collection<Item> items) throws ObjectStoreException {
+        synchronized (writer) {
+            writer.storeAll(items);
+        }
+    }
+
+    /**
+     * Does nothing - the underlying writer is closed by its owner.
+     */
+    public void close() {
+        // empty
+    }
+}
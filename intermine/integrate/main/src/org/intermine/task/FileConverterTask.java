@@ -10,18 +10,38 @@ package org.intermine.task;
  *
  */
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.reflect.Constructor;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.log4j.Logger;
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.DirectoryScanner;
 import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.bzip2.CBZip2InputStream;
 import org.intermine.dataconversion.FileConverter;
 import org.intermine.dataconversion.ItemWriter;
 import org.intermine.dataconversion.ObjectStoreItemWriter;
+import org.intermine.dataconversion.SharedItemWriter;
 import org.intermine.metadata.Model;
 import org.intermine.objectstore.ObjectStoreWriter;
 import org.intermine.objectstore.ObjectStoreWriterFactory;
@@ -29,6 +49,10 @@ import org.intermine.objectstore.ObjectStoreWriterFactory;
 /**
  * Initiates retrieval and conversion of data from a source file.
  *
+ * Files ending in .gz or .bz2 are decompressed as they are read.  If the threads attribute is
+ * more than one and the converter says it is shardable, the files are divided between that many
+ * instances of the converter running in parallel, all storing into the same items database.
+ *
  * @author Andrew Varley
  * @author Mark Woodbridge
  * @author Richard Smith
@@ -39,8 +63,11 @@ public class FileConverterTask extends ConverterTask
 {
     protected static final Logger LOG = Logger.getLogger(FileConverterTask.class);
 
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
     protected FileSet fileSet;
     protected String clsName;
+    protected int threads = 1;
 
     /**
      * Set the source specific subclass of FileConverter to run
@@ -50,6 +77,15 @@ public class FileConverterTask extends ConverterTask
         this.clsName = clsName;
     }
 
+    /**
+     * Set the number of files to convert at once, if the converter is shardable.  The default is
+     * one.
+     * @param threads the number of converter instances to run
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
     /**
      * Set the data fileset
      * @param fileSet the fileset
@@ -93,37 +129,16 @@ public class FileConverterTask extends ConverterTask
                                              + "of org.intermine.dataconversion.FileConverter.");
             }
 
-            Constructor<?> m = c.getConstructor(new Class[] {ItemWriter.class, Model.class});
-            FileConverter converter =
-                (FileConverter) m.newInstance(new Object[] {writer, model});
-
-            configureDynamicAttributes(converter);
-
             DirectoryScanner ds = fileSet.getDirectoryScanner(getProject());
             String[] files = ds.getIncludedFiles();
             if (files.length == 0) {
                 throw new BuildException("No files found in: " + fileSet.getDir(getProject()));
             }
+            List<File> fileList = new ArrayList<File>();
             for (int i = 0; i < files.length; i++) {
-                File f = new File(ds.getBasedir(), files[i]);
-                System.err .println("Processing file: " + f.getPath());
-                converter.setCurrentFile(f);
-                FileReader fr = null;
-                BufferedReader br = null;
-                try {
-                    fr = new FileReader(f);
-                    br = new BufferedReader(fr);
-                    converter.process(br);
-                } finally {
-                    if (br != null) {
-                        br.close();
-                    }
-                    if (fr != null) {
-                        fr.close();
-                    }
-                }
+                fileList.add(new File(ds.getBasedir(), files[i]));
             }
-            converter.close();
+            convertFiles(c, writer, model, fileList);
         } catch (Exception e) {
             throw new BuildException(e);
         } finally {
@@ -147,4 +162,135 @@ public class FileConverterTask extends ConverterTask
         }
     }
 
+    /**
+     * Convert some files with the given converter class, dividing them between several instances
+     * of the converter if the threads attribute is more than one and the converter is shardable.
+     * @param c the FileConverter subclass
+     * @param writer the ItemWriter to store the items in
+     * @param model the data model
+     * @param fileList the files to convert
+     * @throws Exception if a converter fails
+     */
+    protected void convertFiles(Class<?> c, ItemWriter writer, Model model, List<File> fileList)
+        throws Exception {
+        // Give the first converter a SharedItemWriter too, in case it turns out to be
+        // shardable, but with no alias suffix so that its identifiers are as usual
+        FileConverter converter = newConverter(c, (threads > 1)
+                ? new SharedItemWriter(writer, "") : writer, model);
+        if (threads > 1 && fileList.size() > 1 && converter.isShardable()) {
+            processConcurrently(converter, c, writer, model, fileList);
+        } else {
+            for (File f : fileList) {
+                processFile(converter, f);
+            }
+            converter.close();
+        }
+    }
+
+    private FileConverter newConverter(Class<?> c, ItemWriter writer, Model model)
+        throws Exception {
+        Constructor<?> m = c.getConstructor(new Class[] {ItemWriter.class, Model.class});
+        FileConverter converter = (FileConverter) m.newInstance(new Object[] {writer, model});
+        configureDynamicAttributes(converter);
+        return converter;
+    }
+
+    private void processFile(FileConverter converter, File f) throws Exception {
+        System.err .println("Processing file: " + f.getPath());
+        converter.setCurrentFile(f);
+        Reader reader = openReader(f);
+        try {
+            converter.process(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Divide the files between threads instances of the converter.  Each instance takes the next
+     * unprocessed file when it finishes one, starting with the largest files.
+     */
+    private void processConcurrently(FileConverter first, Class<?> c, ItemWriter writer,
+            Model model, List<File> files) throws Exception {
+        int count = Math.min(threads, files.size());
+        final List<File> queue = new ArrayList<File>(files);
+        Collections.sort(queue, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long l1 = f1.length();
+                long l2 = f2.length();
+                return (l1 > l2) ? -1 : ((l1 == l2) ? 0 : 1);
+            }
+        });
+        List<FileConverter> converters = new ArrayList<FileConverter>();
+        converters.add(first);
+        for (int i = 1; i < count; i++) {
+            converters.add(newConverter(c, new SharedItemWriter(writer, "s" + i), model));
+        }
+        System.err .println("Converting " + queue.size() + " files with " + count + " threads");
+
+        final AtomicInteger next = new AtomicInteger(0);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final ClassLoader loader = getClass().getClassLoader();
+        ExecutorService pool = Executors.newFixedThreadPool(count);
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (final FileConverter converter : converters) {
+                futures.add(pool.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        Thread.currentThread().setContextClassLoader(loader);
+                        try {
+                            int i;
+                            while (!failed.get() && (i = next.getAndIncrement()) < queue.size()) {
+                                processFile(converter, queue.get(i));
+                            }
+                            converter.close();
+                        } catch (Exception e) {
+                            failed.set(true);
+                            throw e;
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw new BuildException(e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Open a file for a converter to read, decompressing it if its name ends in .gz or .bz2.
+     * @param f the file
+     * @return a buffered Reader
+     * @throws IOException if the file can't be opened
+     */
+    protected static Reader openReader(File f) throws IOException {
+        InputStream in = new BufferedInputStream(Channels.newInputStream(
+                    new FileInputStream(f).getChannel()), BUFFER_SIZE);
+        try {
+            String name = f.getName().toLowerCase();
+            if (name.endsWith(".gz")) {
+                in = new GZIPInputStream(in, BUFFER_SIZE);
+            } else if (name.endsWith(".bz2")) {
+                // CBZip2InputStream expects the "BZ" signature to have been read already
+                if (in.read() != 'B' || in.read() != 'Z') {
+                    throw new IOException("Not a bzip2 file: " + f);
+                }
+                in = new CBZip2InputStream(in);
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new BufferedReader(new InputStreamReader(in), BUFFER_SIZE);
+    }
 }
@@ -0,0 +1,275 @@
+package org.intermine.task;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.bzip2.CBZip2OutputStream;
+import org.intermine.dataconversion.FileConverter;
+import org.intermine.dataconversion.ItemWriter;
+import org.intermine.dataconversion.MockItemWriter;
+import org.intermine.dataconversion.SharedItemWriter;
+import org.intermine.metadata.Model;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.Reference;
+
+public class FileConverterTaskTest extends TestCase
+{
+    private static final String CONTENT = "line one\nline two\n";
+    private File dir;
+
+    public FileConverterTaskTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        dir = File.createTempFile("converter-test", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    public void tearDown() throws Exception {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private String read(File f) throws Exception {
+        Reader reader = FileConverterTask.openReader(f);
+        try {
+            BufferedReader br = (BufferedReader) reader;
+            StringBuffer sb = new StringBuffer();
+            String line;
+            while ((line = br.readLine()) != null) {
+                sb.append(line).append("\n");
+            }
+            return sb.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testOpenPlain() throws Exception {
+        File f = new File(dir, "data.txt");
+        OutputStream out = new FileOutputStream(f);
+        out.write(CONTENT.getBytes());
+        out.close();
+        assertEquals(CONTENT, read(f));
+    }
+
+    public void testOpenGzip() throws Exception {
+        File f = new File(dir, "data.txt.gz");
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(f));
+        out.write(CONTENT.getBytes());
+        out.close();
+        assertEquals(CONTENT, read(f));
+    }
+
+    public void testOpenBzip2() throws Exception {
+        File f = new File(dir, "data.txt.bz2");
+        OutputStream out = new FileOutputStream(f);
+        out.write('B');
+        out.write('Z');
+        out = new CBZip2OutputStream(out);
+        out.write(CONTENT.getBytes());
+        out.close();
+        assertEquals(CONTENT, read(f));
+    }
+
+    public void testSharedItemWriterAliases() throws Exception {
+        Model model = Model.getInstanceByName("testmodel");
+        ItemWriter writer = new MockItemWriter(new HashMap());
+        FileConverter first = new TestConverter(new SharedItemWriter(writer, ""), model);
+        FileConverter second = new TestConverter(new SharedItemWriter(writer, "s1"), model);
+        assertEquals("0_1", first.createItem("Company").getIdentifier());
+        assertEquals("0s1_1", second.createItem("Company").getIdentifier());
+        assertEquals("1s1_1", second.createItem("Employee").getIdentifier());
+        try {
+            new SharedItemWriter(writer, "s_1");
+            fail("Expected an exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testConvertConcurrently() throws Exception {
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < 5; i++) {
+            File f = new File(dir, "companies" + i + ".txt");
+            Writer out = new FileWriter(f);
+            for (int j = 0; j < 4; j++) {
+                out.write("Company" + i + "." + j + "\t" + j + " High Street\n");
+            }
+            out.close();
+            files.add(f);
+        }
+        Map<String, Item> serialItems = new HashMap<String, Item>();
+        Set<String> serial = convert(1, files, serialItems);
+        Map<String, Item> parallelItems = new HashMap<String, Item>();
+        Set<String> parallel = convert(3, files, parallelItems);
+
+        // 20 companies, 4 distinct addresses and the bank
+        assertEquals(25, serial.size());
+        assertEquals(serial, parallel);
+        // The shared bank is made once per converter instance, to be merged when loaded
+        assertEquals(1, count(serialItems, "Bank"));
+        assertEquals(3, count(parallelItems, "Bank"));
+    }
+
+    public void testNotShardable() throws Exception {
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < 3; i++) {
+            File f = new File(dir, "data" + i + ".txt");
+            Writer out = new FileWriter(f);
+            out.write("line\n");
+            out.close();
+            files.add(f);
+        }
+        FileConverterTask task = new FileConverterTask();
+        task.setProject(new Project());
+        task.setThreads(3);
+        Map<String, Item> items = new HashMap<String, Item>();
+        task.convertFiles(CountingConverter.class, new MockItemWriter(items),
+                Model.getInstanceByName("testmodel"), files);
+        // One converter saw every file
+        assertEquals(1, items.size());
+        assertEquals("Bank{name=3}", describe(items.values().iterator().next(), items));
+    }
+
+    private Set<String> convert(int threads, List<File> files, Map<String, Item> items)
+        throws Exception {
+        FileConverterTask task = new FileConverterTask();
+        task.setProject(new Project());
+        task.setThreads(threads);
+        task.convertFiles(ShardableConverter.class, new MockItemWriter(items),
+                Model.getInstanceByName("testmodel"), files);
+        Set<String> retval = new HashSet<String>();
+        for (Item item : items.values()) {
+            retval.add(describe(item, items));
+        }
+        return retval;
+    }
+
+    private int count(Map<String, Item> items, String className) {
+        int count = 0;
+        for (Item item : items.values()) {
+            if (item.getClassName().equals(className)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Describe an item by its class, attributes and the items it refers to, but not its
+     * identifier, which depends on which converter instance made it.
+     */
+    private String describe(Item item, Map<String, Item> items) {
+        Map<String, String> fields = new TreeMap<String, String>();
+        for (Attribute att : item.getAttributes()) {
+            fields.put(att.getName(), att.getValue());
+        }
+        for (Reference ref : item.getReferences()) {
+            fields.put(ref.getName(), "[" + describe(items.get(ref.getRefId()), items) + "]");
+        }
+        return item.getClassName() + fields;
+    }
+
+    /**
+     * Makes a Company with an Address for each line, and one Bank for all of them.
+     */
+    public static class ShardableConverter extends FileConverter
+    {
+        private org.intermine.xml.full.Item bank;
+
+        public ShardableConverter(ItemWriter writer, Model model) throws Exception {
+            super(writer, model);
+            // Made on construction, as BioFileConverter makes its DataSet
+            bank = createItem("Bank");
+            bank.setAttribute("name", "The Bank");
+            store(bank);
+        }
+
+        @Override
+        public boolean isShardable() {
+            return true;
+        }
+
+        public void process(Reader reader) throws Exception {
+            BufferedReader br = new BufferedReader(reader);
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] fields = line.split("\t");
+                org.intermine.xml.full.Item address = createItem("Address");
+                address.setAttribute("address", fields[1]);
+                store(address);
+                org.intermine.xml.full.Item company = createItem("Company");
+                company.setAttribute("name", fields[0]);
+                company.setReference("address", address);
+                company.setReference("bank", bank);
+                store(company);
+            }
+        }
+    }
+
+    /**
+     * Counts the files it is given, storing the count when closed.
+     */
+    public static class CountingConverter extends FileConverter
+    {
+        private int files = 0;
+
+        public CountingConverter(ItemWriter writer, Model model) {
+            super(writer, model);
+        }
+
+        public void process(Reader reader) {
+            files++;
+        }
+
+        @Override
+        public void close() throws Exception {
+            org.intermine.xml.full.Item bank = createItem("Bank");
+            bank.setAttribute("name", Integer.toString(files));
+            store(bank);
+        }
+    }
+
+    private static class TestConverter extends FileConverter
+    {
+        public TestConverter(ItemWriter writer, Model model) {
+            super(writer, model);
+        }
+
+        public void process(Reader reader) {
+            // empty
+        }
+    }
+}
@@ -118,6 +118,11 @@ public final class MetadataManager
      */
     public static final String MODMINE_METADATA_CACHE = "modMine_metadata_cache";
 
+    /**
+     * The name of the key used to store the index of interactions between genes
+     */
+    public static final String INTERACTION_INDEX = "interaction_index";
+
     /**
      * The name of the key used to store the serial number identifying the production db
      */
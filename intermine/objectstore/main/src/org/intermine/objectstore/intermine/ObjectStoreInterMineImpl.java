@@ -54,9 +54,11 @@ import org.intermine.objectstore.query.ConstraintOp;
 import org.intermine.objectstore.query.ConstraintSet;
 import org.intermine.objectstore.query.ConstraintTraverseAction;
 import org.intermine.objectstore.query.ConstraintWithBag;
+import org.intermine.objectstore.query.ContinuationToken;
 import org.intermine.objectstore.query.FromElement;
 import org.intermine.objectstore.query.MultipleInBagConstraint;
 import org.intermine.objectstore.query.OrderDescending;
+import org.intermine.objectstore.query.PrefetchManager;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryClassBag;
@@ -83,8 +85,10 @@ import org.intermine.sql.precompute.PrecomputedTable;
 import org.intermine.sql.precompute.PrecomputedTableManager;
 import org.intermine.sql.precompute.QueryOptimiser;
 import org.intermine.sql.precompute.QueryOptimiserContext;
+import org.intermine.sql.query.AbstractValue;
 import org.intermine.sql.query.ExplainResult;
 import org.intermine.sql.query.PostgresExplainResult;
+import org.intermine.sql.query.SelectValue;
 import org.intermine.sql.writebatch.Batch;
 import org.intermine.sql.writebatch.BatchWriterPostgresCopyImpl;
 import org.intermine.util.CacheMap;
@@ -123,6 +127,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     protected long statsEstTime = 0;
     protected long statsExeTime = 0;
     protected long statsConTime = 0;
+    protected int statsCounts = 0;
     protected QueryOptimiserContext limitedContext;
     protected boolean verboseQueryLog = false;
     protected boolean logBeforeExecute = false;
@@ -131,6 +136,8 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     protected static final int SEQUENCE_MULTIPLE = 1000000;
     protected boolean logExplains = false;
     protected boolean disableResultsCache = false;
+    // count results estimated to have no more than this many rows along with their first batch
+    protected int countWithFirstBatch = DEFAULT_COUNT_WITH_FIRST_BATCH;
 
     // don't use a table to represent bags if the bag is smaller than this value
     protected int minBagTableSize = -1;
@@ -173,6 +180,10 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     public static final String CLOBPAGE_COLUMN = "clobpage";
     /** The name of the value column in the clob table. */
     public static final String CLOBVAL_COLUMN = "value";
+    /** The default largest estimated size of results that are counted with their first batch. */
+    public static final int DEFAULT_COUNT_WITH_FIRST_BATCH = 100000;
+    /** The name of the column holding the size of the results, when counted with a batch. */
+    protected static final String COUNT_COLUMN = "im_count_";
 
     /**
      * Constructs an ObjectStoreInterMineImpl - for use by the ObjectStoreWriter only!
@@ -338,6 +349,8 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         String logExplainsString = props.getProperty("logExplains");
         String logBeforeExecuteString = props.getProperty("logBeforeExecute");
         String disableResultsCacheString = props.getProperty("disableResultsCache");
+        String prefetchThreadsString = props.getProperty("prefetchThreads");
+        String countWithFirstBatchString = props.getProperty("countWithFirstBatch");
 
         synchronized (instances) {
             ObjectStoreInterMineImpl os = instances.get(osAlias);
@@ -494,6 +507,21 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 if ("true".equals(disableResultsCacheString)) {
                     os.setDisableResultsCache(true);
                 }
+                if (countWithFirstBatchString != null) {
+                    try {
+                        os.setCountWithFirstBatch(Integer.parseInt(countWithFirstBatchString));
+                    } catch (NumberFormatException e) {
+                        LOG.warn("Error setting countWithFirstBatch: " + e);
+                    }
+                }
+                if (prefetchThreadsString != null) {
+                    try {
+                        PrefetchManager.setMaxServiceThreads(Integer.parseInt(
+                                    prefetchThreadsString));
+                    } catch (IllegalArgumentException e) {
+                        LOG.warn("Error setting prefetchThreads: " + e);
+                    }
+                }
                 instances.put(osAlias, os);
             }
             return os;
@@ -642,6 +670,26 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         return disableResultsCache;
     }
 
+    /**
+     * Sets the countWithFirstBatch configuration option. Results that EXPLAIN estimates to have no
+     * more rows than this are counted in the same statement as their first batch, so a later
+     * size() doesn't need to run a separate count. Zero switches this off.
+     *
+     * @param countWithFirstBatch an int
+     */
+    public void setCountWithFirstBatch(int countWithFirstBatch) {
+        this.countWithFirstBatch = countWithFirstBatch;
+    }
+
+    /**
+     * Gets the countWithFirstBatch configuration option.
+     *
+     * @return an int
+     */
+    public int getCountWithFirstBatch() {
+        return countWithFirstBatch;
+    }
+
     /**
      * Allows the log table to be flushed, guaranteeing that all log entries are committed to the
      * database.
@@ -994,6 +1042,40 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         }
     }
 
+    /**
+     * Execute a Query on this ObjectStore, returning a page of results that starts at a
+     * ContinuationToken. If the token holds a value of the first ORDER BY element, the page is
+     * fetched by constraining the query to rows after that value and skipping the few rows after
+     * it, rather than with an OFFSET of every row before the page.
+     *
+     * @param q the Query to execute
+     * @param from the ContinuationToken to start from
+     * @param limit the maximum number of rows to return
+     * @param optimise true if it is expected that optimising the query will improve performance
+     * @param explain true if the ObjectStore should enforce maximum query running time constraints
+     * @param sequence an object representing the state of the database corresponding to when the
+     * action that resulted in this execute was started
+     * @return a List of ResultsRows
+     * @throws ObjectStoreException if an error occurs during the running of the Query
+     */
+    public List<ResultsRow<Object>> execute(Query q, ContinuationToken from, int limit,
+            boolean optimise, boolean explain, Map<Object, Integer> sequence)
+        throws ObjectStoreException {
+        if (from.getValue() == null) {
+            return execute(q, from.getRow(), limit, optimise, explain, sequence);
+        }
+        Connection c = null;
+        try {
+            c = getConnection();
+            return executeWithConnection(c, q, from.getRow(), limit, optimise, explain, sequence,
+                    null, null, from);
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Could not get connection to database", e);
+        } finally {
+            releaseConnection(c);
+        }
+    }
+
     /**
      * Overrides Object.finalize - release the DB log connection.
      *
@@ -1029,7 +1111,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 + ", time spent: Bag Tables: " + statsBagTableTime + ", SQL Gen: " + statsGenTime
                 + ", SQL Optimise: " + statsOptTime + ", Estimate: "
                 + statsEstTime + ", Execute: " + statsExeTime + ", Results Convert: "
-                + statsConTime);
+                + statsConTime + ", counts run: " + statsCounts);
         flushLogTable();
         Connection c = null;
         try {
@@ -1109,8 +1191,34 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
             int limit, boolean optimise, boolean explain, Map<Object, Integer> sequence,
             Set<PrecomputedTable> goFasterTables, OptimiserCache goFasterCache)
         throws ObjectStoreException {
+        return executeWithConnection(c, q, start, limit, optimise, explain, sequence,
+                goFasterTables, goFasterCache, null);
+    }
+
+    /**
+     * Performs the actual execute, given a Connection.
+     *
+     * @param c the Connection
+     * @param q the Query
+     * @param start the start row number (inclusive, from zero)
+     * @param limit maximum number of rows to return
+     * @param optimise boolean
+     * @param explain boolean
+     * @param sequence object representing database state
+     * @param goFasterTables a Set of PrecomputedTables that can help with the query
+     * @param goFasterCache an OptimiserCache that can help with the query
+     * @param from a ContinuationToken holding a value of the first ORDER BY element to start
+     * after, at row start, or null to use an offset of start
+     * @return a List of ResultRow objects
+     * @throws ObjectStoreException sometimes
+     */
+    protected List<ResultsRow<Object>> executeWithConnection(Connection c, Query q, int start,
+            int limit, boolean optimise, boolean explain, Map<Object, Integer> sequence,
+            Set<PrecomputedTable> goFasterTables, OptimiserCache goFasterCache,
+            ContinuationToken from)
+        throws ObjectStoreException {
         if (explain) {
-            checkStartLimit(start, limit, q);
+            checkStartLimit(from == null ? start : from.getSkip(), limit, q);
         }
         checkSequence(sequence, q, "Execute (START " + start + " LIMIT " + limit + ") ");
 
@@ -1121,8 +1229,21 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         }
         long preGenTime = System.currentTimeMillis();
         String sql;
+        List<ResultsBatches> toCount = Collections.emptyList();
         try {
-            sql = SqlGenerator.generate(q, start, limit, schema, db, bagConstraintTables);
+            if ((start == 0) && (from == null) && explain && (limit != Integer.MAX_VALUE)) {
+                toCount = getResultsBatchesToCount(q);
+            }
+            if (!toCount.isEmpty()) {
+                // the limit is added after optimisation, outside the count
+                sql = SqlGenerator.generate(q, 0, Integer.MAX_VALUE, schema, db,
+                        bagConstraintTables);
+            } else if (from == null) {
+                sql = SqlGenerator.generate(q, start, limit, schema, db, bagConstraintTables);
+            } else {
+                sql = SqlGenerator.generate(q, from.getValue(), from.getSkip(), limit, schema, db,
+                        bagConstraintTables);
+            }
         } catch (CompletelyFalseException e) {
             return Collections.emptyList();
         }
@@ -1153,6 +1274,25 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                     explainResult = ((BestQueryExplainer) bestQuery).getBestExplainResult();
                 }
             }
+            if (!toCount.isEmpty()) {
+                // The whole results are explained once. That decides whether to count them, and
+                // is the estimate for the counting statement, which has to produce every row.
+                if (explainResult == null) {
+                    explainResult = ExplainResult.getInstance(sql, c);
+                }
+                String countSql = null;
+                if ((explainResult.getEstimatedRows() <= countWithFirstBatch)
+                        && (explainResult.getTime() <= getMaxTime())) {
+                    countSql = generateCountWithBatchSql(sql, limit);
+                }
+                if (countSql == null) {
+                    toCount = Collections.emptyList();
+                    sql = sql + " LIMIT " + limit;
+                    explainResult = null;
+                } else {
+                    sql = countSql;
+                }
+            }
             long endOptimiseTime = System.currentTimeMillis();
             if (explain) {
                 //System//.out.println(getModel().getName() + ": Executing SQL: EXPLAIN " + sql);
@@ -1182,7 +1322,10 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                         + "optimised sql: " + sql);
             }
             long preExecute = System.currentTimeMillis();
-            Statement s = c.createStatement();
+            // The count is read from the first row, so the rows must be read twice
+            Statement s = (toCount.isEmpty() ? c.createStatement()
+                    : c.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE,
+                        ResultSet.CONCUR_READ_ONLY));
             registerStatement(s);
             ResultSet sqlResults;
             try {
@@ -1190,6 +1333,16 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
             } finally {
                 deregisterStatement(s);
             }
+            if (!toCount.isEmpty()) {
+                int size = 0;
+                if (sqlResults.next()) {
+                    size = sqlResults.getInt(COUNT_COLUMN);
+                    sqlResults.beforeFirst();
+                }
+                for (ResultsBatches batches : toCount) {
+                    batches.setSize(size);
+                }
+            }
             long postExecute = System.currentTimeMillis();
             ExtraQueryTime extra = new ExtraQueryTime();
             List<ResultsRow<Object>>  objResults = ResultsConverter.convert(sqlResults, q, this, c,
@@ -1298,6 +1451,106 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         }
     }
 
+    /**
+     * Returns the cached ResultsBatches for a query that are still current and don't know their
+     * size yet, which may be counted along with their first batch.
+     *
+     * @param q the Query
+     * @return a List of ResultsBatches, empty if the results shouldn't be counted
+     */
+    private List<ResultsBatches> getResultsBatchesToCount(Query q) {
+        if ((countWithFirstBatch <= 0) || q.getFrom().isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<ResultsBatches> toCount = new ArrayList<ResultsBatches>();
+        for (ResultsBatches batches : getCurrentResultsBatches(q)) {
+            if (batches.getMinSize() != batches.getMaxSize()) {
+                toCount.add(batches);
+            }
+        }
+        return toCount;
+    }
+
+    /**
+     * Wraps the SQL for the whole results of a query so that it returns the first rows along with
+     * the number of rows in the whole results, in a column named COUNT_COLUMN. The ordering of a
+     * subquery is not kept by the query around it, so the ORDER BY is moved to the outside,
+     * referring to the columns of the subquery. Anything the SQL is ordered by that isn't in its
+     * SELECT list is added to it.
+     *
+     * @param sql the SQL for all the results of a query, without LIMIT or OFFSET
+     * @param limit the number of rows to return
+     * @return a String of SQL, or null if the SQL can't be counted this way
+     */
+    protected static String generateCountWithBatchSql(String sql, int limit) {
+        org.intermine.sql.query.Query parsed;
+        try {
+            parsed = new org.intermine.sql.query.Query(sql);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Could not parse SQL to count with first batch: " + sql, e);
+            return null;
+        }
+        if ((parsed.getUnion().size() > 1) || (parsed.getLimit() != 0)) {
+            return null;
+        }
+        StringBuffer orderBy = new StringBuffer();
+        int extra = 0;
+        for (AbstractValue value : parsed.getOrderBy()) {
+            boolean desc = false;
+            if (value instanceof org.intermine.sql.query.OrderDescending) {
+                desc = true;
+                value = ((org.intermine.sql.query.OrderDescending) value).getValue();
+            }
+            String alias = null;
+            for (SelectValue selectValue : parsed.getSelect()) {
+                if (selectValue.getValue().equals(value)) {
+                    alias = selectValue.getAlias();
+                    break;
+                }
+            }
+            if (alias == null) {
+                if (parsed.isDistinct()) {
+                    // Adding to the SELECT list could change the number of rows
+                    return null;
+                }
+                alias = "im_order" + (extra++) + "_";
+                parsed.addSelect(new SelectValue(value, alias));
+            }
+            orderBy.append(orderBy.length() == 0 ? " ORDER BY " : ", ")
+                .append(alias)
+                .append(desc ? " DESC" : "");
+        }
+        parsed.getOrderBy().clear();
+        return "SELECT *, COUNT(*) OVER () AS " + COUNT_COLUMN + " FROM ("
+            + parsed.getSQLString() + ") AS fake_table" + orderBy + " LIMIT " + limit;
+    }
+
+    /**
+     * Returns the cached ResultsBatches for a query that are still current.
+     *
+     * @param q the Query
+     * @return a List of ResultsBatches
+     */
+    private List<ResultsBatches> getCurrentResultsBatches(Query q) {
+        List<ResultsBatches> retval = new ArrayList<ResultsBatches>();
+        synchronized (batchesCache) {
+            Map<Integer, ResultsBatches> batches = batchesCache.get(q.toString());
+            if (batches != null) {
+                for (ResultsBatches candidate : batches.values()) {
+                    if (candidate != null) {
+                        try {
+                            checkSequence(candidate.getSequence(), null, null);
+                            retval.add(candidate);
+                        } catch (DataChangedException e) {
+                            // The data has changed since these results were made
+                        }
+                    }
+                }
+            }
+        }
+        return retval;
+    }
+
     /**
      * Generate sql from a Query
      *
@@ -1592,6 +1845,13 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
      * {@inheritDoc}
      */
     public int count(Query q, Map<Object, Integer> sequence) throws ObjectStoreException {
+        checkSequence(sequence, q, "COUNT ");
+        // The results may have been counted along with their first batch already
+        for (ResultsBatches batches : getCurrentResultsBatches(q)) {
+            if (batches.getMinSize() == batches.getMaxSize()) {
+                return batches.getMaxSize();
+            }
+        }
         Connection c = null;
         try {
             c = getConnection();
@@ -1631,6 +1891,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 }
                 sql = "SELECT COUNT(*) FROM (" + sql + ") as fake_table";
             }
+            statsCounts++;
             //long time = (new Date()).getTime();
             ResultSet sqlResults;
             Statement s = c.createStatement();
@@ -403,6 +403,37 @@ public final class SqlGenerator
         }
     }
 
+    /**
+     * Converts a Query object into an SQL String for a page of results that starts a few rows
+     * after a known value of the first ORDER BY element, as held in a ContinuationToken. Unlike
+     * the offsets registered with registerOffset(), this does not depend on anything remembered
+     * about the query.
+     *
+     * @param q the Query to convert
+     * @param value a value, such that adding a WHERE component first_order_field &gt; value with
+     *        OFFSET skip returns the rows of the page
+     * @param skip the number of rows after the value to skip
+     * @param limit the maximum number of rows for the query to return
+     * @param schema the DatabaseSchema in which to look up metadata
+     * @param db the Database that the ObjectStore uses
+     * @param bagTableNames a Map from BagConstraints to table names, where the table contains the
+     *        contents of the bag that are relevant for the BagConstraint
+     * @return a String suitable for passing to an SQL server
+     * @throws ObjectStoreException if something goes wrong
+     */
+    public static String generate(Query q, Object value, int skip, int limit,
+            DatabaseSchema schema, Database db,
+            Map<Object, String> bagTableNames) throws ObjectStoreException {
+        synchronized (q) {
+            QueryOrderable firstOrderBy = (QueryOrderable) q.getEffectiveOrderBy().iterator()
+                .next();
+            Constraint offsetConstraint = getOffsetConstraint(q, firstOrderBy, value, schema);
+            String sql = generate(q, schema, db, offsetConstraint, QUERY_NORMAL, bagTableNames);
+            return sql + ((limit == Integer.MAX_VALUE ? "" : " LIMIT " + limit)
+                        + (skip == 0 ? "" : " OFFSET " + skip));
+        }
+    }
+
     /**
      * Returns a cache specific to a particular DatabaseSchema.
      *
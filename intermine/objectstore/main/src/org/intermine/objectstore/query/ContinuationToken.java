@@ -0,0 +1,342 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.intermine.model.InterMineObject;
+
+/**
+ * A position in the results of a query, that a page of results can be fetched from without
+ * counting through all the rows before it. As well as the row number, the token holds the value
+ * of the first ORDER BY element of a row shortly before the position, so the ObjectStore can add a
+ * WHERE component that the first ORDER BY element is after that value, and skip only the few
+ * rows between that value and the position. Every page is then an index range scan, however deep
+ * it is, and the token can be handed to any ObjectStore with the same data, because it doesn't
+ * depend on anything remembered about earlier pages.
+ *
+ * Tokens are written as opaque strings, which start with "k". The token "k" on its own is the
+ * start of the results of any query.
+ */
+public final class ContinuationToken
+{
+    /** The token for the start of the results of any query */
+    public static final String FIRST = "k";
+    private static final String SEPARATOR = ":";
+    private static final char NO_VALUE = 'N';
+
+    private final int row;
+    private final int used;
+    private final Object value;
+    private final int skip;
+    private final int queryHash;
+
+    private ContinuationToken(int row, int used, Object value, int skip, int queryHash) {
+        this.row = row;
+        this.used = used;
+        this.value = value;
+        this.skip = skip;
+        this.queryHash = queryHash;
+    }
+
+    /**
+     * Returns the token for the start of the results of a query.
+     *
+     * @param q the Query
+     * @return a ContinuationToken
+     */
+    public static ContinuationToken first(Query q) {
+        return new ContinuationToken(0, 0, null, 0, hash(q));
+    }
+
+    /**
+     * Returns true if the given string looks like a continuation token rather than a row number.
+     *
+     * @param token a String, may be null
+     * @return a boolean
+     */
+    public static boolean isToken(String token) {
+        return (token != null) && token.startsWith(FIRST);
+    }
+
+    /**
+     * Reads a token written by toString().
+     *
+     * @param token the token String
+     * @param q the Query that the token will be used with
+     * @return a ContinuationToken
+     * @throws IllegalArgumentException if the token is not valid, or was made for a different query
+     */
+    public static ContinuationToken parse(String token, Query q) {
+        if (!isToken(token)) {
+            throw new IllegalArgumentException("Not a continuation token: " + token);
+        }
+        if (FIRST.equals(token)) {
+            return first(q);
+        }
+        String[] parts;
+        try {
+            parts = new String(fromHex(token.substring(FIRST.length())), "UTF-8")
+                .split(SEPARATOR, 5);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported", e);
+        }
+        if (parts.length != 5) {
+            throw new IllegalArgumentException("Invalid continuation token: " + token);
+        }
+        try {
+            int row = Integer.parseInt(parts[0]);
+            int used = Integer.parseInt(parts[1]);
+            int skip = Integer.parseInt(parts[2]);
+            int queryHash = Integer.parseInt(parts[3]);
+            if ((row < 0) || (used < 0) || (skip < 0) || (skip > row)) {
+                throw new IllegalArgumentException("Invalid continuation token: " + token);
+            }
+            if (queryHash != hash(q)) {
+                throw new IllegalArgumentException("Continuation token " + token
+                        + " was made for a different query");
+            }
+            return new ContinuationToken(row, used, decodeValue(parts[4]), skip, queryHash);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid continuation token: " + token, e);
+        }
+    }
+
+    /**
+     * Returns the number of the results row that this token is at, numbered from zero.
+     *
+     * @return an int
+     */
+    public int getRow() {
+        return row;
+    }
+
+    /**
+     * Returns the number of rows made from the results row at this position that the caller has
+     * already used. This is for callers that make several rows from each results row, like
+     * exports of outer joined collections, and is zero otherwise.
+     *
+     * @return an int
+     */
+    public int getUsed() {
+        return used;
+    }
+
+    /**
+     * Returns the value of the first ORDER BY element that all the rows from getRow() - getSkip()
+     * onwards come after, or null if there is no such value and the ObjectStore must use an
+     * OFFSET of getRow().
+     *
+     * @return a String, Number, or Date, or null
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the number of rows between the first row after getValue() and this position.
+     *
+     * @return an int
+     */
+    public int getSkip() {
+        return (value == null ? row : skip);
+    }
+
+    /**
+     * Returns the token for a position in a page of results that was fetched from this token.
+     *
+     * @param q the Query
+     * @param rows the page of results, starting at this token
+     * @param rowsUsed the number of results rows of the page that the caller has used up
+     * @param usedOfNext the number of rows made from the next results row that the caller has
+     * already used, including any used before this token if rowsUsed is zero
+     * @return a ContinuationToken
+     */
+    public ContinuationToken next(Query q, List<?> rows, int rowsUsed, int usedOfNext) {
+        if (rowsUsed > rows.size()) {
+            throw new IllegalArgumentException("Only " + rows.size() + " rows were fetched, but "
+                    + rowsUsed + " were used");
+        }
+        Object newValue = value;
+        int newSkip = skip + rowsUsed;
+        int colNo = getOrderByColumn(q);
+        if ((colNo != -1) && (rowsUsed > 1)) {
+            // Find the last change in the value of the first ORDER BY element, in the same way as
+            // ObjectStoreInterMineImpl does for SqlGenerator.registerOffset()
+            Object lastObj = getKey(((List<?>) rows.get(rowsUsed - 1)).get(colNo));
+            for (int rowNo = rowsUsed - 2; (lastObj != null) && (rowNo >= 0); rowNo--) {
+                Object thisObj = getKey(((List<?>) rows.get(rowNo)).get(colNo));
+                if ((thisObj != null) && !lastObj.equals(thisObj)) {
+                    if (encodeValue(thisObj) != null) {
+                        newValue = thisObj;
+                        newSkip = rowsUsed - rowNo - 1;
+                    }
+                    break;
+                }
+            }
+        }
+        return new ContinuationToken(row + rowsUsed, usedOfNext, newValue, newSkip, queryHash);
+    }
+
+    /**
+     * Returns the column of the select list that holds the first ORDER BY element of a query, if
+     * the results can be paged on its values.
+     *
+     * @param q the Query
+     * @return the column number, or -1 if the results can only be paged with an OFFSET
+     */
+    protected static int getOrderByColumn(Query q) {
+        Iterator<Object> orderByIter = q.getEffectiveOrderBy().iterator();
+        if (!orderByIter.hasNext()) {
+            return -1;
+        }
+        Object firstOrderBy = orderByIter.next();
+        if ((!(firstOrderBy instanceof QueryOrderable))
+                || (firstOrderBy instanceof QueryObjectReference)) {
+            return -1;
+        }
+        if (firstOrderBy instanceof OrderDescending) {
+            firstOrderBy = ((OrderDescending) firstOrderBy).getQueryOrderable();
+        }
+        if (firstOrderBy instanceof QueryFunction) {
+            return -1;
+        }
+        if ((firstOrderBy instanceof QueryClass) && (!InterMineObject.class
+                    .isAssignableFrom(((QueryClass) firstOrderBy).getType()))) {
+            return -1;
+        }
+        return q.getSelect().indexOf(firstOrderBy);
+    }
+
+    private static Object getKey(Object o) {
+        return (o instanceof InterMineObject ? ((InterMineObject) o).getId() : o);
+    }
+
+    private static int hash(Query q) {
+        return q.toString().hashCode();
+    }
+
+    private static String encodeValue(Object o) {
+        if (o instanceof String) {
+            return "S" + o;
+        } else if (o instanceof Integer) {
+            return "I" + o;
+        } else if (o instanceof Long) {
+            return "L" + o;
+        } else if (o instanceof Short) {
+            return "H" + o;
+        } else if (o instanceof Double) {
+            return "D" + o;
+        } else if (o instanceof Float) {
+            return "F" + o;
+        } else if (o instanceof BigDecimal) {
+            return "B" + o;
+        } else if (o instanceof Date) {
+            return "T" + ((Date) o).getTime();
+        }
+        // Booleans have too few values to be worth it, and other types can't be written
+        return null;
+    }
+
+    private static Object decodeValue(String s) {
+        if (s.length() == 0) {
+            throw new IllegalArgumentException("Missing value in continuation token");
+        }
+        String v = s.substring(1);
+        switch (s.charAt(0)) {
+            case NO_VALUE:
+                return null;
+            case 'S':
+                return v;
+            case 'I':
+                return Integer.valueOf(v);
+            case 'L':
+                return Long.valueOf(v);
+            case 'H':
+                return Short.valueOf(v);
+            case 'D':
+                return Double.valueOf(v);
+            case 'F':
+                return Float.valueOf(v);
+            case 'B':
+                return new BigDecimal(v);
+            case 'T':
+                return new Date(Long.parseLong(v));
+            default:
+                throw new IllegalArgumentException("Unknown value type in continuation token");
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] fromHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Invalid continuation token");
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if ((high == -1) || (low == -1)) {
+                throw new IllegalArgumentException("Invalid continuation token");
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the token as an opaque String, which can be read again with parse().
+     *
+     * @return a String
+     */
+    @Override
+    public String toString() {
+        String encodedValue = (value == null ? String.valueOf(NO_VALUE) : encodeValue(value));
+        String payload = row + SEPARATOR + used + SEPARATOR + skip + SEPARATOR + queryHash
+            + SEPARATOR + encodedValue;
+        try {
+            return FIRST + toHex(payload.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof ContinuationToken) {
+            return toString().equals(o.toString());
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
@@ -13,13 +13,24 @@ package org.intermine.objectstore.query;
 import org.apache.log4j.Logger;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.sql.Database;
 
 /**
  * A manager for the prefetch mechanism for the Results object.
  *
+ * The number of service threads, and therefore the number of database connections used for
+ * prefetching, is limited by a global budget, so that prefetching for exports cannot take all of
+ * the connections away from interactive queries. Pending requests beyond what the service threads
+ * can keep up with are dropped, furthest ahead first, and service threads take the request nearest
+ * to being read first. A thread that needs a batch that is still pending fetches it itself, so it
+ * never waits behind prefetches. Service threads take database connections for the same purpose
+ * as the thread that asked for the prefetch, so prefetching for an export counts against the
+ * export connections rather than the interactive ones.
+ *
  * @author Matthew Wakeling
  */
 public final class PrefetchManager
@@ -28,8 +39,9 @@ public final class PrefetchManager
     }
 
     private static final Logger LOG = Logger.getLogger(PrefetchManager.class);
-    /** Pending set of requests - always accessed inside a synchronise on sync. */
-    protected static Set<Request> pending = new HashSet<Request>();
+    /** Pending set of requests, in the order they were added - always accessed inside a
+     * synchronise on sync. */
+    protected static Set<Request> pending = new LinkedHashSet<Request>();
     /** Set of requests currently being serviced. This Set is not accessed inside a block
      * synchronised on any global object, so it must be able to handle concurrent access. */
     protected static Set<Request> serviced = Collections.synchronizedSet(new HashSet<Request>());
@@ -37,6 +49,17 @@ public final class PrefetchManager
     private static Object sync = new Object();
 
     protected static final int LOADING = 3;
+    /** The default maximum number of service threads */
+    public static final int DEFAULT_MAX_SERVICE_THREADS = 4;
+    private static int maxServiceThreads = DEFAULT_MAX_SERVICE_THREADS;
+
+    // Statistics, always accessed inside a synchronise on sync.
+    private static long requested = 0;
+    private static long dropped = 0;
+    private static long takenOver = 0;
+    private static long fetched = 0;
+    private static long useful = 0;
+    private static long wasted = 0;
 
     /*
      * This class provides methods for cancelling requests, so here is an explanation of how this
@@ -90,39 +113,55 @@ public final class PrefetchManager
      */
     public static void addRequest(ResultsBatches result, int batchNo, boolean optimise,
             boolean explain) {
-        Request request = new Request(result, batchNo, optimise, explain);
+        addRequest(result, batchNo, 1, optimise, explain);
+    }
+
+    /**
+     * Adds a request to the Set of pending requests, and wakes up a Thread to handle it. If there
+     * are already as many requests pending as the service threads can keep up with, then the
+     * request furthest ahead of being read is dropped.
+     *
+     * @param result a ResultsBatches object that is making the request
+     * @param batchNo the batch number to be fetched
+     * @param lookahead how many batches ahead of the batch being read this batch is
+     * @param optimise true if queries should be optimised
+     * @param explain true if this method should explain each query first
+     */
+    public static void addRequest(ResultsBatches result, int batchNo, int lookahead,
+            boolean optimise, boolean explain) {
+        Request request = new Request(result, batchNo, lookahead, optimise, explain);
+        request.purpose = Database.getThreadPurpose();
         synchronized (sync) {
             synchronized (result) {
                 // Synchronise on BOTH locks, so we can muck about with anything.
                 if (!result.batches.containsKey(new Integer(batchNo))) {
                     // The request has not been done.
-                    if (!serviced.contains(request)) {
-                        // And it isn't currently being serviced.
-                        //if (!pending.contains(request)) {
-                        //    LOG.debug("addRequest - adding request:                          "
-                        //            + request);
-                        //}
+                    if ((!serviced.contains(request)) && (!pending.contains(request))) {
+                        // And it isn't currently being serviced, or waiting to be.
+                        requested++;
                         pending.add(request);
                         if ((pending.size() + serviced.size()) > (serviceThreads * LOADING)) {
                             // There are too many requests for the servicing threads.
-                            Thread newThread = new ServiceThread();
-                            newThread.setDaemon(true);
-                            newThread.setName("PrefetchManager ServiceThread");
-                            newThread.start();
-                            serviceThreads++;
-                            LOG.info("addRequest - creating new ServiceThread. We now have "
-                                    + serviceThreads);
-                        } else {
-                            // There may or may not be a service thread waiting. If not, a service
-                            // thread will soon finish a request.
-                            sync.notify();
+                            if (serviceThreads < maxServiceThreads) {
+                                Thread newThread = new ServiceThread();
+                                newThread.setDaemon(true);
+                                newThread.setName("PrefetchManager ServiceThread");
+                                newThread.start();
+                                serviceThreads++;
+                                LOG.info("addRequest - creating new ServiceThread. We now have "
+                                        + serviceThreads);
+                            } else if (pending.size() > maxServiceThreads * LOADING) {
+                                // We can't have any more threads, so drop the request that is
+                                // least needed. If it is wanted after all, the thread that wants
+                                // it will fetch it itself.
+                                pending.remove(furthestAhead());
+                                dropped++;
+                            }
                         }
-                    //} else {
-                        //LOG.debug("addRequest - the request is currently being serviced: "
-                        //        + request);
+                        // There may or may not be a service thread waiting. If not, a service
+                        // thread will soon finish a request.
+                        sync.notify();
                     }
-                //} else {
-                    //LOG.debug("addRequest - the request has already been done:       " + request);
                 }
             }
         }
@@ -142,7 +181,7 @@ public final class PrefetchManager
      */
     public static List<Object> doRequest(ResultsBatches result, int batchNo, boolean optimise,
             boolean explain) throws ObjectStoreException {
-        return doRequest(new Request(result, batchNo, optimise, explain));
+        return doRequest(new Request(result, batchNo, 0, optimise, explain));
     }
 
     /**
@@ -180,6 +219,7 @@ public final class PrefetchManager
                     // The request is not being serviced. We take over.
                     serviced.add(request);
                     pending.remove(request);
+                    takenOver++;
                     //LOG.debug("doRequest - the request was pending:                  " + request);
                 } else if (serviced.contains(request)) {
                     // The request is being serviced. We just need to wait.
@@ -282,7 +322,7 @@ public final class PrefetchManager
             // Get a request from the pending set. We know there is something in there, because we
             // just got false from pending.isEmpty, and we have the lock on sync, and nothing
             // touches pending unless they have that lock.
-            retval = pending.iterator().next();
+            retval = nearest();
             //LOG.debug("getRequest - got request:                             " + retval);
             // Now we have a request, we could synchronise by its result - other things look
             // for the request in serviced - namely:
@@ -310,16 +350,125 @@ public final class PrefetchManager
         return retval;
     }
 
+    /**
+     * Returns the pending request that is the fewest batches ahead of being read, taking the
+     * earliest added of those that are equal. Must be called inside a synchronise on sync.
+     *
+     * @return a request from the pending set
+     */
+    private static Request nearest() {
+        Request retval = null;
+        for (Request request : pending) {
+            if ((retval == null) || (request.lookahead < retval.lookahead)) {
+                retval = request;
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the pending request that is the most batches ahead of being read, taking the
+     * latest added of those that are equal. Must be called inside a synchronise on sync.
+     *
+     * @return a request from the pending set
+     */
+    private static Request furthestAhead() {
+        Request retval = null;
+        for (Request request : pending) {
+            if ((retval == null) || (request.lookahead >= retval.lookahead)) {
+                retval = request;
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Records that a service thread has fetched a batch ahead of it being needed.
+     */
+    private static void reportFetched() {
+        synchronized (sync) {
+            fetched++;
+        }
+    }
+
+    /**
+     * Records that a batch fetched by a service thread has been read.
+     */
+    protected static void reportUseful() {
+        synchronized (sync) {
+            useful++;
+        }
+    }
+
+    /**
+     * Records that a batch fetched by a service thread was thrown away before it was read.
+     */
+    protected static void reportWasted() {
+        synchronized (sync) {
+            wasted++;
+        }
+    }
+
+    /**
+     * Sets the maximum number of service threads, which is the maximum number of database
+     * connections that prefetching will use at once. If there are already more threads than this,
+     * they carry on until the ObjectStore is shut down.
+     *
+     * @param max the maximum number of service threads
+     */
+    public static void setMaxServiceThreads(int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("max must be at least 1, was " + max);
+        }
+        synchronized (sync) {
+            maxServiceThreads = max;
+        }
+    }
+
+    /**
+     * Returns the maximum number of service threads.
+     *
+     * @return an int
+     */
+    public static int getMaxServiceThreads() {
+        synchronized (sync) {
+            return maxServiceThreads;
+        }
+    }
+
+    /**
+     * Returns a description of what the PrefetchManager has done so far. Useful prefetches are
+     * batches fetched ahead that were later read, and wasted ones were thrown away from the
+     * batch cache before they were read. Late ones were still waiting when they were needed, so
+     * the thread that needed them fetched them itself.
+     *
+     * @return a String
+     */
+    public static String getStatistics() {
+        synchronized (sync) {
+            return "PrefetchManager: " + serviceThreads + " of " + maxServiceThreads
+                + " service threads, " + pending.size() + " pending, " + serviced.size()
+                + " being fetched, " + requested + " requested, " + dropped + " dropped, "
+                + takenOver + " late, " + fetched + " fetched, " + useful + " useful, " + wasted
+                + " wasted";
+        }
+    }
+
     private static class Request
     {
         private ResultsBatches result;
         private int batchNo;
+        private int lookahead;
         private boolean optimise;
         private boolean explain;
+        // The connection purpose of the thread that asked for a prefetch
+        private String purpose = null;
 
-        public Request(ResultsBatches result, int batchNo, boolean optimise, boolean explain) {
+        public Request(ResultsBatches result, int batchNo, int lookahead, boolean optimise,
+                boolean explain) {
             this.result = result;
             this.batchNo = batchNo;
+            this.lookahead = lookahead;
             this.optimise = optimise;
             this.explain = explain;
         }
@@ -348,17 +497,29 @@ public final class PrefetchManager
                 while (true) {
                     Request request = PrefetchManager.getRequest();
                     //LOG.debug("ServiceThread.run - servicing request                 " + request);
+                    // Mark the batch as prefetched before it goes into the cache, so that a reader
+                    // that gets to it straight away still finds the mark.
+                    Integer key = new Integer(request.batchNo);
+                    request.result.prefetched.add(key);
+                    boolean fetched = false;
+                    Database.setThreadPurpose(request.purpose);
                     try {
                         // Now, we can service this request in a normal manner, outside all locks.
                         @SuppressWarnings("unused")
                         List<Object> batch = request.result.fetchBatchFromObjectStore(request
                                 .batchNo, request.optimise, request.explain);
+                        fetched = true;
+                        reportFetched();
                     } catch (Exception e) {
                         LOG.warn("ServiceThread.run - Received exception                " + request
                                 + " " + e);
                         // We don't care about any exception - we NEED this thread to keep running.
                         // Otherwise, things go pear-shaped.
                     } finally {
+                        Database.setThreadPurpose(null);
+                        if (!fetched) {
+                            request.result.prefetched.remove(key);
+                        }
                         // And then report that it is finished, inside a lock, even if we did get an
                         // exception.
                         reportDone(request);
@@ -49,10 +49,16 @@ public class Results extends AbstractList<Object> implements LazyCollection<Obje
     // Some prefetch stuff.
     protected int lastGet = -1;
     protected int sequential = 0;
+    protected int lookahead = 1;
     private static final int PREFETCH_SEQUENTIAL_THRESHOLD = 6;
+    private static final int MAX_LOOKAHEAD = 4;
     // Basically, this keeps a tally of how many times in a row accesses have been sequential.
-    // If sequential gets above a PREFETCH_SEQUENTIAL_THRESHOLD, then we prefetch the batch after
-    // the one we are currently using.
+    // If sequential gets above a PREFETCH_SEQUENTIAL_THRESHOLD, then we prefetch the lookahead
+    // batches after the one we are currently using. The lookahead starts at one, and grows each
+    // time the reader gets to a new batch before it has been fetched, so a reader that is faster
+    // than the database gets more batches fetched in parallel. It shrinks again when the batches
+    // are fetched well before they are needed, and goes back to one when the reads stop being
+    // sequential.
 
     /**
      * No argument constructor for testing purposes
@@ -190,6 +196,8 @@ public class Results extends AbstractList<Object> implements LazyCollection<Obje
 
         int startBatch = getBatchNoForRow(start);
         int endBatch = getBatchNoForRow(end);
+        boolean newBatch = (lastGet < 0) || (endBatch != getBatchNoForRow(lastGet));
+        boolean endBatchInMemory = newBatch && resultsBatches.isBatchInMemory(endBatch);
 
         List<Object> ret = new ArrayList<Object>();
         for (int i = startBatch; i <= endBatch; i++) {
@@ -198,15 +206,26 @@ public class Results extends AbstractList<Object> implements LazyCollection<Obje
 
         if (start - 1 == lastGet) {
             sequential += end - start + 1;
+            if (newBatch && (sequential > PREFETCH_SEQUENTIAL_THRESHOLD)) {
+                if (!endBatchInMemory) {
+                    lookahead = Math.min(lookahead + 1, MAX_LOOKAHEAD);
+                } else if ((lookahead > 1)
+                        && resultsBatches.isBatchInMemory(endBatch + lookahead - 1)) {
+                    lookahead--;
+                }
+            }
         } else {
             sequential = 0;
+            lookahead = 1;
         }
         if ((resultsBatches.getObjectStore() != null)
                 && prefetch
                 && resultsBatches.getObjectStore().isMultiConnection()
-                && (sequential > PREFETCH_SEQUENTIAL_THRESHOLD)
-                && (getBatchNoForRow(resultsBatches.getMaxSize()) > endBatch)) {
-            resultsBatches.prefetch(endBatch + 1, optimise, explain);
+                && (sequential > PREFETCH_SEQUENTIAL_THRESHOLD)) {
+            int lastBatch = getBatchNoForRow(resultsBatches.getMaxSize());
+            for (int i = 1; (i <= lookahead) && (endBatch + i <= lastBatch); i++) {
+                resultsBatches.prefetch(endBatch + i, i, optimise, explain);
+            }
         }
         lastGet = end;
 
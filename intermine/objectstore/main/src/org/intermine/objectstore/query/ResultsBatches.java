@@ -13,8 +13,10 @@ package org.intermine.objectstore.query;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.intermine.objectstore.DataChangedException;
 import org.intermine.objectstore.ObjectStore;
@@ -44,9 +46,19 @@ public class ResultsBatches
 
     protected ResultsInfo info;
 
-    // A map of batch number against a List of ResultsRows
+    // A map of batch number against a List of ResultsRows. Prefetched batches that are thrown
+    // away before they are read are reported to the PrefetchManager as wasted.
     protected Map<Integer, List<Object>> batches = Collections.synchronizedMap(
-            new CacheMap<Integer, List<Object>>("Results batches"));
+            new CacheMap<Integer, List<Object>>("Results batches") {
+                @Override
+                protected void expunged(Integer batchNo) {
+                    if (prefetched.remove(batchNo)) {
+                        PrefetchManager.reportWasted();
+                    }
+                }
+            });
+    // The batch numbers of batches fetched by the PrefetchManager that have not been read yet
+    protected Set<Integer> prefetched = Collections.synchronizedSet(new HashSet<Integer>());
 
     /**
      * Construct a new ResultsBatches object. This is generally only called by the Results object.
@@ -108,6 +120,17 @@ public class ResultsBatches
         return minSize;
     }
 
+    /**
+     * Records the number of rows in the results, when the ObjectStore has found it out some other
+     * way than by fetching batches, for example by counting the results along with the first batch.
+     *
+     * @param size the number of rows
+     */
+    public synchronized void setSize(int size) {
+        minSize = size;
+        maxSize = size;
+    }
+
     /**
      * Prefetch into memory the batch indicated with the given batch number. If it is already there,
      * do nothing.
@@ -117,11 +140,34 @@ public class ResultsBatches
      * @param explain true if this method should explain each query first
      */
     public void prefetch(int batchNo, boolean optimise, boolean explain) {
+        prefetch(batchNo, 1, optimise, explain);
+    }
+
+    /**
+     * Prefetch into memory the batch indicated with the given batch number. If it is already there,
+     * do nothing.
+     *
+     * @param batchNo the batch number
+     * @param lookahead how many batches ahead of the batch being read this batch is
+     * @param optimise true if queries should be optimised
+     * @param explain true if this method should explain each query first
+     */
+    public void prefetch(int batchNo, int lookahead, boolean optimise, boolean explain) {
         if (!batches.containsKey(new Integer(batchNo))) {
-            PrefetchManager.addRequest(this, batchNo, optimise, explain);
+            PrefetchManager.addRequest(this, batchNo, lookahead, optimise, explain);
         }
     }
 
+    /**
+     * Returns true if the batch with the given batch number is in memory.
+     *
+     * @param batchNo the batch number
+     * @return a boolean
+     */
+    public boolean isBatchInMemory(int batchNo) {
+        return batches.containsKey(new Integer(batchNo));
+    }
+
     /**
      * Gets a range of rows from within a batch
      *
@@ -159,7 +205,13 @@ public class ResultsBatches
      */
     protected List<Object> getBatch(int batchNo, boolean optimise, boolean explain)
         throws ObjectStoreException {
-        List<Object> retval = batches.get(new Integer(batchNo));
+        Integer key = new Integer(batchNo);
+        List<Object> retval = batches.get(key);
+        // A batch that is still being prefetched is not counted as useful, as the reader has to
+        // wait for it
+        if (prefetched.remove(key) && (retval != null)) {
+            PrefetchManager.reportUseful();
+        }
         if (retval == null) {
             retval = PrefetchManager.doRequest(this, batchNo, optimise, explain);
         }
@@ -0,0 +1,607 @@
+package org.intermine.objectstore.replicated;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreAbstractImpl;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.ObjectStoreFactory;
+import org.intermine.objectstore.ObjectStorePassthruImpl;
+import org.intermine.objectstore.ObjectStoreWriter;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsInfo;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.SingletonResults;
+import org.intermine.util.StringUtil;
+
+/**
+ * An ObjectStore that sends read requests to one of several identical replicas of a read-only
+ * database, and everything else to a primary ObjectStore. Lists and other ObjectStoreBags are
+ * written to the primary, so queries that use ObjectStoreBags or Clobs are also run on the
+ * primary. It is configured with the properties:
+ * <ul>
+ * <li>os - the alias of the primary ObjectStore</li>
+ * <li>replicas - a comma separated list of the aliases of the replica ObjectStores</li>
+ * <li>routing - "hash" (the default) to always send the same query to the same replica, so each
+ * replica keeps its own caches, precomputed tables and temporary bag tables for the queries it
+ * sees, or "leastLoaded" to send each request to the replica with the fewest requests in
+ * progress</li>
+ * <li>retryInterval - the number of milliseconds to leave a replica alone after it fails, before
+ * checking whether it is working again (default 30000)</li>
+ * </ul>
+ * A request that fails on a replica because the database can't be reached is retried on the
+ * next replica, and finally on the primary. Errors in the query itself are not retried. A failed
+ * replica is checked by a background thread, so a replica that hangs rather than fails never
+ * holds up a request.
+ */
+public class ObjectStoreReplicatedImpl extends ObjectStorePassthruImpl
+{
+    private static final Logger LOG = Logger.getLogger(ObjectStoreReplicatedImpl.class);
+    /** Send the same query to the same replica */
+    public static final String HASH = "hash";
+    /** Send each request to the replica with the fewest requests in progress */
+    public static final String LEAST_LOADED = "leastLoaded";
+    private static final int DEFAULT_RETRY_INTERVAL = 30000;
+
+    private final List<Replica> replicas = new ArrayList<Replica>();
+    private final boolean leastLoaded;
+    private final int retryInterval;
+    private final ScheduledExecutorService prober;
+
+    /**
+     * Creates an instance, from a primary ObjectStore and its replicas.
+     *
+     * @param primary the ObjectStore to send writes, and reads that can't be sent to replicas, to
+     * @param replicas the ObjectStores to send reads to, in the same order for every instance
+     * @param routing HASH or LEAST_LOADED
+     * @param retryInterval the number of milliseconds to leave a failed replica alone
+     */
+    public ObjectStoreReplicatedImpl(ObjectStore primary, List<ObjectStore> replicas,
+            String routing, int retryInterval) {
+        super(primary);
+        if (LEAST_LOADED.equals(routing)) {
+            leastLoaded = true;
+        } else if ((routing == null) || HASH.equals(routing)) {
+            leastLoaded = false;
+        } else {
+            throw new IllegalArgumentException("Unknown routing \"" + routing + "\" - should be "
+                    + HASH + " or " + LEAST_LOADED);
+        }
+        this.retryInterval = retryInterval;
+        // One thread for each replica, so a replica that hangs doesn't stop the others being
+        // checked. Threads are only started when a replica fails.
+        prober = Executors.newScheduledThreadPool(Math.max(1, replicas.size()),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "ObjectStoreReplicatedImpl replica check");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        for (int i = 0; i < replicas.size(); i++) {
+            this.replicas.add(new Replica(replicas.get(i), i));
+        }
+    }
+
+    /**
+     * Gets a ObjectStoreReplicatedImpl instance for the given properties.
+     *
+     * @param osAlias the alias of this objectstore
+     * @param props the properties
+     * @return the ObjectStore
+     * @throws ObjectStoreException if the primary or a replica can't be made
+     */
+    public static ObjectStoreReplicatedImpl getInstance(String osAlias, Properties props)
+        throws ObjectStoreException {
+        String primaryAlias = props.getProperty("os");
+        if (primaryAlias == null) {
+            throw new ObjectStoreException(osAlias + " does not have an os property for the "
+                    + "primary ObjectStore (check properties file)");
+        }
+        String replicasProperty = props.getProperty("replicas");
+        if (replicasProperty == null) {
+            throw new ObjectStoreException(osAlias + " does not have a replicas property "
+                    + "(check properties file)");
+        }
+        int retryInterval = DEFAULT_RETRY_INTERVAL;
+        String retryProperty = props.getProperty("retryInterval");
+        if (retryProperty != null) {
+            try {
+                retryInterval = Integer.parseInt(retryProperty);
+            } catch (NumberFormatException e) {
+                LOG.warn("Error setting retryInterval: " + e);
+            }
+        }
+        ObjectStore primary = getObjectStore(primaryAlias);
+        List<ObjectStore> replicas = new ArrayList<ObjectStore>();
+        for (String replicaAlias : StringUtil.split(replicasProperty, ",")) {
+            replicaAlias = replicaAlias.trim();
+            if (replicaAlias.length() > 0) {
+                replicas.add(getObjectStore(replicaAlias));
+            }
+        }
+        LOG.info("Creating new ObjectStoreReplicatedImpl " + osAlias + " with primary "
+                + primaryAlias + " and replicas " + replicasProperty);
+        return new ObjectStoreReplicatedImpl(primary, replicas, props.getProperty("routing"),
+                retryInterval);
+    }
+
+    private static ObjectStore getObjectStore(String alias) throws ObjectStoreException {
+        try {
+            return ObjectStoreFactory.getObjectStore(alias);
+        } catch (Exception e) {
+            throw new ObjectStoreException("Cannot make ObjectStore " + alias, e);
+        }
+    }
+
+    /**
+     * Returns the primary ObjectStore.
+     *
+     * @return an ObjectStore
+     */
+    public ObjectStore getPrimary() {
+        return os;
+    }
+
+    /**
+     * Returns the ObjectStore that a query would be sent to now.
+     *
+     * @param q the Query
+     * @return one of the replicas, or the primary
+     */
+    public ObjectStore getObjectStoreFor(Query q) {
+        if (needsPrimary(q)) {
+            return os;
+        }
+        List<Replica> candidates = choose(q.toString());
+        return (candidates.isEmpty() ? os : candidates.get(0).store);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ObjectStoreWriter getNewWriter() throws ObjectStoreException {
+        return os.getNewWriter();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Results execute(Query q) {
+        Results retval = new Results(q, this, getSequence(getComponentsForQuery(q)));
+        retval.setImmutable();
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Results execute(Query q, int batchSize, boolean optimise, boolean explain,
+            boolean prefetch) {
+        Results retval = new Results(q, this, getSequence(getComponentsForQuery(q)));
+        retval.setBatchSize(batchSize);
+        if (!optimise) {
+            retval.setNoOptimise();
+        }
+        if (!explain) {
+            retval.setNoExplain();
+        }
+        if (!prefetch) {
+            retval.setNoPrefetch();
+        }
+        retval.setImmutable();
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SingletonResults executeSingleton(Query q) {
+        SingletonResults retval = new SingletonResults(q, this,
+                getSequence(getComponentsForQuery(q)));
+        retval.setImmutable();
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SingletonResults executeSingleton(Query q, int batchSize, boolean optimise,
+            boolean explain, boolean prefetch) {
+        SingletonResults retval = new SingletonResults(q, this,
+                getSequence(getComponentsForQuery(q)));
+        retval.setBatchSize(batchSize);
+        if (!optimise) {
+            retval.setNoOptimise();
+        }
+        if (!explain) {
+            retval.setNoExplain();
+        }
+        if (!prefetch) {
+            retval.setNoPrefetch();
+        }
+        retval.setImmutable();
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<ResultsRow<Object>> execute(final Query q, final int start, final int limit,
+            final boolean optimise, final boolean explain, final Map<Object, Integer> sequence)
+        throws ObjectStoreException {
+        if (needsPrimary(q)) {
+            return os.execute(q, start, limit, optimise, explain, sequence);
+        }
+        // The sequence numbers belong to the primary, the replicas are never written to
+        checkSequence(sequence, q, "Execute (START " + start + " LIMIT " + limit + ") ");
+        return route(q.toString(), new Request<List<ResultsRow<Object>>>() {
+            public List<ResultsRow<Object>> run(ObjectStore target) throws ObjectStoreException {
+                return target.execute(q, start, limit, optimise, explain,
+                        (target == os ? sequence : SEQUENCE_IGNORE));
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ResultsInfo estimate(final Query q) throws ObjectStoreException {
+        if (needsPrimary(q)) {
+            return os.estimate(q);
+        }
+        return route(q.toString(), new Request<ResultsInfo>() {
+            public ResultsInfo run(ObjectStore target) throws ObjectStoreException {
+                return target.estimate(q);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int count(final Query q, final Map<Object, Integer> sequence)
+        throws ObjectStoreException {
+        if (needsPrimary(q)) {
+            return os.count(q, sequence);
+        }
+        checkSequence(sequence, q, "COUNT ");
+        return route(q.toString(), new Request<Integer>() {
+            public Integer run(ObjectStore target) throws ObjectStoreException {
+                return new Integer(target.count(q, (target == os ? sequence : SEQUENCE_IGNORE)));
+            }
+        }).intValue();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InterMineObject getObjectById(final Integer id) throws ObjectStoreException {
+        return route(String.valueOf(id), new Request<InterMineObject>() {
+            public InterMineObject run(ObjectStore target) throws ObjectStoreException {
+                return target.getObjectById(id);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InterMineObject getObjectById(final Integer id,
+            final Class<? extends InterMineObject> clazz) throws ObjectStoreException {
+        return route(String.valueOf(id), new Request<InterMineObject>() {
+            public InterMineObject run(ObjectStore target) throws ObjectStoreException {
+                return target.getObjectById(id, clazz);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<InterMineObject> getObjectsByIds(final Collection<Integer> ids)
+        throws ObjectStoreException {
+        return route(String.valueOf(ids), new Request<List<InterMineObject>>() {
+            public List<InterMineObject> run(ObjectStore target) throws ObjectStoreException {
+                return target.getObjectsByIds(ids);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void prefetchObjectById(Integer id) {
+        getObjectStoreForId(id).prefetchObjectById(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void invalidateObjectById(Integer id) {
+        os.invalidateObjectById(id);
+        for (Replica replica : replicas) {
+            replica.store.invalidateObjectById(id);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object cacheObjectById(Integer id, InterMineObject obj) {
+        return getObjectStoreForId(id).cacheObjectById(id, obj);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flushObjectById() {
+        os.flushObjectById();
+        for (Replica replica : replicas) {
+            replica.store.flushObjectById();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InterMineObject pilferObjectById(Integer id) {
+        return getObjectStoreForId(id).pilferObjectById(id);
+    }
+
+    /**
+     * Returns a summary of the state of the replicas.
+     *
+     * @return a String
+     */
+    public String getStatistics() {
+        StringBuilder retval = new StringBuilder("ObjectStoreReplicatedImpl:");
+        for (Replica replica : replicas) {
+            retval.append(" [").append(replica).append("]");
+        }
+        return retval.toString();
+    }
+
+    private ObjectStore getObjectStoreForId(Integer id) {
+        List<Replica> candidates = choose(String.valueOf(id));
+        return (candidates.isEmpty() ? os : candidates.get(0).store);
+    }
+
+    /**
+     * Returns true if the query reads something that may have been written to the primary since
+     * the replicas were made, which is ObjectStoreBags and Clobs.
+     *
+     * @param q the Query
+     * @return a boolean
+     */
+    private boolean needsPrimary(Query q) {
+        if (replicas.isEmpty()) {
+            return true;
+        }
+        for (Object component : getComponentsForQuery(q)) {
+            // Tables are named by Strings, ObjectStoreBags and Clobs by themselves
+            if (!(component instanceof String)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void checkSequence(Map<Object, Integer> sequence, Query q, String message)
+        throws ObjectStoreException {
+        if (os instanceof ObjectStoreAbstractImpl) {
+            ((ObjectStoreAbstractImpl) os).checkSequence(sequence, q, message);
+        }
+    }
+
+    /**
+     * Returns the replicas that are working, in the order that they should be tried for a
+     * request.
+     *
+     * @param key a String that identifies the request
+     * @return a List of Replicas, which may be empty
+     */
+    private List<Replica> choose(final String key) {
+        List<Replica> retval = new ArrayList<Replica>();
+        // Take the loads before sorting, as they change while we look at them
+        final int[] loads = new int[replicas.size()];
+        for (Replica replica : replicas) {
+            if (replica.isAvailable()) {
+                retval.add(replica);
+                loads[replica.index] = (leastLoaded ? replica.inProgress.get() : 0);
+            }
+        }
+        // Rendezvous hashing - each key prefers the same replica while it is available, and only
+        // the keys of a replica that fails move elsewhere
+        Collections.sort(retval, new Comparator<Replica>() {
+            public int compare(Replica a, Replica b) {
+                if (loads[a.index] != loads[b.index]) {
+                    return (loads[a.index] < loads[b.index] ? -1 : 1);
+                }
+                int scoreA = a.score(key);
+                int scoreB = b.score(key);
+                if (scoreA != scoreB) {
+                    return (scoreA > scoreB ? -1 : 1);
+                }
+                return a.index - b.index;
+            }
+        });
+        return retval;
+    }
+
+    private <T> T route(String key, Request<T> request) throws ObjectStoreException {
+        for (Replica replica : choose(key)) {
+            replica.inProgress.incrementAndGet();
+            try {
+                return request.run(replica.store);
+            } catch (ObjectStoreException e) {
+                if (!isUnavailable(e)) {
+                    throw e;
+                }
+                replica.failed(e);
+            } catch (RuntimeException e) {
+                if (!isUnavailable(e)) {
+                    throw e;
+                }
+                replica.failed(e);
+            } finally {
+                replica.inProgress.decrementAndGet();
+            }
+        }
+        return request.run(os);
+    }
+
+    /**
+     * Returns true if an exception was caused by not being able to use the database at all,
+     * rather than by the request.
+     *
+     * @param e the exception
+     * @return a boolean
+     */
+    protected static boolean isUnavailable(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException) {
+                String state = ((SQLException) t).getSQLState();
+                // Connection exceptions, insufficient resources, and the server shutting down
+                if ((state != null) && (state.startsWith("08") || state.startsWith("53")
+                            || state.startsWith("57P"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A request that can be sent to any of the replicas.
+     */
+    private interface Request<T>
+    {
+        T run(ObjectStore target) throws ObjectStoreException;
+    }
+
+    /**
+     * One of the replicas, and whether it is working.
+     */
+    private class Replica
+    {
+        private final ObjectStore store;
+        private final int index;
+        private final AtomicInteger inProgress = new AtomicInteger(0);
+        private volatile boolean available = true;
+        private boolean checking = false;
+        private int failures = 0;
+        private Query probe = null;
+
+        public Replica(ObjectStore store, int index) {
+            this.store = store;
+            this.index = index;
+        }
+
+        public int score(String key) {
+            int h = (key.hashCode() * 31 + index) * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        public synchronized void failed(Exception e) {
+            failures++;
+            available = false;
+            LOG.warn("Replica " + store + " is not available, not using it for " + retryInterval
+                    + " ms", e);
+            if (!checking) {
+                checking = true;
+                scheduleCheck();
+            }
+        }
+
+        public boolean isAvailable() {
+            return available;
+        }
+
+        private void scheduleCheck() {
+            prober.schedule(new Runnable() {
+                public void run() {
+                    check();
+                }
+            }, retryInterval, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Runs in the background, until the replica answers a query again.
+         */
+        private void check() {
+            try {
+                store.execute(getProbe(), 0, 1, false, false, SEQUENCE_IGNORE);
+                synchronized (this) {
+                    available = true;
+                    checking = false;
+                }
+                LOG.info("Replica " + store + " is available again");
+            } catch (Exception e) {
+                LOG.info("Replica " + store + " is still not available: " + e);
+                synchronized (this) {
+                    scheduleCheck();
+                }
+            }
+        }
+
+        private Query getProbe() {
+            if (probe == null) {
+                probe = new Query();
+                QueryClass qc = new QueryClass(InterMineObject.class);
+                probe.addFrom(qc);
+                probe.addToSelect(new QueryField(qc, "id"));
+            }
+            return probe;
+        }
+
+        @Override
+        public String toString() {
+            return store + ": " + inProgress.get() + " in progress, " + failures + " failures"
+                + (available ? "" : ", not available");
+        }
+    }
+}
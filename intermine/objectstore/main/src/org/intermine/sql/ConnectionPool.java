@@ -0,0 +1,821 @@
+package org.intermine.sql;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.postgresql.ds.PGSimpleDataSource;
+
+/**
+ * A pool of connections to a PostgreSQL database, that can be used instead of PGPoolingDataSource
+ * by setting the datasource.class property of a Database to this class. It takes the same
+ * serverName, databaseName, user, password, portNumber, dataSourceName, maxConnections and
+ * initialConnections properties, and in addition:
+ * <ul>
+ * <li>timeout - the number of milliseconds to wait for a connection before throwing an
+ * SQLException, or 0 to wait forever like PGPoolingDataSource</li>
+ * <li>validationInterval - the number of milliseconds a connection may be idle before it is
+ * checked with a trivial query when it is next used, or 0 to never check</li>
+ * <li>leakThreshold - the number of milliseconds after which a connection that has not been
+ * returned to the pool is logged as a possible leak, with the stack trace of the code that took
+ * it, or 0 to not look for leaks. The connections in use are checked in the background every
+ * half of this time</li>
+ * <li>pools - a comma separated list of purpose:limit pairs, for example
+ * "interactive:40,export:10,background:8,tracker:2", which limit the number of connections that
+ * can be in use for each purpose at once, so one workload can't take the whole pool. A thread
+ * that already holds a connection for a purpose may take more for it beyond the limit, so code
+ * that opens a second connection while using the first cannot wait forever for itself. Nested
+ * connections still count against maxConnections, so set a timeout if they may exhaust the
+ * pool</li>
+ * </ul>
+ * All purposes share the same physical connections. The statistics of the pool, including how
+ * long callers have waited for a connection, are available from getStatistics(), and are logged
+ * when the pool is closed.
+ */
+public class ConnectionPool implements DataSource
+{
+    private static final Logger LOG = Logger.getLogger(ConnectionPool.class);
+    /** The purpose given to connections taken without one */
+    public static final String DEFAULT_PURPOSE = "interactive";
+    // Looks for leaked connections in all the pools
+    private static final ScheduledExecutorService LEAK_CHECKER =
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ConnectionPool leak check");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    private final PGSimpleDataSource pgSource;
+    // Where physical connections come from, normally pgSource
+    private final DataSource source;
+    private String dataSourceName = "";
+    private int maxConnections = 50;
+    private int initialConnections = 0;
+    private int timeout = 0;
+    private int validationInterval = 30000;
+    private int leakThreshold = 0;
+    private final Map<String, Integer> limits = new HashMap<String, Integer>();
+
+    // Idle physical connections, the most recently returned first
+    private final LinkedList<IdleConnection> idle = new LinkedList<IdleConnection>();
+    private final Map<Connection, Borrowed> borrowed = new IdentityHashMap<Connection, Borrowed>();
+    private final Map<String, Integer> activeByPurpose = new HashMap<String, Integer>();
+    // Physical connections that are open or being opened
+    private int open = 0;
+    private int waiting = 0;
+    private int maxWaiting = 0;
+    private long acquisitions = 0;
+    private long waited = 0;
+    private long totalWaitTime = 0;
+    private long maxWaitTime = 0;
+    private long timeouts = 0;
+    private long leaks = 0;
+    private long invalid = 0;
+    private boolean initialised = false;
+    private boolean closed = false;
+    private ScheduledFuture<?> leakCheck = null;
+
+    /**
+     * Creates a pool of connections to a PostgreSQL database, configured with the setters.
+     */
+    public ConnectionPool() {
+        pgSource = new PGSimpleDataSource();
+        source = pgSource;
+    }
+
+    /**
+     * Creates a pool of connections from another DataSource, for testing.
+     *
+     * @param source the DataSource to open physical connections with
+     */
+    ConnectionPool(DataSource source) {
+        pgSource = new PGSimpleDataSource();
+        this.source = source;
+    }
+
+    /**
+     * Sets the name of the host of the database server.
+     *
+     * @param serverName the host name
+     */
+    public void setServerName(String serverName) {
+        pgSource.setServerName(serverName);
+    }
+
+    /**
+     * Sets the name of the database.
+     *
+     * @param databaseName the database name
+     */
+    public void setDatabaseName(String databaseName) {
+        pgSource.setDatabaseName(databaseName);
+    }
+
+    /**
+     * Sets the user to log in to the database as.
+     *
+     * @param user the user name
+     */
+    public void setUser(String user) {
+        pgSource.setUser(user);
+    }
+
+    /**
+     * Sets the password to log in to the database with.
+     *
+     * @param password the password
+     */
+    public void setPassword(String password) {
+        pgSource.setPassword(password);
+    }
+
+    /**
+     * Sets the port of the database server.
+     *
+     * @param portNumber the port
+     */
+    public void setPortNumber(int portNumber) {
+        pgSource.setPortNumber(portNumber);
+    }
+
+    /**
+     * Sets the name of the pool, used in log messages and statistics.
+     *
+     * @param dataSourceName the name
+     */
+    public void setDataSourceName(String dataSourceName) {
+        this.dataSourceName = dataSourceName;
+    }
+
+    /**
+     * Returns the name of the pool.
+     *
+     * @return a String
+     */
+    public String getDataSourceName() {
+        return dataSourceName;
+    }
+
+    /**
+     * Sets the maximum number of physical connections the pool will open.
+     *
+     * @param maxConnections the maximum number of connections
+     */
+    public synchronized void setMaxConnections(int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be at least 1, not "
+                    + maxConnections);
+        }
+        this.maxConnections = maxConnections;
+        notifyAll();
+    }
+
+    /**
+     * Returns the maximum number of physical connections the pool will open.
+     *
+     * @return an int
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Sets the number of connections to open when the first connection is requested.
+     *
+     * @param initialConnections the number of connections
+     */
+    public void setInitialConnections(int initialConnections) {
+        this.initialConnections = initialConnections;
+    }
+
+    /**
+     * Sets the number of milliseconds to wait for a connection before giving up.
+     *
+     * @param timeout the timeout in milliseconds, or 0 to wait forever
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Sets the number of milliseconds a connection may be idle before it is checked when it is
+     * next used.
+     *
+     * @param validationInterval the interval in milliseconds, or 0 to never check
+     */
+    public void setValidationInterval(int validationInterval) {
+        this.validationInterval = validationInterval;
+    }
+
+    /**
+     * Sets the number of milliseconds a connection may be used for before it is logged as a
+     * possible leak.
+     *
+     * @param leakThreshold the threshold in milliseconds, or 0 to not look for leaks
+     */
+    public void setLeakThreshold(int leakThreshold) {
+        this.leakThreshold = leakThreshold;
+    }
+
+    /**
+     * Sets the limits on the number of connections that may be in use for each purpose at once.
+     *
+     * @param pools a comma separated list of purpose:limit pairs
+     */
+    public synchronized void setPools(String pools) {
+        limits.clear();
+        for (String pool : pools.split(",")) {
+            pool = pool.trim();
+            if (pool.length() > 0) {
+                int colon = pool.indexOf(':');
+                if (colon == -1) {
+                    throw new IllegalArgumentException("Pool \"" + pool + "\" should be of the "
+                            + "form purpose:limit");
+                }
+                limits.put(pool.substring(0, colon).trim(),
+                        Integer.valueOf(pool.substring(colon + 1).trim()));
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Connection getConnection() throws SQLException {
+        return getConnection(DEFAULT_PURPOSE);
+    }
+
+    /**
+     * Returns a connection for a particular purpose, waiting if all the connections that purpose
+     * may use are busy. The connection is returned to the pool when it is closed.
+     *
+     * @param purpose the workload that the connection is for, or null for the default
+     * @return a Connection
+     * @throws SQLException if the wait times out, or a connection cannot be opened
+     */
+    public Connection getConnection(String purpose) throws SQLException {
+        String p = (purpose == null ? DEFAULT_PURPOSE : purpose);
+        initialise();
+        long start = System.currentTimeMillis();
+        Connection physical = null;
+        long idleSince = 0;
+        synchronized (this) {
+            boolean isWaiting = false;
+            try {
+                while (true) {
+                    if (closed) {
+                        throw new SQLException("Connection pool " + dataSourceName
+                                + " has been closed");
+                    }
+                    if (mayUse(p)) {
+                        if (!idle.isEmpty()) {
+                            IdleConnection i = idle.removeFirst();
+                            physical = i.connection;
+                            idleSince = i.since;
+                            break;
+                        }
+                        if (open < maxConnections) {
+                            open++;
+                            break;
+                        }
+                    }
+                    if (!isWaiting) {
+                        isWaiting = true;
+                        waiting++;
+                        waited++;
+                        maxWaiting = Math.max(maxWaiting, waiting);
+                        reportLeaks();
+                    }
+                    long wait = 0;
+                    if (timeout > 0) {
+                        wait = start + timeout - System.currentTimeMillis();
+                        if (wait <= 0) {
+                            timeouts++;
+                            throw new SQLException("Timed out after " + timeout + " ms waiting "
+                                    + "for a connection for " + p + " - " + getStatistics());
+                        }
+                    }
+                    try {
+                        wait(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a connection");
+                    }
+                }
+            } finally {
+                if (isWaiting) {
+                    waiting--;
+                }
+            }
+            Integer active = activeByPurpose.get(p);
+            activeByPurpose.put(p, new Integer(active == null ? 1 : active.intValue() + 1));
+        }
+        try {
+            if (physical == null) {
+                physical = source.getConnection();
+            } else if ((validationInterval > 0)
+                    && (start - idleSince > validationInterval) && (!isValid(physical))) {
+                synchronized (this) {
+                    invalid++;
+                }
+                closeQuietly(physical);
+                physical = source.getConnection();
+            }
+        } catch (SQLException e) {
+            synchronized (this) {
+                open--;
+                release(p);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                open--;
+                release(p);
+            }
+            throw e;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            acquisitions++;
+            totalWaitTime += now - start;
+            maxWaitTime = Math.max(maxWaitTime, now - start);
+            borrowed.put(physical, new Borrowed(p, Thread.currentThread(), now,
+                        leakThreshold > 0 ? new Exception("Connection taken") : null));
+        }
+        return (Connection) Proxy.newProxyInstance(physical.getClass().getClassLoader(),
+                getInterfaces(physical.getClass(), Connection.class),
+                new PooledConnection(physical, p));
+    }
+
+    private void initialise() throws SQLException {
+        int toOpen;
+        synchronized (this) {
+            if (initialised) {
+                return;
+            }
+            initialised = true;
+            toOpen = Math.min(initialConnections, maxConnections - open);
+            open += toOpen;
+            if (leakThreshold > 0) {
+                long interval = Math.max(1, leakThreshold / 2);
+                leakCheck = LEAK_CHECKER.scheduleWithFixedDelay(new Runnable() {
+                    public void run() {
+                        synchronized (ConnectionPool.this) {
+                            reportLeaks();
+                        }
+                    }
+                }, interval, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+        for (int i = 0; i < toOpen; i++) {
+            try {
+                Connection c = source.getConnection();
+                synchronized (this) {
+                    idle.addLast(new IdleConnection(c, System.currentTimeMillis()));
+                    notifyAll();
+                }
+            } catch (SQLException e) {
+                synchronized (this) {
+                    open -= toOpen - i;
+                    notifyAll();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Returns true if a connection may be taken for a purpose without going over its limit, or
+     * if the current thread already holds a connection for that purpose, as it would otherwise
+     * wait for itself. Must be called inside a synchronise on this pool.
+     */
+    private boolean mayUse(String purpose) {
+        Integer limit = limits.get(purpose);
+        if (limit == null) {
+            return true;
+        }
+        Integer active = activeByPurpose.get(purpose);
+        if ((active == null) || (active.intValue() < limit.intValue())) {
+            return true;
+        }
+        Thread current = Thread.currentThread();
+        for (Borrowed b : borrowed.values()) {
+            if ((b.thread == current) && b.purpose.equals(purpose)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void release(String purpose) {
+        Integer active = activeByPurpose.get(purpose);
+        if ((active == null) || (active.intValue() <= 1)) {
+            activeByPurpose.remove(purpose);
+        } else {
+            activeByPurpose.put(purpose, new Integer(active.intValue() - 1));
+        }
+        notifyAll();
+    }
+
+    private boolean isValid(Connection c) {
+        try {
+            Statement s = c.createStatement();
+            try {
+                s.execute("SELECT 1");
+            } finally {
+                s.close();
+            }
+            return true;
+        } catch (SQLException e) {
+            LOG.info("Discarding broken idle connection in pool " + dataSourceName + ": " + e);
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Connection c) {
+        try {
+            c.close();
+        } catch (SQLException e) {
+            // The connection is being thrown away anyway
+        }
+    }
+
+    private static Class<?>[] getInterfaces(Class<?> c, Class<?> required) {
+        // Include the driver's own interfaces, so code that looks for them still finds them
+        Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+        for (Class<?> clazz = c; clazz != null; clazz = clazz.getSuperclass()) {
+            for (Class<?> i : clazz.getInterfaces()) {
+                interfaces.add(i);
+            }
+        }
+        interfaces.add(required);
+        return interfaces.toArray(new Class<?>[interfaces.size()]);
+    }
+
+    /**
+     * Returns a physical connection to the pool.
+     *
+     * @param physical the connection
+     * @param broken true if the connection may not work any more
+     */
+    private void giveBack(Connection physical, boolean broken) {
+        boolean discard = broken;
+        if (!discard) {
+            try {
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                discard = true;
+            }
+        }
+        synchronized (this) {
+            Borrowed b = borrowed.remove(physical);
+            if (b != null) {
+                release(b.purpose);
+            }
+            if (discard || closed) {
+                open--;
+            } else {
+                idle.addFirst(new IdleConnection(physical, System.currentTimeMillis()));
+            }
+            notifyAll();
+        }
+        if (discard || closed) {
+            closeQuietly(physical);
+        }
+    }
+
+    /**
+     * Logs the connections that have been in use for longer than the leak threshold. Must be
+     * called inside a synchronise on this pool.
+     */
+    private void reportLeaks() {
+        if (leakThreshold <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Borrowed b : borrowed.values()) {
+            if ((!b.reported) && (now - b.since > leakThreshold)) {
+                b.reported = true;
+                leaks++;
+                LOG.warn("Connection from pool " + dataSourceName + " for " + b.purpose
+                        + " has not been returned after " + (now - b.since) + " ms, it was taken"
+                        + " at:", b.taken);
+            }
+        }
+    }
+
+    /**
+     * Returns a summary of the state of the pool, and of the time spent waiting for connections.
+     *
+     * @return a String
+     */
+    public synchronized String getStatistics() {
+        return "ConnectionPool " + dataSourceName + ": " + borrowed.size() + " active "
+            + activeByPurpose + ", " + idle.size() + " idle, " + open + " of " + maxConnections
+            + " open, " + waiting + " waiting (max " + maxWaiting + "), " + acquisitions
+            + " acquisitions, " + waited + " waited, average wait "
+            + (acquisitions == 0 ? 0 : totalWaitTime / acquisitions) + " ms, max wait "
+            + maxWaitTime + " ms, " + timeouts + " timed out, " + leaks + " leaked, " + invalid
+            + " found broken";
+    }
+
+    /**
+     * Returns the number of connections in use.
+     *
+     * @return an int
+     */
+    public synchronized int getActiveCount() {
+        return borrowed.size();
+    }
+
+    /**
+     * Returns the number of connections in use for a purpose.
+     *
+     * @param purpose the purpose
+     * @return an int
+     */
+    public synchronized int getActiveCount(String purpose) {
+        Integer active = activeByPurpose.get(purpose);
+        return (active == null ? 0 : active.intValue());
+    }
+
+    /**
+     * Returns the number of open connections not in use.
+     *
+     * @return an int
+     */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Returns the number of threads waiting for a connection.
+     *
+     * @return an int
+     */
+    public synchronized int getWaitingCount() {
+        return waiting;
+    }
+
+    /**
+     * Closes all the idle connections, and makes connections in use be closed when they are
+     * returned. The pool cannot be used afterwards.
+     */
+    public void close() {
+        List<Connection> toClose = new ArrayList<Connection>();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            LOG.info("Closing " + getStatistics());
+            closed = true;
+            if (leakCheck != null) {
+                leakCheck.cancel(false);
+                leakCheck = null;
+            }
+            for (IdleConnection i : idle) {
+                toClose.add(i.connection);
+            }
+            open -= idle.size();
+            idle.clear();
+            notifyAll();
+        }
+        for (Connection c : toClose) {
+            closeQuietly(c);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLException("ConnectionPool " + dataSourceName + " only has connections for "
+                + "the configured user");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public PrintWriter getLogWriter() throws SQLException {
+        return source.getLogWriter();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        source.setLogWriter(out);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getLoginTimeout() throws SQLException {
+        return source.getLoginTimeout();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setLoginTimeout(int seconds) throws SQLException {
+        source.setLoginTimeout(seconds);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("ConnectionPool is not a wrapper for " + iface);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this);
+    }
+
+    private static class IdleConnection
+    {
+        private final Connection connection;
+        private final long since;
+
+        public IdleConnection(Connection connection, long since) {
+            this.connection = connection;
+            this.since = since;
+        }
+    }
+
+    private static class Borrowed
+    {
+        private final String purpose;
+        private final Thread thread;
+        private final long since;
+        private final Exception taken;
+        private boolean reported = false;
+
+        public Borrowed(String purpose, Thread thread, long since, Exception taken) {
+            this.purpose = purpose;
+            this.thread = thread;
+            this.since = since;
+            this.taken = taken;
+        }
+    }
+
+    /**
+     * The handler behind the Connection given out by the pool, which passes everything to the
+     * physical connection except close(), which returns the physical connection to the pool.
+     * Statements are wrapped so that their getConnection() returns the pooled connection rather
+     * than the physical one, which must not be closed by the caller.
+     */
+    private class PooledConnection implements InvocationHandler
+    {
+        private final Connection physical;
+        private final String purpose;
+        private boolean connectionClosed = false;
+        private volatile boolean broken = false;
+
+        public PooledConnection(Connection physical, String purpose) {
+            this.physical = physical;
+            this.purpose = purpose;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            int argCount = (args == null ? 0 : args.length);
+            if ("close".equals(name) && (argCount == 0)) {
+                synchronized (this) {
+                    if (connectionClosed) {
+                        return null;
+                    }
+                    connectionClosed = true;
+                }
+                giveBack(physical, broken);
+                return null;
+            } else if ("isClosed".equals(name) && (argCount == 0)) {
+                return Boolean.valueOf(connectionClosed || physical.isClosed());
+            } else if ("equals".equals(name) && (argCount == 1)) {
+                return Boolean.valueOf(proxy == args[0]);
+            } else if ("hashCode".equals(name) && (argCount == 0)) {
+                return new Integer(System.identityHashCode(proxy));
+            } else if ("toString".equals(name) && (argCount == 0)) {
+                return "Pooled connection for " + purpose + " from " + dataSourceName
+                    + " wrapping physical connection "
+                    + (connectionClosed ? "null" : physical.toString());
+            }
+            if (connectionClosed) {
+                throw new SQLException("Connection has been returned to pool " + dataSourceName);
+            }
+            try {
+                Object retval = method.invoke(physical, args);
+                if (retval instanceof Statement) {
+                    return Proxy.newProxyInstance(retval.getClass().getClassLoader(),
+                            getInterfaces(retval.getClass(), method.getReturnType()),
+                            new PooledStatement((Statement) retval, (Connection) proxy, this));
+                }
+                return retval;
+            } catch (InvocationTargetException e) {
+                checkBroken(e.getCause());
+                throw e.getCause();
+            }
+        }
+
+        /**
+         * Marks the physical connection as broken if an exception says the connection failed.
+         *
+         * @param cause an exception thrown by the physical connection or one of its statements
+         */
+        public void checkBroken(Throwable cause) {
+            String state = (cause instanceof SQLException
+                    ? ((SQLException) cause).getSQLState() : null);
+            if ((state != null) && state.startsWith("08")) {
+                // Connection exception - don't give this connection to anyone else
+                broken = true;
+            }
+        }
+    }
+
+    /**
+     * The handler behind a Statement created by a pooled connection, which passes everything to
+     * the physical statement except getConnection(), which returns the pooled connection.
+     */
+    private static class PooledStatement implements InvocationHandler
+    {
+        private final Statement statement;
+        private final Connection connection;
+        private final PooledConnection handler;
+
+        public PooledStatement(Statement statement, Connection connection,
+                PooledConnection handler) {
+            this.statement = statement;
+            this.connection = connection;
+            this.handler = handler;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            int argCount = (args == null ? 0 : args.length);
+            if ("getConnection".equals(name) && (argCount == 0)) {
+                return connection;
+            } else if ("equals".equals(name) && (argCount == 1)) {
+                return Boolean.valueOf(proxy == args[0]);
+            } else if ("hashCode".equals(name) && (argCount == 0)) {
+                return new Integer(System.identityHashCode(proxy));
+            }
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                handler.checkBroken(e.getCause());
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -43,6 +43,17 @@ public class Database implements Shutdownable
 {
     private static final Logger LOG = Logger.getLogger(Database.class);
 
+    /** The purpose of connections for queries that a user is waiting for, the default */
+    public static final String INTERACTIVE = ConnectionPool.DEFAULT_PURPOSE;
+    /** The purpose of connections for exporting large numbers of rows */
+    public static final String EXPORT = "export";
+    /** The purpose of connections for work that nobody is waiting for, like precomputing */
+    public static final String BACKGROUND = "background";
+    /** The purpose of connections for writing tracking information */
+    public static final String TRACKER = "tracker";
+
+    private static final ThreadLocal<String> THREAD_PURPOSE = new ThreadLocal<String>();
+
     protected DataSource datasource;
     protected String platform;
     protected String driver;
@@ -90,18 +101,61 @@ public class Database implements Shutdownable
     }
 
     /**
-     * Gets a Connection to this Database
+     * Sets the purpose of the connections that the current thread takes with getConnection(),
+     * until it is set again. This only matters if the datasource is a ConnectionPool, which can
+     * limit the number of connections used for each purpose.
+     *
+     * @param purpose the purpose, or null for the default of INTERACTIVE
+     */
+    public static void setThreadPurpose(String purpose) {
+        if (purpose == null) {
+            THREAD_PURPOSE.remove();
+        } else {
+            THREAD_PURPOSE.set(purpose);
+        }
+    }
+
+    /**
+     * Returns the purpose set for the current thread with setThreadPurpose(), so that work handed
+     * to other threads can be done for the same purpose.
+     *
+     * @return the purpose, or null for the default of INTERACTIVE
+     */
+    public static String getThreadPurpose() {
+        return THREAD_PURPOSE.get();
+    }
+
+    /**
+     * Gets a Connection to this Database, for the purpose set for the current thread.
      *
      * @return a Connection to this Database
      * @throws SQLException if there is a problem in the underlying database
      */
     public Connection getConnection() throws SQLException {
+        return getConnection(THREAD_PURPOSE.get());
+    }
+
+    /**
+     * Gets a Connection to this Database for a particular purpose, such as INTERACTIVE, EXPORT,
+     * BACKGROUND or TRACKER. If the datasource is a ConnectionPool, the number of connections
+     * used for each purpose may be limited, so that one workload cannot starve the others.
+     * Otherwise the purpose is ignored.
+     *
+     * @param purpose the purpose, or null for the default
+     * @return a Connection to this Database
+     * @throws SQLException if there is a problem in the underlying database
+     */
+    public Connection getConnection(String purpose) throws SQLException {
         Connection retval;
         if (datasource == null) {
             throw new NullPointerException("Datasource is null. Properties are: " + settings);
         }
         try {
-            retval = datasource.getConnection();
+            if (datasource instanceof ConnectionPool) {
+                retval = ((ConnectionPool) datasource).getConnection(purpose);
+            } else {
+                retval = datasource.getConnection();
+            }
         } catch (PSQLException e) {
             throw new RuntimeException("can't open datasource for " + this, e);
         }
@@ -120,6 +174,19 @@ public class Database implements Shutdownable
         return retval;
     }
 
+    /**
+     * Returns a summary of the use of the connections of this Database, if the datasource keeps
+     * one.
+     *
+     * @return a String, or null if the datasource is not a ConnectionPool
+     */
+    public String getPoolStatistics() {
+        if (datasource instanceof ConnectionPool) {
+            return ((ConnectionPool) datasource).getStatistics();
+        }
+        return null;
+    }
+
     /**
      * Logs stuff
      */
@@ -149,6 +216,10 @@ public class Database implements Shutdownable
             LOG.info("Shutdown - Closing datasource for Database " + getURL() + "(" + toString()
                     + ") with ClassLoader " + getClass().getClassLoader());
             ((org.postgresql.jdbc2.optional.PoolingDataSource) datasource).close();
+        } else if (datasource instanceof ConnectionPool) {
+            LOG.info("Shutdown - Closing datasource for Database " + getURL() + "(" + toString()
+                    + ") with ClassLoader " + getClass().getClassLoader());
+            ((ConnectionPool) datasource).close();
         } else {
             LOG.warn("Shutdown - Could not close datasource for Database " + getURL() + "("
                     + toString() + ") with ClassLoader " + getClass().getClassLoader() + " - "
@@ -170,6 +241,10 @@ public class Database implements Shutdownable
             LOG.info("Finalise - Closing datasource for Database " + getURL() + "(" + toString()
                     + ") with ClassLoader " + getClass().getClassLoader());
             ((org.postgresql.jdbc2.optional.PoolingDataSource) datasource).close();
+        } else if (datasource instanceof ConnectionPool) {
+            LOG.info("Finalise - Closing datasource for Database " + getURL() + "(" + toString()
+                    + ") with ClassLoader " + getClass().getClassLoader());
+            ((ConnectionPool) datasource).close();
         } else {
             LOG.warn("Finalise - Could not close datasource for Database " + getURL() + "("
                     + toString() + ") with ClassLoader " + getClass().getClassLoader() + " - "
@@ -506,7 +581,7 @@ public class Database implements Shutdownable
                     Connection c = null;
                     try {
                         job = queue.take();
-                        c = getConnection();
+                        c = getConnection(BACKGROUND);
                         c.setAutoCommit(true);
                         Statement s = c.createStatement();
                         s.execute(job.getSql());
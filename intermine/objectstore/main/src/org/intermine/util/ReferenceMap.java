@@ -54,6 +54,7 @@ public abstract class ReferenceMap<K, V> implements Map<K, V>
             Reference<Object> ref = subMap.get(key);
             if (r == ref) {
                 subMap.remove(key);
+                expunged(key);
             }
         }
         int newSize = subMap.size();
@@ -62,6 +63,17 @@ public abstract class ReferenceMap<K, V> implements Map<K, V>
         }
     }
 
+    /**
+     * Called when an entry is removed from the Map because its value has been garbage-collected.
+     * This implementation does nothing, but subclasses may override it to find out which entries
+     * have been lost.
+     *
+     * @param key the key of the entry that has been removed
+     */
+    protected void expunged(@SuppressWarnings("unused") K key) {
+        // do nothing
+    }
+
     /**
      * {@inheritDoc}
      */
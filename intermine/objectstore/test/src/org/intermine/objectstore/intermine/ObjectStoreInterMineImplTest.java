@@ -47,6 +47,7 @@ import org.intermine.objectstore.query.ConstraintOp;
 import org.intermine.objectstore.query.ConstraintSet;
 import org.intermine.objectstore.query.ContainsConstraint;
 import org.intermine.objectstore.query.ObjectStoreBag;
+import org.intermine.objectstore.query.OrderDescending;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryCloner;
@@ -54,6 +55,7 @@ import org.intermine.objectstore.query.QueryCollectionReference;
 import org.intermine.objectstore.query.QueryField;
 import org.intermine.objectstore.query.QueryValue;
 import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsInfo;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SimpleConstraint;
 import org.intermine.objectstore.query.SingletonResults;
@@ -955,4 +957,52 @@ public class ObjectStoreInterMineImplTest extends ObjectStoreAbstractImplTestCas
         Results r3 = os.execute(q, 102, false, false, false);
         assertTrue(r3.isSingleBatch());
     }
+
+    public void testCountWithFirstBatch() throws Exception {
+        ObjectStoreInterMineImpl osi = (ObjectStoreInterMineImpl) os;
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        q.addToOrderBy(new OrderDescending(new QueryField(qc, "age")));
+        int expected = os.count(q, ObjectStore.SEQUENCE_IGNORE);
+        assertTrue(expected > 3);
+
+        Results r = os.execute(q, 3, true, true, true);
+        ResultsRow<?> first = (ResultsRow<?>) r.get(0);
+        assertEquals(ResultsInfo.SIZE, r.getInfo().getStatus());
+        int counts = osi.statsCounts;
+        assertEquals(expected, r.size());
+        assertEquals(expected, os.count(q, ObjectStore.SEQUENCE_IGNORE));
+        assertEquals(counts, osi.statsCounts);
+
+        // the rows are in the same order as when they aren't counted
+        osi.setCountWithFirstBatch(0);
+        try {
+            Results uncounted = os.execute(q, 4, true, true, true);
+            assertEquals(uncounted.get(0), first);
+            assertEquals(uncounted.get(1), r.get(1));
+            assertEquals(uncounted.get(2), r.get(2));
+            assertTrue(uncounted.getInfo().getStatus() != ResultsInfo.SIZE);
+        } finally {
+            osi.setCountWithFirstBatch(ObjectStoreInterMineImpl.DEFAULT_COUNT_WITH_FIRST_BATCH);
+        }
+    }
+
+    public void testGenerateCountWithBatchSql() throws Exception {
+        assertEquals("SELECT *, COUNT(*) OVER () AS im_count_ FROM (SELECT DISTINCT a1_.id AS "
+                + "a1_id, a1_.age AS orderbyfield0 FROM Employee AS a1_) AS fake_table ORDER BY "
+                + "orderbyfield0 DESC, a1_id LIMIT 10",
+                ObjectStoreInterMineImpl.generateCountWithBatchSql("SELECT DISTINCT a1_.id AS "
+                    + "a1_id, a1_.age AS orderbyfield0 FROM Employee AS a1_ ORDER BY a1_.age "
+                    + "DESC, a1_.id", 10));
+        assertEquals("SELECT *, COUNT(*) OVER () AS im_count_ FROM (SELECT a1_.id AS a1_id, "
+                + "a1_.age AS im_order0_ FROM Employee AS a1_) AS fake_table ORDER BY "
+                + "im_order0_, a1_id LIMIT 10",
+                ObjectStoreInterMineImpl.generateCountWithBatchSql("SELECT a1_.id AS a1_id FROM "
+                    + "Employee AS a1_ ORDER BY a1_.age, a1_.id", 10));
+        // can't add to the SELECT list of a DISTINCT query
+        assertNull(ObjectStoreInterMineImpl.generateCountWithBatchSql("SELECT DISTINCT a1_.id AS "
+                    + "a1_id FROM Employee AS a1_ ORDER BY a1_.age", 10));
+    }
 }
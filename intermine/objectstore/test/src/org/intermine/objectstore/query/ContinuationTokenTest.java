@@ -0,0 +1,152 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.model.testmodel.Employee;
+
+public class ContinuationTokenTest extends TestCase
+{
+    private Query q;
+
+    public ContinuationTokenTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        q = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        q.addFrom(qc);
+        q.addToSelect(new QueryField(qc, "name"));
+        q.addToSelect(new QueryField(qc, "age"));
+        q.addToOrderBy(new QueryField(qc, "name"));
+    }
+
+    private List<List<Object>> rows(String... names) {
+        List<List<Object>> retval = new ArrayList<List<Object>>();
+        for (String name : names) {
+            retval.add(Arrays.asList(new Object[] {name, new Integer(30)}));
+        }
+        return retval;
+    }
+
+    public void testFirst() throws Exception {
+        ContinuationToken first = ContinuationToken.parse(ContinuationToken.FIRST, q);
+        assertEquals(0, first.getRow());
+        assertEquals(0, first.getUsed());
+        assertNull(first.getValue());
+        assertEquals(0, first.getSkip());
+        assertEquals(first, ContinuationToken.first(q));
+    }
+
+    public void testIsToken() throws Exception {
+        assertTrue(ContinuationToken.isToken("k"));
+        assertTrue(ContinuationToken.isToken(ContinuationToken.first(q).toString()));
+        assertFalse(ContinuationToken.isToken("10"));
+        assertFalse(ContinuationToken.isToken(null));
+    }
+
+    public void testNextFindsLastChange() throws Exception {
+        ContinuationToken first = ContinuationToken.first(q);
+        ContinuationToken next = first.next(q, rows("a", "b", "c", "c", "d"), 4, 0);
+        assertEquals(4, next.getRow());
+        assertEquals("b", next.getValue());
+        assertEquals(2, next.getSkip());
+
+        ContinuationToken parsed = ContinuationToken.parse(next.toString(), q);
+        assertEquals(next, parsed);
+        assertEquals(4, parsed.getRow());
+        assertEquals("b", parsed.getValue());
+        assertEquals(2, parsed.getSkip());
+    }
+
+    public void testNextWithoutChangeKeepsValue() throws Exception {
+        ContinuationToken first = ContinuationToken.first(q);
+        ContinuationToken second = first.next(q, rows("a", "b", "b"), 3, 0);
+        assertEquals("a", second.getValue());
+        assertEquals(2, second.getSkip());
+        ContinuationToken third = second.next(q, rows("b", "b", "b"), 3, 0);
+        assertEquals(6, third.getRow());
+        assertEquals("a", third.getValue());
+        assertEquals(5, third.getSkip());
+    }
+
+    public void testNextWithoutValueUsesOffset() throws Exception {
+        ContinuationToken next = ContinuationToken.first(q).next(q, rows("a", "a"), 2, 0);
+        assertNull(next.getValue());
+        assertEquals(2, next.getSkip());
+    }
+
+    public void testUsedOfNext() throws Exception {
+        ContinuationToken first = ContinuationToken.first(q);
+        ContinuationToken next = first.next(q, rows("a", "b"), 0, 3);
+        assertEquals(0, next.getRow());
+        assertEquals(3, next.getUsed());
+        assertEquals(next, ContinuationToken.parse(next.toString(), q));
+    }
+
+    public void testValueTypes() throws Exception {
+        Query descQuery = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        descQuery.addFrom(qc);
+        QueryField age = new QueryField(qc, "age");
+        descQuery.addToSelect(age);
+        descQuery.addToOrderBy(new OrderDescending(age));
+        List<List<Object>> ageRows = new ArrayList<List<Object>>();
+        ageRows.add(Arrays.asList(new Object[] {new Integer(50)}));
+        ageRows.add(Arrays.asList(new Object[] {new Integer(40)}));
+        ContinuationToken next = ContinuationToken.first(descQuery).next(descQuery, ageRows, 2, 0);
+        assertEquals(new Integer(50), ContinuationToken.parse(next.toString(), descQuery)
+                .getValue());
+
+        List<List<Object>> dateRows = new ArrayList<List<Object>>();
+        dateRows.add(Arrays.asList(new Object[] {new Date(1000L)}));
+        dateRows.add(Arrays.asList(new Object[] {new Date(2000L)}));
+        next = ContinuationToken.first(descQuery).next(descQuery, dateRows, 2, 0);
+        assertEquals(new Date(1000L), ContinuationToken.parse(next.toString(), descQuery)
+                .getValue());
+    }
+
+    public void testWrongQuery() throws Exception {
+        ContinuationToken next = ContinuationToken.first(q).next(q, rows("a", "b"), 2, 0);
+        Query other = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        other.addFrom(qc);
+        other.addToSelect(new QueryField(qc, "name"));
+        try {
+            ContinuationToken.parse(next.toString(), other);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testInvalid() throws Exception {
+        try {
+            ContinuationToken.parse("kzz", q);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            ContinuationToken.parse("k" + "313a32", q);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
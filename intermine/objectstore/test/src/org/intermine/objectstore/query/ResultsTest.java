@@ -12,6 +12,7 @@ package org.intermine.objectstore.query;
 
 import junit.framework.TestCase;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -272,6 +273,19 @@ public class ResultsTest extends TestCase
         assertTrue("Expected size to fetch one batch, but fetched " + res.resultsBatches.batches.size() + ".", res.resultsBatches.batches.size() == 1);
     }
 
+    public void testSizeKnownWithoutFetching() throws Exception {
+        Query q = new Query();
+        q.addFrom(new QueryClass(Department.class));
+        ObjectStoreDummyImpl os2 = new ObjectStoreDummyImpl();
+        os2.setResultsSize(5000);
+
+        Results res = os2.execute(q, 1, true, true, true);
+        res.getResultsBatches().setSize(5000);
+        assertEquals(5000, res.size());
+        assertEquals(0, os2.getExecuteCalls());
+        assertEquals(ResultsInfo.SIZE, res.getInfo().getStatus());
+    }
+
     public void testIteratorPropagatesObjectStoreException() throws Exception {
         LOG.info("testIteratorPropagatesObjectStoreException starting");
         Query q = new Query();
@@ -397,4 +411,69 @@ public class ResultsTest extends TestCase
         assertEquals(50, i.getRows());
         assertEquals(ResultsInfo.SIZE, i.getStatus());
     }
+
+    public void testPrefetchLookahead() throws Exception {
+        Query q = new Query();
+        q.addFrom(new QueryClass(Department.class));
+        ObjectStoreDummyImpl os2 = new ObjectStoreDummyImpl();
+        os2.setResultsSize(100);
+        for (int i = 0; i < 100; i++) {
+            ResultsRow row = new ResultsRow();
+            row.add("" + i);
+            os2.addRow(row);
+        }
+
+        // Without prefetching, every new batch has to be fetched by the reader, so the lookahead
+        // grows with each batch once the reads are sequential
+        Results res = os2.execute(q, 10, true, true, false);
+        for (int i = 0; i < 10; i++) {
+            assertEquals("" + i, ((List) res.get(i)).get(0));
+        }
+        assertEquals(1, res.lookahead);
+        assertEquals("10", ((List) res.get(10)).get(0));
+        assertEquals(2, res.lookahead);
+        for (int i = 11; i < 31; i++) {
+            assertEquals("" + i, ((List) res.get(i)).get(0));
+        }
+        assertEquals(4, res.lookahead);
+        for (int i = 31; i < 50; i++) {
+            assertEquals("" + i, ((List) res.get(i)).get(0));
+        }
+        assertEquals(4, res.lookahead);
+
+        // When batches are already in memory before they are read, the lookahead shrinks
+        List<List<Object>> loaded = new ArrayList<List<Object>>();
+        for (int batch = 5; batch < 9; batch++) {
+            loaded.add(res.resultsBatches.getBatch(batch, true, true));
+        }
+        assertEquals("50", ((List) res.get(50)).get(0));
+        assertEquals(3, res.lookahead);
+        for (int i = 51; i < 61; i++) {
+            assertEquals("" + i, ((List) res.get(i)).get(0));
+        }
+        assertEquals(2, res.lookahead);
+        for (int i = 61; i < 71; i++) {
+            assertEquals("" + i, ((List) res.get(i)).get(0));
+        }
+        assertEquals(1, res.lookahead);
+
+        // Random reads keep the lookahead at one
+        int[] rows = new int[] {90, 3, 75, 42, 18, 99, 64};
+        for (int row : rows) {
+            assertEquals("" + row, ((List) res.get(row)).get(0));
+            assertEquals(1, res.lookahead);
+            assertEquals(0, res.sequential);
+        }
+        assertEquals(4, loaded.size());
+    }
+
+    public void testSetMaxServiceThreads() throws Exception {
+        int max = PrefetchManager.getMaxServiceThreads();
+        try {
+            PrefetchManager.setMaxServiceThreads(0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        assertEquals(max, PrefetchManager.getMaxServiceThreads());
+    }
 }
@@ -0,0 +1,250 @@
+package org.intermine.objectstore.replicated;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.intermine.model.testmodel.Employee;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+import org.intermine.objectstore.query.ConstraintOp;
+import org.intermine.objectstore.query.ObjectStoreBag;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.SimpleConstraint;
+
+public class ObjectStoreReplicatedImplTest extends TestCase
+{
+    private FailingDummyImpl primary;
+    private FailingDummyImpl replica1;
+    private FailingDummyImpl replica2;
+    private ObjectStoreReplicatedImpl os;
+
+    public ObjectStoreReplicatedImplTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        primary = new FailingDummyImpl();
+        replica1 = new FailingDummyImpl();
+        replica2 = new FailingDummyImpl();
+        List<ObjectStore> replicas = new ArrayList<ObjectStore>();
+        replicas.add(replica1);
+        replicas.add(replica2);
+        os = new ObjectStoreReplicatedImpl(primary, replicas, ObjectStoreReplicatedImpl.HASH,
+                60000);
+    }
+
+    private Query query(String name) {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        q.setConstraint(new SimpleConstraint(new QueryField(qc, "name"), ConstraintOp.EQUALS,
+                    new QueryValue(name)));
+        return q;
+    }
+
+    public void testSameQuerySameReplica() throws Exception {
+        for (int i = 0; i < 40; i++) {
+            Query q = query("Employee" + i);
+            ObjectStore target = os.getObjectStoreFor(q);
+            int calls1 = replica1.getExecuteCalls();
+            int calls2 = replica2.getExecuteCalls();
+            os.execute(q, 0, 10, true, true, ObjectStore.SEQUENCE_IGNORE);
+            os.execute(query("Employee" + i), 0, 5, true, true, ObjectStore.SEQUENCE_IGNORE);
+            if (target == replica1) {
+                assertEquals(calls1 + 2, replica1.getExecuteCalls());
+                assertEquals(calls2, replica2.getExecuteCalls());
+            } else {
+                assertSame(replica2, target);
+                assertEquals(calls1, replica1.getExecuteCalls());
+                assertEquals(calls2 + 2, replica2.getExecuteCalls());
+            }
+        }
+        // Different queries are spread over both replicas
+        assertTrue(replica1.getExecuteCalls() > 0);
+        assertTrue(replica2.getExecuteCalls() > 0);
+        assertEquals(0, primary.getExecuteCalls());
+    }
+
+    public void testResultsFetchedThroughRouter() throws Exception {
+        replica1.setResultsSize(5);
+        replica2.setResultsSize(5);
+        Results res = os.execute(query("EmployeeA1"));
+        assertSame(os, res.getObjectStore());
+        assertEquals(5, res.size());
+        assertEquals(0, primary.getExecuteCalls());
+    }
+
+    public void testFailover() throws Exception {
+        Query q = query("EmployeeA1");
+        FailingDummyImpl first = (FailingDummyImpl) os.getObjectStoreFor(q);
+        FailingDummyImpl second = (first == replica1 ? replica2 : replica1);
+        first.setUnavailable(true);
+        os.execute(q, 0, 10, true, true, ObjectStore.SEQUENCE_IGNORE);
+        assertEquals(0, first.getExecuteCalls());
+        assertEquals(1, second.getExecuteCalls());
+        // The failed replica is left alone until the retry interval is over
+        assertSame(second, os.getObjectStoreFor(q));
+        first.setUnavailable(false);
+        assertSame(second, os.getObjectStoreFor(q));
+
+        second.setUnavailable(true);
+        os.execute(q, 0, 10, true, true, ObjectStore.SEQUENCE_IGNORE);
+        assertEquals(1, primary.getExecuteCalls());
+    }
+
+    public void testRecovery() throws Exception {
+        List<ObjectStore> replicas = new ArrayList<ObjectStore>();
+        replicas.add(replica1);
+        os = new ObjectStoreReplicatedImpl(primary, replicas, ObjectStoreReplicatedImpl.HASH, 10);
+        replica1.setUnavailable(true);
+        Query q = query("EmployeeA1");
+        os.execute(q, 0, 10, true, true, ObjectStore.SEQUENCE_IGNORE);
+        assertEquals(1, primary.getExecuteCalls());
+        assertSame(primary, os.getObjectStoreFor(q));
+        replica1.setUnavailable(false);
+        // The replica is checked in the background
+        waitFor(replica1, q);
+    }
+
+    public void testHangingReplicaDoesNotBlock() throws Exception {
+        List<ObjectStore> replicas = new ArrayList<ObjectStore>();
+        replicas.add(replica1);
+        os = new ObjectStoreReplicatedImpl(primary, replicas, ObjectStoreReplicatedImpl.HASH, 10);
+        replica1.setUnavailable(true);
+        Query q = query("EmployeeA1");
+        os.execute(q, 0, 10, true, true, ObjectStore.SEQUENCE_IGNORE);
+        replica1.setHanging(true);
+        try {
+            // Wait for the check to start hanging
+            Thread.sleep(100);
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < 10; i++) {
+                os.execute(q, 0, 10, true, true, ObjectStore.SEQUENCE_IGNORE);
+            }
+            assertTrue(System.currentTimeMillis() - start < 1000);
+            assertEquals(11, primary.getExecuteCalls());
+        } finally {
+            replica1.setUnavailable(false);
+            replica1.setHanging(false);
+        }
+        waitFor(replica1, q);
+    }
+
+    private void waitFor(ObjectStore expected, Query q) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while ((os.getObjectStoreFor(q) != expected) && (System.currentTimeMillis() < end)) {
+            Thread.sleep(10);
+        }
+        assertSame(expected, os.getObjectStoreFor(q));
+    }
+
+    public void testQueryErrorNotRetried() throws Exception {
+        Query q = query("EmployeeA1");
+        replica1.setPoisonRowNo(0);
+        replica2.setPoisonRowNo(0);
+        replica1.setResultsSize(1);
+        replica2.setResultsSize(1);
+        primary.setResultsSize(1);
+        try {
+            os.execute(q, 0, 10, true, true, ObjectStore.SEQUENCE_IGNORE);
+            fail("Expected ObjectStoreException");
+        } catch (ObjectStoreException e) {
+            // expected
+        }
+        assertEquals(0, primary.getExecuteCalls());
+        assertSame(os.getObjectStoreFor(q), os.getObjectStoreFor(query("EmployeeA1")));
+    }
+
+    public void testBagsUsePrimary() throws Exception {
+        Query q = new Query();
+        q.addToSelect(new ObjectStoreBag(5));
+        assertSame(primary, os.getObjectStoreFor(q));
+        os.execute(q, 0, 10, true, true, ObjectStore.SEQUENCE_IGNORE);
+        assertEquals(1, primary.getExecuteCalls());
+        assertEquals(0, replica1.getExecuteCalls() + replica2.getExecuteCalls());
+    }
+
+    public void testLeastLoaded() throws Exception {
+        List<ObjectStore> replicas = new ArrayList<ObjectStore>();
+        replicas.add(replica1);
+        replicas.add(replica2);
+        try {
+            new ObjectStoreReplicatedImpl(primary, replicas, "random", 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        os = new ObjectStoreReplicatedImpl(primary, replicas,
+                ObjectStoreReplicatedImpl.LEAST_LOADED, 60000);
+        os.execute(query("EmployeeA1"), 0, 10, true, true, ObjectStore.SEQUENCE_IGNORE);
+        assertEquals(1, replica1.getExecuteCalls() + replica2.getExecuteCalls());
+    }
+
+    private static class FailingDummyImpl extends ObjectStoreDummyImpl
+    {
+        private volatile boolean unavailable = false;
+        private volatile boolean hanging = false;
+
+        public void setUnavailable(boolean unavailable) {
+            this.unavailable = unavailable;
+        }
+
+        public synchronized void setHanging(boolean hanging) {
+            this.hanging = hanging;
+            notifyAll();
+        }
+
+        private synchronized void hang() {
+            while (hanging) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public Set<Object> getComponentsForQuery(Query q) {
+            for (Object selectable : q.getSelect()) {
+                if (selectable instanceof ObjectStoreBag) {
+                    return Collections.singleton(selectable);
+                }
+            }
+            return Collections.emptySet();
+        }
+
+        @Override
+        public List execute(Query q, int start, int limit, boolean optimise, boolean explain,
+                Map<Object, Integer> sequence) throws ObjectStoreException {
+            hang();
+            if (unavailable) {
+                throw new ObjectStoreException("Cannot connect", new SQLException(
+                            "Connection refused", "08001"));
+            }
+            return super.execute(q, start, limit, optimise, explain, sequence);
+        }
+    }
+}
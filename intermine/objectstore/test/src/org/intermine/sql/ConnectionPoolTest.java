@@ -0,0 +1,198 @@
+package org.intermine.sql;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for ConnectionPool, with connections from a fake driver loaded by its own ClassLoader.
+ */
+public class ConnectionPoolTest extends TestCase
+{
+    private DriverLoader loader;
+    private ConnectionPool pool;
+
+    public void setUp() throws Exception {
+        loader = new DriverLoader();
+        pool = new ConnectionPool(fakeDataSource());
+        pool.setDataSourceName("test");
+        pool.setMaxConnections(4);
+        pool.setValidationInterval(0);
+    }
+
+    public void tearDown() throws Exception {
+        pool.close();
+    }
+
+    public void testDriverInterfaces() throws Exception {
+        Class<?> driverConnection = loader.loadClass(DriverConnection.class.getName());
+        Class<?> driverStatement = loader.loadClass(DriverStatement.class.getName());
+        assertNotSame(DriverConnection.class, driverConnection);
+
+        Connection c = pool.getConnection();
+        assertTrue(driverConnection.isInstance(c));
+        Statement s = c.createStatement();
+        assertTrue(driverStatement.isInstance(s));
+        assertSame(c, s.getConnection());
+        c.close();
+        assertTrue(c.isClosed());
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    public void testNestedConnectionsForOnePurpose() throws Exception {
+        pool.setPools("export:1");
+        pool.setTimeout(200);
+
+        Connection outer = pool.getConnection(Database.EXPORT);
+        // The thread holding the only export connection may take another rather than wait
+        Connection inner = pool.getConnection(Database.EXPORT);
+        assertEquals(2, pool.getActiveCount(Database.EXPORT));
+
+        // Other threads still have to wait for the limit
+        assertNotNull(getInOtherThread(Database.EXPORT));
+        inner.close();
+        assertNotNull(getInOtherThread(Database.EXPORT));
+        outer.close();
+        assertNull(getInOtherThread(Database.EXPORT));
+        assertEquals(0, pool.getActiveCount(Database.EXPORT));
+    }
+
+    public void testLimitsArePerPurpose() throws Exception {
+        pool.setPools("export:1");
+        pool.setTimeout(200);
+
+        Connection export = pool.getConnection(Database.EXPORT);
+        assertNotNull(getInOtherThread(Database.EXPORT));
+        assertNull(getInOtherThread(Database.INTERACTIVE));
+        export.close();
+    }
+
+    /**
+     * Takes and returns a connection in another thread.
+     *
+     * @param purpose the purpose to take the connection for
+     * @return the exception thrown taking it, or null if there was none
+     */
+    private SQLException getInOtherThread(final String purpose) throws InterruptedException {
+        final SQLException[] thrown = new SQLException[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    pool.getConnection(purpose).close();
+                } catch (SQLException e) {
+                    thrown[0] = e;
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+        return thrown[0];
+    }
+
+    private DataSource fakeDataSource() {
+        return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {DataSource.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                        throws Throwable {
+                        if ("getConnection".equals(method.getName())) {
+                            return fake(DriverConnection.class);
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private Object fake(Class<?> iface) throws ClassNotFoundException {
+        return Proxy.newProxyInstance(loader, new Class<?>[] {loader.loadClass(iface.getName())},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                        throws Throwable {
+                        String name = method.getName();
+                        if ("getAutoCommit".equals(name) || "isClosed".equals(name)) {
+                            return Boolean.valueOf("getAutoCommit".equals(name));
+                        } else if ("createStatement".equals(name)) {
+                            return fake(DriverStatement.class);
+                        } else if ("hashCode".equals(name)) {
+                            return new Integer(System.identityHashCode(proxy));
+                        } else if ("equals".equals(name)) {
+                            return Boolean.valueOf(proxy == args[0]);
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * A Connection interface of a driver, like org.postgresql.PGConnection.
+     */
+    public static interface DriverConnection extends Connection
+    {
+    }
+
+    /**
+     * A Statement interface of a driver, like org.postgresql.PGStatement.
+     */
+    public static interface DriverStatement extends Statement
+    {
+    }
+
+    /**
+     * Loads the driver interfaces itself, so they cannot be seen from the ClassLoader of
+     * ConnectionPool, as happens when the driver is in a different ClassLoader to InterMine.
+     */
+    private static class DriverLoader extends ClassLoader
+    {
+        public DriverLoader() {
+            super(ConnectionPoolTest.class.getClassLoader());
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve)
+            throws ClassNotFoundException {
+            if (!name.equals(DriverConnection.class.getName())
+                    && !name.equals(DriverStatement.class.getName())) {
+                return super.loadClass(name, resolve);
+            }
+            Class<?> c = findLoadedClass(name);
+            if (c == null) {
+                try {
+                    InputStream in = getParent().getResourceAsStream(name.replace('.', '/')
+                            + ".class");
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[4096];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        bytes.write(buffer, 0, read);
+                    }
+                    in.close();
+                    c = defineClass(name, bytes.toByteArray(), 0, bytes.size());
+                } catch (IOException e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+            }
+            return c;
+        }
+    }
+}
@@ -10,9 +10,16 @@ package org.intermine.sql;
  *
  */
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Properties;
 
 import junit.framework.TestCase;
+
+import org.intermine.util.PropertiesUtil;
 import org.postgresql.ds.PGPoolingDataSource;
 
 public class DatabaseTest extends TestCase
@@ -85,6 +92,184 @@ public class DatabaseTest extends TestCase
         Database db = new Database(props);
         assertEquals("secret", db.getPassword());
     }
+    public void testConfigureConnectionPool() throws Exception {
+        props.put("datasource.class", "org.intermine.sql.ConnectionPool");
+        props.put("datasource.timeout", "1000");
+        props.put("datasource.pools", "export:2, background:1");
+        Database db = new Database(props);
+        assertTrue(db.getDataSource() instanceof ConnectionPool);
+        ConnectionPool pool = (ConnectionPool) db.getDataSource();
+        assertEquals(10, pool.getMaxConnections());
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    /**
+     * Makes a ConnectionPool for the unittest database, which must be closed by the caller.
+     */
+    private ConnectionPool makePool(int maxConnections) throws Exception {
+        Properties poolProps = PropertiesUtil.stripStart("db.unittest",
+                PropertiesUtil.getProperties());
+        poolProps.put("datasource.class", "org.intermine.sql.ConnectionPool");
+        poolProps.put("datasource.maxConnections", "" + maxConnections);
+        poolProps.put("datasource.dataSourceName", "test pool");
+        return (ConnectionPool) new Database(poolProps).getDataSource();
+    }
+
+    public void testPoolTimeout() throws Exception {
+        ConnectionPool pool = makePool(1);
+        pool.setTimeout(200);
+        try {
+            Connection c = pool.getConnection();
+            long start = System.currentTimeMillis();
+            try {
+                pool.getConnection();
+                fail("Expected SQLException");
+            } catch (SQLException e) {
+                assertTrue(System.currentTimeMillis() - start >= 200);
+            }
+            assertTrue(pool.getStatistics(), pool.getStatistics().contains("1 timed out"));
+            assertEquals(0, pool.getWaitingCount());
+            c.close();
+
+            // The connection is given to the next caller
+            c = pool.getConnection();
+            assertEquals(1, pool.getActiveCount());
+            c.close();
+            assertEquals(0, pool.getActiveCount());
+            assertEquals(1, pool.getIdleCount());
+        } finally {
+            pool.close();
+        }
+    }
+
+    public void testPoolPurposeLimits() throws Exception {
+        ConnectionPool pool = makePool(3);
+        pool.setTimeout(200);
+        pool.setPools("export:1");
+        try {
+            Connection export = pool.getConnection(Database.EXPORT);
+            try {
+                pool.getConnection(Database.EXPORT);
+                fail("Expected SQLException");
+            } catch (SQLException e) {
+                // The export connections are all in use
+            }
+            // Other purposes can still have connections
+            Connection interactive = pool.getConnection();
+            Connection background = pool.getConnection(Database.BACKGROUND);
+            assertEquals(1, pool.getActiveCount(Database.EXPORT));
+            assertEquals(1, pool.getActiveCount(Database.INTERACTIVE));
+            assertEquals(3, pool.getActiveCount());
+            export.close();
+            assertEquals(0, pool.getActiveCount(Database.EXPORT));
+            export = pool.getConnection(Database.EXPORT);
+            export.close();
+            interactive.close();
+            background.close();
+            assertEquals(0, pool.getActiveCount());
+        } finally {
+            pool.close();
+        }
+    }
+
+    public void testPoolValidation() throws Exception {
+        ConnectionPool pool = makePool(2);
+        pool.setValidationInterval(1);
+        try {
+            Connection c = pool.getConnection();
+            Connection killer = pool.getConnection();
+            int pid = getBackendPid(c);
+            c.close();
+
+            // Break the idle connection from outside the pool
+            Statement s = killer.createStatement();
+            s.execute("SELECT pg_terminate_backend(" + pid + ")");
+            s.close();
+            Thread.sleep(50);
+
+            // The pool notices, and opens a new connection instead
+            c = pool.getConnection();
+            assertTrue(getBackendPid(c) != pid);
+            assertTrue(pool.getStatistics(), pool.getStatistics().contains("1 found broken"));
+            c.close();
+            killer.close();
+        } finally {
+            pool.close();
+        }
+    }
+
+    private int getBackendPid(Connection c) throws SQLException {
+        Statement s = c.createStatement();
+        try {
+            ResultSet r = s.executeQuery("SELECT pg_backend_pid()");
+            assertTrue(r.next());
+            return r.getInt(1);
+        } finally {
+            s.close();
+        }
+    }
+
+    public void testPoolLeakReporting() throws Exception {
+        ConnectionPool pool = makePool(2);
+        pool.setLeakThreshold(100);
+        try {
+            Connection c = pool.getConnection();
+            assertTrue(pool.getStatistics(), pool.getStatistics().contains("0 leaked"));
+            // The pool looks for leaks by itself, without anyone waiting for a connection
+            Thread.sleep(500);
+            assertTrue(pool.getStatistics(), pool.getStatistics().contains("1 leaked"));
+            c.close();
+            Thread.sleep(200);
+            assertTrue(pool.getStatistics(), pool.getStatistics().contains("1 leaked"));
+        } finally {
+            pool.close();
+        }
+    }
+
+    public void testPoolCloseWithConnectionsInUse() throws Exception {
+        ConnectionPool pool = makePool(3);
+        Connection inUse = pool.getConnection();
+        Connection returned = pool.getConnection();
+        returned.close();
+        assertEquals(1, pool.getIdleCount());
+        pool.close();
+        assertEquals(0, pool.getIdleCount());
+        try {
+            pool.getConnection();
+            fail("Expected SQLException");
+        } catch (SQLException e) {
+            // The pool has been closed
+        }
+        // A connection in use still works until it is returned
+        assertEquals(1, pool.getActiveCount());
+        assertTrue(getBackendPid(inUse) > 0);
+        inUse.close();
+        assertTrue(inUse.isClosed());
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(0, pool.getIdleCount());
+        assertTrue(pool.getStatistics(), pool.getStatistics().contains("0 of 3 open"));
+    }
+
+    public void testPoolStatementConnection() throws Exception {
+        ConnectionPool pool = makePool(1);
+        try {
+            Connection c = pool.getConnection();
+            Statement s = c.createStatement();
+            assertSame(c, s.getConnection());
+            s.close();
+            PreparedStatement ps = c.prepareStatement("SELECT 1");
+            assertSame(c, ps.getConnection());
+            ResultSet r = ps.executeQuery();
+            assertTrue(r.next());
+            assertEquals(1, r.getInt(1));
+            ps.close();
+            c.close();
+            assertEquals(1, pool.getIdleCount());
+        } finally {
+            pool.close();
+        }
+    }
+
 /*
     public void manyTables(int tableCount) throws Exception {
         LOG.warn("Starting test with tableCount = " + tableCount);
@@ -10,6 +10,9 @@ package org.intermine.util;
  *
  */
 
+import java.util.HashSet;
+import java.util.Set;
+
 import junit.framework.TestCase;
 
 public class CacheMapTest extends TestCase
@@ -30,6 +33,25 @@ public class CacheMapTest extends TestCase
         assertTrue("Expected last two to be present", cm.containsKey(new Integer(298)) || cm.containsKey(new Integer(299)));
     }
 
+    public void testExpunged() throws Exception {
+        final Set<Integer> expunged = new HashSet<Integer>();
+        CacheMap<Integer, byte[]> cm = new CacheMap<Integer, byte[]>() {
+            @Override
+            protected void expunged(Integer key) {
+                expunged.add(key);
+            }
+        };
+        for (int i = 0; i < 300; i++) {
+            cm.put(new Integer(i), new byte[1048576]);
+        }
+
+        assertEquals(300, cm.size() + expunged.size());
+        assertFalse("Expected some entries to be thrown away", expunged.isEmpty());
+        for (Integer key : expunged) {
+            assertFalse(cm.containsKey(key));
+        }
+    }
+
     public void test2() throws Exception {
         CacheMap cm = new CacheMap();
 
@@ -1359,16 +1359,15 @@ public class AjaxServices
     public String[] getContent(String suffix, boolean wholeList, String field, String className) {
         ServletContext servletContext = WebContextFactory.get().getServletContext();
         AutoCompleter ac = SessionMethods.getAutoCompleter(servletContext);
-        ac.createRAMIndex(className + "." + field);
 
         // swap "-" for spaces, ticket #2357
         suffix = suffix.replace("-", " ");
 
         if (!wholeList && suffix.length() > 0) {
-            String[] shortList = ac.getFastList(suffix, field, 31);
+            String[] shortList = ac.getFastList(className, field, suffix, 31);
             return shortList;
         } else if (suffix.length() > 2 && wholeList) {
-            String[] longList = ac.getList(suffix, field);
+            String[] longList = ac.getList(className, field, suffix);
             return longList;
         }
         String[] defaultList = {""};
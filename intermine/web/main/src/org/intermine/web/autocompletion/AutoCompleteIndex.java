@@ -0,0 +1,257 @@
+package org.intermine.web.autocompletion;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A compact, read-only index of the values of one class field for autocompletion.  Each value
+ * is split into lower case words, and the words are kept in a sorted array together with the
+ * values they occur in, so a prefix search is a binary search for the first word with the prefix
+ * followed by a walk along the words that share it.  A query of several words finds the values
+ * that have a word starting with each of them, as the Lucene index did.
+ *
+ * The index is built into a byte array, which is stored with the others in the database, and
+ * read from a file that is memory-mapped so that it doesn't take up heap.  The layout is:
+ * magic, version, value count, word count, posting count, then the offsets of the values, the
+ * offsets of the words and the start of each word's postings as int arrays, the postings (value
+ * numbers), and finally the UTF-8 text of the values and words.
+ */
+public class AutoCompleteIndex
+{
+    private static final int MAGIC = 0x494d4143;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+    private final int valueCount, wordCount, postingCount;
+    private final int valueOffsets, wordOffsets, postingStarts, postings, text;
+
+    /**
+     * Read an index from a buffer.
+     * @param buffer the bytes of an index, as made by build()
+     * @throws IOException if the buffer doesn't hold an index
+     */
+    public AutoCompleteIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not an autocomplete index");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported autocomplete index version " + buffer.getInt(4));
+        }
+        valueCount = buffer.getInt(8);
+        wordCount = buffer.getInt(12);
+        postingCount = buffer.getInt(16);
+        valueOffsets = HEADER_SIZE;
+        wordOffsets = valueOffsets + 4 * (valueCount + 1);
+        postingStarts = wordOffsets + 4 * (wordCount + 1);
+        postings = postingStarts + 4 * (wordCount + 1);
+        text = postings + 4 * postingCount;
+    }
+
+    /**
+     * Memory-map an index file.
+     * @param file the file, holding the bytes made by build()
+     * @return the index
+     * @throws IOException if the file can't be read or doesn't hold an index
+     */
+    public static AutoCompleteIndex open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new AutoCompleteIndex(mapped);
+        } finally {
+            // the mapping stays valid after the file is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Build an index of some values.
+     * @param values the values, duplicates and nulls are ignored
+     * @return the bytes of the index
+     * @throws IOException if the index can't be written
+     */
+    public static byte[] build(Collection<String> values) throws IOException {
+        TreeSet<String> sortedValues = new TreeSet<String>();
+        for (String value : values) {
+            if (value != null) {
+                sortedValues.add(value);
+            }
+        }
+        List<String> valueList = new ArrayList<String>(sortedValues);
+        // word -> numbers of the values containing it, in value order
+        Map<String, List<Integer>> words = new TreeMap<String, List<Integer>>();
+        int postingCount = 0;
+        for (int i = 0; i < valueList.size(); i++) {
+            for (String word : new TreeSet<String>(tokenise(valueList.get(i)))) {
+                List<Integer> valueNumbers = words.get(word);
+                if (valueNumbers == null) {
+                    valueNumbers = new ArrayList<Integer>();
+                    words.put(word, valueNumbers);
+                }
+                valueNumbers.add(Integer.valueOf(i));
+                postingCount++;
+            }
+        }
+
+        ByteArrayOutputStream textBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(valueList.size());
+        out.writeInt(words.size());
+        out.writeInt(postingCount);
+        for (String value : valueList) {
+            out.writeInt(textBytes.size());
+            textBytes.write(value.getBytes(UTF8));
+        }
+        out.writeInt(textBytes.size());
+        for (String word : words.keySet()) {
+            out.writeInt(textBytes.size());
+            textBytes.write(word.getBytes(UTF8));
+        }
+        out.writeInt(textBytes.size());
+        int start = 0;
+        for (List<Integer> valueNumbers : words.values()) {
+            out.writeInt(start);
+            start += valueNumbers.size();
+        }
+        out.writeInt(start);
+        for (List<Integer> valueNumbers : words.values()) {
+            for (Integer valueNumber : valueNumbers) {
+                out.writeInt(valueNumber.intValue());
+            }
+        }
+        textBytes.writeTo(out);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Split a value or query into lower case words, at anything that isn't a letter or digit.
+     * @param value the string to split
+     * @return the words, in order
+     */
+    static List<String> tokenise(String value) {
+        List<String> words = new ArrayList<String>();
+        String lower = value.toLowerCase();
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start == -1) {
+                start = i;
+            } else if (!wordChar && start != -1) {
+                words.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Return the number of distinct values in the index.
+     * @return the number of values
+     */
+    public int size() {
+        return valueCount;
+    }
+
+    /**
+     * Find the values that have a word starting with each word of the query.
+     * @param query the text typed so far
+     * @param max the largest number of values to return
+     * @return the matching values, in sorted order
+     */
+    public List<String> search(String query, int max) {
+        List<String> results = new ArrayList<String>();
+        List<String> queryWords = tokenise(query);
+        if (queryWords.isEmpty()) {
+            return results;
+        }
+        BitSet matches = null;
+        for (String queryWord : queryWords) {
+            BitSet wordMatches = new BitSet(valueCount);
+            for (int w = firstWordFrom(queryWord); w < wordCount
+                    && getWord(w).startsWith(queryWord); w++) {
+                int end = buffer.getInt(postingStarts + 4 * (w + 1));
+                for (int p = buffer.getInt(postingStarts + 4 * w); p < end; p++) {
+                    wordMatches.set(buffer.getInt(postings + 4 * p));
+                }
+            }
+            if (matches == null) {
+                matches = wordMatches;
+            } else {
+                matches.and(wordMatches);
+            }
+            if (matches.isEmpty()) {
+                return results;
+            }
+        }
+        for (int v = matches.nextSetBit(0); v >= 0 && results.size() < max;
+                v = matches.nextSetBit(v + 1)) {
+            results.add(getValue(v));
+        }
+        return results;
+    }
+
+    // the number of the first word that isn't less than the given word
+    private int firstWordFrom(String word) {
+        int low = 0;
+        int high = wordCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getWord(mid).compareTo(word) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private String getValue(int v) {
+        return getText(valueOffsets + 4 * v);
+    }
+
+    private String getWord(int w) {
+        return getText(wordOffsets + 4 * w);
+    }
+
+    private String getText(int offsetPosition) {
+        int start = buffer.getInt(offsetPosition);
+        int end = buffer.getInt(offsetPosition + 4);
+        byte[] bytes = new byte[end - start];
+        ByteBuffer view = buffer.duplicate();
+        view.position(text + start);
+        view.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
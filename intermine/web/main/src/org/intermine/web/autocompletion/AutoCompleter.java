@@ -9,25 +9,37 @@ package org.intermine.web.autocompletion;
  * information or http://www.gnu.org/copyleft/lesser.html.
  *
  */
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.RAMDirectory;
 import org.intermine.metadata.ClassDescriptor;
 import org.intermine.objectstore.ObjectStore;
@@ -39,7 +51,12 @@ import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
 
 /**
- * Autocompleter class for initializing and using the autocompletion
+ * Autocompleter class for initializing and using the autocompletion.
+ *
+ * The indexes are built as AutoCompleteIndexes, one per class field, in parallel, and stored
+ * together as one blob in the database.  When the webapp reads the blob each index is written to
+ * a file in a local directory, and memory-mapped the first time it is searched.  Blobs written
+ * before this format, holding serialised Lucene RAMDirectories, are still read.
  *
  * @author Dominik Grimm
  * @author Michael Menden
@@ -52,11 +69,14 @@ public class AutoCompleter
     private HashMap<String, RAMDirectory> blobMap = new HashMap<String, RAMDirectory>();
     private Properties prob;
     private LuceneSearchEngine search = null;
-
-    private static final File TEMP_DIR =
-        new File("build" + File.separatorChar + "autocompleteIndexes");
+    private Map<String, byte[]> builtIndexes = new LinkedHashMap<String, byte[]>();
+    private File indexDir = null;
+    private Map<String, AutoCompleteIndex> openIndexes = new HashMap<String, AutoCompleteIndex>();
 
     private static final Logger LOG = Logger.getLogger(AutoCompleter.class);
+    // starts the blob in the current format, never the start of a Java serialisation stream
+    private static final int BLOB_MAGIC = 0x494d4142;
+    private static final int MAX_RESULTS = 500;
 
     /**
      * Autocompleter standard constructor.
@@ -87,70 +107,183 @@ public class AutoCompleter
      * Autocompleter rebuild constructor.
      * @param blobInput InputStream from database
      */
-    @SuppressWarnings("unchecked")
     public AutoCompleter(InputStream blobInput) {
         try {
-            ObjectInputStream objectInput = new ObjectInputStream(blobInput);
-
-            Object object = objectInput.readObject();
-
+            InputStream in = new BufferedInputStream(blobInput);
+            in.mark(4);
+            int magic = new DataInputStream(in).readInt();
+            in.reset();
+            if (magic == BLOB_MAGIC) {
+                extractIndexes(in);
+            } else {
+                readRAMDirectories(in);
+            }
             blobInput.close();
+        } catch (IOException e) {
+            LOG.error("Failed to read the autocomplete indexes", e);
+        } catch (ClassNotFoundException e) {
+            LOG.error("Failed to read the autocomplete indexes", e);
+        }
+    }
 
-            if (object instanceof HashMap<?, ?>) {
-                blobMap = (HashMap<String, RAMDirectory>) object;
-
-                for (Iterator<Map.Entry<String, RAMDirectory>> iter = blobMap.entrySet().iterator();
-                        iter.hasNext();) {
-                    Map.Entry<String, RAMDirectory> entry =
-                        iter.next();
-                    String key = entry.getKey();
-                    RAMDirectory value = null;
-                    value = entry.getValue();
-                    search = null;
-                    search = new LuceneSearchEngine(value);
-                    ramIndexMap.put(key, search);
-                    fieldIndexMap.put(key, key);
-                    LOG.info("AutoCompleter read index for: " + key);
+    /**
+     * Write the indexes from the blob to files in a new local directory.
+     */
+    private void extractIndexes(InputStream in) throws IOException {
+        indexDir = File.createTempFile("autocomplete", "");
+        if (!indexDir.delete() || !indexDir.mkdir()) {
+            throw new IOException("Can't create directory " + indexDir);
+        }
+        indexDir.deleteOnExit();
+        DataInputStream dataIn = new DataInputStream(in);
+        dataIn.readInt();
+        int count = dataIn.readInt();
+        byte[] buffer = new byte[65536];
+        for (int i = 0; i < count; i++) {
+            String key = dataIn.readUTF();
+            long length = dataIn.readLong();
+            File file = new File(indexDir, key);
+            file.deleteOnExit();
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+            try {
+                while (length > 0) {
+                    int read = dataIn.read(buffer, 0, (int) Math.min(buffer.length, length));
+                    if (read == -1) {
+                        throw new IOException("Autocomplete index " + key + " is truncated");
+                    }
+                    out.write(buffer, 0, read);
+                    length -= read;
                 }
+            } finally {
+                out.close();
             }
+            fieldIndexMap.put(key, key);
+            LOG.info("AutoCompleter read index for: " + key);
+        }
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
+    @SuppressWarnings("unchecked")
+    private void readRAMDirectories(InputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream objectInput = new ObjectInputStream(in);
+
+        Object object = objectInput.readObject();
+
+        if (object instanceof HashMap<?, ?>) {
+            blobMap = (HashMap<String, RAMDirectory>) object;
+
+            for (Iterator<Map.Entry<String, RAMDirectory>> iter = blobMap.entrySet().iterator();
+                    iter.hasNext();) {
+                Map.Entry<String, RAMDirectory> entry =
+                    iter.next();
+                String key = entry.getKey();
+                RAMDirectory value = null;
+                value = entry.getValue();
+                search = null;
+                search = new LuceneSearchEngine(value);
+                ramIndexMap.put(key, search);
+                fieldIndexMap.put(key, key);
+                LOG.info("AutoCompleter read index for: " + key);
+            }
+        }
+    }
+
+    /**
+     * Return the index of a class field, memory-mapping it the first time it is asked for.
+     * @param classAndField the class and field (e.g. GOTerm.name)
+     * @return the index, or null if there isn't one in the current format
+     */
+    protected synchronized AutoCompleteIndex getIndex(String classAndField) {
+        AutoCompleteIndex index = openIndexes.get(classAndField);
+        if (index == null && indexDir != null && fieldIndexMap.containsKey(classAndField)) {
+            try {
+                index = AutoCompleteIndex.open(new File(indexDir, classAndField));
+                openIndexes.put(classAndField, index);
+            } catch (IOException e) {
+                LOG.error("Failed to open the autocomplete index for " + classAndField, e);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Return the values of a class field that match a query.  Each word of the query matches
+     * the start of a word of the value.
+     * @param className the unqualified class name
+     * @param field the field name
+     * @param query the text typed so far
+     * @param n the largest number of results to return
+     * @return string array with search results and a status at position 0, or null if the
+     * query is empty or starts with a wildcard
+     */
+    public String[] getFastList(String className, String field, String query, int n) {
+        if ("".equals(query) || query.trim().startsWith("*")) {
+            return null;
+        }
+        String classAndField = className + "." + field;
+        AutoCompleteIndex index = getIndex(classAndField);
+        if (index == null) {
+            LuceneSearchEngine engine = ramIndexMap.get(classAndField);
+            if (engine == null) {
+                return null;
+            }
+            return engine.fastSearch(query, field, n);
+        }
+        List<String> values = index.search(query, n);
+        String[] results = new String[values.size() + 1];
+        results[0] = "true";
+        for (int i = 0; i < values.size(); i++) {
+            results[i + 1] = values.get(i);
         }
+        return results;
     }
 
     /**
-     * create the RAMIndex for the search engine
+     * Return up to 500 values of a class field that match a query.
+     * @param className the unqualified class name
+     * @param field the field name
+     * @param query the text typed so far
+     * @return string array with search results and a status at position 0
+     */
+    public String[] getList(String className, String field, String query) {
+        String classAndField = className + "." + field;
+        if (getIndex(classAndField) == null) {
+            LuceneSearchEngine engine = ramIndexMap.get(classAndField);
+            if (engine == null) {
+                return new String[] {"No results! Please try again."};
+            }
+            return getList(engine, query, field);
+        }
+        String[] results = getFastList(className, field, query, MAX_RESULTS);
+        if (results == null) {
+            results = new String[] {"Please type in more characters to get results."};
+        }
+        return results;
+    }
+
+    /**
+     * Choose the index searched by getList(String, String) and getFastList(String, String, int).
+     * Only for indexes read from an old format blob.
      * @param classDes String of the class and the field (e.g. GOTerm.name)
      */
     public void createRAMIndex(String classDes) {
         if (ramIndexMap.get(classDes) != null) {
-            search = null;
             search = ramIndexMap.get(classDes);
-        } else {
-            try {
-                String indexFile = TEMP_DIR.toString() + File.separatorChar + classDes;
-                RAMDirectory ram = new RAMDirectory(FSDirectory.open(new File(indexFile)));
-                search = new LuceneSearchEngine(ram);
-                ramIndexMap.put(classDes, search);
-                blobMap.put(classDes, ram);
-            } catch (IOException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            }
         }
     }
 
     /**
-     * returns a string array with the search results of the query in the field
+     * returns a string array with the search results of the query in the field of the
+     * index chosen by createRAMIndex().  Only for indexes read from an old format blob.
      * @param query is the string used for search
      * @param field is the field in which you like to search (e.g. name)
      * @return stringList string array with the whole search results including
      *           an error flag at position 0
      */
     public String[] getList(String query, String field) {
+        return getList(search, query, field);
+    }
+
+    private static String[] getList(LuceneSearchEngine search, String query, String field) {
         String[] stringList = null;
         String status = "true";
         int counter = 1;
@@ -181,13 +314,17 @@ public class AutoCompleter
                 }
             }
         }
+        if (stringList == null) {
+            stringList = new String[1];
+        }
         stringList[0] = status;
 
         return stringList;
     }
 
     /**
-     * Returns n search results
+     * Returns n search results from the index chosen by createRAMIndex().  Only for indexes
+     * read from an old format blob.
      * @param query is the string used for search
      * @param field is the field in which you like to search (e.g. name)
      * @param n number of the first n search results
@@ -208,14 +345,8 @@ public class AutoCompleter
     public void buildIndex(ObjectStore os)
         throws IOException, ObjectStoreException, ClassNotFoundException {
 
-        if (TEMP_DIR.exists()) {
-            if (!TEMP_DIR.isDirectory()) {
-                throw new RuntimeException(TEMP_DIR + " exists but isn't a directory - remove it");
-            }
-        } else {
-            TEMP_DIR.mkdirs();
-        }
-
+        final List<String> classAndFields = new ArrayList<String>();
+        List<Callable<byte[]>> builds = new ArrayList<Callable<byte[]>>();
         for (Map.Entry<Object, Object> entry: prob.entrySet()) {
             String key = (String) entry.getKey();
             String value = (String) entry.getValue();
@@ -233,49 +364,100 @@ public class AutoCompleter
 
                 String fieldName = i.next();
                 String classAndField = cld.getUnqualifiedName() + "." + fieldName;
-                System.out .println("Indexing " + classAndField);
                 fieldIndexMap.put(classAndField, classAndField);
 
-
                 Query q = new Query();
                 q.setDistinct(true);
                 QueryClass qc = new QueryClass(Class.forName(cld.getName()));
                 q.addToSelect(new QueryField(qc, fieldName));
                 q.addFrom(qc);
-                Results results = os.execute(q);
-
-                LuceneObjectClass objectClass = new LuceneObjectClass(classAndField);
-                objectClass.addField(fieldName);
+                classAndFields.add(classAndField);
+                builds.add(new IndexBuild(os, q, classAndField));
+            }
+        }
 
-                for (Object resRow: results) {
-                    Object fieldValue = ((ResultsRow) resRow).get(0);
-                    if (fieldValue != null) {
-                        objectClass.addValueToField(objectClass.getFieldName(0), fieldValue
-                                .toString());
-                    }
-                }
+        int threads = Math.max(1, Math.min(builds.size(),
+                    Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<byte[]>> futures = pool.invokeAll(builds);
+            for (int i = 0; i < futures.size(); i++) {
+                builtIndexes.put(classAndFields.get(i), futures.get(i).get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while building autocomplete indexes");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ObjectStoreException) {
+                throw (ObjectStoreException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            IOException ioe = new IOException("Failed to build autocomplete indexes");
+            ioe.initCause(cause);
+            throw ioe;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 
-                String indexFileName = TEMP_DIR.getPath() + File.separatorChar + classAndField;
-                LuceneIndex indexer = new LuceneIndex(indexFileName);
-                indexer.addClass(objectClass);
-                indexer.rebuildClassIndexes();
+    /**
+     * Reads the values of one class field and builds their index.
+     */
+    private static class IndexBuild implements Callable<byte[]>
+    {
+        private final ObjectStore os;
+        private final Query q;
+        private final String classAndField;
+
+        IndexBuild(ObjectStore os, Query q, String classAndField) {
+            this.os = os;
+            this.q = q;
+            this.classAndField = classAndField;
+        }
 
-                createRAMIndex(classAndField);
+        public byte[] call() throws IOException {
+            LOG.info("Indexing " + classAndField);
+            Results results = os.execute(q);
+            List<String> values = new ArrayList<String>();
+            for (Object resRow: results) {
+                Object fieldValue = ((ResultsRow) resRow).get(0);
+                if (fieldValue != null) {
+                    values.add(fieldValue.toString());
+                }
             }
+            byte[] index = AutoCompleteIndex.build(values);
+            LOG.info("Indexed " + values.size() + " values of " + classAndField + " in "
+                    + index.length + " bytes");
+            return index;
         }
     }
 
     /**
-     * Returns byte array of the RAMIndexMap
-     * @return Returns byte array of the RAMIndexMap
+     * Returns the indexes as a byte array, to be stored in the database.  Indexes read from an
+     * old format blob are written in the old format.
+     * @return Returns byte array of the indexes
      * @throws IOException IOException
      */
     public byte[] getBinaryIndexMap() throws IOException {
         ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        ObjectOutputStream objectStream = new ObjectOutputStream(byteStream);
-        objectStream.writeObject(blobMap);
-        objectStream.close();
-
+        if (!blobMap.isEmpty()) {
+            ObjectOutputStream objectStream = new ObjectOutputStream(byteStream);
+            objectStream.writeObject(blobMap);
+            objectStream.close();
+        } else {
+            DataOutputStream out = new DataOutputStream(byteStream);
+            out.writeInt(BLOB_MAGIC);
+            out.writeInt(builtIndexes.size());
+            for (Map.Entry<String, byte[]> entry : builtIndexes.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+            out.close();
+        }
         return byteStream.toByteArray();
     }
 
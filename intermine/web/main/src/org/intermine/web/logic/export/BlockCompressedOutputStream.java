@@ -0,0 +1,144 @@
+package org.intermine.web.logic.export;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An OutputStream that compresses data in the blocked gzip (BGZF) format written by bgzip. The
+ * output is a series of gzip members of at most 64k each, so it can be read by any gzip reader,
+ * and can also be indexed with tabix once it is sorted by position. Data is written out a whole
+ * block at a time, so flush() does not end the current block.
+ */
+public class BlockCompressedOutputStream extends FilterOutputStream
+{
+    /** The maximum amount of uncompressed data in one block, as used by bgzip. */
+    public static final int MAX_BLOCK_INPUT = 0xff00;
+
+    private static final int MAX_BLOCK_SIZE = 0x10000;
+    private static final int HEADER_SIZE = 18;
+    private static final int FOOTER_SIZE = 8;
+    private static final byte[] EOF_BLOCK = new byte[] {
+        0x1f, (byte) 0x8b, 0x08, 0x04, 0x00, 0x00, 0x00, 0x00, 0x00, (byte) 0xff, 0x06, 0x00,
+        0x42, 0x43, 0x02, 0x00, 0x1b, 0x00, 0x03, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+        0x00, 0x00};
+
+    private final byte[] buffer = new byte[MAX_BLOCK_INPUT];
+    private final byte[] compressed = new byte[MAX_BLOCK_SIZE];
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final Deflater storer = new Deflater(Deflater.NO_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private int count = 0;
+    private boolean finished = false;
+
+    /**
+     * Constructor.
+     *
+     * @param out the stream to write the compressed data to
+     */
+    public BlockCompressedOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int b) throws IOException {
+        buffer[count++] = (byte) b;
+        if (count == MAX_BLOCK_INPUT) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int toCopy = Math.min(len, MAX_BLOCK_INPUT - count);
+            System.arraycopy(b, off, buffer, count, toCopy);
+            count += toCopy;
+            off += toCopy;
+            len -= toCopy;
+            if (count == MAX_BLOCK_INPUT) {
+                writeBlock();
+            }
+        }
+    }
+
+    /**
+     * Writes out any buffered data and the empty block that marks the end of a BGZF file, without
+     * closing the underlying stream.
+     *
+     * @throws IOException if the underlying stream cannot be written to
+     */
+    public void finish() throws IOException {
+        if (!finished) {
+            writeBlock();
+            out.write(EOF_BLOCK);
+            finished = true;
+            deflater.end();
+            storer.end();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+
+    private void writeBlock() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        int compressedSize = deflate(deflater);
+        if (compressedSize < 0) {
+            // Incompressible data - a stored block always fits
+            compressedSize = deflate(storer);
+        }
+        crc.reset();
+        crc.update(buffer, 0, count);
+        int blockSize = HEADER_SIZE + compressedSize + FOOTER_SIZE;
+        byte[] header = new byte[] {0x1f, (byte) 0x8b, 0x08, 0x04, 0x00, 0x00, 0x00, 0x00, 0x00,
+            (byte) 0xff, 0x06, 0x00, 0x42, 0x43, 0x02, 0x00, (byte) ((blockSize - 1) & 0xff),
+            (byte) ((blockSize - 1) >> 8)};
+        out.write(header);
+        out.write(compressed, 0, compressedSize);
+        writeInt((int) crc.getValue());
+        writeInt(count);
+        count = 0;
+    }
+
+    private int deflate(Deflater d) {
+        d.reset();
+        d.setInput(buffer, 0, count);
+        d.finish();
+        int size = d.deflate(compressed, 0, MAX_BLOCK_SIZE - HEADER_SIZE - FOOTER_SIZE);
+        return d.finished() ? size : -1;
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+        out.write((value >> 16) & 0xff);
+        out.write((value >> 24) & 0xff);
+    }
+}
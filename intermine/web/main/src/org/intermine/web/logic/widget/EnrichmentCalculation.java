@@ -14,7 +14,6 @@ import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.Map;
 
-import org.apache.commons.math.distribution.HypergeometricDistributionImpl;
 
 /**
  * Calculate enrichment of an attribute applied to members of a sample that is a subset of a larger
@@ -57,6 +56,8 @@ public final class EnrichmentCalculation
         Map<String, PopulationInfo> annotatedPopulationInfo =
             input.getAnnotatedCountsInPopulation();
 
+        double[] logFactorials = input.getLogFactorials();
+
         Map<String, BigDecimal> rawResults = new HashMap<String, BigDecimal>();
         for (Map.Entry<String, Integer> entry : sampleCounts.entrySet()) {
             String attribute = entry.getKey();
@@ -65,9 +66,8 @@ public final class EnrichmentCalculation
             PopulationInfo pi = annotatedPopulationInfo.get(attribute);
             Integer populationCount = (pi != null) ? pi.getSize() : 0;
 
-            HypergeometricDistributionImpl h =
-                new HypergeometricDistributionImpl(populationSize, populationCount, sampleSize);
-            Double pValue = h.upperCumulativeProbability(sampleCount);
+            double pValue = upperCumulativeProbability(logFactorials, populationSize,
+                    populationCount, sampleSize, sampleCount);
             rawResults.put(attribute, new BigDecimal(pValue));
         }
 
@@ -86,5 +86,58 @@ public final class EnrichmentCalculation
 
         return results;
     }
-}
 
+    /**
+     * Return a table of ln(i!) for i from 0 to n inclusive.
+     * @param n the largest value to tabulate, normally the population size
+     * @return the table
+     */
+    static double[] logFactorials(int n) {
+        double[] table = new double[Math.max(n, 0) + 1];
+        for (int i = 2; i < table.length; i++) {
+            table[i] = table[i - 1] + Math.log(i);
+        }
+        return table;
+    }
+
+    /**
+     * Return the probability of seeing at least sampleCount items with an attribute in a sample of
+     * sampleSize from a population of populationSize where populationCount have the attribute,
+     * P(X &gt;= k).  This is the same value as HypergeometricDistributionImpl gives, but uses
+     * a table of log factorials computed once per population rather than once per term.
+     * @param logFactorials a table of ln(i!), see logFactorials(int)
+     * @param populationSize the population size, N
+     * @param populationCount the number of items in the population with the attribute, M
+     * @param sampleSize the sample size, n
+     * @param sampleCount the number of items in the sample with the attribute, k
+     * @return the p-value
+     */
+    static double upperCumulativeProbability(double[] logFactorials, int populationSize,
+            int populationCount, int sampleSize, int sampleCount) {
+        if (populationCount > populationSize || sampleSize > populationSize) {
+            throw new IllegalArgumentException("Counts must not exceed the population size "
+                    + populationSize + ": " + populationCount + ", " + sampleSize);
+        }
+        int lower = Math.max(0, sampleSize + populationCount - populationSize);
+        int upper = Math.min(populationCount, sampleSize);
+        if (sampleCount <= lower) {
+            return 1.0;
+        }
+        if (sampleCount > upper) {
+            return 0.0;
+        }
+        double logDenominator = logChoose(logFactorials, populationSize, sampleSize);
+        double p = 0.0;
+        // sum from the far end of the tail so that the small terms aren't lost
+        for (int x = upper; x >= sampleCount; x--) {
+            p += Math.exp(logChoose(logFactorials, populationCount, x)
+                    + logChoose(logFactorials, populationSize - populationCount, sampleSize - x)
+                    - logDenominator);
+        }
+        return Math.min(p, 1.0);
+    }
+
+    private static double logChoose(double[] logFactorials, int n, int k) {
+        return logFactorials[n] - logFactorials[k] - logFactorials[n - k];
+    }
+}
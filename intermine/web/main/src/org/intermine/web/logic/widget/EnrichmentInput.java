@@ -71,4 +71,12 @@ public interface EnrichmentInput
      * @return the number of tests to be performed
      */
     int getTestCount();
+
+    /**
+     * Return a table of ln(i!) for i from 0 to the population size N inclusive, used to calculate
+     * the hypergeometric p-values.  It only depends on the population, so implementations may
+     * share it between calculations on the same population.
+     * @return the table of log factorials
+     */
+    double[] getLogFactorials();
 }
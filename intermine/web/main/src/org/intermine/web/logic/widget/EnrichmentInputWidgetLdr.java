@@ -33,25 +33,16 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
     private final EnrichmentWidgetImplLdr ldr;
     private final ObjectStore os;
     private Map<String, Integer> sampleCounts = null;
-    private Map<String, PopulationInfo> populationCounts = null;
+    private PopulationStatistics population = null;
     private Map<String, String> labels = null;
     private static final int BATCH_SIZE = 20000;
 
-    // population queries that don't involve bags can be cached between widget executions
-    private static CacheMap<String, PopulationInfo> populationCache = new CacheMap<String,
-        PopulationInfo>();
-    private static CacheMap<String, Map<String, PopulationInfo>> populationCountsCache =
-        new CacheMap<String, Map<String, PopulationInfo>>();
-
-    private static CacheMap<String, Map<String, Long>> annotatedGeneLengthAverageInPopulation =
-            new CacheMap<String, Map<String, Long>>();
-
-    // TODO population counts and sizes are no longer cached
-
-    // TODO make a static cache from populate query to size and populationCounts maps,
-    // this should only have a few entries per widget depending on the organism composition
-    // of bags and other parameters, e.g. GO namespace.  But log cache size for a bit to make
-    // sure.  This should be a CacheMap, old cache was just a standard Map.
+    // population statistics don't depend on the list being analysed so are kept between widget
+    // executions, keyed on the widget, filter and organisms in the list (see
+    // EnrichmentWidgetImplLdr.getPopulationKey()), or on the population query for custom
+    // populations.  There should only be a few entries per widget.
+    private static CacheMap<String, PopulationStatistics> populationCache =
+        new CacheMap<String, PopulationStatistics>("enrichment population cache");
 
     /**
      * Construct with an EnrichmentWidgetLdr that contains queries needed for specific widget tests.
@@ -66,36 +57,57 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
 
     @Override
     public Map<String, PopulationInfo> getAnnotatedCountsInPopulation() {
-        if (populationCounts == null) {
-            Query query = ldr.getPopulationQuery(false);
-
-            populationCounts = populationCountsCache.get(query.toString());
-            if (populationCounts == null) {
-                populationCounts = new HashMap<String, PopulationInfo>();
-
-                Results results = os.execute(query, BATCH_SIZE, true, true, true);
-                Iterator iter = results.iterator();
-                while (iter.hasNext()) {
-                    ResultsRow row =  (ResultsRow) iter.next();
-
-                    // an identifier for an attribute value, e.g. a department name
-                    String identifier = String.valueOf(row.get(0));
-
-                    // the number of times the item is applied in the population, e.g. the number of
-                    // companies that contain a department with this name
-                    // TODO should check that casting from a long gives correct result
-                    Integer count = ((Long) row.get(1)).intValue();
-
-                    float geneLengthAverage = 0;
-                    if (row.size() > 2) {
-                        if (row.get(2) != null) {
-                            geneLengthAverage = ((BigDecimal) row.get(2)).floatValue();
-                        }
-                    }
-                    populationCounts.put(identifier, new PopulationInfo(count, geneLengthAverage));
+        return getPopulationStatistics().getAnnotatedCounts();
+    }
+
+    /**
+     * Return the population side of the test, from the cache if this population has been seen
+     * before, so that only the sample needs to be queried per request.
+     * @return the population statistics
+     */
+    public PopulationStatistics getPopulationStatistics() {
+        if (population == null) {
+            String key = ldr.getPopulationKey();
+            if (key == null) {
+                key = ldr.getPopulationQuery(false).toString();
+            }
+            synchronized (populationCache) {
+                population = populationCache.get(key);
+            }
+            if (population == null) {
+                population = new PopulationStatistics(fetchPopulationInfo(),
+                        fetchAnnotatedCountsInPopulation());
+                synchronized (populationCache) {
+                    populationCache.put(key, population);
+                }
+            }
+        }
+        return population;
+    }
+
+    private Map<String, PopulationInfo> fetchAnnotatedCountsInPopulation() {
+        Map<String, PopulationInfo> populationCounts = new HashMap<String, PopulationInfo>();
+        Query query = ldr.getPopulationQuery(false);
+        Results results = os.execute(query, BATCH_SIZE, true, true, true);
+        Iterator iter = results.iterator();
+        while (iter.hasNext()) {
+            ResultsRow row =  (ResultsRow) iter.next();
+
+            // an identifier for an attribute value, e.g. a department name
+            String identifier = String.valueOf(row.get(0));
+
+            // the number of times the item is applied in the population, e.g. the number of
+            // companies that contain a department with this name
+            // TODO should check that casting from a long gives correct result
+            Integer count = ((Long) row.get(1)).intValue();
+
+            float geneLengthAverage = 0;
+            if (row.size() > 2) {
+                if (row.get(2) != null) {
+                    geneLengthAverage = ((BigDecimal) row.get(2)).floatValue();
                 }
-                populationCountsCache.put(query.toString(), populationCounts);
             }
+            populationCounts.put(identifier, new PopulationInfo(count, geneLengthAverage));
         }
         return populationCounts;
     }
@@ -138,23 +150,22 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
 
     @Override
     public PopulationInfo getPopulationInfo() {
+        return getPopulationStatistics().getTotal();
+    }
+
+    private PopulationInfo fetchPopulationInfo() {
         Query q = ldr.getPopulationQuery(true);
-        PopulationInfo populationInfo = populationCache.get(q.toString());
-        if (populationInfo == null) {
-            int size = 0;
-            Object extraAttribute = 0;
-            Results res = os.execute(q);
-            List<Object> info = (List<Object>) res.get(0);
-            size = ((Long) info.get(0)).intValue();
-            if (info.size() > 1) {
-                if (info.get(1) != null) {
-                    extraAttribute = info.get(1);
-                }
+        int size = 0;
+        Object extraAttribute = 0;
+        Results res = os.execute(q);
+        List<Object> info = (List<Object>) res.get(0);
+        size = ((Long) info.get(0)).intValue();
+        if (info.size() > 1) {
+            if (info.get(1) != null) {
+                extraAttribute = info.get(1);
             }
-            populationInfo = new PopulationInfo(size, extraAttribute);
-            populationCache.put(q.toString(), populationInfo);
         }
-        return populationInfo;
+        return new PopulationInfo(size, extraAttribute);
     }
 
     @Override
@@ -166,7 +177,12 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
 
     @Override
     public int getTestCount() {
-        return populationCounts.keySet().size();
+        return getPopulationStatistics().getTestCount();
+    }
+
+    @Override
+    public double[] getLogFactorials() {
+        return getPopulationStatistics().getLogFactorials();
     }
 
     private int calcTotal(Query q) {
@@ -9,6 +9,7 @@ package org.intermine.web.logic.widget;
  * information or http://www.gnu.org/copyleft/lesser.html.
  *
  */
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
@@ -299,6 +300,47 @@ public class EnrichmentWidgetImplLdr extends WidgetLdr
         return getQuery(actionLocal, null);
     }
 
+    /**
+     * Return a key identifying the population this widget tests against, independently of the
+     * list being analysed, so that population statistics can be shared between lists.  The key
+     * is made from the widget, the filter, whether a correction coefficient is in use and the
+     * values that any [list] constraints take in the list (e.g. the organisms of its genes).
+     *
+     * @return the key, or null if a custom population is in use, as that is a bag which may
+     * change and so can't be shared
+     */
+    public String getPopulationKey() {
+        if (populationBag != null) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(String.valueOf(os));
+        key.append("|").append(config.getId()).append("|").append(filter);
+        key.append("|").append(extraCorrectionCoefficient && correctionCoefficient.isApplicable());
+        for (PathConstraint pathConstraint : config.getPathConstraints()) {
+            if (WidgetConfigUtil.isListConstraint(pathConstraint)) {
+                key.append("|").append(pathConstraint.getPath()).append("=")
+                    .append(getListValues(pathConstraint.getPath()));
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Return the distinct values the given path takes for the items in the list, in order.
+     */
+    private List<Object> getListValues(String path) {
+        queryClassInQuery = new HashMap<String, QueryClass>();
+        queryClassInQuery.put(startClass.getType().getSimpleName(), startClass);
+        Query query = new Query();
+        query.setConstraint(new ConstraintSet(ConstraintOp.AND));
+        query.addFrom(startClass);
+        createQueryFieldByPath(path, query, true);
+        ((ConstraintSet) query.getConstraint()).addConstraint(new BagConstraint(
+                new QueryField(startClass, "id"), ConstraintOp.IN, bag.getOsb()));
+        query.setDistinct(true);
+        return new ArrayList<Object>(os.executeSingleton(query));
+    }
+
     /**
      * @param keys the keys to the records to be exported
      * @return the query representing the records to be exported
@@ -0,0 +1,154 @@
+package org.intermine.web.logic.widget;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The population side of an enrichment test: the population size N and, for each attribute value,
+ * the number of items in the population with that value, M.  These only depend on the widget and
+ * the population, not on the list being analysed, so are kept between requests.  The counts are
+ * held in sorted parallel arrays rather than a map of PopulationInfo objects, as GO widgets have
+ * tens of thousands of terms.
+ */
+public class PopulationStatistics
+{
+    private final PopulationInfo total;
+    private final String[] identifiers;
+    private final int[] counts;
+    private final float[] extras;
+    private double[] logFactorials = null;
+
+    /**
+     * Construct population statistics.
+     * @param total the size of the whole population, and any extra attribute for it
+     * @param annotated for each attribute value, the count of items in the population with it
+     */
+    public PopulationStatistics(PopulationInfo total, Map<String, PopulationInfo> annotated) {
+        this.total = total;
+        identifiers = annotated.keySet().toArray(new String[annotated.size()]);
+        Arrays.sort(identifiers);
+        counts = new int[identifiers.length];
+        extras = new float[identifiers.length];
+        for (int i = 0; i < identifiers.length; i++) {
+            PopulationInfo pi = annotated.get(identifiers[i]);
+            counts[i] = pi.getSize();
+            Object extra = pi.getExtraAttribute();
+            extras[i] = (extra instanceof Number) ? ((Number) extra).floatValue() : 0;
+        }
+    }
+
+    /**
+     * @return the population size, N, and any extra attribute for the whole population
+     */
+    public PopulationInfo getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the number of distinct attribute values seen in the population
+     */
+    public int getTestCount() {
+        return identifiers.length;
+    }
+
+    /**
+     * @param identifier an attribute value
+     * @return the number of items in the population with that value, or 0 if there are none
+     */
+    public int getCount(String identifier) {
+        int i = Arrays.binarySearch(identifiers, identifier);
+        return (i < 0) ? 0 : counts[i];
+    }
+
+    /**
+     * Return a table of ln(i!) for every i up to the population size, for use in hypergeometric
+     * tests against this population.  It is built on first use and then kept.
+     * @return the log factorial table
+     */
+    public synchronized double[] getLogFactorials() {
+        if (logFactorials == null) {
+            logFactorials = EnrichmentCalculation.logFactorials(total.getSize());
+        }
+        return logFactorials;
+    }
+
+    /**
+     * @return a read-only map view of the annotated counts, as used by correction coefficients
+     */
+    public Map<String, PopulationInfo> getAnnotatedCounts() {
+        return new AbstractMap<String, PopulationInfo>() {
+            @Override
+            public PopulationInfo get(Object key) {
+                if (!(key instanceof String)) {
+                    return null;
+                }
+                int i = Arrays.binarySearch(identifiers, (String) key);
+                return (i < 0) ? null : new PopulationInfo(counts[i], extras[i]);
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return (key instanceof String) && Arrays.binarySearch(identifiers, key) >= 0;
+            }
+
+            @Override
+            public int size() {
+                return identifiers.length;
+            }
+
+            @Override
+            public Set<Map.Entry<String, PopulationInfo>> entrySet() {
+                return new AbstractSet<Map.Entry<String, PopulationInfo>>() {
+                    @Override
+                    public int size() {
+                        return identifiers.length;
+                    }
+
+                    @Override
+                    public Iterator<Map.Entry<String, PopulationInfo>> iterator() {
+                        return new Iterator<Map.Entry<String, PopulationInfo>>() {
+                            private int i = 0;
+
+                            @Override
+                            public boolean hasNext() {
+                                return i < identifiers.length;
+                            }
+
+                            @Override
+                            public Map.Entry<String, PopulationInfo> next() {
+                                if (!hasNext()) {
+                                    throw new NoSuchElementException();
+                                }
+                                Map.Entry<String, PopulationInfo> entry =
+                                    new SimpleImmutableEntry<String, PopulationInfo>(
+                                        identifiers[i], new PopulationInfo(counts[i], extras[i]));
+                                i++;
+                                return entry;
+                            }
+
+                            @Override
+                            public void remove() {
+                                throw new UnsupportedOperationException();
+                            }
+                        };
+                    }
+                };
+            }
+        };
+    }
+}
@@ -41,6 +41,7 @@ import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.struts.action.ActionServlet;
 import org.apache.struts.action.PlugIn;
@@ -50,6 +51,7 @@ import org.intermine.api.InterMineAPI;
 import org.intermine.api.LinkRedirectManager;
 import org.intermine.api.bag.BagQueryConfig;
 import org.intermine.api.bag.BagQueryHelper;
+import org.intermine.api.bag.BagQueryIndex;
 import org.intermine.api.config.ClassKeyHelper;
 import org.intermine.api.profile.BagState;
 import org.intermine.api.profile.Profile;
@@ -213,6 +215,8 @@ public class InitialiserPlugin implements PlugIn
 
                 loadAutoCompleter(servletContext, os);
 
+                loadBagQueryIndex(im, webProperties);
+
                 cleanTags(im.getTagManager());
 
                 if (webConfig != null) {
@@ -409,6 +413,32 @@ public class InitialiserPlugin implements PlugIn
         return retval;
     }
 
+    /**
+     * Read the key values of the types listed in bag.index.types into an index for list
+     * upload, in the background so the webapp can start while it is built.
+     */
+    private void loadBagQueryIndex(InterMineAPI im, Properties webProperties) {
+        String typesProp = webProperties.getProperty("bag.index.types");
+        if (StringUtils.isBlank(typesProp)) {
+            return;
+        }
+        final List<String> types = new ArrayList<String>();
+        for (String type : typesProp.split(",")) {
+            if (StringUtils.isNotBlank(type)) {
+                types.add(type.trim());
+            }
+        }
+        final BagQueryIndex index = new BagQueryIndex(im.getObjectStore(), im.getClassKeys());
+        im.getBagQueryRunner().setIndex(index);
+        Thread builder = new Thread(new Runnable() {
+            public void run() {
+                index.build(types);
+            }
+        }, "BagQueryIndex builder");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
     /**
      *  Load user-friendly class description
      */
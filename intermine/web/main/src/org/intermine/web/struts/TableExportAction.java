@@ -39,6 +39,7 @@ import org.intermine.pathquery.OrderElement;
 import org.intermine.pathquery.Path;
 import org.intermine.pathquery.PathConstraint;
 import org.intermine.pathquery.PathQuery;
+import org.intermine.sql.Database;
 import org.intermine.template.SwitchOffAbility;
 import org.intermine.template.TemplateQuery;
 import org.intermine.util.StringUtil;
@@ -131,7 +132,14 @@ public class TableExportAction extends InterMineAction
             }
 
             PagedTable newPt = reorderPagedTable(pathQuery, unionPathSet, request);
-            exporter.export(newPt, request, response, tef, unionPathCollection, newPatCollection);
+            // Connections taken while exporting come from the export share of the pool
+            Database.setThreadPurpose(Database.EXPORT);
+            try {
+                exporter.export(newPt, request, response, tef, unionPathCollection,
+                        newPatCollection);
+            } finally {
+                Database.setThreadPurpose(null);
+            }
 
             // If null is returned then no forwarding is performed and
             // to the output is not flushed any jsp output, so user
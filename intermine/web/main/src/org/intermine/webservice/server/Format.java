@@ -27,7 +27,9 @@ public enum Format {
     /** JSON Table format constant **/
     TABLE("application/json;format=table"),
     /** JSON Row format constant **/
-    ROWS("application/json;format=rows");
+    ROWS("application/json;format=rows"),
+    /** Typed, dictionary encoded, column oriented binary format **/
+    COLUMNAR("application/x-intermine-columnar");
 
     public static final Set<Format> BASIC_FORMATS = new HashSet<Format>(Arrays.asList(
         HTML, TEXT, XML, JSON
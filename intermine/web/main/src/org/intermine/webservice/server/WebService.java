@@ -12,6 +12,7 @@ package org.intermine.webservice.server;
 
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
@@ -40,9 +41,11 @@ import org.intermine.util.PropertiesUtil;
 import org.intermine.util.StringUtil;
 import org.intermine.web.context.InterMineContext;
 import org.intermine.web.logic.RequestUtil;
+import org.intermine.web.logic.export.BlockCompressedOutputStream;
 import org.intermine.web.logic.export.Exporter;
 import org.intermine.web.logic.export.ResponseUtil;
 import org.intermine.web.logic.profile.LoginHandler;
+import org.intermine.webservice.server.core.ResponseCache;
 import org.intermine.webservice.server.exceptions.BadRequestException;
 import org.intermine.webservice.server.exceptions.InternalErrorException;
 import org.intermine.webservice.server.exceptions.MissingParameterException;
@@ -51,6 +54,7 @@ import org.intermine.webservice.server.exceptions.ServiceException;
 import org.intermine.webservice.server.exceptions.ServiceForbiddenException;
 import org.intermine.webservice.server.exceptions.UnauthorizedException;
 import org.intermine.webservice.server.output.CSVFormatter;
+import org.intermine.webservice.server.output.ColumnarOutput;
 import org.intermine.webservice.server.output.HTMLTableFormatter;
 import org.intermine.webservice.server.output.JSONCountFormatter;
 import org.intermine.webservice.server.output.JSONFormatter;
@@ -101,6 +105,7 @@ public abstract class WebService {
     private static final String COMPRESS = "compress";
     private static final String GZIP = "gzip";
     private static final String ZIP = "zip";
+    private static final String BGZIP = "bgzip";
 
     private static final Logger LOG = Logger.getLogger(WebService.class);
     private static final String AUTHENTICATION_FIELD_NAME = "Authorization";
@@ -139,6 +144,8 @@ public abstract class WebService {
 
     private ApiPermission permission = ProfileManager.getDefaultPermission(ANON_PROFILE);
     private boolean initialised = false;
+    private boolean failed = false;
+    private ResponseCache.Recorder responseRecorder = null;
     private String propertyNameSpace = null;
 
     /**
@@ -341,9 +348,12 @@ public abstract class WebService {
                 initialised = true;
                 postInit();
                 validateState();
-                execute();
+                if (!serveCachedResponse()) {
+                    execute();
+                }
             }
         } catch (Throwable t) {
+            failed = true;
             sendError(t, response);
         }
 
@@ -354,9 +364,18 @@ public abstract class WebService {
                 output.flush();
             }
         } catch (Throwable t) {
+            failed = true;
             logError(t, "Error flushing", 500);
         }
 
+        if (responseRecorder != null) {
+            if (failed) {
+                responseRecorder.abandon();
+            } else {
+                responseRecorder.commit();
+            }
+        }
+
         try {
             cleanUp();
         } catch (Throwable t) {
@@ -632,6 +651,14 @@ public abstract class WebService {
         return GZIP.equalsIgnoreCase(request.getParameter(COMPRESS));
     }
 
+    /**
+     * @return Whether or not this request wants data compressed in blocks by bgzip, which can be
+     * read as gzipped data.
+     */
+    protected boolean isBgzip() {
+        return BGZIP.equalsIgnoreCase(request.getParameter(COMPRESS));
+    }
+
     /**
      * @return Whether or not this request wants zipped data.
      */
@@ -650,7 +677,7 @@ public abstract class WebService {
      * @return the file-name extension for the result-set.
      */
     protected String getExtension() {
-        if (isGzip()) {
+        if (isGzip() || isBgzip()) {
             return ".gz";
         } else if (isZip()) {
             return ".zip";
@@ -674,8 +701,16 @@ public abstract class WebService {
             // set reasonable buffer size
             response.setBufferSize(8 * 1024);
             os = response.getOutputStream();
+            if (isCacheable() && getResponseCache() != null) {
+                // Record the response as sent, so it can be replayed if it turns out to be
+                // cacheable. This must happen below any compression.
+                responseRecorder = getResponseCache().record(os);
+                os = responseRecorder;
+            }
             if (isGzip()) {
                 os = new GZIPOutputStream(os);
+            } else if (isBgzip()) {
+                os = new BlockCompressedOutputStream(os);
             } else if (isZip()) {
                 os = new ZipOutputStream(new BufferedOutputStream(os));
             }
@@ -749,6 +784,14 @@ public abstract class WebService {
                 ResponseUtil.setJSONHeader(response, "result.json", formatIsJSONP());
             }
             break;
+        case COLUMNAR:
+            output = new ColumnarOutput(os);
+            filename = "result.imcb";
+            if (isUncompressed()) {
+                ResponseUtil.setCustomTypeHeader(response, filename,
+                        Format.COLUMNAR.getContentType());
+            }
+            break;
         default:
             output = getDefaultOutput(out, os, separator);
         }
@@ -764,6 +807,100 @@ public abstract class WebService {
         }
     }
 
+    /**
+     * Services whose responses depend only on their request parameters and the
+     * data in the production object store can return true here, and implement
+     * {@link #getCacheKey()}.
+     *
+     * @return Whether or not responses of this service may be cached. (default = false)
+     */
+    protected boolean isCacheable() {
+        return false;
+    }
+
+    /**
+     * Describe this request, for the purposes of caching its response. Two
+     * requests with the same key must produce the same response for a given
+     * release of the production database.
+     *
+     * @return A normalised description of the request, or null if this response
+     *         should not be cached.
+     */
+    protected String getCacheKey() {
+        return null;
+    }
+
+    /**
+     * Set a header that is part of the response, rather than a property of how it is sent,
+     * so that it is stored with the response in the cache and sent again when the response
+     * is replayed from there.
+     *
+     * @param name The name of the header.
+     * @param value The value of the header.
+     */
+    protected void setResponseHeader(String name, String value) {
+        response.setHeader(name, value);
+        if (responseRecorder != null) {
+            responseRecorder.setHeader(name, value);
+        }
+    }
+
+    private ResponseCache getResponseCache() {
+        return ResponseCache.getInstance(im.getObjectStore(), webProperties);
+    }
+
+    /**
+     * Answer the request from the response cache, if possible. The ETag header
+     * is set for all cacheable requests, and conditional requests for a
+     * response we still hold are answered with 304 (Not Modified).
+     *
+     * @return Whether or not the request has been answered.
+     */
+    private boolean serveCachedResponse() {
+        if (responseRecorder == null) {
+            return false;
+        }
+        String requestKey = getCacheKey();
+        if (requestKey == null) {
+            responseRecorder.abandon();
+            responseRecorder = null;
+            return false;
+        }
+        ResponseCache cache = getResponseCache();
+        String key = cache.makeKey(requestKey);
+        String etag = "\"" + key + "\"";
+        response.setHeader("ETag", etag);
+        File cached = cache.get(key);
+        if (cached == null) {
+            responseRecorder.setKey(key);
+            return false;
+        }
+        responseRecorder.abandon();
+        responseRecorder = null;
+        // Nothing has been sent yet, but compressing streams may have written headers.
+        response.resetBuffer();
+        output = null;
+        for (Map.Entry<String, String> header: cache.getHeaders(cached).entrySet()) {
+            response.setHeader(header.getKey(), header.getValue());
+        }
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null
+                && (ifNoneMatch.contains(etag) || "*".equals(ifNoneMatch.trim()))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        } else {
+            if (cached.length() <= Integer.MAX_VALUE) {
+                response.setContentLength((int) cached.length());
+            }
+            try {
+                cache.transfer(cached, response.getOutputStream());
+            } catch (IOException e) {
+                // Most likely the client went away - there is no way to report this to them.
+                LOG.warn("Error sending cached response", e);
+            }
+        }
+        return true;
+    }
+
     /**
      * @return The default file name for this service. (default = "result.tsv")
      */
@@ -19,6 +19,8 @@ public class WebServiceInput
 
     private Integer start;
 
+    private String continuation;
+
     private Integer maxCount;
 
     private String userName;
@@ -61,6 +63,24 @@ public class WebServiceInput
         this.start = start;
     }
 
+    /**
+     * Sets the continuation token that results should be returned from, in place of a start
+     * index.
+     * @param continuation continuation token
+     */
+    public void setContinuation(String continuation) {
+        this.continuation = continuation;
+    }
+
+    /**
+     * Returns the continuation token that results should be returned from, if one was given
+     * rather than a start index.
+     * @return continuation token or null
+     */
+    public String getContinuation() {
+        return continuation;
+    }
+
     /**
      * Sets maximum of returned results.
      * @param maxCount maximal count
@@ -19,6 +19,7 @@ import java.util.Properties;
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.lang.StringUtils;
+import org.intermine.objectstore.query.ContinuationToken;
 import org.intermine.util.PropertiesUtil;
 import org.intermine.util.StringUtil;
 import org.intermine.web.context.InterMineContext;
@@ -131,6 +132,12 @@ public class WebServiceRequestParser
      **/
     public static final String FORMAT_PARAMETER_JSONP_COUNT = "jsonpcount";
 
+    /**
+     * Value of parameter when user wants results in the compact binary
+     * column oriented format.
+     **/
+    public static final String FORMAT_PARAMETER_COLUMNAR = "columnar";
+
     /**Name of format parameter that specifies format of returned results. */
     public static final String OUTPUT_PARAMETER = "format";
 
@@ -152,10 +159,15 @@ public class WebServiceRequestParser
         input.setMaxCount(DEFAULT_MAX_COUNT);
         input.setStart(DEFAULT_START);
 
-        Integer start = parseInteger(request.getParameter(START_PARAMETER), START_PARAMETER, 0,
-                Integer.MAX_VALUE);
-        if (start != null) {
-            input.setStart(start);
+        String startParameter = request.getParameter(START_PARAMETER);
+        if (ContinuationToken.isToken(startParameter)) {
+            // a token from an earlier page, it is checked against the query when it is run
+            input.setContinuation(startParameter);
+        } else {
+            Integer start = parseInteger(startParameter, START_PARAMETER, 0, Integer.MAX_VALUE);
+            if (start != null) {
+                input.setStart(start);
+            }
         }
 
         Integer maxCount = parseInteger(request.getParameter(LIMIT_PARAMETER),
@@ -202,6 +214,7 @@ public class WebServiceRequestParser
         put(FORMAT_PARAMETER_JSON, Format.JSON);
         put(FORMAT_PARAMETER_JSONP_COUNT, Format.JSON);
         put(FORMAT_PARAMETER_JSON_COUNT, Format.JSON);
+        put(FORMAT_PARAMETER_COLUMNAR, Format.COLUMNAR);
     }};
 
     protected static Format interpretFormat(String format) {
@@ -298,6 +311,8 @@ public class WebServiceRequestParser
                         }
                         areAcceptable.add(Format.JSON);
                         continue;
+                    } else if (type.equals(Format.COLUMNAR.getContentType())) {
+                        areAcceptable.add(Format.COLUMNAR);
                     } else {
                         areAcceptable.add(Format.UNKNOWN);
                     }
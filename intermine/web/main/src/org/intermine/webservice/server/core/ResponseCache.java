@@ -0,0 +1,500 @@
+package org.intermine.webservice.server.core;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.intermine.modelproduction.MetadataManager;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+
+/**
+ * A disk-backed cache of complete web service responses.
+ *
+ * Entries are stored as files holding exactly the bytes that were sent to the client
+ * (after any compression), named by a hash of the release and the normalised request,
+ * so repeated requests can be answered by copying a file to the response, and clients
+ * can revalidate with the entry name as an ETag. The release is made up of the
+ * <code>project.releaseVersion</code> and the serial number of the production
+ * database, and all entries are purged when it changes. Headers that a service sets
+ * while writing the response, such as the token for the next page of results, are
+ * recorded with the entry and sent again when it is replayed.
+ *
+ * The cache is configured with the following web properties:
+ * <ul>
+ *   <li><code>ws.cache.dir</code>: the directory to store entries in (required).</li>
+ *   <li><code>ws.cache.max-entry-size</code>: the largest response to store, in bytes.
+ *   Responses are held in memory while they are recorded, so this also bounds the memory
+ *   used by each request.</li>
+ *   <li><code>ws.cache.max-size</code>: the total size of the cache, in bytes.</li>
+ * </ul>
+ */
+public class ResponseCache
+{
+    private static final Logger LOG = Logger.getLogger(ResponseCache.class);
+
+    /** The property naming the directory to store responses in. **/
+    public static final String DIR_PROPERTY = "ws.cache.dir";
+    /** The property giving the size in bytes of the largest response to store. **/
+    public static final String MAX_ENTRY_SIZE_PROPERTY = "ws.cache.max-entry-size";
+    /** The property giving the total size in bytes the cache may grow to. **/
+    public static final String MAX_SIZE_PROPERTY = "ws.cache.max-size";
+
+    private static final long DEFAULT_MAX_ENTRY_SIZE = 16L * 1024 * 1024;
+    private static final long DEFAULT_MAX_SIZE = 4L * 1024 * 1024 * 1024;
+    private static final long RELEASE_CHECK_INTERVAL = 60 * 1000;
+    private static final String ENTRY_SUFFIX = ".response";
+    private static final String HEADERS_SUFFIX = ".headers";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String RELEASE_FILE = "RELEASE";
+
+    private static ResponseCache instance = null;
+    private static boolean configured = false;
+
+    private final File dir;
+    private final ObjectStore os;
+    private final String releaseVersion;
+    private final long maxEntrySize;
+    private final long maxSize;
+
+    private String release;
+    private long lastReleaseCheck;
+    private long size = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Get the response cache configured for this webapp.
+     * @param os The production object store.
+     * @param webProperties The web properties.
+     * @return The cache, or null if no cache directory has been configured.
+     */
+    public static synchronized ResponseCache getInstance(ObjectStore os, Properties webProperties) {
+        if (!configured) {
+            configured = true;
+            String dirName = webProperties.getProperty(DIR_PROPERTY);
+            if (StringUtils.isNotBlank(dirName)) {
+                instance = new ResponseCache(new File(dirName.trim()), os,
+                        webProperties.getProperty("project.releaseVersion"),
+                        getLong(webProperties, MAX_ENTRY_SIZE_PROPERTY, DEFAULT_MAX_ENTRY_SIZE),
+                        getLong(webProperties, MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE));
+            }
+        }
+        return instance;
+    }
+
+    private static long getLong(Properties props, String name, long defaultValue) {
+        String value = props.getProperty(name);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.warn("Ignoring invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param dir The directory to store responses in.
+     * @param os The production object store, whose serial number identifies the release. May
+     *           be null, in which case only the release version is used.
+     * @param releaseVersion The release version of the mine.
+     * @param maxEntrySize The size in bytes of the largest response to store.
+     * @param maxSize The total size in bytes the cache may grow to.
+     */
+    public ResponseCache(File dir, ObjectStore os, String releaseVersion, long maxEntrySize,
+            long maxSize) {
+        this.dir = dir;
+        this.os = os;
+        this.releaseVersion = releaseVersion;
+        this.maxEntrySize = maxEntrySize;
+        this.maxSize = maxSize;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create cache directory " + dir);
+        }
+        // Left behind by responses that were being recorded when the webapp stopped.
+        deleteFiles(TEMP_SUFFIX);
+        checkRelease();
+    }
+
+    /**
+     * Make the key for a request. The key is a hash of the current release and the
+     * request, and is suitable for use as an ETag.
+     * @param request A normalised description of everything that determines the response.
+     * @return A key.
+     */
+    public synchronized String makeKey(String request) {
+        return DigestUtils.shaHex(release + "\n" + request);
+    }
+
+    /**
+     * Look up a stored response.
+     * @param key The key of the response.
+     * @return The file holding the response, or null if there is none.
+     */
+    public synchronized File get(String key) {
+        if (System.currentTimeMillis() - lastReleaseCheck > RELEASE_CHECK_INTERVAL) {
+            checkRelease();
+        }
+        File entry = new File(dir, key + ENTRY_SUFFIX);
+        if (entry.isFile()) {
+            hits++;
+            // Used for least-recently-used eviction.
+            entry.setLastModified(System.currentTimeMillis());
+            return entry;
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Read the headers that were stored with a response, such as the token for the next page
+     * of results. These are the headers set through the recorder, not those every request sets.
+     * @param entry The stored response, as returned by get.
+     * @return A map from header name to value, empty if none were stored.
+     */
+    public Map<String, String> getHeaders(File entry) {
+        Map<String, String> retval = new LinkedHashMap<String, String>();
+        File headersFile = headersFile(entry);
+        if (!headersFile.isFile()) {
+            return retval;
+        }
+        Properties headers = new Properties();
+        try {
+            InputStream in = new FileInputStream(headersFile);
+            try {
+                headers.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not read " + headersFile, e);
+        }
+        for (String name: headers.stringPropertyNames()) {
+            retval.put(name, headers.getProperty(name));
+        }
+        return retval;
+    }
+
+    /**
+     * Copy a stored response to a stream, letting the platform transfer the data directly
+     * from the file where it can.
+     * @param entry The stored response, as returned by get.
+     * @param out The stream to write to.
+     * @throws IOException If the response cannot be read or written.
+     */
+    public void transfer(File entry, OutputStream out) throws IOException {
+        FileInputStream in = new FileInputStream(entry);
+        try {
+            FileChannel channel = in.getChannel();
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = 0;
+            long length = channel.size();
+            while (position < length) {
+                position += channel.transferTo(position, length - position, target);
+            }
+            out.flush();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Start recording a response as it is written.
+     * @param out The stream the response is written to.
+     * @return A stream that writes to <code>out</code> and records what it writes.
+     */
+    public Recorder record(OutputStream out) {
+        return new Recorder(out);
+    }
+
+    /**
+     * @return The number of lookups that found a stored response.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return The number of lookups that did not find a stored response.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Remove all stored responses.
+     */
+    public synchronized void purge() {
+        deleteFiles(ENTRY_SUFFIX);
+        deleteFiles(HEADERS_SUFFIX);
+        size = 0;
+    }
+
+    private void deleteFiles(String suffix) {
+        for (File f: listFiles()) {
+            if (f.getName().endsWith(suffix) && !f.delete()) {
+                LOG.warn("Could not delete " + f);
+            }
+        }
+    }
+
+    private File[] listFiles() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        return files;
+    }
+
+    private synchronized void checkRelease() {
+        lastReleaseCheck = System.currentTimeMillis();
+        String current = readRelease();
+        if (current.equals(release)) {
+            return;
+        }
+        release = current;
+        File releaseFile = new File(dir, RELEASE_FILE);
+        try {
+            String stored = releaseFile.exists()
+                ? FileUtils.readFileToString(releaseFile, "UTF-8") : null;
+            if (current.equals(stored)) {
+                size = 0;
+                for (File f: listFiles()) {
+                    if (f.getName().endsWith(ENTRY_SUFFIX)) {
+                        size += f.length();
+                    }
+                }
+            } else {
+                LOG.info("Release is now " + current + " - purging cached responses");
+                purge();
+                FileUtils.writeStringToFile(releaseFile, current, "UTF-8");
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not check the release of the cached responses", e);
+            purge();
+        }
+    }
+
+    private String readRelease() {
+        String serial = null;
+        if (os instanceof ObjectStoreInterMineImpl) {
+            try {
+                serial = MetadataManager.retrieve(((ObjectStoreInterMineImpl) os).getDatabase(),
+                        MetadataManager.SERIAL_NUMBER);
+            } catch (SQLException e) {
+                LOG.warn("Could not read the serial number of the production database", e);
+            }
+        }
+        return releaseVersion + "/" + serial;
+    }
+
+    private static File headersFile(File entry) {
+        String name = entry.getName();
+        return new File(entry.getParentFile(),
+                name.substring(0, name.length() - ENTRY_SUFFIX.length()) + HEADERS_SUFFIX);
+    }
+
+    private boolean store(ByteArrayOutputStream data, Properties headers, String key) {
+        if (data.size() > maxEntrySize) {
+            return false;
+        }
+        File entry = new File(dir, key + ENTRY_SUFFIX);
+        if (entry.exists()) {
+            // Another request got there first.
+            return false;
+        }
+        File temp = null;
+        File headersTemp = null;
+        try {
+            // Written outside the lock, and renamed so entries only ever appear complete.
+            temp = File.createTempFile("response", TEMP_SUFFIX, dir);
+            OutputStream fileOut = new FileOutputStream(temp);
+            try {
+                data.writeTo(fileOut);
+            } finally {
+                fileOut.close();
+            }
+            if (!headers.isEmpty()) {
+                headersTemp = File.createTempFile("headers", TEMP_SUFFIX, dir);
+                fileOut = new FileOutputStream(headersTemp);
+                try {
+                    headers.store(fileOut, null);
+                } finally {
+                    fileOut.close();
+                }
+            }
+            return addEntry(temp, headersTemp, entry);
+        } catch (IOException e) {
+            LOG.warn("Could not store response as " + entry, e);
+            return false;
+        } finally {
+            for (File f: new File[] {temp, headersTemp}) {
+                if (f != null && f.exists() && !f.delete()) {
+                    LOG.warn("Could not delete " + f);
+                }
+            }
+        }
+    }
+
+    private synchronized boolean addEntry(File temp, File headersTemp, File entry) {
+        if (entry.exists()) {
+            return false;
+        }
+        // The headers go first, so an entry is never seen without them.
+        File headersFile = headersFile(entry);
+        if (headersTemp != null && !headersTemp.renameTo(headersFile)) {
+            LOG.warn("Could not store response headers as " + headersFile);
+            return false;
+        }
+        if (!temp.renameTo(entry)) {
+            LOG.warn("Could not store response as " + entry);
+            if (headersFile.exists() && !headersFile.delete()) {
+                LOG.warn("Could not delete " + headersFile);
+            }
+            return false;
+        }
+        size += entry.length();
+        if (size > maxSize) {
+            evict();
+        }
+        return true;
+    }
+
+    private void evict() {
+        File[] entries = dir.listFiles();
+        if (entries == null) {
+            return;
+        }
+        Arrays.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.valueOf(a.lastModified()).compareTo(Long.valueOf(b.lastModified()));
+            }
+        });
+        long target = maxSize - (maxSize / 10);
+        for (File f: entries) {
+            if (size <= target) {
+                break;
+            }
+            if (f.getName().endsWith(ENTRY_SUFFIX)) {
+                long length = f.length();
+                if (f.delete()) {
+                    size -= length;
+                    File headersFile = headersFile(f);
+                    if (headersFile.exists() && !headersFile.delete()) {
+                        LOG.warn("Could not delete " + headersFile);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A stream that passes everything written to it on to the response, while also
+     * keeping a copy in memory that becomes a cache entry when committed. Nothing is
+     * written to disk until then, and the copy is dropped as soon as it grows past the
+     * largest entry size.
+     */
+    public final class Recorder extends FilterOutputStream
+    {
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream(8 * 1024);
+        private final Properties headers = new Properties();
+        private String key = null;
+
+        private Recorder(OutputStream out) {
+            super(out);
+        }
+
+        /**
+         * Set the key this response should be stored under once it is complete.
+         * @param key The key, as returned by makeKey.
+         */
+        public void setKey(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Record a header that is part of this response, so that it is sent again when the
+         * response is replayed from the cache.
+         * @param name The name of the header.
+         * @param value The value of the header.
+         */
+        public void setHeader(String name, String value) {
+            headers.setProperty(name, value);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (copy != null) {
+                if (copy.size() + 1 > maxEntrySize) {
+                    abandon();
+                    return;
+                }
+                copy.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (copy != null) {
+                if ((long) copy.size() + len > maxEntrySize) {
+                    abandon();
+                    return;
+                }
+                copy.write(b, off, len);
+            }
+        }
+
+        /**
+         * Stop recording, and discard what has been recorded so far.
+         */
+        public void abandon() {
+            copy = null;
+        }
+
+        /**
+         * Store the recorded response, if it has a key and was recorded in full. This
+         * should be called once the response has been closed.
+         */
+        public void commit() {
+            if (copy != null && key != null) {
+                store(copy, headers, key);
+            }
+            abandon();
+        }
+    }
+}
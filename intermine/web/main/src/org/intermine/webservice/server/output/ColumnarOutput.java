@@ -0,0 +1,407 @@
+package org.intermine.webservice.server.output;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * An output that writes results in a compact, typed, column oriented binary format.
+ *
+ * <p>Rows are buffered into batches, and each batch is written column by column. Strings
+ * are dictionary encoded: each distinct value is sent once per stream (until the
+ * dictionary is reset) and then referred to by its index. All integers in the format are
+ * unsigned LEB128 varints unless stated otherwise. The layout of the stream is:</p>
+ * <pre>
+ *   stream  := MAGIC VERSION header batch* footer
+ *   header  := varint(columnCount) (string(name) byte(type))*
+ *   batch   := byte(BATCH) varint(rowCount) column*
+ *   column  := nullBitmap values
+ *   footer  := byte(END) varint(status) byte(hasError) [string(errorMessage)]
+ *   string  := varint(byteLength) utf-8 bytes
+ * </pre>
+ * <p>The null bitmap has one bit per row (least significant bit first), set when the value
+ * is null. Values are only written for non-null cells:</p>
+ * <ul>
+ *   <li>STRING: byte(reset) varint(newEntries) string* varint(dictionaryIndex)*</li>
+ *   <li>LONG and DATE (milliseconds since the epoch): zig-zag encoded varints</li>
+ *   <li>DOUBLE: eight byte IEEE 754 values</li>
+ *   <li>BOOLEAN: one byte per value</li>
+ * </ul>
+ * <p>The reader for this format is
+ * <code>org.intermine.webservice.client.results.ColumnarResultSet</code>.</p>
+ */
+public class ColumnarOutput extends Output
+{
+    /** The key for the column names in the header attributes. **/
+    public static final String KEY_VIEWS = "views";
+    /** The key for the attribute types of the columns in the header attributes. **/
+    public static final String KEY_COLUMN_TYPES = "columnTypes";
+
+    /** The bytes every columnar stream starts with. **/
+    public static final byte[] MAGIC = {'I', 'M', 'C', 'B'};
+    /** The version of the format written by this class. **/
+    public static final int VERSION = 1;
+
+    /** Marker preceding a batch of rows. **/
+    public static final int BATCH = 1;
+    /** Marker preceding the footer. **/
+    public static final int END = 0;
+
+    /** Column type code for strings (and anything without a more specific encoding). **/
+    public static final int STRING = 0;
+    /** Column type code for integral numbers. **/
+    public static final int LONG = 1;
+    /** Column type code for floating point numbers. **/
+    public static final int DOUBLE = 2;
+    /** Column type code for booleans. **/
+    public static final int BOOLEAN = 3;
+    /** Column type code for dates. **/
+    public static final int DATE = 4;
+
+    /** The default number of rows per batch. **/
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+    /** The number of entries after which a string dictionary is reset. **/
+    public static final int MAX_DICTIONARY_SIZE = 65536;
+
+    // Dates given as strings are in ISO format. DateFormat isn't thread-safe, so each thread
+    // writing results has its own.
+    private static final ThreadLocal<DateFormat> ISO_DATE_FORMAT = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            DateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return format;
+        }
+    };
+
+    private final DataOutputStream out;
+    private final int batchSize;
+
+    private boolean headerWritten = false;
+    private String[] names;
+    private int[] types;
+    private List<Map<String, Integer>> dictionaries;
+
+    private Object[][] batch;
+    private int rowsInBatch = 0;
+    private int resultsCount = 0;
+
+    /**
+     * Constructor.
+     * @param os The stream to write the results to.
+     */
+    public ColumnarOutput(OutputStream os) {
+        this(os, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructor.
+     * @param os The stream to write the results to.
+     * @param batchSize The number of rows to buffer in each batch.
+     */
+    public ColumnarOutput(OutputStream os, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive, got " + batchSize);
+        }
+        this.out = new DataOutputStream(new BufferedOutputStream(os, 64 * 1024));
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Work out which column type should be used for an attribute type, as returned by
+     * <code>AttributeDescriptor.getType()</code>.
+     * @param attributeType The attribute type.
+     * @return A column type code.
+     */
+    public static int getColumnType(String attributeType) {
+        if ("short".equals(attributeType) || "int".equals(attributeType)
+                || "long".equals(attributeType) || "java.lang.Short".equals(attributeType)
+                || "java.lang.Integer".equals(attributeType)
+                || "java.lang.Long".equals(attributeType)) {
+            return LONG;
+        } else if ("float".equals(attributeType) || "double".equals(attributeType)
+                || "java.lang.Float".equals(attributeType)
+                || "java.lang.Double".equals(attributeType)) {
+            return DOUBLE;
+        } else if ("boolean".equals(attributeType) || "java.lang.Boolean".equals(attributeType)) {
+            return BOOLEAN;
+        } else if ("java.util.Date".equals(attributeType)) {
+            return DATE;
+        }
+        // BigDecimals and Clobs are sent as text, to avoid losing precision.
+        return STRING;
+    }
+
+    /**
+     * Adds a row of stringified values. Empty strings are treated as nulls in
+     * non-string columns.
+     * @param item The row.
+     */
+    @Override
+    public void addResultItem(List<String> item) {
+        addResultRow(new ArrayList<Object>(item));
+    }
+
+    /**
+     * Adds a row of typed values.
+     * @param row The row, which may contain nulls.
+     */
+    public void addResultRow(List<Object> row) {
+        ensureHeaderIsWritten(row.size());
+        if (row.size() != types.length) {
+            throw new IllegalArgumentException("Expected " + types.length + " values, got "
+                    + row.size());
+        }
+        for (int i = 0; i < types.length; i++) {
+            batch[i][rowsInBatch] = coerce(row.get(i), types[i]);
+        }
+        rowsInBatch++;
+        resultsCount++;
+        if (rowsInBatch == batchSize) {
+            writeBatch();
+        }
+    }
+
+    /**
+     * Writes any buffered rows and the footer, and closes the stream.
+     */
+    @Override
+    public void flush() {
+        ensureHeaderIsWritten(0);
+        writeBatch();
+        try {
+            out.writeByte(END);
+            writeVarInt(getCode());
+            String error = getError();
+            out.writeBoolean(error != null);
+            if (error != null) {
+                writeString(error);
+            }
+            out.flush();
+            out.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing footer", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int getResultsCount() {
+        return resultsCount;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void ensureHeaderIsWritten(int width) {
+        if (headerWritten) {
+            return;
+        }
+        Map<String, Object> attributes = getHeaderAttributes();
+        List<String> views = (List<String>) attributes.get(KEY_VIEWS);
+        List<String> columnTypes = (List<String>) attributes.get(KEY_COLUMN_TYPES);
+        int columnCount = (views == null) ? width : views.size();
+        names = new String[columnCount];
+        types = new int[columnCount];
+        dictionaries = new ArrayList<Map<String, Integer>>();
+        for (int i = 0; i < columnCount; i++) {
+            names[i] = (views == null) ? "" : views.get(i);
+            types[i] = (columnTypes == null) ? STRING : getColumnType(columnTypes.get(i));
+            dictionaries.add(new HashMap<String, Integer>());
+        }
+        batch = new Object[columnCount][batchSize];
+        try {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            writeVarInt(columnCount);
+            for (int i = 0; i < columnCount; i++) {
+                writeString(names[i]);
+                out.writeByte(types[i]);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing header", e);
+        }
+        headerWritten = true;
+    }
+
+    private static Object coerce(Object value, int type) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof String && type != STRING) {
+            String s = (String) value;
+            if (StringUtils.isEmpty(s)) {
+                return null;
+            }
+            switch (type) {
+                case LONG:
+                    return Long.valueOf(s);
+                case DOUBLE:
+                    return Double.valueOf(s);
+                case BOOLEAN:
+                    return Boolean.valueOf(s);
+                case DATE:
+                    try {
+                        return ISO_DATE_FORMAT.get().parse(s);
+                    } catch (ParseException e) {
+                        throw new IllegalArgumentException("Not a date: " + s, e);
+                    }
+                default:
+                    return s;
+            }
+        }
+        switch (type) {
+            case LONG:
+                return Long.valueOf(((Number) value).longValue());
+            case DOUBLE:
+                return Double.valueOf(((Number) value).doubleValue());
+            case BOOLEAN:
+                return (Boolean) value;
+            case DATE:
+                return (Date) value;
+            default:
+                return value.toString();
+        }
+    }
+
+    private void writeBatch() {
+        if (rowsInBatch == 0) {
+            return;
+        }
+        try {
+            out.writeByte(BATCH);
+            writeVarInt(rowsInBatch);
+            for (int col = 0; col < types.length; col++) {
+                Object[] values = batch[col];
+                writeNullBitmap(values);
+                if (types[col] == STRING) {
+                    writeStrings(values, col);
+                } else {
+                    for (int row = 0; row < rowsInBatch; row++) {
+                        if (values[row] != null) {
+                            writeValue(values[row], types[col]);
+                        }
+                    }
+                }
+                for (int row = 0; row < rowsInBatch; row++) {
+                    values[row] = null;
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing batch", e);
+        }
+        rowsInBatch = 0;
+    }
+
+    private void writeNullBitmap(Object[] values) throws IOException {
+        byte[] bitmap = new byte[(rowsInBatch + 7) / 8];
+        for (int row = 0; row < rowsInBatch; row++) {
+            if (values[row] == null) {
+                bitmap[row >> 3] |= 1 << (row & 7);
+            }
+        }
+        out.write(bitmap);
+    }
+
+    private void writeStrings(Object[] values, int col) throws IOException {
+        Map<String, Integer> dictionary = dictionaries.get(col);
+        boolean reset = dictionary.size() > MAX_DICTIONARY_SIZE;
+        if (reset) {
+            dictionary.clear();
+        }
+        List<String> newEntries = new ArrayList<String>();
+        int[] indices = new int[rowsInBatch];
+        for (int row = 0; row < rowsInBatch; row++) {
+            String value = (String) values[row];
+            if (value != null) {
+                Integer index = dictionary.get(value);
+                if (index == null) {
+                    index = Integer.valueOf(dictionary.size());
+                    dictionary.put(value, index);
+                    newEntries.add(value);
+                }
+                indices[row] = index.intValue();
+            }
+        }
+        out.writeBoolean(reset);
+        writeVarInt(newEntries.size());
+        for (String entry: newEntries) {
+            writeString(entry);
+        }
+        for (int row = 0; row < rowsInBatch; row++) {
+            if (values[row] != null) {
+                writeVarInt(indices[row]);
+            }
+        }
+    }
+
+    private void writeValue(Object value, int type) throws IOException {
+        switch (type) {
+            case LONG:
+                writeVarLong(zigZag(((Long) value).longValue()));
+                break;
+            case DOUBLE:
+                out.writeDouble(((Double) value).doubleValue());
+                break;
+            case BOOLEAN:
+                out.writeBoolean(((Boolean) value).booleanValue());
+                break;
+            case DATE:
+                writeVarLong(zigZag(((Date) value).getTime()));
+                break;
+            default:
+                throw new IllegalStateException("Unknown column type: " + type);
+        }
+    }
+
+    private static long zigZag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    private void writeVarInt(int n) throws IOException {
+        writeVarLong(n & 0xFFFFFFFFL);
+    }
+
+    private void writeVarLong(long n) throws IOException {
+        long v = n;
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    private void writeString(String s) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        writeVarInt(bytes.length);
+        out.write(bytes);
+    }
+}
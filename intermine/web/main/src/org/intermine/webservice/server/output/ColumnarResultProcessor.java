@@ -0,0 +1,43 @@
+package org.intermine.webservice.server.output;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.intermine.api.results.ResultElement;
+import org.intermine.webservice.server.core.ResultProcessor;
+
+/**
+ * A result processor that hands the raw field values to a ColumnarOutput, so that
+ * they can be encoded according to their type rather than as text.
+ */
+public class ColumnarResultProcessor extends ResultProcessor
+{
+
+    @Override
+    public void write(Iterator<List<ResultElement>> resultIt, Output output) {
+        if (!(output instanceof ColumnarOutput)) {
+            super.write(resultIt, output);
+            return;
+        }
+        ColumnarOutput columnar = (ColumnarOutput) output;
+        List<Object> values = new ArrayList<Object>();
+        while (resultIt.hasNext()) {
+            values.clear();
+            for (ResultElement el: resultIt.next()) {
+                values.add((el == null) ? null : el.getField());
+            }
+            columnar.addResultRow(values);
+        }
+    }
+}
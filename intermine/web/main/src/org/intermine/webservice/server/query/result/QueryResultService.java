@@ -23,6 +23,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -30,15 +31,18 @@ import org.intermine.api.InterMineAPI;
 import org.intermine.api.profile.Profile;
 import org.intermine.api.query.BagNotFound;
 import org.intermine.api.query.PathQueryExecutor;
+import org.intermine.api.results.ContinuationResultsIterator;
 import org.intermine.api.results.ExportResultsIterator;
 import org.intermine.api.results.ResultElement;
 import org.intermine.metadata.AttributeDescriptor;
 import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.ContinuationToken;
 import org.intermine.objectstore.query.Results;
 import org.intermine.pathquery.Path;
 import org.intermine.pathquery.PathException;
 import org.intermine.pathquery.PathQuery;
 import org.intermine.web.context.InterMineContext;
+import org.intermine.web.logic.RequestUtil;
 import org.intermine.web.logic.WebUtil;
 import org.intermine.webservice.server.ColumnHeaderStyle;
 import org.intermine.webservice.server.Format;
@@ -50,6 +54,8 @@ import org.intermine.webservice.server.core.ResultProcessor;
 import org.intermine.webservice.server.exceptions.BadRequestException;
 import org.intermine.webservice.server.exceptions.InternalErrorException;
 import org.intermine.webservice.server.exceptions.ServiceException;
+import org.intermine.webservice.server.output.ColumnarOutput;
+import org.intermine.webservice.server.output.ColumnarResultProcessor;
 import org.intermine.webservice.server.output.FlatFileFormatter;
 import org.intermine.webservice.server.output.HTMLTableFormatter;
 import org.intermine.webservice.server.output.JSONCountFormatter;
@@ -86,8 +92,13 @@ public class QueryResultService extends AbstractQueryService
     private static final Logger LOG = Logger.getLogger(QueryResultService.class);
     /** Batch size to use **/
     public static final int BATCH_SIZE = 5000;
+    /** The HTTP header holding the continuation token for the next page of results. */
+    public static final String CONTINUATION_HEADER = "X-InterMine-Continuation";
     protected Map<String, Object> attributes = new HashMap<String, Object>();
 
+    /** The continuation token to return results from, if given instead of a start index. */
+    protected String continuation = null;
+
     /**
      * Constructor
      * @param im The InterMineAPI settings bundle for this webservice
@@ -102,12 +113,62 @@ public class QueryResultService extends AbstractQueryService
     @Override
     protected void execute() {
         QueryResultInput input = getInput();
-        PathQueryBuilder builder = getQueryBuilder(input.getXml());
-        PathQuery query = builder.getQuery();
+        PathQuery query = getQuery();
+        continuation = input.getContinuation();
         setHeaderAttributes(query, input.getStart(), input.getMaxCount());
         runPathQuery(query, input.getStart(), input.getMaxCount());
     }
 
+    private PathQuery query = null;
+
+    /**
+     * Build the query this request asks for.
+     * @return The query to run.
+     */
+    protected PathQuery makeQuery() {
+        PathQueryBuilder builder = getQueryBuilder(getInput().getXml());
+        return builder.getQuery();
+    }
+
+    /**
+     * Get the query this request asks for, building it the first time it is needed.
+     * @return The query to run.
+     */
+    protected final PathQuery getQuery() {
+        if (query == null) {
+            query = makeQuery();
+        }
+        return query;
+    }
+
+    @Override
+    protected boolean isCacheable() {
+        return true;
+    }
+
+    @Override
+    protected String getCacheKey() {
+        PathQuery pq = getQuery();
+        if (!pq.getBagNames().isEmpty()) {
+            // Lists belong to users, and may change at any time.
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(request.getServletPath());
+        sb.append("\nformat=").append(getFormat());
+        sb.append("\njsonp=").append(formatIsJSONP());
+        sb.append("\nwindows=").append(RequestUtil.isWindowsClient(request));
+        @SuppressWarnings("unchecked")
+        Map<String, String[]> params = new TreeMap<String, String[]>(request.getParameterMap());
+        params.remove(QueryResultRequestParser.QUERY_PARAMETER);
+        params.remove("token");
+        for (Map.Entry<String, String[]> param: params.entrySet()) {
+            sb.append("\n").append(param.getKey()).append("=");
+            sb.append(Arrays.asList(param.getValue()));
+        }
+        sb.append("\n").append(pq.toXml(PathQuery.USERPROFILE_VERSION));
+        return sb.toString();
+    }
+
     private boolean wantsCount = false;
 
     @Override
@@ -125,6 +186,7 @@ public class QueryResultService extends AbstractQueryService
         addAll(Format.BASIC_FORMATS);
         addAll(Format.FLAT_FILES);
         addAll(Format.JSON_FORMATS);
+        add(Format.COLUMNAR);
     }};
     private PathQueryExecutor executor;
 
@@ -189,16 +251,7 @@ public class QueryResultService extends AbstractQueryService
 
         switch(getFormat()) {
             case TABLE:
-                List<String> viewTypes = new ArrayList<String>();
-                for (String v: pq.getView()) {
-                    try {
-                        Path p = pq.makePath(v);
-                        AttributeDescriptor ad = (AttributeDescriptor) p.getEndFieldDescriptor();
-                        viewTypes.add(ad.getType());
-                    } catch (PathException e) {
-                        throw new ServiceException(e);
-                    }
-                }
+                List<String> viewTypes = getViewTypes(pq);
                 String title = pq.getTitle();
                 String description = StringUtils.defaultString(pq.getDescription(), pq.toString());
                 attributes.put("viewTypes", viewTypes);
@@ -210,6 +263,13 @@ public class QueryResultService extends AbstractQueryService
                 attributes.put(HTMLTableFormatter.KEY_COLUMN_HEADERS,
                         WebUtil.formatPathQueryView(pq, InterMineContext.getWebConfig()));
                 break;
+            case COLUMNAR:
+                // Summaries and counts have their own shape, and are sent as untyped columns.
+                if (!wantsCount && isBlank(getOptionalParameter("summaryPath"))) {
+                    attributes.put(ColumnarOutput.KEY_VIEWS, pq.getView());
+                    attributes.put(ColumnarOutput.KEY_COLUMN_TYPES, getViewTypes(pq));
+                }
+                break;
         }
 
         if (!wantsCount) { // mutually exclusive options.
@@ -247,6 +307,20 @@ public class QueryResultService extends AbstractQueryService
         output.setHeaderAttributes(attributes);
     }
 
+    private static List<String> getViewTypes(PathQuery pq) {
+        List<String> viewTypes = new ArrayList<String>();
+        for (String v: pq.getView()) {
+            try {
+                Path p = pq.makePath(v);
+                AttributeDescriptor ad = (AttributeDescriptor) p.getEndFieldDescriptor();
+                viewTypes.add(ad.getType());
+            } catch (PathException e) {
+                throw new ServiceException(e);
+            }
+        }
+        return viewTypes;
+    }
+
     @Override
     protected Output makeJSONOutput(PrintWriter out, String separator) {
         if (wantsCount) {
@@ -286,7 +360,8 @@ public class QueryResultService extends AbstractQueryService
     }
 
     /**
-     * Runs path query and returns to output obtained results.
+     * Runs path query and returns to output obtained results. If a continuation token was given
+     * instead of a start index, the results start at the token and firstResult is ignored.
      *
      * @param pathQuery
      *            path query
@@ -320,6 +395,21 @@ public class QueryResultService extends AbstractQueryService
             } catch (ObjectStoreException e) {
                 throw new ServiceException("Problem getting summary.", e);
             }
+        } else if (continuation != null) {
+            // Only the rows of the page are fetched, so there is nothing to go faster for.
+            ContinuationResultsIterator page;
+            try {
+                page = executor.execute(pq, continuation, maxResults);
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException(e.getMessage());
+            }
+            attributes.put("start", continuation);
+            ContinuationToken next = page.getNext();
+            if (next != null) {
+                attributes.put("continuation", next.toString());
+                setResponseHeader(CONTINUATION_HEADER, next.toString());
+            }
+            it = page;
         } else {
             // Going faster means writing to the DB. Don't do this if it is pointless.
             canGoFaster = firstResult > BATCH_SIZE || maxResults > BATCH_SIZE;
@@ -363,6 +453,9 @@ public class QueryResultService extends AbstractQueryService
                     processor = new JSONRowResultProcessor(im);
                 }
                 break;
+            case COLUMNAR:
+                processor = new ColumnarResultProcessor();
+                break;
             default:
                 processor = new ResultProcessor();
         }
@@ -69,6 +69,9 @@ public class TableRowService extends QueryResultService
 
     @Override
     public void runPathQuery(PathQuery pathQuery, int firstResult, int maxResults) {
+        if (continuation != null) {
+            throw new BadRequestException("Table rows can only be fetched from a start index");
+        }
         final ObjectStore os = im.getObjectStore();
         final Profile p = getPermission().getProfile();
         final Map<String, QuerySelectable> pathToQueryNode = new HashMap<String, QuerySelectable>();
@@ -58,11 +58,32 @@ public class TemplateResultService extends QueryResultService
         super(im);
     }
 
+    private boolean isGlobalTemplate = false;
+
     /**
      * {@inheritDoc}}
      */
     @Override
     protected void execute() {
+        TemplateResultInput input = getInput();
+        TemplateQuery populatedTemplate = (TemplateQuery) getQuery();
+        continuation = input.getContinuation();
+        setHeaderAttributes(populatedTemplate, input.getStart(), input.getMaxCount());
+        if (populatedTemplate.isValid()) {
+            runPathQuery(populatedTemplate, input.getStart(), input.getMaxCount());
+        } else {
+            String msg = "Required data source (template) is outdated and is in conflict "
+                + "with model: " + populatedTemplate.verifyQuery();
+            throw new BadRequestException(msg);
+        }
+    }
+
+    /**
+     * Populate the requested template with the values in the request.
+     * @return The populated template.
+     */
+    @Override
+    protected PathQuery makeQuery() {
         TemplateManager templateManager = this.im.getTemplateManager();
         TemplateResultInput input = getInput();
         TemplateQuery template;
@@ -72,6 +93,7 @@ public class TemplateResultService extends QueryResultService
             throw new ResourceNotFoundException(
                 "You do not have access to a template called '" + input.getName() + "' in this mine.");
         }
+        isGlobalTemplate = (template == templateManager.getGlobalTemplate(input.getName()));
 
         Map<String, List<TemplateValue>> templateValues;
         try {
@@ -95,14 +117,18 @@ public class TemplateResultService extends QueryResultService
             populatedTemplate.clearView();
             populatedTemplate.addViews(newView);
         }
-        setHeaderAttributes(populatedTemplate, input.getStart(), input.getMaxCount());
-        if (populatedTemplate.isValid()) {
-            runPathQuery(populatedTemplate, input.getStart(), input.getMaxCount());
-        } else {
-            String msg = "Required data source (template) is outdated and is in conflict "
-                + "with model: " + populatedTemplate.verifyQuery();
-            throw new BadRequestException(msg);
+        return populatedTemplate;
+    }
+
+    @Override
+    protected String getCacheKey() {
+        // Building the query finds out whether the template is a global one.
+        getQuery();
+        if (!isGlobalTemplate) {
+            // Templates belonging to users may change at any time.
+            return null;
         }
+        return super.getCacheKey();
     }
 
     private TemplateResultInput getInput() {
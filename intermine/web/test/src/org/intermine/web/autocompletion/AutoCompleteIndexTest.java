@@ -0,0 +1,74 @@
+package org.intermine.web.autocompletion;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+public class AutoCompleteIndexTest extends TestCase
+{
+    private AutoCompleteIndex index;
+
+    public AutoCompleteIndexTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        byte[] bytes = AutoCompleteIndex.build(Arrays.asList("protein binding",
+                    "DNA binding", "protein kinase activity", "kinase binding", null,
+                    "DNA binding", "négative regulation"));
+        index = new AutoCompleteIndex(ByteBuffer.wrap(bytes));
+    }
+
+    public void testSearch() throws Exception {
+        assertEquals(5, index.size());
+        assertEquals(Arrays.asList("DNA binding", "kinase binding", "protein binding"),
+                index.search("bind", 10));
+        assertEquals(Arrays.asList("DNA binding", "kinase binding"), index.search("bind", 2));
+        assertEquals(Arrays.asList("kinase binding", "protein kinase activity"),
+                index.search("KIN", 10));
+        assertEquals(Arrays.asList("protein binding"), index.search("prot bin", 10));
+        assertEquals(Arrays.asList("négative regulation"), index.search("nég", 10));
+        assertEquals(Collections.EMPTY_LIST, index.search("prot dna", 10));
+        assertEquals(Collections.EMPTY_LIST, index.search("zzz", 10));
+        assertEquals(Collections.EMPTY_LIST, index.search("  ", 10));
+    }
+
+    public void testOpen() throws Exception {
+        File file = File.createTempFile("autocomplete", ".idx");
+        try {
+            OutputStream out = new FileOutputStream(file);
+            out.write(AutoCompleteIndex.build(Arrays.asList("GO:0005515", "GO:0003677")));
+            out.close();
+            AutoCompleteIndex mapped = AutoCompleteIndex.open(file);
+            assertEquals(Arrays.asList("GO:0003677", "GO:0005515"), mapped.search("go:000", 10));
+            assertEquals(Arrays.asList("GO:0005515"), mapped.search("go 00055", 10));
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testNotAnIndex() throws Exception {
+        try {
+            new AutoCompleteIndex(ByteBuffer.wrap(new byte[24]));
+            fail("Expected an exception");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
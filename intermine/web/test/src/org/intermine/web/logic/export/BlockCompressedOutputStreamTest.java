@@ -0,0 +1,68 @@
+package org.intermine.web.logic.export;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+public class BlockCompressedOutputStreamTest extends TestCase
+{
+    public BlockCompressedOutputStreamTest(String arg) {
+        super(arg);
+    }
+
+    private byte[] roundTrip(byte[] data) throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        BlockCompressedOutputStream out = new BlockCompressedOutputStream(compressed);
+        out.write(data, 0, 10);
+        out.write(data[10]);
+        out.write(data, 11, data.length - 11);
+        out.flush();
+        out.close();
+        byte[] bytes = compressed.toByteArray();
+        // BGZF extra field on the first block and the empty block at the end
+        assertEquals(0x04, bytes[3]);
+        assertEquals('B', bytes[12]);
+        assertEquals('C', bytes[13]);
+        assertEquals(0x1b, bytes[bytes.length - 12]);
+
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            uncompressed.write(buf, 0, read);
+        }
+        return uncompressed.toByteArray();
+    }
+
+    public void testText() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            sb.append("chr2L\tFlyMine\tgene\t" + i + "\t" + (i + 100) + "\t.\t+\t.\tID=FBgn" + i
+                    + "\n");
+        }
+        byte[] data = sb.toString().getBytes("UTF-8");
+        assertTrue(data.length > 3 * BlockCompressedOutputStream.MAX_BLOCK_INPUT);
+        assertTrue(Arrays.equals(data, roundTrip(data)));
+    }
+
+    public void testIncompressible() throws Exception {
+        byte[] data = new byte[BlockCompressedOutputStream.MAX_BLOCK_INPUT * 2 + 17];
+        new Random(42).nextBytes(data);
+        assertTrue(Arrays.equals(data, roundTrip(data)));
+    }
+}
@@ -0,0 +1,62 @@
+package org.intermine.web.logic.widget;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.math.distribution.HypergeometricDistributionImpl;
+
+public class EnrichmentCalculationTest extends TestCase {
+
+    public void testUpperCumulativeProbability() {
+        int[][] cases = new int[][] {
+            // N, M, n, k
+            {100, 10, 20, 0},
+            {100, 10, 20, 2},
+            {100, 10, 20, 7},
+            {100, 10, 20, 10},
+            {100, 10, 20, 11},
+            {100, 90, 20, 12},
+            {15000, 250, 40, 3},
+            {15000, 250, 40, 12},
+            {15000, 6000, 300, 150},
+        };
+        double[] logFactorials = EnrichmentCalculation.logFactorials(15000);
+        for (int[] c : cases) {
+            double expected = new HypergeometricDistributionImpl(c[0], c[1], c[2])
+                .upperCumulativeProbability(c[3]);
+            double actual = EnrichmentCalculation.upperCumulativeProbability(logFactorials,
+                    c[0], c[1], c[2], c[3]);
+            assertEquals("p-value for " + c[0] + ", " + c[1] + ", " + c[2] + ", " + c[3],
+                    expected, actual, Math.max(1e-12, expected * 1e-9));
+        }
+    }
+
+    public void testPopulationStatistics() {
+        Map<String, PopulationInfo> annotated = new HashMap<String, PopulationInfo>();
+        annotated.put("GO:0003", new PopulationInfo(12, 1.5f));
+        annotated.put("GO:0001", new PopulationInfo(40, 0f));
+        PopulationStatistics stats =
+            new PopulationStatistics(new PopulationInfo(100, null), annotated);
+        assertEquals(2, stats.getTestCount());
+        assertEquals(40, stats.getCount("GO:0001"));
+        assertEquals(0, stats.getCount("GO:0002"));
+        Map<String, PopulationInfo> view = stats.getAnnotatedCounts();
+        assertEquals(12, view.get("GO:0003").getSize());
+        assertEquals(Float.valueOf(1.5f), view.get("GO:0003").getExtraAttribute());
+        assertNull(view.get("GO:0002"));
+        assertEquals(annotated.keySet(), view.keySet());
+        assertEquals(101, stats.getLogFactorials().length);
+    }
+}
@@ -12,6 +12,7 @@ public class WidgetTestSuite extends TestSuite{
         suite.addTestSuite(WidgetConfigTest.class);
         suite.addTestSuite(WidgetConfigUtilTest.class);
         suite.addTestSuite(WidgetLdrTest.class);
+        suite.addTestSuite(EnrichmentCalculationTest.class);
         return suite;
     }
 }
@@ -0,0 +1,147 @@
+package org.intermine.webservice.server.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+public class ResponseCacheTest extends TestCase {
+
+    private File dir;
+
+    public ResponseCacheTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("response-cache", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private void record(ResponseCache cache, String key, String content) throws IOException {
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        ResponseCache.Recorder recorder = cache.record(sent);
+        recorder.setKey(key);
+        recorder.write(content.getBytes("UTF-8"));
+        recorder.close();
+        recorder.commit();
+        assertEquals(content, sent.toString("UTF-8"));
+    }
+
+    public void testRecordAndReplay() throws Exception {
+        ResponseCache cache = new ResponseCache(dir, null, "1.0", 1024, 1024 * 1024);
+        String key = cache.makeKey("query one");
+        assertNull(cache.get(key));
+        record(cache, key, "some results");
+
+        File entry = cache.get(key);
+        assertNotNull(entry);
+        ByteArrayOutputStream replayed = new ByteArrayOutputStream();
+        cache.transfer(entry, replayed);
+        assertEquals("some results", replayed.toString("UTF-8"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertNull(cache.get(cache.makeKey("query two")));
+    }
+
+    public void testAbandon() throws Exception {
+        ResponseCache cache = new ResponseCache(dir, null, "1.0", 1024, 1024 * 1024);
+        String key = cache.makeKey("query");
+        ResponseCache.Recorder recorder = cache.record(new ByteArrayOutputStream());
+        recorder.setKey(key);
+        recorder.write(new byte[] {1, 2, 3});
+        recorder.close();
+        recorder.abandon();
+        assertNull(cache.get(key));
+        assertEquals(1, dir.listFiles().length); // Just the release marker.
+    }
+
+    public void testTooLarge() throws Exception {
+        ResponseCache cache = new ResponseCache(dir, null, "1.0", 4, 1024 * 1024);
+        String key = cache.makeKey("query");
+        record(cache, key, "more than four bytes");
+        assertNull(cache.get(key));
+        assertEquals(1, dir.listFiles().length);
+    }
+
+    public void testNothingWrittenUntilCommit() throws Exception {
+        ResponseCache cache = new ResponseCache(dir, null, "1.0", 1024, 1024 * 1024);
+        String key = cache.makeKey("query");
+        ResponseCache.Recorder recorder = cache.record(new ByteArrayOutputStream());
+        recorder.setKey(key);
+        recorder.write(new byte[] {1, 2, 3});
+        recorder.close();
+        assertEquals(1, dir.listFiles().length);
+        recorder.commit();
+        assertEquals(3, cache.get(key).length());
+        assertEquals(2, dir.listFiles().length);
+    }
+
+    public void testHeadersReplayed() throws Exception {
+        ResponseCache cache = new ResponseCache(dir, null, "1.0", 1024, 1024 * 1024);
+        String header = "X-InterMine-Continuation";
+
+        // The first request for a page of results is run, and sets the token for the next page.
+        String key = cache.makeKey("paged query");
+        assertNull(cache.get(key));
+        ResponseCache.Recorder recorder = cache.record(new ByteArrayOutputStream());
+        recorder.setKey(key);
+        recorder.setHeader(header, "next-page-token");
+        recorder.write("first page".getBytes("UTF-8"));
+        recorder.close();
+        recorder.commit();
+
+        // The same request again is answered from the cache, and still has the token.
+        File entry = cache.get(cache.makeKey("paged query"));
+        assertNotNull(entry);
+        ByteArrayOutputStream replayed = new ByteArrayOutputStream();
+        cache.transfer(entry, replayed);
+        assertEquals("first page", replayed.toString("UTF-8"));
+        Map<String, String> expected = new HashMap<String, String>();
+        expected.put(header, "next-page-token");
+        assertEquals(expected, cache.getHeaders(entry));
+
+        // Responses without headers have none to replay, and purging removes them all.
+        String other = cache.makeKey("unpaged query");
+        record(cache, other, "all results");
+        assertTrue(cache.getHeaders(cache.get(other)).isEmpty());
+        cache.purge();
+        assertEquals(1, dir.listFiles().length);
+    }
+
+    public void testReleaseChange() throws Exception {
+        ResponseCache cache = new ResponseCache(dir, null, "1.0", 1024, 1024 * 1024);
+        String key = cache.makeKey("query");
+        record(cache, key, "old results");
+
+        ResponseCache sameRelease = new ResponseCache(dir, null, "1.0", 1024, 1024 * 1024);
+        assertNotNull(sameRelease.get(key));
+
+        ResponseCache newRelease = new ResponseCache(dir, null, "2.0", 1024, 1024 * 1024);
+        assertFalse(key.equals(newRelease.makeKey("query")));
+        assertNull(newRelease.get(key));
+    }
+
+    public void testEviction() throws Exception {
+        ResponseCache cache = new ResponseCache(dir, null, "1.0", 1024, 20);
+        String first = cache.makeKey("first");
+        String second = cache.makeKey("second");
+        record(cache, first, "0123456789");
+        new File(dir, first + ".response").setLastModified(System.currentTimeMillis() - 10000);
+        record(cache, second, "0123456789abc");
+        assertNull(cache.get(first));
+        assertNotNull(cache.get(second));
+    }
+}
@@ -184,6 +184,8 @@ public class Service
             return "json";
         } else if (contentType == ContentType.TEXT_XML) {
             return "xml";
+        } else if (contentType == ContentType.APPLICATION_COLUMNAR) {
+            return "columnar";
         }
         return null;
     }
@@ -0,0 +1,499 @@
+package org.intermine.webservice.client.results;
+
+/*
+ * Copyright (C) 2002-2013 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.intermine.webservice.client.exceptions.ServiceException;
+import org.intermine.webservice.client.util.HttpConnection;
+
+/**
+ * A class for reading results received in the columnar binary format.
+ *
+ * Results arrive in batches of rows, stored column by column. Integral columns are
+ * decoded into <code>long</code> arrays, floating point columns into <code>double</code>
+ * arrays and string columns are resolved against a dictionary, so callers
+ * that read batches directly can avoid creating an object per cell. The row and
+ * list accessors mirror those of {@link RowResultSet}.
+ */
+public class ColumnarResultSet
+{
+    private static final byte[] MAGIC = {'I', 'M', 'C', 'B'};
+    private static final int VERSION = 1;
+    private static final int BATCH = 1;
+    private static final int END = 0;
+
+    /** Column type code for strings. **/
+    public static final int STRING = 0;
+    /** Column type code for integral numbers. **/
+    public static final int LONG = 1;
+    /** Column type code for floating point numbers. **/
+    public static final int DOUBLE = 2;
+    /** Column type code for booleans. **/
+    public static final int BOOLEAN = 3;
+    /** Column type code for dates. **/
+    public static final int DATE = 4;
+
+    private final HttpConnection connection;
+    private final DataInputStream in;
+    private List<String> views;
+    private int[] types;
+    private List<List<String>> dictionaries;
+    private boolean finished = false;
+
+    /**
+     * Construct a new result-set reading from an HttpConnection.
+     * @param connection The connection to receive results from.
+     */
+    public ColumnarResultSet(HttpConnection connection) {
+        this.connection = connection;
+        this.in = new DataInputStream(
+                new BufferedInputStream(connection.getResponseBodyAsStream(), 64 * 1024));
+        readHeader();
+    }
+
+    /**
+     * Construct a new result-set reading from a stream.
+     *
+     * Use this constructor when you want to make the request yourself.
+     *
+     * @param is The input-stream to receive results from.
+     */
+    public ColumnarResultSet(InputStream is) {
+        this.connection = null;
+        this.in = new DataInputStream(new BufferedInputStream(is, 64 * 1024));
+        readHeader();
+    }
+
+    /**
+     * @return The names of the columns in this result set.
+     */
+    public List<String> getViews() {
+        return views;
+    }
+
+    /**
+     * @param column The index of a column.
+     * @return The type code of the column, one of STRING, LONG, DOUBLE, BOOLEAN or DATE.
+     */
+    public int getColumnType(int column) {
+        return types[column];
+    }
+
+    /**
+     * A batch of rows, stored column by column.
+     */
+    public final class Batch
+    {
+        private final int rowCount;
+        private final boolean[][] nulls;
+        private final long[][] longs;
+        private final double[][] doubles;
+        private final boolean[][] booleans;
+        private final int[][] stringRefs;
+        private final List<List<String>> stringDicts;
+
+        private Batch(int rowCount) {
+            this.rowCount = rowCount;
+            int width = types.length;
+            nulls = new boolean[width][];
+            longs = new long[width][];
+            doubles = new double[width][];
+            booleans = new boolean[width][];
+            stringRefs = new int[width][];
+            stringDicts = new ArrayList<List<String>>(
+                    Collections.<List<String>>nCopies(width, null));
+        }
+
+        /**
+         * @return The number of rows in this batch.
+         */
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * @param column The column index.
+         * @param row The row index within this batch.
+         * @return Whether the value of this cell is null.
+         */
+        public boolean isNull(int column, int row) {
+            return nulls[column][row];
+        }
+
+        /**
+         * Get the value of a LONG or DATE column. Null cells read as 0.
+         * @param column The column index.
+         * @param row The row index within this batch.
+         * @return The value as a long.
+         */
+        public long getLong(int column, int row) {
+            return longs[column][row];
+        }
+
+        /**
+         * Get the value of a DOUBLE column. Null cells read as 0.
+         * @param column The column index.
+         * @param row The row index within this batch.
+         * @return The value as a double.
+         */
+        public double getDouble(int column, int row) {
+            return doubles[column][row];
+        }
+
+        /**
+         * Get the value of a BOOLEAN column. Null cells read as false.
+         * @param column The column index.
+         * @param row The row index within this batch.
+         * @return The value as a boolean.
+         */
+        public boolean getBoolean(int column, int row) {
+            return booleans[column][row];
+        }
+
+        /**
+         * Get the value of a STRING column.
+         * @param column The column index.
+         * @param row The row index within this batch.
+         * @return The value, or null.
+         */
+        public String getString(int column, int row) {
+            if (nulls[column][row]) {
+                return null;
+            }
+            return stringDicts.get(column).get(stringRefs[column][row]);
+        }
+
+        /**
+         * Get the value of any cell as an object of the appropriate type (Long, Double,
+         * Boolean, Date or String).
+         * @param column The column index.
+         * @param row The row index within this batch.
+         * @return The value, or null.
+         */
+        public Object getValue(int column, int row) {
+            if (nulls[column][row]) {
+                return null;
+            }
+            switch (types[column]) {
+                case LONG:
+                    return Long.valueOf(longs[column][row]);
+                case DOUBLE:
+                    return Double.valueOf(doubles[column][row]);
+                case BOOLEAN:
+                    return Boolean.valueOf(booleans[column][row]);
+                case DATE:
+                    return new Date(longs[column][row]);
+                default:
+                    return getString(column, row);
+            }
+        }
+
+        /**
+         * @param row The row index within this batch.
+         * @return The row as a list of values.
+         */
+        public List<Object> getRow(int row) {
+            List<Object> ret = new ArrayList<Object>(types.length);
+            for (int col = 0; col < types.length; col++) {
+                ret.add(getValue(col, row));
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Read the next batch of results.
+     * @return The next batch, or null when all results have been read.
+     */
+    public Batch nextBatch() {
+        if (finished) {
+            return null;
+        }
+        try {
+            int marker = in.readUnsignedByte();
+            if (marker == END) {
+                readFooter();
+                return null;
+            }
+            if (marker != BATCH) {
+                throw new ServiceException("Corrupt result stream: unexpected marker " + marker);
+            }
+            return readBatch();
+        } catch (EOFException e) {
+            close();
+            throw new ServiceException(
+                    "Error reading results - transmission may have been interrupted", e);
+        } catch (IOException e) {
+            close();
+            throw new ServiceException("Reading from response stream failed", e);
+        }
+    }
+
+    /**
+     * Get the data for this result set in a parsed form.
+     * @return A two-dimensional list (table) of objects.
+     */
+    public List<List<Object>> getRowsAsLists() {
+        List<List<Object>> ret = new ArrayList<List<Object>>();
+        Batch batch;
+        while ((batch = nextBatch()) != null) {
+            for (int row = 0; row < batch.getRowCount(); row++) {
+                ret.add(batch.getRow(row));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Get the data for this result set in a parsed form.
+     * @return A list of rows, where each row is a map from column name to value.
+     */
+    public List<Map<String, Object>> getRowsAsMaps() {
+        List<Map<String, Object>> ret = new ArrayList<Map<String, Object>>();
+        Iterator<Map<String, Object>> it = getMapIterator();
+        while (it.hasNext()) {
+            ret.add(it.next());
+        }
+        return ret;
+    }
+
+    /**
+     * Get a memory efficient iterator over the result rows as lists
+     * @return an iterator over the rows in this result set as lists of values
+     */
+    public Iterator<List<Object>> getListIterator() {
+        return new RowListIterator();
+    }
+
+    /**
+     * Get a memory efficient iterator over the result rows as maps
+     * @return an iterator over the rows in this result set as maps of column names to values
+     */
+    public Iterator<Map<String, Object>> getMapIterator() {
+        final Iterator<List<Object>> rows = getListIterator();
+        return new Iterator<Map<String, Object>>() {
+            @Override
+            public boolean hasNext() {
+                return rows.hasNext();
+            }
+
+            @Override
+            public Map<String, Object> next() {
+                List<Object> row = rows.next();
+                Map<String, Object> ret = new HashMap<String, Object>();
+                for (int i = 0; i < row.size(); i++) {
+                    ret.put(views.get(i), row.get(i));
+                }
+                return ret;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private class RowListIterator implements Iterator<List<Object>>
+    {
+        private Batch current = null;
+        private int index = 0;
+
+        private boolean advance() {
+            while (current == null || index >= current.getRowCount()) {
+                current = nextBatch();
+                index = 0;
+                if (current == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return advance();
+        }
+
+        @Override
+        public List<Object> next() {
+            if (!advance()) {
+                throw new NoSuchElementException();
+            }
+            return current.getRow(index++);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private void readHeader() {
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new ServiceException("Response is not in the columnar format");
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new ServiceException("Unsupported columnar format version: " + version);
+            }
+            int width = readVarInt();
+            List<String> names = new ArrayList<String>(width);
+            types = new int[width];
+            dictionaries = new ArrayList<List<String>>(width);
+            for (int i = 0; i < width; i++) {
+                names.add(readString());
+                types[i] = in.readUnsignedByte();
+                dictionaries.add(new ArrayList<String>());
+            }
+            views = Collections.unmodifiableList(names);
+        } catch (IOException e) {
+            close();
+            throw new ServiceException("Reading from response stream failed", e);
+        }
+    }
+
+    private Batch readBatch() throws IOException {
+        int rowCount = readVarInt();
+        Batch batch = new Batch(rowCount);
+        byte[] bitmap = new byte[(rowCount + 7) / 8];
+        for (int col = 0; col < types.length; col++) {
+            in.readFully(bitmap);
+            boolean[] nulls = new boolean[rowCount];
+            for (int row = 0; row < rowCount; row++) {
+                nulls[row] = (bitmap[row >> 3] & (1 << (row & 7))) != 0;
+            }
+            batch.nulls[col] = nulls;
+            switch (types[col]) {
+                case LONG:
+                case DATE:
+                    long[] longs = new long[rowCount];
+                    for (int row = 0; row < rowCount; row++) {
+                        if (!nulls[row]) {
+                            longs[row] = unZigZag(readVarLong());
+                        }
+                    }
+                    batch.longs[col] = longs;
+                    break;
+                case DOUBLE:
+                    double[] doubles = new double[rowCount];
+                    for (int row = 0; row < rowCount; row++) {
+                        if (!nulls[row]) {
+                            doubles[row] = in.readDouble();
+                        }
+                    }
+                    batch.doubles[col] = doubles;
+                    break;
+                case BOOLEAN:
+                    boolean[] booleans = new boolean[rowCount];
+                    for (int row = 0; row < rowCount; row++) {
+                        if (!nulls[row]) {
+                            booleans[row] = in.readBoolean();
+                        }
+                    }
+                    batch.booleans[col] = booleans;
+                    break;
+                case STRING:
+                    readStrings(batch, col, nulls);
+                    break;
+                default:
+                    throw new ServiceException("Unknown column type: " + types[col]);
+            }
+        }
+        return batch;
+    }
+
+    private void readStrings(Batch batch, int col, boolean[] nulls) throws IOException {
+        List<String> dictionary = dictionaries.get(col);
+        if (in.readBoolean()) {
+            // The dictionary may still be referred to by earlier batches, so replace it.
+            dictionary = new ArrayList<String>();
+            dictionaries.set(col, dictionary);
+        }
+        int newEntries = readVarInt();
+        for (int i = 0; i < newEntries; i++) {
+            dictionary.add(readString());
+        }
+        int[] refs = new int[nulls.length];
+        for (int row = 0; row < nulls.length; row++) {
+            if (!nulls[row]) {
+                refs[row] = readVarInt();
+            }
+        }
+        batch.stringRefs[col] = refs;
+        batch.stringDicts.set(col, dictionary);
+    }
+
+    private void readFooter() throws IOException {
+        finished = true;
+        readVarInt(); // the HTTP status, which has already been checked by the connection.
+        String error = in.readBoolean() ? readString() : null;
+        close();
+        if (error != null) {
+            throw new ServiceException(error);
+        }
+    }
+
+    private void close() {
+        finished = true;
+        try {
+            in.close();
+        } catch (IOException e) {
+            // Ignore - we are done with this stream anyway.
+        }
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    private static long unZigZag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private int readVarInt() throws IOException {
+        return (int) readVarLong();
+    }
+
+    private long readVarLong() throws IOException {
+        long result = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            result |= ((long) (b & 0x7F)) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+
+    private String readString() throws IOException {
+        byte[] bytes = new byte[readVarInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
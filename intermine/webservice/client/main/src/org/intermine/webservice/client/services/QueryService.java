@@ -31,6 +31,7 @@ import org.intermine.webservice.client.core.ContentType;
 import org.intermine.webservice.client.core.Request.RequestType;
 import org.intermine.webservice.client.core.RequestImpl;
 import org.intermine.webservice.client.exceptions.ServiceException;
+import org.intermine.webservice.client.results.ColumnarResultSet;
 import org.intermine.webservice.client.results.JSONResult;
 import org.intermine.webservice.client.results.Page;
 import org.intermine.webservice.client.results.RowResultSet;
@@ -400,6 +401,24 @@ public class QueryService extends AbstractQueryService<PathQuery>
         return getRows(request, views);
     }
 
+    /**
+     * Get results for a query in the compact columnar binary format.
+     *
+     * This is the most efficient way to retrieve large result sets, as values are
+     * transferred with their types and read in batches without parsing text.
+     *
+     * @param query The query to run.
+     * @param page The subsection of the result set to retrieve.
+     * @return A result set to read the batches of results from.
+     */
+    public ColumnarResultSet getColumnarResults(PathQuery query, Page page) {
+        QueryRequest request = new QueryRequest(RequestType.POST, getUrl(),
+                ContentType.APPLICATION_COLUMNAR);
+        request.setPage(page);
+        request.setQueryXml(query.toXml(PathQuery.USERPROFILE_VERSION));
+        return new ColumnarResultSet(executeRequest(request));
+    }
+
     /**
      * Get a summary for the values in column of a query.
      *
@@ -0,0 +1,203 @@
+package org.intermine.webservice.client.results;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+import org.intermine.webservice.client.exceptions.ServiceException;
+import org.intermine.webservice.server.output.ColumnarOutput;
+
+public class ColumnarResultSetTest extends TestCase {
+
+    private final List<String> views = Arrays.asList(
+        "Employee.age",
+        "Employee.fullTime",
+        "Employee.name",
+        "Employee.department.name",
+        "Employee.salary",
+        "Employee.start"
+        );
+
+    private final List<String> types = Arrays.asList(
+        "int",
+        "boolean",
+        "java.lang.String",
+        "java.lang.String",
+        "java.lang.Double",
+        "java.util.Date"
+        );
+
+    private ByteArrayOutputStream bytes;
+    private ColumnarOutput output;
+
+    public ColumnarResultSetTest(String name) {
+        super(name);
+    }
+
+    @Override
+    public void setUp() {
+        bytes = new ByteArrayOutputStream();
+        // Use a small batch size so that results span several batches.
+        output = new ColumnarOutput(bytes, 3);
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put(ColumnarOutput.KEY_VIEWS, views);
+        attributes.put(ColumnarOutput.KEY_COLUMN_TYPES, types);
+        output.setHeaderAttributes(attributes);
+    }
+
+    private ColumnarResultSet read() {
+        return new ColumnarResultSet(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    private void addRows(int n) {
+        for (int i = 0; i < n; i++) {
+            List<Object> row = new ArrayList<Object>();
+            row.add(Integer.valueOf(i - 2));
+            row.add(Boolean.valueOf(i % 2 == 0));
+            row.add("Employee" + i);
+            row.add((i % 4 == 3) ? null : "Department" + (i % 2));
+            row.add(Double.valueOf(i * 1.5));
+            row.add(new Date(1000000L * i));
+            output.addResultRow(row);
+        }
+    }
+
+    public void testGetRowsAsLists() {
+        addRows(10);
+        output.flush();
+        ColumnarResultSet results = read();
+        assertEquals(views, results.getViews());
+        assertEquals(ColumnarResultSet.LONG, results.getColumnType(0));
+        assertEquals(ColumnarResultSet.STRING, results.getColumnType(2));
+        List<List<Object>> rows = results.getRowsAsLists();
+        assertEquals(10, rows.size());
+        assertEquals(Long.valueOf(-2), rows.get(0).get(0));
+        assertEquals(Boolean.TRUE, rows.get(0).get(1));
+        assertEquals("Employee7", rows.get(7).get(2));
+        assertEquals("Department1", rows.get(5).get(3));
+        assertNull(rows.get(3).get(3));
+        assertNull(rows.get(7).get(3));
+        assertEquals(Double.valueOf(13.5), rows.get(9).get(4));
+        assertEquals(new Date(4000000L), rows.get(4).get(5));
+    }
+
+    public void testBatches() {
+        addRows(7);
+        output.flush();
+        ColumnarResultSet results = read();
+        int total = 0;
+        long ageSum = 0;
+        ColumnarResultSet.Batch batch;
+        while ((batch = results.nextBatch()) != null) {
+            assertTrue(batch.getRowCount() <= 3);
+            for (int row = 0; row < batch.getRowCount(); row++) {
+                ageSum += batch.getLong(0, row);
+                assertEquals("Employee" + total, batch.getString(2, row));
+                total++;
+            }
+        }
+        assertEquals(7, total);
+        assertEquals(7L, ageSum);
+    }
+
+    public void testStringRows() {
+        output.addResultItem(Arrays.asList("42", "false", "Tim", "", "", ""));
+        output.flush();
+        Iterator<Map<String, Object>> it = read().getMapIterator();
+        Map<String, Object> row = it.next();
+        assertEquals(Long.valueOf(42), row.get("Employee.age"));
+        assertEquals(Boolean.FALSE, row.get("Employee.fullTime"));
+        assertEquals("Tim", row.get("Employee.name"));
+        assertEquals("", row.get("Employee.department.name"));
+        assertNull(row.get("Employee.salary"));
+        assertFalse(it.hasNext());
+    }
+
+    public void testStringDatesInSeveralThreads() throws Exception {
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        ByteArrayOutputStream threadBytes = new ByteArrayOutputStream();
+                        ColumnarOutput threadOutput = new ColumnarOutput(threadBytes, 50);
+                        Map<String, Object> attributes = new HashMap<String, Object>();
+                        attributes.put(ColumnarOutput.KEY_VIEWS, views);
+                        attributes.put(ColumnarOutput.KEY_COLUMN_TYPES, types);
+                        threadOutput.setHeaderAttributes(attributes);
+                        for (int i = 0; i < 500; i++) {
+                            String day = String.format("2013-%02d-%02d", 1 + (i + offset) % 12,
+                                    1 + i % 28);
+                            threadOutput.addResultItem(Arrays.asList("1", "true", day, "", "",
+                                        day));
+                        }
+                        threadOutput.flush();
+                        Iterator<Map<String, Object>> it = new ColumnarResultSet(
+                                new ByteArrayInputStream(threadBytes.toByteArray()))
+                            .getMapIterator();
+                        DateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+                        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+                        while (it.hasNext()) {
+                            Map<String, Object> row = it.next();
+                            assertEquals(format.parse((String) row.get("Employee.name")),
+                                    row.get("Employee.start"));
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), failures);
+    }
+
+    public void testError() {
+        addRows(2);
+        output.setError("Something went wrong", 500);
+        output.flush();
+        ColumnarResultSet results = read();
+        assertNotNull(results.nextBatch());
+        try {
+            results.nextBatch();
+            fail("Expected an exception");
+        } catch (ServiceException e) {
+            assertEquals("Something went wrong", e.getMessage());
+        }
+    }
+
+    public void testTruncated() {
+        addRows(5);
+        output.flush();
+        byte[] all = bytes.toByteArray();
+        ColumnarResultSet results = new ColumnarResultSet(
+                new ByteArrayInputStream(Arrays.copyOf(all, all.length - 10)));
+        try {
+            results.getRowsAsLists();
+            fail("Expected an exception");
+        } catch (ServiceException e) {
+            // expected
+        }
+    }
+}
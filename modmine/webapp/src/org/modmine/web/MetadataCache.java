@@ -91,6 +91,8 @@ public final class MetadataCache
     private static Properties metadataProperties = null;
 
     private static long lastTrackCacheRefresh = 0;
+    private static Thread primingThread = null;
+    private static volatile boolean ready = false;
     private static final long TWO_HOUR = 7200000;
 
     // hardcoded (sigh) categories descriptions, to be able to pass them to the website
@@ -168,6 +170,77 @@ public final class MetadataCache
     private MetadataCache() {
     }
 
+    /**
+     * Fill all the caches in a background thread, so that the first users after a release don't
+     * wait for them to be filled.  Does nothing if the caches are already being filled.
+     *
+     * @param os the production objectStore
+     */
+    public static synchronized void startPriming(final ObjectStore os) {
+        if (primingThread != null) {
+            return;
+        }
+        primingThread = new Thread(new Runnable() {
+            public void run() {
+                prime(os);
+            }
+        }, "MetadataCache priming");
+        primingThread.setDaemon(true);
+        primingThread.start();
+    }
+
+    /**
+     * Fill all the caches.  Everything that CreateModMineMetaDataCache stored in the database is
+     * read in bulk, and the caches that still need queries are filled one after another.
+     *
+     * @param os the production objectStore
+     */
+    public static void prime(ObjectStore os) {
+        long startTime = System.currentTimeMillis();
+        try {
+            if (!isStoredCacheCurrent(os)) {
+                LOG.warn("The stored modMine metadata cache is missing or out of date, run the"
+                        + " modmine-metadata-cache postprocess to speed up filling the caches");
+            }
+            getExperiments(os);
+            getProjectExperiments(os);
+            getCategoryExperiments(os);
+            getSubmissionFeatureExpressionLevelCounts(os);
+            getExperimentFeatureExpressionLevelCounts(os);
+            getSubmissionExpressionLevelCounts(os);
+            getSubmissionFiles(os);
+            getLocatedFeatureTypes(os);
+            getUnlocatedFeatureTypes(os);
+            getSequencedFeatureTypes(os);
+            getSubFileSourceCounts(os);
+            getRepositoryEntries(os);
+            getExperimentRepositoryCount(os);
+            synchronized (MetadataCache.class) {
+                if (submissionIdCache == null) {
+                    readSubmissionIds(os);
+                }
+                if (submissionFeatureCounts == null) {
+                    readSubmissionFeatureCounts(os);
+                }
+                fetchGBrowseTracks();
+            }
+            ready = true;
+            LOG.info("Primed all modMine metadata caches, took: "
+                    + (System.currentTimeMillis() - startTime) + "ms");
+        } catch (RuntimeException e) {
+            LOG.error("Failed to prime modMine metadata caches, they will be filled on demand", e);
+        }
+    }
+
+    /**
+     * Return true once all the caches have been filled by prime().
+     *
+     * @return true if the caches are ready
+     */
+    public static boolean isReady() {
+        return ready;
+    }
+
     // TODO check for duplication of queries
 
     /**
@@ -1116,6 +1189,21 @@ public final class MetadataCache
         return fixed;
     }
 
+    /**
+     * Return true if the cache stored by CreateModMineMetaDataCache has the values this version
+     * of the webapp expects, otherwise they are queried for here.
+     */
+    private static boolean isStoredCacheCurrent(ObjectStore os) {
+        try {
+            Properties props = getProperties(os);
+            return ModMineCacheKeys.CURRENT_CACHE_FORMAT_VERSION.equals(
+                    props.getProperty(ModMineCacheKeys.CACHE_FORMAT_VERSION));
+        } catch (Exception e) {
+            LOG.warn("Failed to read the stored modMine metadata cache", e);
+            return false;
+        }
+    }
+
     private static Properties readProperties(ObjectStore os)
         throws SQLException, IOException {
         Database db = ((ObjectStoreInterMineImpl) os).getDatabase();
@@ -1161,6 +1249,17 @@ public final class MetadataCache
         long startTime = System.currentTimeMillis();
         submissionIdCache = new HashMap<String, Integer>();
 
+        if (isStoredCacheCurrent(os)) {
+            Properties props = extractProperties(os, ModMineCacheKeys.SUB_ID);
+            for (Object key : props.keySet()) {
+                submissionIdCache.put((String) key, Integer.valueOf((String) props.get(key)));
+            }
+            long timeTaken = System.currentTimeMillis() - startTime;
+            LOG.info("Read submissions cache, took: " + timeTaken + "ms size = "
+                    + submissionIdCache.size());
+            return;
+        }
+
         Query q = new Query();
         q.setDistinct(false);
         QueryClass qcSub = new QueryClass(Submission.class);
@@ -1374,6 +1473,27 @@ public final class MetadataCache
     private static void readSubmissionRepositoryEntries(ObjectStore os) {
         //
         long startTime = System.currentTimeMillis();
+        if (isStoredCacheCurrent(os)) {
+            submissionRepositedCache = new HashMap<String, List<String[]>>();
+            Properties props = extractProperties(os, ModMineCacheKeys.SUB_REPOSITORY_ENTRIES);
+            for (Object key : props.keySet()) {
+                List<String[]> subRep = new ArrayList<String[]>();
+                for (String line : ((String) props.get(key)).split("\n")) {
+                    String[] thisRecord = line.split("\t", -1);
+                    for (int i = 0; i < thisRecord.length; i++) {
+                        if (thisRecord[i].length() == 0) {
+                            thisRecord[i] = null;
+                        }
+                    }
+                    subRep.add(thisRecord);
+                }
+                submissionRepositedCache.put((String) key, subRep);
+            }
+            long timeTaken = System.currentTimeMillis() - startTime;
+            LOG.info("Read Repository entries cache, took: " + timeTaken
+                    + "ms size = " + submissionRepositedCache.size());
+            return;
+        }
         try {
             Query q = new Query();
             QueryClass qcSubmission = new QueryClass(Submission.class);
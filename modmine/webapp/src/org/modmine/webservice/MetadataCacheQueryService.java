@@ -57,6 +57,7 @@ public class MetadataCacheQueryService
         tempMap.put("gbrowse_base_url", "getGBrowseBaseURL");
         tempMap.put("test", "testWebservice");
         tempMap.put("catexp.test", "testWebservice");
+        tempMap.put("status", "getStatus");
         RESOURCE_METHOD_MAP = Collections.unmodifiableMap(tempMap);
     }
 
@@ -217,6 +218,16 @@ public class MetadataCacheQueryService
         return "Resource available: /" + this.resourcePath.replaceAll("\\.", "/");
     }
 
+    @SuppressWarnings("unused")
+    /**
+     * return whether the metadata caches have been filled since the webapp started
+     */
+    private String getStatus() {
+        Map<String, Object> statusMap = new LinkedHashMap<String, Object>();
+        statusMap.put("ready", MetadataCache.isReady());
+        return new JSONObject(statusMap).toString();
+    }
+
     @SuppressWarnings("unused")
     /**
      * return webapp path, e.g. modminepreview
@@ -18,6 +18,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
+import org.intermine.api.InterMineAPI;
+import org.intermine.web.logic.session.SessionMethods;
+import org.modmine.web.MetadataCache;
 
 /**
  * A servlet to hand off to the modMine MetadataCache query service.
@@ -29,13 +32,27 @@ public class MetadataCacheQueryServlet extends HttpServlet
 {
     private static final long serialVersionUID = 1L;
 
-    @SuppressWarnings("unused")
     private static final Logger LOG = Logger
             .getLogger(MetadataCacheQueryServlet.class);
 
     private static final String URL_PATTERN = "/service/query/metadatacache";
     private static final int URL_PATTERN_LENGTH = URL_PATTERN.length(); // length = 28
 
+    /**
+     * Start filling the modMine metadata caches in the background.  This servlet is loaded after
+     * the struts servlet, so the InterMineAPI has already been created.
+     * {@inheritDoc}
+     */
+    @Override
+    public void init() throws ServletException {
+        InterMineAPI im = SessionMethods.getInterMineAPI(getServletContext());
+        if (im == null) {
+            LOG.warn("No InterMineAPI found, modMine metadata caches will be filled on demand");
+        } else {
+            MetadataCache.startPriming(im.getObjectStore());
+        }
+    }
+
     /**
      * {@inheritDoc}
      */